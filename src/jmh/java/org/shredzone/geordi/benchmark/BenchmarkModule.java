@@ -0,0 +1,229 @@
+/*
+ * geordi
+ *
+ * Copyright (C) 2020 Richard "Shred" Körber
+ *   https://codeberg.org/shred/geordi
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.
+ */
+package org.shredzone.geordi.benchmark;
+
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.List;
+
+import com.google.inject.AbstractModule;
+import com.google.inject.Guice;
+import com.google.inject.Injector;
+import com.google.inject.multibindings.MapBinder;
+import org.jdbi.v3.core.Jdbi;
+import org.json.JSONObject;
+import org.shredzone.geordi.data.Sample;
+import org.shredzone.geordi.device.Device;
+import org.shredzone.geordi.sensor.Sensor;
+import org.shredzone.geordi.service.CompactingService;
+import org.shredzone.geordi.service.CompactingServiceImpl;
+import org.shredzone.geordi.service.DatabaseService;
+import org.shredzone.geordi.service.DatabaseServiceImpl;
+import org.shredzone.geordi.service.FreshnessService;
+import org.shredzone.geordi.service.FreshnessServiceImpl;
+import org.shredzone.geordi.service.IngestService;
+import org.shredzone.geordi.service.IngestSink;
+import org.shredzone.geordi.service.MetricsService;
+import org.shredzone.geordi.service.MetricsServiceImpl;
+import org.shredzone.geordi.service.ResponseCacheService;
+
+/**
+ * Guice module for the benchmarks. Devices are served by a
+ * {@link FixtureResponseCacheService}, ingested samples are discarded, and the database
+ * is replaced by a JDBC connection that accepts all statements without executing them.
+ */
+public class BenchmarkModule extends AbstractModule {
+
+    private final FixtureResponseCacheService responseCacheService = new FixtureResponseCacheService();
+    private final String valueType;
+
+    private BenchmarkModule(String valueType) {
+        this.valueType = valueType;
+    }
+
+    /**
+     * Creates an {@link Injector} with a new {@link BenchmarkModule}.
+     */
+    public static Injector createInjector() {
+        return createInjector("numeric");
+    }
+
+    /**
+     * Creates an {@link Injector} with a new {@link BenchmarkModule}.
+     *
+     * @param valueType
+     *         SQL type of the sample value column that is reported by the database
+     */
+    public static Injector createInjector(String valueType) {
+        return Guice.createInjector(new BenchmarkModule(valueType));
+    }
+
+    /**
+     * Creates a prepared {@link Device}.
+     *
+     * @param injector
+     *         {@link Injector} of a {@link BenchmarkModule}
+     * @param type
+     *         {@link Device} implementation
+     * @param config
+     *         Device configuration
+     * @param sensorConfigs
+     *         Configurations of the device's sensors
+     * @return Prepared {@link Device}
+     */
+    public static <T extends Device> T createDevice(Injector injector, Class<T> type,
+                JSONObject config, List<JSONObject> sensorConfigs) {
+        T device = injector.getInstance(type);
+        device.setId(1);
+        device.setName("benchmark");
+        device.setConfig(config);
+
+        Sensor[] sensors = new Sensor[sensorConfigs.size()];
+        for (int ix = 0; ix < sensors.length; ix++) {
+            sensors[ix] = new Sensor();
+            sensors[ix].setId(ix + 1);
+            sensors[ix].setName("sensor " + (ix + 1));
+            sensors[ix].setConfig(sensorConfigs.get(ix));
+        }
+        device.setSensors(Arrays.asList(sensors));
+
+        device.prepare();
+        return device;
+    }
+
+    @Override
+    protected void configure() {
+        bind(DatabaseService.class).to(DatabaseServiceImpl.class);
+        bind(CompactingService.class).to(CompactingServiceImpl.class);
+        bind(MetricsService.class).to(MetricsServiceImpl.class);
+        bind(FreshnessService.class).to(FreshnessServiceImpl.class);
+        bind(ResponseCacheService.class).toInstance(responseCacheService);
+        bind(FixtureResponseCacheService.class).toInstance(responseCacheService);
+        bind(IngestService.class).toInstance(new DiscardingIngestService());
+        bind(Jdbi.class).toInstance(Jdbi.create(this::openConnection));
+
+        MapBinder.newMapBinder(binder(), String.class, Device.class);
+    }
+
+    /**
+     * Opens a JDBC {@link Connection} that accepts all statements, but does not execute
+     * them. All queries return a single row with the type of the sample value column.
+     */
+    private Connection openConnection() {
+        InvocationHandler resultSet = new InvocationHandler() {
+            private boolean consumed;
+
+            @Override
+            public Object invoke(Object proxy, Method method, Object[] args) {
+                switch (method.getName()) {
+                    case "next":
+                        boolean hasNext = !consumed;
+                        consumed = true;
+                        return hasNext;
+                    case "getString":
+                        return valueType;
+                    default:
+                        return defaultValue(method.getReturnType());
+                }
+            }
+        };
+
+        InvocationHandler statement = (proxy, method, args) -> {
+            switch (method.getName()) {
+                case "executeBatch":
+                    return new int[0];
+                case "execute":
+                    return true;
+                case "executeQuery":
+                case "getResultSet":
+                    return Proxy.newProxyInstance(getClass().getClassLoader(),
+                            new Class<?>[] {ResultSet.class}, resultSet);
+                default:
+                    return defaultValue(method.getReturnType());
+            }
+        };
+
+        InvocationHandler connection = (proxy, method, args) -> {
+            switch (method.getName()) {
+                case "prepareStatement":
+                    return Proxy.newProxyInstance(getClass().getClassLoader(),
+                            new Class<?>[] {PreparedStatement.class}, statement);
+                case "getAutoCommit":
+                    return true;
+                default:
+                    return defaultValue(method.getReturnType());
+            }
+        };
+
+        return (Connection) Proxy.newProxyInstance(getClass().getClassLoader(),
+                new Class<?>[] {Connection.class}, connection);
+    }
+
+    private static Object defaultValue(Class<?> type) {
+        if (type == boolean.class) {
+            return false;
+        } else if (type == int.class) {
+            return 0;
+        } else if (type == long.class) {
+            return 0L;
+        }
+        return null;
+    }
+
+    /**
+     * An {@link IngestService} that discards all samples.
+     */
+    private static class DiscardingIngestService implements IngestService {
+        @Override
+        public void ingest(Collection<Sample> samples) {
+            // discard
+        }
+
+        @Override
+        public IngestSink open() {
+            return new IngestSink() {
+                private int sampleCount;
+
+                @Override
+                public void accept(Sample sample) {
+                    sampleCount++;
+                }
+
+                @Override
+                public int getSampleCount() {
+                    return sampleCount;
+                }
+
+                @Override
+                public long getStoreNanos() {
+                    return 0L;
+                }
+
+                @Override
+                public void close() {
+                    // discard
+                }
+            };
+        }
+    }
+
+}
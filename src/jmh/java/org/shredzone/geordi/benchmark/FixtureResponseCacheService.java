@@ -0,0 +1,78 @@
+/*
+ * geordi
+ *
+ * Copyright (C) 2020 Richard "Shred" Körber
+ *   https://codeberg.org/shred/geordi
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.
+ */
+package org.shredzone.geordi.benchmark;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.time.Duration;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.shredzone.geordi.data.Response;
+import org.shredzone.geordi.service.ResponseCacheService;
+
+/**
+ * A {@link ResponseCacheService} that serves fixtures instead of connecting to the
+ * devices. Each fetch parses the fixture and returns a new response version, so devices
+ * never skip a poll because of an unchanged payload.
+ */
+public class FixtureResponseCacheService implements ResponseCacheService {
+
+    private final Map<String, byte[]> fixtures = new ConcurrentHashMap<>();
+    private final AtomicLong versions = new AtomicLong();
+
+    /**
+     * Sets the fixture that is returned for a key.
+     *
+     * @param key
+     *         Cache key, as used by the device
+     * @param body
+     *         Response body
+     */
+    public void put(String key, byte[] body) {
+        fixtures.put(key, body);
+    }
+
+    @Override
+    public <T> Response<T> fetch(String key, Duration ttl, Fetcher fetcher, BodyParser<T> parser)
+            throws IOException {
+        byte[] body = fixtures.get(key);
+        if (body == null) {
+            return new Response<>(404, null, 0L);
+        }
+        try (InputStream in = new ByteArrayInputStream(body)) {
+            return new Response<>(200, parser.parse(in), versions.incrementAndGet());
+        }
+    }
+
+    @Override
+    public long getFetchCount() {
+        return 0L;
+    }
+
+    @Override
+    public long getSharedHitCount() {
+        return 0L;
+    }
+
+    @Override
+    public long getUnchangedCount() {
+        return 0L;
+    }
+
+}
@@ -0,0 +1,458 @@
+/*
+ * geordi
+ *
+ * Copyright (C) 2020 Richard "Shred" Körber
+ *   https://codeberg.org/shred/geordi
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.
+ */
+package org.shredzone.geordi.benchmark;
+
+import static java.nio.charset.StandardCharsets.ISO_8859_1;
+import static java.nio.charset.StandardCharsets.UTF_8;
+
+import java.util.Locale;
+import java.util.Random;
+
+/**
+ * Generates device payloads for the benchmarks.
+ * <p>
+ * The payloads follow the structure of responses that were recorded from real devices,
+ * but are scaled to the requested size. A fixed random seed is used, so all runs of a
+ * benchmark operate on the same data.
+ */
+public final class Fixtures {
+
+    private static final String[] CCU2_TYPES = {
+            "TEMPERATURE", "HUMIDITY", "LOWBAT", "UNREACH", "RSSI_DEVICE"
+    };
+
+    private static final String[] DUSTY_TYPES = {
+            "SDS_P1", "SDS_P2", "BME280_temperature", "BME280_pressure", "BME280_humidity",
+            "BMP_temperature", "humidity", "samples", "min_micro", "max_micro", "interval",
+            "signal"
+    };
+
+    private static final String[] KAMINARI_KEYS = {
+            "noiseFloorLevel", "energy", "distance"
+    };
+
+    private Fixtures() {
+        // utility class without constructor
+    }
+
+    /**
+     * Returns the ise_id of a CCU2 datapoint in {@link #ccu2StateList(int)}.
+     *
+     * @param device
+     *         Device index
+     * @param channel
+     *         Channel index, 0..3
+     * @param type
+     *         Datapoint index, 0..4
+     */
+    public static int ccu2DatapointId(int device, int channel, int type) {
+        return ccu2ChannelId(device, channel) * 10 + type + 1;
+    }
+
+    /**
+     * Returns the ise_id of a CCU2 channel in {@link #ccu2StateList(int)}.
+     */
+    public static int ccu2ChannelId(int device, int channel) {
+        return ccu2DeviceId(device) * 10 + channel + 1;
+    }
+
+    /**
+     * Returns the ise_id of a CCU2 device in {@link #ccu2StateList(int)}.
+     */
+    public static int ccu2DeviceId(int device) {
+        return 1000 + device;
+    }
+
+    /**
+     * Generates the response of the CCU2 XML-API {@code statelist.cgi}.
+     *
+     * @param devices
+     *         Number of devices, each with 4 channels of 5 datapoints
+     * @return Payload, ISO-8859-1 encoded
+     */
+    public static byte[] ccu2StateList(int devices) {
+        return ccu2StateList(devices, devices, 1600000000L);
+    }
+
+    /**
+     * Generates the response of the CCU2 XML-API {@code statelist.cgi}.
+     *
+     * @param devices
+     *         Number of devices, each with 4 channels of 5 datapoints
+     * @param seed
+     *         Random seed of the datapoint values
+     * @param timestamp
+     *         Timestamp of all datapoints, in epoch seconds
+     * @return Payload, ISO-8859-1 encoded
+     */
+    public static byte[] ccu2StateList(int devices, long seed, long timestamp) {
+        Random rnd = new Random(seed);
+        StringBuilder sb = new StringBuilder(devices * 2500);
+        sb.append("<?xml version=\"1.0\" encoding=\"ISO-8859-1\" ?><stateList>");
+        for (int dev = 0; dev < devices; dev++) {
+            String address = String.format("NEQ%07d", dev);
+            sb.append("<device name=\"Thermostat ").append(dev)
+                    .append("\" ise_id=\"").append(ccu2DeviceId(dev))
+                    .append("\" unreach=\"false\" config_pending=\"false\">");
+            for (int ch = 0; ch < 4; ch++) {
+                sb.append("<channel name=\"Thermostat ").append(dev).append(':').append(ch)
+                        .append("\" ise_id=\"").append(ccu2ChannelId(dev, ch))
+                        .append("\" index=\"").append(ch)
+                        .append("\" visible=\"true\" operate=\"true\">");
+                for (int dp = 0; dp < CCU2_TYPES.length; dp++) {
+                    sb.append("<datapoint name=\"BidCos-RF.").append(address).append(':').append(ch)
+                            .append('.').append(CCU2_TYPES[dp])
+                            .append("\" type=\"").append(CCU2_TYPES[dp])
+                            .append("\" ise_id=\"").append(ccu2DatapointId(dev, ch, dp))
+                            .append("\" value=\"").append(ccu2Value(rnd, dp))
+                            .append("\" valuetype=\"4\" valueunit=\"\" timestamp=\"")
+                            .append(timestamp)
+                            .append("\" operations=\"5\"/>");
+                }
+                sb.append("</channel>");
+            }
+            sb.append("</device>");
+        }
+        sb.append("</stateList>");
+        return sb.toString().getBytes(ISO_8859_1);
+    }
+
+    private static String ccu2Value(Random rnd, int type) {
+        switch (type) {
+            case 0: return decimal(15.0 + rnd.nextDouble() * 10.0, 1);
+            case 1: return Integer.toString(30 + rnd.nextInt(50));
+            case 2: return rnd.nextInt(20) == 0 ? "true" : "false";
+            case 3: return "false";
+            default: return Integer.toString(-90 + rnd.nextInt(50));
+        }
+    }
+
+    /**
+     * Returns the AIN of a device in {@link #avmDeviceList(int)}.
+     */
+    public static String avmAin(int device) {
+        return String.format("08761 %07d", device);
+    }
+
+    /**
+     * Generates the response of the AVM AHA interface {@code getdevicelistinfos}.
+     *
+     * @param devices
+     *         Number of devices, alternating between switchable outlets and radiator
+     *         thermostats
+     * @return Payload, UTF-8 encoded
+     */
+    public static byte[] avmDeviceList(int devices) {
+        return avmDeviceList(devices, devices);
+    }
+
+    /**
+     * Generates the response of the AVM AHA interface {@code getdevicelistinfos}.
+     *
+     * @param devices
+     *         Number of devices, alternating between switchable outlets and radiator
+     *         thermostats
+     * @param seed
+     *         Random seed of the device values
+     * @return Payload, UTF-8 encoded
+     */
+    public static byte[] avmDeviceList(int devices, long seed) {
+        Random rnd = new Random(seed);
+        StringBuilder sb = new StringBuilder(devices * 700);
+        sb.append("<devicelist version=\"1\" fwversion=\"7.21\">");
+        for (int dev = 0; dev < devices; dev++) {
+            boolean outlet = dev % 2 == 0;
+            sb.append("<device identifier=\"").append(avmAin(dev))
+                    .append("\" id=\"").append(16 + dev)
+                    .append("\" functionbitmask=\"").append(outlet ? 35712 : 320)
+                    .append("\" fwversion=\"04.17\" manufacturer=\"AVM\" productname=\"")
+                    .append(outlet ? "FRITZ!DECT 200" : "FRITZ!DECT 301").append("\">");
+            sb.append("<present>1</present><txbusy>0</txbusy><name>Device ").append(dev).append("</name>");
+            if (outlet) {
+                sb.append("<switch><state>1</state><mode>manuell</mode><lock>0</lock><devicelock>0</devicelock></switch>");
+                sb.append("<simpleonoff><state>1</state></simpleonoff>");
+                sb.append("<powermeter><voltage>").append(228000 + rnd.nextInt(4000))
+                        .append("</voltage><power>").append(rnd.nextInt(200000))
+                        .append("</power><energy>").append(rnd.nextInt(1000000))
+                        .append("</energy></powermeter>");
+            } else {
+                sb.append("<battery>").append(rnd.nextInt(100)).append("</battery><batterylow>0</batterylow>");
+            }
+            sb.append("<temperature><celsius>").append(180 + rnd.nextInt(60))
+                    .append("</celsius><offset>0</offset></temperature>");
+            if (!outlet) {
+                sb.append("<hkr><tist>").append(36 + rnd.nextInt(10))
+                        .append("</tist><tsoll>").append(40 + rnd.nextInt(6))
+                        .append("</tsoll><absenk>32</absenk><komfort>42</komfort><lock>0</lock>")
+                        .append("<devicelock>0</devicelock><errorcode>0</errorcode>")
+                        .append("<windowopenactiv>0</windowopenactiv><boostactive>0</boostactive>")
+                        .append("<batterylow>0</batterylow><battery>80</battery>")
+                        .append("<nextchange><endperiod>1600010000</endperiod><tchange>32</tchange></nextchange>")
+                        .append("<summeractive>0</summeractive><holidayactive>0</holidayactive></hkr>");
+            }
+            sb.append("</device>");
+        }
+        sb.append("</devicelist>");
+        return sb.toString().getBytes(UTF_8);
+    }
+
+    /**
+     * Generates the {@code data.json} response of a particulates sensor.
+     *
+     * @return Payload, UTF-8 encoded
+     */
+    public static byte[] dustyData() {
+        return ("{\"software_version\": \"NRZ-2020-129\", \"age\":\"52\", \"measurements\":\"1234\","
+                + " \"uptime\":\"74057\", \"sensordatavalues\":["
+                + "{\"value_type\":\"SDS_P1\",\"value\":\"12.30\"},"
+                + "{\"value_type\":\"SDS_P2\",\"value\":\"7.53\"},"
+                + "{\"value_type\":\"BME280_temperature\",\"value\":\"21.84\"},"
+                + "{\"value_type\":\"BME280_pressure\",\"value\":\"99312.47\"},"
+                + "{\"value_type\":\"BME280_humidity\",\"value\":\"48.62\"},"
+                + "{\"value_type\":\"BMP_temperature\",\"value\":\"21.90\"},"
+                + "{\"value_type\":\"humidity\",\"value\":\"48.60\"},"
+                + "{\"value_type\":\"samples\",\"value\":\"885917\"},"
+                + "{\"value_type\":\"min_micro\",\"value\":\"28\"},"
+                + "{\"value_type\":\"max_micro\",\"value\":\"20217\"},"
+                + "{\"value_type\":\"interval\",\"value\":\"145000\"},"
+                + "{\"value_type\":\"signal\",\"value\":\"-71\"}"
+                + "]}").getBytes(UTF_8);
+    }
+
+    /**
+     * Returns the value type of a value in {@link #dustyData(int, long)}.
+     */
+    public static String dustyValueType(int index) {
+        return index < DUSTY_TYPES.length ? DUSTY_TYPES[index] : "extra_" + index;
+    }
+
+    /**
+     * Generates the {@code data.json} response of a particulates sensor, with random
+     * values.
+     *
+     * @param values
+     *         Number of values. If there are more values than a real sensor would
+     *         provide, additional values are added.
+     * @param seed
+     *         Random seed of the values
+     * @return Payload, UTF-8 encoded
+     */
+    public static byte[] dustyData(int values, long seed) {
+        Random rnd = new Random(seed);
+        StringBuilder sb = new StringBuilder(200 + values * 50);
+        sb.append("{\"software_version\": \"NRZ-2020-129\", \"age\":\"").append(rnd.nextInt(150))
+                .append("\", \"sensordatavalues\":[");
+        for (int ix = 0; ix < values; ix++) {
+            sb.append(ix > 0 ? "," : "")
+                    .append("{\"value_type\":\"").append(dustyValueType(ix))
+                    .append("\",\"value\":\"").append(decimal(rnd.nextDouble() * 100, 2))
+                    .append("\"}");
+        }
+        sb.append("]}");
+        return sb.toString().getBytes(UTF_8);
+    }
+
+    /**
+     * Generates the status response of a Pyquaero server.
+     *
+     * @param sensors
+     *         Number of temperature sensors
+     * @return Payload, UTF-8 encoded
+     */
+    public static byte[] aquaeroStatus(int sensors) {
+        return aquaeroStatus(sensors, sensors);
+    }
+
+    /**
+     * Generates the status response of a Pyquaero server.
+     *
+     * @param sensors
+     *         Number of temperature sensors
+     * @param seed
+     *         Random seed of the values
+     * @return Payload, UTF-8 encoded
+     */
+    public static byte[] aquaeroStatus(int sensors, long seed) {
+        Random rnd = new Random(seed);
+        StringBuilder sb = new StringBuilder(1000 + sensors * 200);
+        sb.append("{\"time\":\"2020-09-13T12:26:40\",");
+        sb.append("\"system\":{\"serial\":\"12345-67890\",\"firmware\":2004,\"uptime\":864023,"
+                + "\"total_time\":19288113,\"cpu_temp\":").append(decimal(40 + rnd.nextDouble() * 5, 2))
+                .append(",\"names\":[");
+        for (int ix = 0; ix < sensors; ix++) {
+            sb.append(ix > 0 ? "," : "").append("\"Sensor ").append(ix + 1).append('"');
+        }
+        sb.append("]},\"fans\":[");
+        for (int ix = 0; ix < 4; ix++) {
+            sb.append(ix > 0 ? "," : "")
+                    .append("{\"speed\":").append(600 + rnd.nextInt(900))
+                    .append(",\"voltage\":").append(decimal(7 + rnd.nextDouble() * 5, 2))
+                    .append(",\"current\":").append(decimal(rnd.nextDouble() * 0.2, 3))
+                    .append(",\"power\":").append(decimal(rnd.nextDouble() * 2, 2))
+                    .append(",\"performance\":").append(decimal(rnd.nextDouble() * 100, 1))
+                    .append(",\"torque\":").append(rnd.nextInt(20000))
+                    .append('}');
+        }
+        sb.append("],\"temperatures\":{");
+        String[] groups = {"sensor", "soft", "virtual", "other"};
+        for (int g = 0; g < groups.length; g++) {
+            sb.append(g > 0 ? "," : "").append('"').append(groups[g]).append("\":[");
+            for (int ix = 0; ix < sensors; ix++) {
+                sb.append(ix > 0 ? "," : "")
+                        .append("{\"temp\":").append(decimal(20 + rnd.nextDouble() * 20, 2))
+                        .append(",\"offset\":0.0}");
+            }
+            sb.append(']');
+        }
+        sb.append("},\"flow\":[{\"rate\":").append(decimal(60 + rnd.nextDouble() * 40, 1))
+                .append("}],\"level\":[{\"level\":").append(decimal(rnd.nextDouble() * 100, 1))
+                .append("}]}");
+        return sb.toString().getBytes(UTF_8);
+    }
+
+    /**
+     * Returns the key of a generic value in {@link #kaminariStatus(int, int, long)}.
+     */
+    public static String kaminariKey(int index) {
+        return index < KAMINARI_KEYS.length ? KAMINARI_KEYS[index] : "extra_" + index;
+    }
+
+    /**
+     * Generates the status response of a Kaminari lightning detector.
+     *
+     * @param values
+     *         Number of generic values. If there are more values than a real detector
+     *         would provide, additional values are added.
+     * @param lightnings
+     *         Number of lightning events
+     * @param seed
+     *         Random seed of the values
+     * @return Payload, UTF-8 encoded
+     */
+    public static byte[] kaminariStatus(int values, int lightnings, long seed) {
+        Random rnd = new Random(seed);
+        StringBuilder sb = new StringBuilder(100 + values * 30 + lightnings * 60);
+        sb.append('{');
+        for (int ix = 0; ix < values; ix++) {
+            sb.append('"').append(kaminariKey(ix)).append("\":").append(rnd.nextInt(1000)).append(',');
+        }
+        sb.append("\"lightnings\":[");
+        for (int ix = 0; ix < lightnings; ix++) {
+            sb.append(ix > 0 ? "," : "")
+                    .append("{\"age\":").append(rnd.nextInt(300))
+                    .append(",\"seq\":").append(seed * 100 + ix)
+                    .append(",\"energy\":").append(rnd.nextInt(300000))
+                    .append(",\"distance\":").append(1 + rnd.nextInt(40))
+                    .append('}');
+        }
+        sb.append("]}");
+        return sb.toString().getBytes(UTF_8);
+    }
+
+    /**
+     * Returns the name of a series in {@link #prometheusMetrics(int)}.
+     */
+    public static String prometheusMetric(int family) {
+        return "node_benchmark_metric_" + family + "_total";
+    }
+
+    /**
+     * Generates the response of a Prometheus metrics endpoint, similar to the metrics of
+     * a node exporter.
+     *
+     * @param series
+     *         Number of series, in families of 10 series each
+     * @return Payload, UTF-8 encoded
+     */
+    public static byte[] prometheusMetrics(int series) {
+        Random rnd = new Random(series);
+        StringBuilder sb = new StringBuilder(series * 90);
+        for (int family = 0; family * 10 < series; family++) {
+            String name = prometheusMetric(family);
+            sb.append("# HELP ").append(name).append(" Benchmark counter number ").append(family).append(".\n");
+            sb.append("# TYPE ").append(name).append(" counter\n");
+            for (int ix = 0; ix < 10 && family * 10 + ix < series; ix++) {
+                sb.append(name).append("{cpu=\"").append(ix).append("\",mode=\"idle\"} ")
+                        .append(decimal(rnd.nextDouble() * 1e6, 2)).append('\n');
+            }
+        }
+        return sb.toString().getBytes(UTF_8);
+    }
+
+    /**
+     * Generates InfluxDB line protocol.
+     *
+     * @param lines
+     *         Number of lines
+     * @param sensors
+     *         Number of different sensors the lines are distributed over
+     * @return Payload, UTF-8 encoded
+     */
+    public static byte[] lineProtocol(int lines, int sensors) {
+        Random rnd = new Random(lines);
+        StringBuilder sb = new StringBuilder(lines * 80);
+        long ts = 1600000000000000000L;
+        for (int ix = 0; ix < lines; ix++) {
+            sb.append("climate,room=room").append(ix % sensors)
+                    .append(",floor=1 temperature=").append(decimal(18 + rnd.nextDouble() * 8, 2))
+                    .append(",humidity=").append(decimal(30 + rnd.nextDouble() * 40, 1))
+                    .append(' ').append(ts + ix * 1000000L).append('\n');
+        }
+        return sb.toString().getBytes(UTF_8);
+    }
+
+    /**
+     * Returns the key of a sensor in {@link #pushBatch(int, int, long)}.
+     */
+    public static String pushKey(int index) {
+        return "sensor_" + index;
+    }
+
+    /**
+     * Generates a generic batch payload of the push device. Every other sample carries
+     * an explicit timestamp.
+     *
+     * @param samples
+     *         Number of samples
+     * @param sensors
+     *         Number of sensors the samples are distributed to
+     * @param seed
+     *         Random seed of the values
+     * @return Payload, UTF-8 encoded
+     */
+    public static byte[] pushBatch(int samples, int sensors, long seed) {
+        Random rnd = new Random(seed);
+        StringBuilder sb = new StringBuilder(20 + samples * 80);
+        sb.append("{\"samples\":[");
+        for (int ix = 0; ix < samples; ix++) {
+            sb.append(ix > 0 ? "," : "")
+                    .append("{\"key\":\"").append(pushKey(ix % sensors))
+                    .append("\",\"value\":").append(decimal(rnd.nextDouble() * 100, 2));
+            if (ix % 2 == 0) {
+                sb.append(",\"time\":\"2020-05-08T12:").append(String.format("%02d:%02dZ", ix / 60 % 60, ix % 60))
+                        .append('"');
+            }
+            sb.append('}');
+        }
+        sb.append("]}");
+        return sb.toString().getBytes(UTF_8);
+    }
+
+    private static String decimal(double value, int scale) {
+        return String.format(Locale.ENGLISH, "%." + scale + "f", value);
+    }
+
+}
@@ -0,0 +1,87 @@
+/*
+ * geordi
+ *
+ * Copyright (C) 2020 Richard "Shred" Körber
+ *   https://codeberg.org/shred/geordi
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.
+ */
+package org.shredzone.geordi.data;
+
+import static java.nio.charset.StandardCharsets.US_ASCII;
+
+import java.math.BigDecimal;
+import java.math.RoundingMode;
+import java.nio.ByteBuffer;
+import java.time.Instant;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.shredzone.geordi.sensor.Sensor;
+import org.shredzone.geordi.util.ByteDecimals;
+
+/**
+ * Benchmarks the creation of a {@link Sample} from the different value representations
+ * that are delivered by the devices.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class SampleBenchmark {
+
+    private Sensor sensor;
+    private Instant timestamp;
+    private String text;
+    private ByteBuffer bytes;
+    private double number;
+
+    @Setup
+    public void setup() {
+        sensor = new Sensor();
+        sensor.setId(1);
+        timestamp = Instant.parse("2020-09-13T12:26:40Z");
+        text = "21.84";
+        bytes = ByteBuffer.wrap(text.getBytes(US_ASCII));
+        number = 21.84;
+    }
+
+    @Benchmark
+    public Sample fromString() {
+        return new Sample(sensor, timestamp, new BigDecimal(text));
+    }
+
+    @Benchmark
+    public Sample fromBytes() {
+        return new Sample(sensor, timestamp, ByteDecimals.parseDecimal(bytes, 0, bytes.limit()));
+    }
+
+    @Benchmark
+    public Sample fromDouble() {
+        return new Sample(sensor, timestamp, BigDecimal.valueOf(number).setScale(2, RoundingMode.HALF_UP));
+    }
+
+    @Benchmark
+    public Sample withTimestamp() {
+        return new Sample(sensor, Instant.now(), new BigDecimal(text));
+    }
+
+}
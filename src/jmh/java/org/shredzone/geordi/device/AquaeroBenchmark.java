@@ -0,0 +1,83 @@
+/*
+ * geordi
+ *
+ * Copyright (C) 2020 Richard "Shred" Körber
+ *   https://codeberg.org/shred/geordi
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.
+ */
+package org.shredzone.geordi.device;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import com.google.inject.Injector;
+import org.json.JSONObject;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.shredzone.geordi.benchmark.BenchmarkModule;
+import org.shredzone.geordi.benchmark.FixtureResponseCacheService;
+import org.shredzone.geordi.benchmark.Fixtures;
+import org.shredzone.geordi.data.Sample;
+
+/**
+ * Benchmarks parsing the status of a Pyquaero server and extracting the sensor values.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class AquaeroBenchmark {
+
+    @Param({"8", "64", "512"})
+    private int temperatures;
+
+    private AquaeroDevice device;
+
+    @Setup
+    public void setup() {
+        Injector injector = BenchmarkModule.createInjector();
+        injector.getInstance(FixtureResponseCacheService.class)
+                .put("http://aquaero.benchmark:9500/status", Fixtures.aquaeroStatus(temperatures));
+
+        List<JSONObject> sensors = new ArrayList<>();
+        for (int ix = 0; ix < 4; ix++) {
+            sensors.add(new JSONObject().put("type", "fans").put("index", ix).put("value", "speed"));
+        }
+        for (int ix = 0; ix < 8; ix++) {
+            sensors.add(new JSONObject()
+                    .put("type", "temperatures/sensor")
+                    .put("index", ix * temperatures / 8)
+                    .put("value", "temp"));
+        }
+
+        device = BenchmarkModule.createDevice(injector, AquaeroDevice.class,
+                new JSONObject().put("host", "aquaero.benchmark").put("port", 9500),
+                sensors);
+    }
+
+    @Benchmark
+    public List<Sample> readSensors() {
+        return device.readSensors();
+    }
+
+}
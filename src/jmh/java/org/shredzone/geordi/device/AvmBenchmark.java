@@ -0,0 +1,114 @@
+/*
+ * geordi
+ *
+ * Copyright (C) 2020 Richard "Shred" Körber
+ *   https://codeberg.org/shred/geordi
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.
+ */
+package org.shredzone.geordi.device;
+
+import static java.nio.charset.StandardCharsets.UTF_8;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import com.google.inject.Injector;
+import com.sun.net.httpserver.HttpServer;
+import org.json.JSONObject;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+import org.shredzone.geordi.benchmark.BenchmarkModule;
+import org.shredzone.geordi.benchmark.FixtureResponseCacheService;
+import org.shredzone.geordi.benchmark.Fixtures;
+import org.shredzone.geordi.data.Sample;
+
+/**
+ * Benchmarks parsing an AVM device list and extracting the sensor values.
+ * <p>
+ * A local server answers the login request, which is only sent once. The device list
+ * itself is served from a fixture.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class AvmBenchmark {
+    private static final byte[] SESSION_INFO =
+            "<SessionInfo><SID>0123456789abcdef</SID></SessionInfo>".getBytes(UTF_8);
+
+    @Param({"4", "20", "100"})
+    private int devices;
+
+    private HttpServer server;
+    private AvmDevice device;
+
+    @Setup
+    public void setup() throws IOException {
+        server = HttpServer.create(new InetSocketAddress(InetAddress.getLoopbackAddress(), 0), 0);
+        server.createContext("/login_sid.lua", exchange -> {
+            exchange.sendResponseHeaders(200, SESSION_INFO.length);
+            try (OutputStream out = exchange.getResponseBody()) {
+                out.write(SESSION_INFO);
+            }
+        });
+        server.start();
+        String host = "127.0.0.1:" + server.getAddress().getPort();
+
+        Injector injector = BenchmarkModule.createInjector();
+        injector.getInstance(FixtureResponseCacheService.class)
+                .put("http://" + host + "|benchmark", Fixtures.avmDeviceList(devices));
+
+        List<JSONObject> sensors = new ArrayList<>();
+        for (int dev = 0; dev < devices; dev++) {
+            sensors.add(new JSONObject()
+                    .put("ain", Fixtures.avmAin(dev))
+                    .put("type", dev % 2 == 0 ? "power" : "currentTemperature"));
+            sensors.add(new JSONObject()
+                    .put("ain", Fixtures.avmAin(dev))
+                    .put("type", "temperature"));
+        }
+
+        device = BenchmarkModule.createDevice(injector, AvmDevice.class,
+                new JSONObject()
+                        .put("host", host)
+                        .put("user", "benchmark")
+                        .put("password", "benchmark"),
+                sensors);
+    }
+
+    @TearDown
+    public void tearDown() {
+        server.stop(0);
+    }
+
+    @Benchmark
+    public List<Sample> readSensors() {
+        return device.readSensors();
+    }
+
+}
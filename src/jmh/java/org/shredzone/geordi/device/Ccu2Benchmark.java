@@ -0,0 +1,91 @@
+/*
+ * geordi
+ *
+ * Copyright (C) 2020 Richard "Shred" Körber
+ *   https://codeberg.org/shred/geordi
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.
+ */
+package org.shredzone.geordi.device;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import com.google.inject.Injector;
+import org.json.JSONObject;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.shredzone.geordi.benchmark.BenchmarkModule;
+import org.shredzone.geordi.benchmark.FixtureResponseCacheService;
+import org.shredzone.geordi.benchmark.Fixtures;
+import org.shredzone.geordi.data.Sample;
+
+/**
+ * Benchmarks parsing a CCU2 state list and extracting the sensor values.
+ * <p>
+ * The sensors are spread over the entire state list, so the whole document needs to be
+ * parsed.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class Ccu2Benchmark {
+
+    @Param({"10", "100", "500"})
+    private int devices;
+
+    @Param({"false", "true"})
+    private boolean byName;
+
+    private Ccu2Device device;
+
+    @Setup
+    public void setup() {
+        Injector injector = BenchmarkModule.createInjector();
+        injector.getInstance(FixtureResponseCacheService.class)
+                .put("http://ccu2.benchmark/addons/xmlapi/statelist.cgi", Fixtures.ccu2StateList(devices));
+
+        List<JSONObject> sensors = new ArrayList<>();
+        for (int ix = 1; ix <= 10; ix++) {
+            int dev = ix * devices / 10 - 1;
+            JSONObject config = new JSONObject();
+            if (byName) {
+                config.put("datapointName", String.format("BidCos-RF.NEQ%07d:1.TEMPERATURE", dev));
+            } else {
+                config.put("deviceId", Fixtures.ccu2DeviceId(dev));
+                config.put("channelId", Fixtures.ccu2ChannelId(dev, 1));
+                config.put("datapointId", Fixtures.ccu2DatapointId(dev, 1, 0));
+            }
+            sensors.add(config);
+        }
+
+        device = BenchmarkModule.createDevice(injector, Ccu2Device.class,
+                new JSONObject().put("host", "ccu2.benchmark"), sensors);
+    }
+
+    @Benchmark
+    public List<Sample> readSensors() {
+        return device.readSensors();
+    }
+
+}
@@ -0,0 +1,75 @@
+/*
+ * geordi
+ *
+ * Copyright (C) 2020 Richard "Shred" Körber
+ *   https://codeberg.org/shred/geordi
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.
+ */
+package org.shredzone.geordi.device;
+
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import com.google.inject.Injector;
+import org.json.JSONObject;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.shredzone.geordi.benchmark.BenchmarkModule;
+import org.shredzone.geordi.benchmark.FixtureResponseCacheService;
+import org.shredzone.geordi.benchmark.Fixtures;
+import org.shredzone.geordi.data.Sample;
+
+/**
+ * Benchmarks parsing the JSON data of a particulates sensor and extracting the sensor
+ * values, including the computed relative pressure and dew point.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class DustyBenchmark {
+
+    private DustyDevice device;
+
+    @Setup
+    public void setup() {
+        Injector injector = BenchmarkModule.createInjector();
+        injector.getInstance(FixtureResponseCacheService.class)
+                .put("http://dusty.benchmark/data.json", Fixtures.dustyData());
+
+        device = BenchmarkModule.createDevice(injector, DustyDevice.class,
+                new JSONObject().put("host", "dusty.benchmark"),
+                Arrays.asList(
+                        new JSONObject().put("value_type", "SDS_P1"),
+                        new JSONObject().put("value_type", "SDS_P2"),
+                        new JSONObject().put("value_type", "BME280_temperature"),
+                        new JSONObject().put("value_type", "BME280_pressure").put("divisor", 100).put("height", 120),
+                        new JSONObject().put("value_type", "BMP_temperature").put("dewpoint", true),
+                        new JSONObject().put("value_type", "signal")));
+    }
+
+    @Benchmark
+    public List<Sample> readSensors() {
+        return device.readSensors();
+    }
+
+}
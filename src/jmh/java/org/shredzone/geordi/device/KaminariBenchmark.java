@@ -0,0 +1,80 @@
+/*
+ * geordi
+ *
+ * Copyright (C) 2020 Richard "Shred" Körber
+ *   https://codeberg.org/shred/geordi
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.
+ */
+package org.shredzone.geordi.device;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.concurrent.TimeUnit;
+
+import com.google.inject.Injector;
+import org.json.JSONObject;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+import org.shredzone.geordi.benchmark.BenchmarkModule;
+import org.shredzone.geordi.benchmark.Fixtures;
+
+/**
+ * Benchmarks parsing the status of a Kaminari lightning detector, and emitting a sample
+ * per lightning and sensor. The bursts simulate a thunderstorm close to the detector.
+ * <p>
+ * Only the parser is measured. Kaminari is not polled via the response cache, so the
+ * status is parsed from memory.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class KaminariBenchmark {
+
+    @Param({"0", "16", "512"})
+    private int lightnings;
+
+    private KaminariDevice device;
+    private byte[] payload;
+
+    @Setup
+    public void setup() {
+        Injector injector = BenchmarkModule.createInjector();
+
+        device = BenchmarkModule.createDevice(injector, KaminariDevice.class,
+                new JSONObject().put("host", "kaminari.benchmark"),
+                Arrays.asList(
+                        new JSONObject().put("key", Fixtures.kaminariKey(0)),
+                        new JSONObject().put("lightning_key", "energy"),
+                        new JSONObject().put("lightning_key", "distance")));
+
+        payload = Fixtures.kaminariStatus(3, lightnings, 42L);
+    }
+
+    @Benchmark
+    public Object parseStatus(Blackhole bh) throws IOException {
+        return device.parseStatus(new ByteArrayInputStream(payload), bh::consume);
+    }
+
+}
@@ -0,0 +1,85 @@
+/*
+ * geordi
+ *
+ * Copyright (C) 2020 Richard "Shred" Körber
+ *   https://codeberg.org/shred/geordi
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.
+ */
+package org.shredzone.geordi.device;
+
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import com.google.inject.Injector;
+import org.json.JSONObject;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OperationsPerInvocation;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.shredzone.geordi.benchmark.BenchmarkModule;
+import org.shredzone.geordi.benchmark.Fixtures;
+
+/**
+ * Benchmarks parsing InfluxDB line protocol from a receive buffer. The result is given
+ * per line.
+ * <p>
+ * The queue of the device only has room for a single sample, so all other samples are
+ * dropped. The benchmark measures parsing and sample creation, but not the storage.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class LineProtocolBenchmark {
+    private static final int LINES = 1000;
+
+    private LineProtocolDevice device;
+    private ByteBuffer buffer;
+
+    @Setup
+    public void setup() {
+        Injector injector = BenchmarkModule.createInjector();
+
+        List<JSONObject> sensors = new ArrayList<>();
+        for (int ix = 0; ix < 10; ix++) {
+            sensors.add(new JSONObject()
+                    .put("measurement", "climate")
+                    .put("field", "temperature")
+                    .put("tags", new JSONObject().put("room", "room" + ix)));
+        }
+
+        device = BenchmarkModule.createDevice(injector, LineProtocolDevice.class,
+                new JSONObject().put("port", 8089).put("queueSize", 1),
+                sensors);
+
+        byte[] lines = Fixtures.lineProtocol(LINES, 20);
+        buffer = ByteBuffer.allocateDirect(lines.length);
+        buffer.put(lines).flip();
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(LINES)
+    public int parseLines() {
+        return device.parseLines(buffer, true);
+    }
+
+}
@@ -0,0 +1,81 @@
+/*
+ * geordi
+ *
+ * Copyright (C) 2020 Richard "Shred" Körber
+ *   https://codeberg.org/shred/geordi
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.
+ */
+package org.shredzone.geordi.device;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import com.google.inject.Injector;
+import org.json.JSONObject;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.shredzone.geordi.benchmark.BenchmarkModule;
+import org.shredzone.geordi.benchmark.FixtureResponseCacheService;
+import org.shredzone.geordi.benchmark.Fixtures;
+import org.shredzone.geordi.data.Sample;
+
+/**
+ * Benchmarks scraping a Prometheus metrics endpoint. Ten series are selected from all
+ * over the payload.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class PrometheusBenchmark {
+
+    @Param({"100", "1000", "10000"})
+    private int series;
+
+    private PrometheusDevice device;
+
+    @Setup
+    public void setup() {
+        Injector injector = BenchmarkModule.createInjector();
+        injector.getInstance(FixtureResponseCacheService.class)
+                .put("http://node.benchmark:9100/metrics", Fixtures.prometheusMetrics(series));
+
+        int families = series / 10;
+        List<JSONObject> sensors = new ArrayList<>();
+        for (int ix = 0; ix < 10; ix++) {
+            sensors.add(new JSONObject()
+                    .put("metric", Fixtures.prometheusMetric(ix * families / 10))
+                    .put("labels", new JSONObject().put("cpu", String.valueOf(ix)).put("mode", "idle")));
+        }
+
+        device = BenchmarkModule.createDevice(injector, PrometheusDevice.class,
+                new JSONObject().put("url", "http://node.benchmark:9100/metrics"),
+                sensors);
+    }
+
+    @Benchmark
+    public List<Sample> readSensors() {
+        return device.readSensors();
+    }
+
+}
@@ -0,0 +1,133 @@
+/*
+ * geordi
+ *
+ * Copyright (C) 2020 Richard "Shred" Körber
+ *   https://codeberg.org/shred/geordi
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.
+ */
+package org.shredzone.geordi.device;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.HttpURLConnection;
+import java.net.InetAddress;
+import java.net.ServerSocket;
+import java.net.URL;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import com.google.inject.Injector;
+import org.json.JSONObject;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OperationsPerInvocation;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Threads;
+import org.openjdk.jmh.annotations.Warmup;
+import org.shredzone.geordi.benchmark.BenchmarkModule;
+import org.shredzone.geordi.benchmark.Fixtures;
+
+/**
+ * Benchmarks the throughput of the push device. Payloads are posted via HTTP to a
+ * running {@link PushDevice} by several client threads. The result is given in samples
+ * per second.
+ * <p>
+ * The benchmark measures the HTTP server, parsing and sample creation. The samples are
+ * discarded, so storage is not measured.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Threads(4)
+@Fork(1)
+public class PushBenchmark {
+    private static final int LUFTDATEN_VALUES = 12;
+    private static final int BATCH_SAMPLES = 500;
+    private static final int BATCH_SENSORS = 50;
+
+    private PushDevice device;
+    private URL luftdatenUrl;
+    private URL batchUrl;
+    private byte[] luftdaten;
+    private byte[] batch;
+
+    @Setup
+    public void setup() throws IOException {
+        int port;
+        try (ServerSocket socket = new ServerSocket(0, 0, InetAddress.getLoopbackAddress())) {
+            port = socket.getLocalPort();
+        }
+
+        List<JSONObject> sensors = new ArrayList<>();
+        for (int ix = 0; ix < LUFTDATEN_VALUES; ix++) {
+            sensors.add(new JSONObject().put("value_type", Fixtures.dustyValueType(ix)));
+        }
+        for (int ix = 0; ix < BATCH_SENSORS; ix++) {
+            sensors.add(new JSONObject().put("key", Fixtures.pushKey(ix)));
+        }
+
+        Injector injector = BenchmarkModule.createInjector();
+        device = BenchmarkModule.createDevice(injector, PushDevice.class,
+                new JSONObject().put("port", port).put("threads", 4),
+                sensors);
+        device.start();
+
+        luftdatenUrl = new URL("http://127.0.0.1:" + port + "/luftdaten");
+        batchUrl = new URL("http://127.0.0.1:" + port + "/batch");
+        luftdaten = Fixtures.dustyData(LUFTDATEN_VALUES, 42L);
+        batch = Fixtures.pushBatch(BATCH_SAMPLES, BATCH_SENSORS, 42L);
+    }
+
+    @TearDown
+    public void tearDown() {
+        device.shutdown();
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(LUFTDATEN_VALUES)
+    public int luftdaten() throws IOException {
+        return post(luftdatenUrl, luftdaten);
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(BATCH_SAMPLES)
+    public int batch() throws IOException {
+        return post(batchUrl, batch);
+    }
+
+    private static int post(URL url, byte[] payload) throws IOException {
+        HttpURLConnection conn = (HttpURLConnection) url.openConnection();
+        conn.setRequestMethod("POST");
+        conn.setRequestProperty("Content-Type", "application/json");
+        conn.setFixedLengthStreamingMode(payload.length);
+        conn.setDoOutput(true);
+        try (OutputStream out = conn.getOutputStream()) {
+            out.write(payload);
+        }
+
+        int status = conn.getResponseCode();
+        if (status != HttpURLConnection.HTTP_NO_CONTENT) {
+            throw new IOException("Push failed, HTTP status " + status);
+        }
+        return status;
+    }
+
+}
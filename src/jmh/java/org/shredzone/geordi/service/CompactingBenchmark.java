@@ -0,0 +1,135 @@
+/*
+ * geordi
+ *
+ * Copyright (C) 2020 Richard "Shred" Körber
+ *   https://codeberg.org/shred/geordi
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.
+ */
+package org.shredzone.geordi.service;
+
+import java.math.BigDecimal;
+import java.time.Instant;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.json.JSONObject;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OperationsPerInvocation;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Threads;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+import org.shredzone.geordi.benchmark.BenchmarkModule;
+import org.shredzone.geordi.data.Sample;
+import org.shredzone.geordi.sensor.Sensor;
+
+/**
+ * Benchmarks the {@link CompactingServiceImpl} with the steps that are performed on
+ * ingestion of each sample. The result is given per sample.
+ * <p>
+ * Each thread simulates a device with its own sensors. Most sensor values are
+ * unchanged, as it is the case with sensors that are polled frequently.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class CompactingBenchmark {
+    private static final int SENSORS = 100;
+
+    @Param({"equal", "deadband", "swingingDoor"})
+    private String method;
+
+    private CompactingService compactingService;
+    private final AtomicInteger nextSensorId = new AtomicInteger(1);
+
+    @Setup
+    public void setup() {
+        compactingService = BenchmarkModule.createInjector().getInstance(CompactingService.class);
+    }
+
+    /**
+     * The sensors of a single device.
+     */
+    @State(Scope.Thread)
+    public static class DeviceState {
+        private final Sensor[] sensors = new Sensor[SENSORS];
+        private final BigDecimal[] values = new BigDecimal[SENSORS];
+        private final Random random = new Random(42);
+        private long time = 1600000000L;
+
+        @Setup
+        public void setup(CompactingBenchmark benchmark) {
+            JSONObject config = new JSONObject()
+                    .put("Compacting", true)
+                    .put("CompactingMethod", benchmark.method)
+                    .put("CompactingTolerance", 0.5);
+
+            for (int ix = 0; ix < SENSORS; ix++) {
+                sensors[ix] = new Sensor();
+                sensors[ix].setId(benchmark.nextSensorId.getAndIncrement());
+                sensors[ix].setConfig(config);
+                values[ix] = new BigDecimal("20.0");
+            }
+        }
+
+        /**
+         * Returns the next sample of a sensor. One out of ten samples has a changed
+         * value.
+         */
+        private Sample next(int ix) {
+            if (random.nextInt(10) == 0) {
+                values[ix] = values[ix].add(BigDecimal.valueOf(random.nextInt(21) - 10, 1));
+            }
+            return new Sample(sensors[ix], Instant.ofEpochSecond(time), values[ix]);
+        }
+    }
+
+    @Benchmark
+    @Threads(1)
+    @OperationsPerInvocation(SENSORS)
+    public void singleThread(DeviceState device, Blackhole bh) {
+        poll(device, bh);
+    }
+
+    @Benchmark
+    @Threads(4)
+    @OperationsPerInvocation(SENSORS)
+    public void multiThread(DeviceState device, Blackhole bh) {
+        poll(device, bh);
+    }
+
+    /**
+     * Compacts the samples of a single poll, like the {@link IngestService}.
+     */
+    private void poll(DeviceState device, Blackhole bh) {
+        device.time++;
+        for (int ix = 0; ix < SENSORS; ix++) {
+            Sample sample = device.next(ix);
+            if (!compactingService.wasUnchanged(sample)) {
+                bh.consume(compactingService.lastUnchanged(sample));
+                compactingService.rememberSample(sample);
+            }
+        }
+    }
+
+}
@@ -0,0 +1,83 @@
+/*
+ * geordi
+ *
+ * Copyright (C) 2020 Richard "Shred" Körber
+ *   https://codeberg.org/shred/geordi
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.
+ */
+package org.shredzone.geordi.service;
+
+import java.math.BigDecimal;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import org.json.JSONObject;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.shredzone.geordi.benchmark.BenchmarkModule;
+import org.shredzone.geordi.data.Sample;
+import org.shredzone.geordi.sensor.Sensor;
+
+/**
+ * Benchmarks the construction of the insert batch in
+ * {@link DatabaseServiceImpl#storeSamples(java.util.Collection)}. The statements are
+ * not sent to a database, so only the client side overhead is measured, including the
+ * conversion of the values to the {@link org.shredzone.geordi.data.ValueType} of the
+ * value column.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class StoreSamplesBenchmark {
+
+    @Param({"10", "100", "1000"})
+    private int batchSize;
+
+    @Param({"numeric", "double precision", "bigint"})
+    private String valueType;
+
+    private DatabaseService databaseService;
+    private List<Sample> samples;
+
+    @Setup
+    public void setup() {
+        databaseService = BenchmarkModule.createInjector(valueType).getInstance(DatabaseService.class);
+
+        samples = new ArrayList<>(batchSize);
+        for (int ix = 0; ix < batchSize; ix++) {
+            Sensor sensor = new Sensor();
+            sensor.setId(ix + 1);
+            sensor.setConfig(new JSONObject().put("Scale", 2));
+            samples.add(new Sample(sensor, Instant.ofEpochSecond(1600000000L + ix),
+                    BigDecimal.valueOf(2000 + ix, 2)));
+        }
+    }
+
+    @Benchmark
+    public void storeSamples() {
+        databaseService.storeSamples(samples);
+    }
+
+}
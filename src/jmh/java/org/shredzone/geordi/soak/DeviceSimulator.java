@@ -0,0 +1,145 @@
+/*
+ * geordi
+ *
+ * Copyright (C) 2020 Richard "Shred" Körber
+ *   https://codeberg.org/shred/geordi
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.
+ */
+package org.shredzone.geordi.soak;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.time.Duration;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.LongAdder;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpServer;
+
+/**
+ * An HTTP server that simulates devices.
+ * <p>
+ * The server listens on all interfaces, and finds the {@link SimulatedDevice} by the
+ * local address the request was sent to. Requests to addresses that do not belong to a
+ * simulated device are rejected. This requires an operating system that routes the
+ * entire 127.0.0.0/8 network to the loopback interface, like Linux does.
+ */
+public class DeviceSimulator {
+
+    private final Map<InetAddress, SimulatedDevice> devices = new HashMap<>();
+    private final Duration refresh;
+    private final Duration latency;
+    private final LongAdder requests = new LongAdder();
+    private HttpServer server;
+    private ExecutorService executor;
+
+    /**
+     * Creates a new {@link DeviceSimulator}.
+     *
+     * @param devices
+     *         {@link SimulatedDevice} to simulate
+     * @param refresh
+     *         Interval of new sensor values
+     * @param latency
+     *         Delay before each response is sent
+     */
+    public DeviceSimulator(List<SimulatedDevice> devices, Duration refresh, Duration latency) {
+        devices.forEach(dev -> this.devices.put(dev.getAddress(), dev));
+        this.refresh = refresh;
+        this.latency = latency;
+    }
+
+    /**
+     * Starts the simulator.
+     *
+     * @param port
+     *         Port to listen to, or 0 for an ephemeral port
+     * @param threads
+     *         Number of threads serving the requests
+     */
+    public void start(int port, int threads) throws IOException {
+        executor = Executors.newFixedThreadPool(threads, r -> {
+            Thread thread = new Thread(r, "simulator");
+            thread.setDaemon(true);
+            return thread;
+        });
+        server = HttpServer.create(new InetSocketAddress(port), 100);
+        server.createContext("/", this::handle);
+        server.setExecutor(executor);
+        server.start();
+    }
+
+    /**
+     * Stops the simulator.
+     */
+    public void stop() {
+        server.stop(0);
+        executor.shutdownNow();
+    }
+
+    /**
+     * Returns the port the simulator is listening to.
+     */
+    public int getPort() {
+        return server.getAddress().getPort();
+    }
+
+    /**
+     * Returns the number of requests that have been handled.
+     */
+    public long getRequestCount() {
+        return requests.sum();
+    }
+
+    /**
+     * Handles a request.
+     */
+    private void handle(HttpExchange exchange) throws IOException {
+        try {
+            requests.increment();
+
+            SimulatedDevice device = devices.get(exchange.getLocalAddress().getAddress());
+            if (device == null) {
+                exchange.sendResponseHeaders(403, -1);
+                return;
+            }
+
+            if (!latency.isZero()) {
+                Thread.sleep(latency.toMillis());
+            }
+
+            long now = System.currentTimeMillis();
+            byte[] payload = device.payload(exchange.getRequestURI().getPath(),
+                    now / refresh.toMillis(), now / 1000L);
+            if (payload == null) {
+                exchange.sendResponseHeaders(404, -1);
+                return;
+            }
+
+            exchange.sendResponseHeaders(200, payload.length);
+            try (OutputStream out = exchange.getResponseBody()) {
+                out.write(payload);
+            }
+        } catch (InterruptedException ex) {
+            Thread.currentThread().interrupt();
+            exchange.sendResponseHeaders(503, -1);
+        } finally {
+            exchange.close();
+        }
+    }
+
+}
@@ -0,0 +1,399 @@
+/*
+ * geordi
+ *
+ * Copyright (C) 2020 Richard "Shred" Körber
+ *   https://codeberg.org/shred/geordi
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.
+ */
+package org.shredzone.geordi.soak;
+
+import static java.nio.charset.StandardCharsets.UTF_8;
+
+import java.io.IOException;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.ServerSocket;
+import java.nio.ByteBuffer;
+import java.nio.channels.DatagramChannel;
+import java.nio.channels.SocketChannel;
+import java.time.Duration;
+import java.time.Instant;
+import java.time.format.DateTimeParseException;
+import java.time.temporal.ChronoUnit;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+import java.util.Locale;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.locks.LockSupport;
+
+import com.google.inject.Guice;
+import com.google.inject.Injector;
+import org.apache.commons.cli.CommandLine;
+import org.apache.commons.cli.CommandLineParser;
+import org.apache.commons.cli.DefaultParser;
+import org.apache.commons.cli.HelpFormatter;
+import org.apache.commons.cli.Options;
+import org.apache.commons.cli.ParseException;
+import org.json.JSONObject;
+import org.shredzone.geordi.data.Sample;
+import org.shredzone.geordi.device.LineProtocolDevice;
+import org.shredzone.geordi.metrics.Histogram;
+import org.shredzone.geordi.sensor.Sensor;
+import org.shredzone.geordi.service.FreshnessService;
+import org.shredzone.geordi.service.FreshnessServiceImpl;
+import org.shredzone.geordi.service.IngestService;
+import org.shredzone.geordi.service.IngestSink;
+import org.shredzone.geordi.service.MetricsService;
+import org.shredzone.geordi.service.MetricsServiceImpl;
+
+/**
+ * Drives a {@link LineProtocolDevice} through its sockets, and reports the received and
+ * stored points per second, the queue depth, the dropped points, and the latency from
+ * sending a point to handing it over to storage.
+ * <p>
+ * TCP clients and UDP senders run in their own threads, and send lines as fast as
+ * possible, or at the given rate. The database is simulated by an {@link IngestService}
+ * that counts the samples, and optionally delays each batch.
+ */
+public class LineProtocolLoadTest {
+
+    private static final String DEVICE = "loadtest";
+    private static final int LINES_PER_WRITE = 64;
+
+    private int tcpClients;
+    private int udpSenders;
+    private int linesPerPacket;
+    private int rate;
+    private int sensors;
+    private int queueSize;
+    private int batchSize;
+    private Duration storeDelay;
+    private Duration duration;
+    private Duration report;
+
+    private final LongAdder sent = new LongAdder();
+    private final LongAdder stored = new LongAdder();
+    private final Histogram latency = new Histogram(Histogram.LATENCY_BUCKETS);
+    private MetricsService metricsService;
+    private volatile boolean running = true;
+
+    /**
+     * Runs the load test.
+     *
+     * @param args
+     *            Command line parameters
+     */
+    public static void main(String[] args) {
+        Options options = new Options();
+        options.addOption(null, "tcp", true, "number of TCP clients (default: 4)");
+        options.addOption(null, "udp", true, "number of UDP senders (default: 2)");
+        options.addOption(null, "lines-per-packet", true, "lines per UDP packet (default: 20)");
+        options.addOption(null, "rate", true, "lines per second of each client, 0 for unlimited (default: 0)");
+        options.addOption(null, "sensors", true, "number of sensors (default: 100)");
+        options.addOption(null, "queue-size", true, "queue size of the device (default: 100000)");
+        options.addOption(null, "batch-size", true, "batch size of the device (default: 1000)");
+        options.addOption(null, "store-delay", true, "simulated storage time per batch (default: PT0S)");
+        options.addOption(null, "duration", true, "duration of the test (default: PT1M)");
+        options.addOption(null, "report", true, "interval of the reports (default: PT5S)");
+
+        LineProtocolLoadTest test = new LineProtocolLoadTest();
+        try {
+            CommandLineParser parser = new DefaultParser();
+            CommandLine cmd = parser.parse(options, args);
+
+            test.tcpClients = Integer.parseInt(cmd.getOptionValue("tcp", "4"));
+            test.udpSenders = Integer.parseInt(cmd.getOptionValue("udp", "2"));
+            test.linesPerPacket = Integer.parseInt(cmd.getOptionValue("lines-per-packet", "20"));
+            test.rate = Integer.parseInt(cmd.getOptionValue("rate", "0"));
+            test.sensors = Integer.parseInt(cmd.getOptionValue("sensors", "100"));
+            test.queueSize = Integer.parseInt(cmd.getOptionValue("queue-size", "100000"));
+            test.batchSize = Integer.parseInt(cmd.getOptionValue("batch-size", "1000"));
+            test.storeDelay = Duration.parse(cmd.getOptionValue("store-delay", "PT0S"));
+            test.duration = Duration.parse(cmd.getOptionValue("duration", "PT1M"));
+            test.report = Duration.parse(cmd.getOptionValue("report", "PT5S"));
+
+            if (test.tcpClients < 0 || test.udpSenders < 0 || test.tcpClients + test.udpSenders == 0) {
+                throw new IllegalArgumentException("At least one TCP client or UDP sender is required");
+            }
+            if (test.linesPerPacket <= 0 || test.rate < 0 || test.sensors <= 0
+                    || test.queueSize <= 0 || test.batchSize <= 0) {
+                throw new IllegalArgumentException("All numbers must be positive");
+            }
+        } catch (ParseException | DateTimeParseException | IllegalArgumentException ex) {
+            System.err.println(ex.getMessage());
+            HelpFormatter help = new HelpFormatter();
+            help.printHelp("lineprotocol", options, true);
+            System.exit(1);
+        }
+
+        try {
+            test.run();
+        } catch (Exception ex) {
+            ex.printStackTrace();
+            System.exit(1);
+        }
+    }
+
+    /**
+     * Runs the load test.
+     */
+    private void run() throws IOException, InterruptedException {
+        int port;
+        try (ServerSocket socket = new ServerSocket(0, 0, InetAddress.getLoopbackAddress())) {
+            port = socket.getLocalPort();
+        }
+        InetSocketAddress address = new InetSocketAddress(InetAddress.getLoopbackAddress(), port);
+
+        Injector injector = Guice.createInjector(binder -> {
+            binder.bind(IngestService.class).toInstance(new CountingIngestService());
+            binder.bind(MetricsService.class).to(MetricsServiceImpl.class);
+            binder.bind(FreshnessService.class).to(FreshnessServiceImpl.class);
+        });
+        metricsService = injector.getInstance(MetricsService.class);
+
+        LineProtocolDevice device = createDevice(injector, port);
+        device.readSensors();
+        System.out.printf("Listening on %s, %d TCP clients, %d UDP senders, %d sensors%n",
+                address, tcpClients, udpSenders, sensors);
+
+        List<Thread> clients = new ArrayList<>();
+        for (int ix = 0; ix < tcpClients; ix++) {
+            int client = ix;
+            clients.add(new Thread(() -> sendTcp(address, client), "tcp-client-" + ix));
+        }
+        for (int ix = 0; ix < udpSenders; ix++) {
+            int client = tcpClients + ix;
+            clients.add(new Thread(() -> sendUdp(address, client), "udp-sender-" + ix));
+        }
+        clients.forEach(Thread::start);
+
+        long start = System.nanoTime();
+        long end = start + duration.toNanos();
+        Snapshot first = snapshot(start);
+        Snapshot last = first;
+
+        while (System.nanoTime() < end) {
+            Thread.sleep(Math.min(report.toMillis(), Math.max((end - System.nanoTime()) / 1_000_000L, 1L)));
+            Snapshot current = snapshot(System.nanoTime());
+            print("elapsed " + Duration.ofNanos(current.nanos - start).getSeconds() + "s", last, current);
+            last = current;
+        }
+
+        running = false;
+        for (Thread client : clients) {
+            client.join();
+        }
+
+        // Give the device some time to read and store the pending points
+        long drainEnd = System.nanoTime() + TimeUnit.SECONDS.toNanos(10L);
+        long previous;
+        do {
+            previous = stored.sum();
+            Thread.sleep(500L);
+        } while ((stored.sum() > previous || queueDepth() > 0.0) && System.nanoTime() < drainEnd);
+        device.shutdown();
+
+        Snapshot done = snapshot(System.nanoTime());
+        print("total", first, done);
+        long lost = done.sent - done.stored - (long) done.dropped;
+        System.out.printf(Locale.ENGLISH, "sent: %d, stored: %d, dropped by queue: %.0f, not received: %d%n",
+                done.sent, done.stored, done.dropped, lost);
+    }
+
+    /**
+     * Creates a {@link LineProtocolDevice} listening on the loopback interface. Each
+     * sensor is matched by a tag.
+     */
+    private LineProtocolDevice createDevice(Injector injector, int port) {
+        LineProtocolDevice device = injector.getInstance(LineProtocolDevice.class);
+        device.setId(1);
+        device.setName(DEVICE);
+        device.setConfig(new JSONObject()
+                .put("port", port)
+                .put("bind", InetAddress.getLoopbackAddress().getHostAddress())
+                .put("tcp", tcpClients > 0)
+                .put("udp", udpSenders > 0)
+                .put("queueSize", queueSize)
+                .put("batchSize", batchSize));
+
+        List<Sensor> sensorList = new ArrayList<>(sensors);
+        for (int ix = 0; ix < sensors; ix++) {
+            Sensor sensor = new Sensor();
+            sensor.setId(ix + 1);
+            sensor.setName("sensor " + ix);
+            sensor.setConfig(new JSONObject()
+                    .put("measurement", "load")
+                    .put("field", "value")
+                    .put("tags", new JSONObject().put("sensor", "s" + ix)));
+            sensorList.add(sensor);
+        }
+        device.setSensors(sensorList);
+
+        device.prepare();
+        return device;
+    }
+
+    /**
+     * Sends lines via a TCP connection until the test is over.
+     */
+    private void sendTcp(InetSocketAddress address, int client) {
+        try (SocketChannel channel = SocketChannel.open(address)) {
+            ByteBuffer buf = ByteBuffer.allocateDirect(LINES_PER_WRITE * 80);
+            long begin = System.nanoTime();
+            long count = 0L;
+            while (running) {
+                pace(begin, count);
+                buf.clear();
+                fill(buf, client, count, LINES_PER_WRITE);
+                buf.flip();
+                while (buf.hasRemaining()) {
+                    channel.write(buf);
+                }
+                count += LINES_PER_WRITE;
+                sent.add(LINES_PER_WRITE);
+            }
+        } catch (IOException ex) {
+            System.err.println("TCP client " + client + " failed: " + ex.getMessage());
+        }
+    }
+
+    /**
+     * Sends lines via UDP until the test is over.
+     */
+    private void sendUdp(InetSocketAddress address, int client) {
+        try (DatagramChannel channel = DatagramChannel.open()) {
+            channel.connect(address);
+            ByteBuffer buf = ByteBuffer.allocateDirect(linesPerPacket * 80);
+            long begin = System.nanoTime();
+            long count = 0L;
+            while (running) {
+                pace(begin, count);
+                buf.clear();
+                fill(buf, client, count, linesPerPacket);
+                buf.flip();
+                channel.write(buf);
+                count += linesPerPacket;
+                sent.add(linesPerPacket);
+            }
+        } catch (IOException ex) {
+            System.err.println("UDP sender " + client + " failed: " + ex.getMessage());
+        }
+    }
+
+    /**
+     * Waits until the next lines may be sent, if a rate is set.
+     */
+    private void pace(long begin, long count) {
+        if (rate > 0) {
+            long due = begin + count * 1_000_000_000L / rate;
+            long wait = due - System.nanoTime();
+            if (wait > 0L) {
+                LockSupport.parkNanos(wait);
+            }
+        }
+    }
+
+    /**
+     * Fills the buffer with lines. The current time is used as timestamp, so the
+     * latency can be measured.
+     */
+    private void fill(ByteBuffer buf, int client, long count, int lines) {
+        Instant now = Instant.now();
+        long ts = TimeUnit.SECONDS.toNanos(now.getEpochSecond()) + now.getNano();
+        StringBuilder sb = new StringBuilder(lines * 80);
+        for (int ix = 0; ix < lines; ix++) {
+            long line = count + ix;
+            sb.append("load,sensor=s").append((client + line) % sensors)
+                    .append(",client=c").append(client)
+                    .append(" value=").append(line % 1000).append('.').append(line % 10)
+                    .append(",other=1i ").append(ts).append('\n');
+        }
+        buf.put(sb.toString().getBytes(UTF_8));
+    }
+
+    private double queueDepth() {
+        return metricsService.total("geordi_queue_depth", "name", DEVICE);
+    }
+
+    private Snapshot snapshot(long nanos) {
+        Snapshot snapshot = new Snapshot();
+        snapshot.nanos = nanos;
+        snapshot.sent = sent.sum();
+        snapshot.stored = stored.sum();
+        snapshot.dropped = metricsService.total("geordi_queue_dropped_total", "name", DEVICE);
+        snapshot.queued = queueDepth();
+        return snapshot;
+    }
+
+    /**
+     * Prints a report of the time between two snapshots. Latency percentiles are
+     * computed over the entire test.
+     */
+    private void print(String title, Snapshot from, Snapshot to) {
+        double seconds = Math.max((to.nanos - from.nanos) / 1_000_000_000.0, 0.001);
+        System.out.println(String.format(Locale.ENGLISH,
+                "%s: %.0f sent/s, %.0f stored/s, queue %.0f, dropped %.0f, latency p50/p95/p99 %s",
+                title,
+                (to.sent - from.sent) / seconds,
+                (to.stored - from.stored) / seconds,
+                to.queued,
+                to.dropped - from.dropped,
+                percentiles()));
+    }
+
+    private String percentiles() {
+        if (latency.getCount() == 0L) {
+            return "-";
+        }
+        return String.format(Locale.ENGLISH, "%.1f/%.1f/%.1f ms",
+                latency.quantile(0.50) * 1000.0,
+                latency.quantile(0.95) * 1000.0,
+                latency.quantile(0.99) * 1000.0);
+    }
+
+    /**
+     * Counters at a point of time.
+     */
+    private static class Snapshot {
+        private long nanos;
+        private long sent;
+        private long stored;
+        private double dropped;
+        private double queued;
+    }
+
+    /**
+     * An {@link IngestService} that counts the samples, measures their latency, and
+     * simulates the storage time.
+     */
+    private class CountingIngestService implements IngestService {
+        @Override
+        public void ingest(Collection<Sample> samples) {
+            Instant now = Instant.now();
+            for (Sample sample : samples) {
+                latency.observeNanos(sample.getTimestamp().until(now, ChronoUnit.NANOS));
+            }
+            stored.add(samples.size());
+
+            if (!storeDelay.isZero()) {
+                LockSupport.parkNanos(storeDelay.toNanos());
+            }
+        }
+
+        @Override
+        public IngestSink open() {
+            throw new UnsupportedOperationException();
+        }
+    }
+
+}
@@ -0,0 +1,129 @@
+/*
+ * geordi
+ *
+ * Copyright (C) 2020 Richard "Shred" Körber
+ *   https://codeberg.org/shred/geordi
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.
+ */
+package org.shredzone.geordi.soak;
+
+import java.net.InetAddress;
+import java.net.UnknownHostException;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.shredzone.geordi.soak.SimulatedType.SimulatedSensor;
+
+/**
+ * A device that is simulated by the {@link DeviceSimulator}.
+ * <p>
+ * Each device is reachable at its own loopback address, so Geordi handles all simulated
+ * devices as individual hosts. The payloads are regenerated with new random values once
+ * per generation, and are served unchanged within a generation.
+ */
+public class SimulatedDevice {
+
+    private final int index;
+    private final SimulatedType type;
+    private final List<SimulatedSensor> sensors;
+    private final InetAddress address;
+    private final Map<String, byte[]> payloads = new HashMap<>();
+    private long generation = -1L;
+
+    /**
+     * Creates a new {@link SimulatedDevice}.
+     *
+     * @param index
+     *         Index of the device, starting from 0
+     * @param type
+     *         {@link SimulatedType} of the device
+     * @param sensors
+     *         Number of sensors of the device
+     */
+    public SimulatedDevice(int index, SimulatedType type, int sensors) {
+        this.index = index;
+        this.type = type;
+        this.sensors = type.sensors(sensors);
+        this.address = loopbackAddress(index);
+    }
+
+    /**
+     * Returns the index of the device.
+     */
+    public int getIndex() {
+        return index;
+    }
+
+    /**
+     * Returns the {@link SimulatedType} of the device.
+     */
+    public SimulatedType getType() {
+        return type;
+    }
+
+    /**
+     * Returns the sensors of the device.
+     */
+    public List<SimulatedSensor> getSensors() {
+        return sensors;
+    }
+
+    /**
+     * Returns the loopback address the device is reachable at.
+     */
+    public InetAddress getAddress() {
+        return address;
+    }
+
+    /**
+     * Returns the payload of the given path.
+     *
+     * @param path
+     *         Requested path
+     * @param generation
+     *         Current generation. If it differs from the generation of the last request,
+     *         new payloads are generated.
+     * @param timestamp
+     *         Current timestamp, in epoch seconds
+     * @return Payload, or {@code null} if the path is unknown
+     */
+    public synchronized byte[] payload(String path, long generation, long timestamp) {
+        if (generation != this.generation) {
+            payloads.clear();
+            this.generation = generation;
+        }
+        return payloads.computeIfAbsent(path,
+                p -> type.payload(p, sensors.size(), generation * 100003L + index, timestamp));
+    }
+
+    /**
+     * Returns the loopback address of a device. The addresses start at 127.1.0.1, so
+     * they won't collide with the addresses that are usually in use.
+     *
+     * @param index
+     *         Index of the device
+     * @return Loopback address
+     */
+    public static InetAddress loopbackAddress(int index) {
+        if (index < 0 || index >= 250 * 250) {
+            throw new IllegalArgumentException("Cannot simulate more than 62500 devices");
+        }
+        try {
+            return InetAddress.getByAddress(new byte[] {
+                    127, 1, (byte) (index / 250), (byte) (index % 250 + 1)
+            });
+        } catch (UnknownHostException ex) {
+            throw new IllegalStateException(ex); // Should never happen, address is valid
+        }
+    }
+
+}
@@ -0,0 +1,315 @@
+/*
+ * geordi
+ *
+ * Copyright (C) 2020 Richard "Shred" Körber
+ *   https://codeberg.org/shred/geordi
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.
+ */
+package org.shredzone.geordi.soak;
+
+import static java.nio.charset.StandardCharsets.UTF_8;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import org.json.JSONObject;
+import org.shredzone.geordi.benchmark.Fixtures;
+
+/**
+ * The device types that can be simulated. Each type knows the configuration that Geordi
+ * needs for connecting to the simulator, the sensors that can be read, and the payloads
+ * that are served.
+ */
+public enum SimulatedType {
+
+    /**
+     * Homematic CCU2 with XML-API addon. Each simulated CCU2 device has 4 channels of 5
+     * datapoints, so 20 sensors are served by each CCU2 device.
+     */
+    CCU2("ccu2") {
+        private final String[] units = {"°C", "%", "", "", "dBm"};
+
+        @Override
+        public JSONObject deviceConfig(String host, int port) {
+            return new JSONObject().put("host", host + ':' + port);
+        }
+
+        @Override
+        public List<SimulatedSensor> sensors(int count) {
+            List<SimulatedSensor> result = new ArrayList<>(count);
+            for (int ix = 0; ix < count; ix++) {
+                int dev = ix / 20;
+                int ch = (ix % 20) / 5;
+                int dp = ix % 5;
+                result.add(new SimulatedSensor("Datapoint " + Fixtures.ccu2DatapointId(dev, ch, dp), units[dp],
+                        new JSONObject()
+                                .put("deviceId", Fixtures.ccu2DeviceId(dev))
+                                .put("channelId", Fixtures.ccu2ChannelId(dev, ch))
+                                .put("datapointId", Fixtures.ccu2DatapointId(dev, ch, dp))));
+            }
+            return result;
+        }
+
+        @Override
+        public byte[] payload(String path, int sensors, long seed, long timestamp) {
+            if ("/addons/xmlapi/statelist.cgi".equals(path)) {
+                return Fixtures.ccu2StateList((sensors + 19) / 20, seed, timestamp);
+            }
+            return null;
+        }
+    },
+
+    /**
+     * AVM FRITZ!Box with FRITZ!DECT devices. Each device provides two sensors. Logins are
+     * always accepted.
+     */
+    AVM("avm") {
+        private final byte[] sessionInfo =
+                "<SessionInfo><SID>0123456789abcdef</SID></SessionInfo>".getBytes(UTF_8);
+
+        @Override
+        public JSONObject deviceConfig(String host, int port) {
+            return new JSONObject()
+                    .put("host", host + ':' + port)
+                    .put("user", "soak")
+                    .put("password", "soak");
+        }
+
+        @Override
+        public List<SimulatedSensor> sensors(int count) {
+            List<SimulatedSensor> result = new ArrayList<>(count);
+            for (int ix = 0; ix < count; ix++) {
+                int dev = ix / 2;
+                String type = ix % 2 != 0 ? "temperature"
+                        : dev % 2 == 0 ? "power" : "currentTemperature";
+                result.add(new SimulatedSensor(Fixtures.avmAin(dev) + ' ' + type,
+                        "power".equals(type) ? "W" : "°C",
+                        new JSONObject()
+                                .put("ain", Fixtures.avmAin(dev))
+                                .put("type", type)));
+            }
+            return result;
+        }
+
+        @Override
+        public byte[] payload(String path, int sensors, long seed, long timestamp) {
+            if ("/login_sid.lua".equals(path)) {
+                return sessionInfo;
+            }
+            if ("/webservices/homeautoswitch.lua".equals(path)) {
+                return Fixtures.avmDeviceList((sensors + 1) / 2, seed);
+            }
+            return null;
+        }
+    },
+
+    /**
+     * Particulates sensor. Additional values are served if there are more sensors than
+     * a real device would provide.
+     */
+    DUSTY("dusty") {
+        @Override
+        public JSONObject deviceConfig(String host, int port) {
+            return new JSONObject().put("host", host + ':' + port);
+        }
+
+        @Override
+        public List<SimulatedSensor> sensors(int count) {
+            List<SimulatedSensor> result = new ArrayList<>(count);
+            for (int ix = 0; ix < count; ix++) {
+                String valueType = Fixtures.dustyValueType(ix);
+                result.add(new SimulatedSensor(valueType, "",
+                        new JSONObject().put("value_type", valueType)));
+            }
+            return result;
+        }
+
+        @Override
+        public byte[] payload(String path, int sensors, long seed, long timestamp) {
+            if ("/data.json".equals(path)) {
+                return Fixtures.dustyData(sensors, seed);
+            }
+            return null;
+        }
+    },
+
+    /**
+     * Kaminari lightning detector, in polling mode. The first two sensors read the
+     * energy and distance of lightning events, all other sensors read generic values.
+     */
+    KAMINARI("kaminari") {
+        private final byte[] cleared = "{}".getBytes(UTF_8);
+
+        @Override
+        public JSONObject deviceConfig(String host, int port) {
+            return new JSONObject().put("host", host + ':' + port);
+        }
+
+        @Override
+        public List<SimulatedSensor> sensors(int count) {
+            List<SimulatedSensor> result = new ArrayList<>(count);
+            for (int ix = 0; ix < count; ix++) {
+                if (ix == 0) {
+                    result.add(new SimulatedSensor("Lightning Energy", "",
+                            new JSONObject().put("lightning_key", "energy")));
+                } else if (ix == 1) {
+                    result.add(new SimulatedSensor("Lightning Distance", "km",
+                            new JSONObject().put("lightning_key", "distance")));
+                } else {
+                    String key = Fixtures.kaminariKey(ix - 2);
+                    result.add(new SimulatedSensor(key, "",
+                            new JSONObject().put("key", key)));
+                }
+            }
+            return result;
+        }
+
+        @Override
+        public byte[] payload(String path, int sensors, long seed, long timestamp) {
+            if ("/status".equals(path)) {
+                return Fixtures.kaminariStatus(Math.max(sensors - 2, 0), (int) (seed & 0x03), seed);
+            }
+            if ("/clear".equals(path)) {
+                return cleared;
+            }
+            return null;
+        }
+    },
+
+    /**
+     * Pyquaero server. The sensors are distributed over the temperature groups.
+     */
+    AQUAERO("aquaero") {
+        private final String[] groups = {"sensor", "soft", "virtual", "other"};
+
+        @Override
+        public JSONObject deviceConfig(String host, int port) {
+            return new JSONObject().put("host", host).put("port", port);
+        }
+
+        @Override
+        public List<SimulatedSensor> sensors(int count) {
+            List<SimulatedSensor> result = new ArrayList<>(count);
+            for (int ix = 0; ix < count; ix++) {
+                String group = groups[ix % groups.length];
+                int index = ix / groups.length;
+                result.add(new SimulatedSensor(group + ' ' + index, "°C",
+                        new JSONObject()
+                                .put("type", "temperatures/" + group)
+                                .put("index", index)
+                                .put("value", "temp")));
+            }
+            return result;
+        }
+
+        @Override
+        public byte[] payload(String path, int sensors, long seed, long timestamp) {
+            if ("/status".equals(path)) {
+                return Fixtures.aquaeroStatus((sensors + groups.length - 1) / groups.length, seed);
+            }
+            return null;
+        }
+    };
+
+    private final String type;
+
+    SimulatedType(String type) {
+        this.type = type;
+    }
+
+    /**
+     * Returns the device type, as used in Geordi's device table.
+     */
+    public String getType() {
+        return type;
+    }
+
+    /**
+     * Returns the device configuration for connecting to the simulator.
+     *
+     * @param host
+     *         Host address of the simulated device
+     * @param port
+     *         Port of the simulator
+     * @return Device configuration
+     */
+    public abstract JSONObject deviceConfig(String host, int port);
+
+    /**
+     * Returns the sensors of a simulated device.
+     *
+     * @param count
+     *         Number of sensors
+     * @return List of {@link SimulatedSensor}
+     */
+    public abstract List<SimulatedSensor> sensors(int count);
+
+    /**
+     * Generates a payload.
+     *
+     * @param path
+     *         Requested path
+     * @param sensors
+     *         Number of sensors of the simulated device
+     * @param seed
+     *         Random seed of the sensor values
+     * @param timestamp
+     *         Current timestamp, in epoch seconds
+     * @return Payload, or {@code null} if the path is unknown
+     */
+    public abstract byte[] payload(String path, int sensors, long seed, long timestamp);
+
+    /**
+     * Finds the {@link SimulatedType} of the given device type.
+     *
+     * @param type
+     *         Device type, as used in Geordi's device table
+     * @return {@link SimulatedType}
+     * @throws IllegalArgumentException
+     *         if the device type cannot be simulated
+     */
+    public static SimulatedType of(String type) {
+        for (SimulatedType st : values()) {
+            if (st.type.equals(type)) {
+                return st;
+            }
+        }
+        throw new IllegalArgumentException("Cannot simulate device type " + type);
+    }
+
+    /**
+     * A sensor of a simulated device.
+     */
+    public static class SimulatedSensor {
+        private final String name;
+        private final String unit;
+        private final JSONObject config;
+
+        public SimulatedSensor(String name, String unit, JSONObject config) {
+            this.name = name;
+            this.unit = unit;
+            this.config = config;
+        }
+
+        public String getName() {
+            return name;
+        }
+
+        public String getUnit() {
+            return unit;
+        }
+
+        public JSONObject getConfig() {
+            return config;
+        }
+    }
+
+}
@@ -0,0 +1,354 @@
+/*
+ * geordi
+ *
+ * Copyright (C) 2020 Richard "Shred" Körber
+ *   https://codeberg.org/shred/geordi
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.
+ */
+package org.shredzone.geordi.soak;
+
+import java.io.IOException;
+import java.lang.management.ManagementFactory;
+import java.lang.management.MemoryMXBean;
+import java.time.Duration;
+import java.time.format.DateTimeParseException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Locale;
+
+import com.google.inject.Guice;
+import com.google.inject.Injector;
+import org.apache.commons.cli.CommandLine;
+import org.apache.commons.cli.CommandLineParser;
+import org.apache.commons.cli.DefaultParser;
+import org.apache.commons.cli.HelpFormatter;
+import org.apache.commons.cli.Options;
+import org.apache.commons.cli.ParseException;
+import org.jdbi.v3.core.Handle;
+import org.jdbi.v3.core.Jdbi;
+import org.jdbi.v3.core.statement.PreparedBatch;
+import org.json.JSONObject;
+import org.shredzone.geordi.GeordiException;
+import org.shredzone.geordi.GeordiModule;
+import org.shredzone.geordi.GeordiRunner;
+import org.shredzone.geordi.data.ValueType;
+import org.shredzone.geordi.metrics.Histogram;
+import org.shredzone.geordi.scheduler.PollScheduler;
+import org.shredzone.geordi.service.MetricsService;
+import org.shredzone.geordi.soak.SimulatedType.SimulatedSensor;
+
+/**
+ * Runs Geordi against simulated devices, and reports its throughput, latencies, database
+ * growth and heap usage.
+ * <p>
+ * The soak test creates the device and sensor rows for the simulated devices, then
+ * starts Geordi in the same JVM. It uses a real PostgreSQL database, which must be
+ * empty unless {@code --reset} is given.
+ */
+public class SoakTest {
+
+    private static final double MIB = 1024.0 * 1024.0;
+    private static final String[] PHASES = {"fetch", "parse", "store"};
+    private static final int SCALE = 3; // decimal places of the simulated values
+
+    private String database;
+    private String user;
+    private String password;
+    private int devices;
+    private int sensors;
+    private List<SimulatedType> types = new ArrayList<>();
+    private String cron;
+    private Duration duration;
+    private Duration report;
+    private Duration refresh;
+    private Duration latency;
+    private int port;
+    private int threads;
+    private Integer metricsPort;
+    private boolean reset;
+    private String scheduler;
+    private ValueType valueType;
+
+    private final MemoryMXBean memory = ManagementFactory.getMemoryMXBean();
+    private Jdbi jdbi;
+    private MetricsService metricsService;
+    private double peakHeap;
+
+    /**
+     * Runs the soak test.
+     *
+     * @param args
+     *            Command line parameters
+     */
+    public static void main(String[] args) {
+        Options options = new Options();
+        options.addOption("d", "database", true, "database URL");
+        options.addOption("u", "user", true, "database user");
+        options.addOption("p", "password", true, "database password");
+        options.addOption(null, "devices", true, "number of simulated devices (default: 100)");
+        options.addOption(null, "sensors", true, "total number of sensors (default: 5000)");
+        options.addOption(null, "types", true, "comma separated device types to simulate (default: all)");
+        options.addOption(null, "cron", true, "cron expression of all devices (default: every 10 seconds)");
+        options.addOption(null, "duration", true, "duration of the test (default: PT10M)");
+        options.addOption(null, "report", true, "interval of the reports (default: PT30S)");
+        options.addOption(null, "refresh", true, "interval of new sensor values (default: PT10S)");
+        options.addOption(null, "latency", true, "response delay of the simulated devices (default: PT0S)");
+        options.addOption(null, "port", true, "port of the device simulator (default: random)");
+        options.addOption(null, "threads", true, "threads of the device simulator (default: 16)");
+        options.addOption("m", "metrics", true, "port of the metrics endpoint");
+        options.addOption(null, "scheduler", true, "scheduler (quartz, wheel, default: quartz)");
+        options.addOption(null, "value-type", true,
+                "type of the sample values if the table is created (numeric, double, real, bigint, default: numeric)");
+        options.addOption(null, "reset", false, "delete all devices, sensors and samples before the test");
+
+        SoakTest test = new SoakTest();
+        try {
+            CommandLineParser parser = new DefaultParser();
+            CommandLine cmd = parser.parse(options, args);
+
+            test.database = cmd.getOptionValue("database", "jdbc:postgresql://localhost/geordi_soak");
+            test.user = cmd.getOptionValue("user");
+            test.password = cmd.getOptionValue("password");
+            test.devices = Integer.parseInt(cmd.getOptionValue("devices", "100"));
+            test.sensors = Integer.parseInt(cmd.getOptionValue("sensors", "5000"));
+            for (String type : cmd.getOptionValue("types", "ccu2,avm,dusty,kaminari,aquaero").split(",")) {
+                test.types.add(SimulatedType.of(type.trim()));
+            }
+            test.cron = cmd.getOptionValue("cron", "0/10 * * * * ?");
+            test.duration = Duration.parse(cmd.getOptionValue("duration", "PT10M"));
+            test.report = Duration.parse(cmd.getOptionValue("report", "PT30S"));
+            test.refresh = Duration.parse(cmd.getOptionValue("refresh", "PT10S"));
+            test.latency = Duration.parse(cmd.getOptionValue("latency", "PT0S"));
+            test.port = Integer.parseInt(cmd.getOptionValue("port", "0"));
+            test.threads = Integer.parseInt(cmd.getOptionValue("threads", "16"));
+            test.metricsPort = cmd.hasOption("metrics") ? Integer.valueOf(cmd.getOptionValue("metrics")) : null;
+            test.reset = cmd.hasOption("reset");
+            test.scheduler = cmd.getOptionValue("scheduler", "quartz");
+            test.valueType = ValueType.of(cmd.getOptionValue("value-type", "numeric"));
+
+            if (test.devices <= 0 || test.sensors < test.devices) {
+                throw new IllegalArgumentException("At least one device and one sensor per device is required");
+            }
+        } catch (ParseException | DateTimeParseException | IllegalArgumentException ex) {
+            System.err.println(ex.getMessage());
+            HelpFormatter help = new HelpFormatter();
+            help.printHelp("soaktest", options, true);
+            System.exit(1);
+        }
+
+        try {
+            test.run();
+        } catch (Exception ex) {
+            ex.printStackTrace();
+            System.exit(1);
+        }
+    }
+
+    /**
+     * Runs the soak test.
+     */
+    private void run() throws IOException, InterruptedException {
+        jdbi = (user != null && password != null)
+                ? Jdbi.create(database, user, password)
+                : Jdbi.create(database);
+        jdbi.useHandle(this::prepareSchema);
+
+        List<SimulatedDevice> simulated = new ArrayList<>(devices);
+        for (int ix = 0; ix < devices; ix++) {
+            int count = sensors / devices + (ix < sensors % devices ? 1 : 0);
+            simulated.add(new SimulatedDevice(ix, types.get(ix % types.size()), count));
+        }
+
+        DeviceSimulator simulator = new DeviceSimulator(simulated, refresh, latency);
+        simulator.start(port, threads);
+        System.out.printf("Simulating %d devices on port %d%n", devices, simulator.getPort());
+
+        int created = jdbi.inTransaction(handle -> createRows(handle, simulated, simulator.getPort()));
+        System.out.printf("Created %d devices with %d sensors%n", devices, created);
+
+        GeordiModule module = new GeordiModule();
+        module.setDatabaseHost(database);
+        module.setDatabaseUser(user);
+        module.setDatabasePassword(password);
+        module.setScheduler(scheduler);
+
+        Injector injector = Guice.createInjector(module);
+        metricsService = injector.getInstance(MetricsService.class);
+        if (metricsPort != null) {
+            metricsService.startServer(metricsPort);
+        }
+        injector.getInstance(GeordiRunner.class).start();
+
+        long start = System.nanoTime();
+        long end = start + duration.toNanos();
+        Snapshot first = snapshot(start);
+        Snapshot last = first;
+
+        while (System.nanoTime() < end) {
+            Thread.sleep(Math.min(report.toMillis(), Math.max((end - System.nanoTime()) / 1_000_000L, 1L)));
+            Snapshot current = snapshot(System.nanoTime());
+            print("elapsed " + Duration.ofNanos(current.nanos - start).getSeconds() + "s", last, current);
+            last = current;
+        }
+
+        injector.getInstance(PollScheduler.class).shutdown();
+        simulator.stop();
+
+        Snapshot done = snapshot(System.nanoTime());
+        print("total", first, done);
+        double stored = done.stored - first.stored;
+        System.out.printf(Locale.ENGLISH, "simulator requests: %d, bytes per stored sample: %.1f, peak heap: %.1f MiB%n",
+                simulator.getRequestCount(),
+                stored > 0 ? (done.databaseSize - first.databaseSize) / stored : 0.0,
+                peakHeap / MIB);
+    }
+
+    /**
+     * Creates the tables if they do not exist, and makes sure they are empty.
+     */
+    private void prepareSchema(Handle handle) {
+        handle.execute("CREATE SEQUENCE IF NOT EXISTS ser_device");
+        handle.execute("CREATE TABLE IF NOT EXISTS device ("
+                + " id integer PRIMARY KEY DEFAULT nextval('ser_device'),"
+                + " name varchar(255) NOT NULL,"
+                + " type varchar(100) NOT NULL,"
+                + " cron varchar(50) NOT NULL,"
+                + " config json NOT NULL default '{}')");
+        handle.execute("CREATE SEQUENCE IF NOT EXISTS ser_sensor");
+        handle.execute("CREATE TABLE IF NOT EXISTS sensor ("
+                + " id integer PRIMARY KEY DEFAULT nextval('ser_sensor'),"
+                + " device_id integer NOT NULL REFERENCES device,"
+                + " name varchar(255) NOT NULL,"
+                + " unit varchar(20) NOT NULL,"
+                + " config json NOT NULL default '{}')");
+        handle.execute("CREATE TABLE IF NOT EXISTS sample ("
+                + " sensor_id integer NOT NULL REFERENCES sensor,"
+                + " time timestamptz NOT NULL,"
+                + " value " + valueType.getSqlType() + " NOT NULL,"
+                + " UNIQUE(sensor_id, time))");
+
+        if (reset) {
+            handle.execute("TRUNCATE sample, sensor, device");
+            handle.execute("ALTER SEQUENCE ser_device RESTART");
+            handle.execute("ALTER SEQUENCE ser_sensor RESTART");
+        } else if (handle.createQuery("SELECT count(*) FROM device").mapTo(Long.class).findOnly() > 0L) {
+            throw new GeordiException("Database " + database + " is not empty, use --reset to clear it");
+        }
+    }
+
+    /**
+     * Creates the device and sensor rows of the simulated devices.
+     *
+     * @return Number of created sensors
+     */
+    private int createRows(Handle handle, List<SimulatedDevice> simulated, int simulatorPort) {
+        PreparedBatch batch = handle.prepareBatch(
+                "INSERT INTO sensor (device_id, name, unit, config)"
+                + " VALUES (:deviceId, :name, :unit, CAST(:config AS json))");
+
+        for (SimulatedDevice dev : simulated) {
+            int deviceId = handle.createUpdate(
+                            "INSERT INTO device (name, type, cron, config)"
+                            + " VALUES (:name, :type, :cron, CAST(:config AS json))")
+                    .bind("name", "soak-" + dev.getType().getType() + '-' + dev.getIndex())
+                    .bind("type", dev.getType().getType())
+                    .bind("cron", cron)
+                    .bind("config", dev.getType()
+                            .deviceConfig(dev.getAddress().getHostAddress(), simulatorPort)
+                            .toString())
+                    .executeAndReturnGeneratedKeys("id")
+                    .mapTo(Integer.class)
+                    .findOnly();
+
+            for (SimulatedSensor sensor : dev.getSensors()) {
+                JSONObject config = new JSONObject(sensor.getConfig().toString()).put("Scale", SCALE);
+                batch.bind("deviceId", deviceId)
+                        .bind("name", sensor.getName())
+                        .bind("unit", sensor.getUnit())
+                        .bind("config", config.toString())
+                        .add();
+            }
+        }
+
+        return batch.execute().length;
+    }
+
+    /**
+     * Takes a snapshot of the current state.
+     */
+    private Snapshot snapshot(long nanos) {
+        Snapshot snapshot = new Snapshot();
+        snapshot.nanos = nanos;
+        snapshot.stored = metricsService.total("geordi_samples_stored_total");
+        snapshot.polls = metricsService.total("geordi_poll_seconds", "phase", "store");
+        snapshot.errors = metricsService.total("geordi_poll_errors_total");
+        snapshot.databaseSize = jdbi.withHandle(handle ->
+                handle.createQuery("SELECT pg_total_relation_size('sample')")
+                        .mapTo(Long.class)
+                        .findOnly());
+        snapshot.heap = memory.getHeapMemoryUsage().getUsed();
+        peakHeap = Math.max(peakHeap, snapshot.heap);
+        return snapshot;
+    }
+
+    /**
+     * Prints a report of the time between two snapshots. Latency percentiles are
+     * computed over the entire test.
+     */
+    private void print(String title, Snapshot from, Snapshot to) {
+        double seconds = Math.max((to.nanos - from.nanos) / 1_000_000_000.0, 0.001);
+
+        StringBuilder sb = new StringBuilder(title);
+        sb.append(String.format(Locale.ENGLISH, ": %.1f samples/s, %.1f polls/s, %.0f errors",
+                (to.stored - from.stored) / seconds,
+                (to.polls - from.polls) / seconds,
+                to.errors - from.errors));
+
+        for (String phase : PHASES) {
+            Histogram histogram = metricsService.merged("geordi_poll_seconds", "phase", phase);
+            sb.append(", ").append(phase).append(' ').append(percentiles(histogram));
+        }
+        sb.append(", lag ").append(percentiles(metricsService.merged("geordi_scheduler_lag_seconds")));
+
+        sb.append(String.format(Locale.ENGLISH, ", db %.1f MiB (%+.1f MiB), heap %.1f MiB",
+                to.databaseSize / MIB,
+                (to.databaseSize - from.databaseSize) / MIB,
+                to.heap / MIB));
+
+        System.out.println(sb);
+    }
+
+    /**
+     * Formats the p50, p95 and p99 percentiles of a latency histogram, in milliseconds.
+     */
+    private static String percentiles(Histogram histogram) {
+        if (histogram == null || histogram.getCount() == 0L) {
+            return "-";
+        }
+        return String.format(Locale.ENGLISH, "p50/p95/p99 %.1f/%.1f/%.1f ms",
+                histogram.quantile(0.50) * 1000.0,
+                histogram.quantile(0.95) * 1000.0,
+                histogram.quantile(0.99) * 1000.0);
+    }
+
+    /**
+     * A snapshot of the counters.
+     */
+    private static class Snapshot {
+        private long nanos;
+        private double stored;
+        private double polls;
+        private double errors;
+        private long databaseSize;
+        private double heap;
+    }
+
+}
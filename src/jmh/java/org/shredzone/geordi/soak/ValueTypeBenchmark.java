@@ -0,0 +1,230 @@
+/*
+ * geordi
+ *
+ * Copyright (C) 2018 Richard "Shred" Körber
+ *   https://codeberg.org/shred/geordi
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.
+ */
+package org.shredzone.geordi.soak;
+
+import java.math.BigDecimal;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Locale;
+import java.util.Random;
+
+import org.apache.commons.cli.CommandLine;
+import org.apache.commons.cli.CommandLineParser;
+import org.apache.commons.cli.DefaultParser;
+import org.apache.commons.cli.HelpFormatter;
+import org.apache.commons.cli.Options;
+import org.apache.commons.cli.ParseException;
+import org.jdbi.v3.core.Handle;
+import org.jdbi.v3.core.Jdbi;
+import org.jdbi.v3.core.statement.PreparedBatch;
+import org.shredzone.geordi.data.ValueType;
+
+/**
+ * Compares the {@link ValueType} of the sample value column. For each type, a copy of
+ * the sample table is filled with the same samples, then the insert rate, the size of
+ * the table and its index, and the duration of aggregate queries are reported.
+ * <p>
+ * The samples are inserted in batches, just like Geordi does. The tables are created in
+ * a real PostgreSQL database, and are dropped after the benchmark.
+ */
+public class ValueTypeBenchmark {
+
+    private static final double MIB = 1024.0 * 1024.0;
+    private static final int SCALE = 2;
+    private static final long START_TIME = 1600000000L;
+
+    private String database;
+    private String user;
+    private String password;
+    private int samples;
+    private int sensors;
+    private int batchSize;
+    private int runs;
+    private List<ValueType> types = new ArrayList<>();
+
+    /**
+     * Runs the benchmark.
+     *
+     * @param args
+     *            Command line parameters
+     */
+    public static void main(String[] args) {
+        Options options = new Options();
+        options.addOption("d", "database", true, "database URL");
+        options.addOption("u", "user", true, "database user");
+        options.addOption("p", "password", true, "database password");
+        options.addOption(null, "samples", true, "number of samples per type (default: 1000000)");
+        options.addOption(null, "sensors", true, "number of sensors (default: 100)");
+        options.addOption(null, "batch", true, "samples per insert batch (default: 1000)");
+        options.addOption(null, "runs", true, "runs of each query (default: 5)");
+        options.addOption(null, "types", true, "comma separated value types (default: all)");
+
+        ValueTypeBenchmark benchmark = new ValueTypeBenchmark();
+        try {
+            CommandLineParser parser = new DefaultParser();
+            CommandLine cmd = parser.parse(options, args);
+
+            benchmark.database = cmd.getOptionValue("database", "jdbc:postgresql://localhost/geordi_soak");
+            benchmark.user = cmd.getOptionValue("user");
+            benchmark.password = cmd.getOptionValue("password");
+            benchmark.samples = Integer.parseInt(cmd.getOptionValue("samples", "1000000"));
+            benchmark.sensors = Integer.parseInt(cmd.getOptionValue("sensors", "100"));
+            benchmark.batchSize = Integer.parseInt(cmd.getOptionValue("batch", "1000"));
+            benchmark.runs = Integer.parseInt(cmd.getOptionValue("runs", "5"));
+            if (cmd.hasOption("types")) {
+                for (String type : cmd.getOptionValue("types").split(",")) {
+                    benchmark.types.add(ValueType.of(type.trim()));
+                }
+            } else {
+                benchmark.types.addAll(Arrays.asList(ValueType.values()));
+            }
+
+            if (benchmark.samples <= 0 || benchmark.sensors <= 0 || benchmark.batchSize <= 0
+                    || benchmark.runs <= 0) {
+                throw new IllegalArgumentException("All numbers must be positive");
+            }
+        } catch (ParseException | IllegalArgumentException ex) {
+            System.err.println(ex.getMessage());
+            HelpFormatter help = new HelpFormatter();
+            help.printHelp("valuetypes", options, true);
+            System.exit(1);
+        }
+
+        benchmark.run();
+    }
+
+    /**
+     * Runs the benchmark for all types.
+     */
+    private void run() {
+        Jdbi jdbi = (user != null && password != null)
+                ? Jdbi.create(database, user, password)
+                : Jdbi.create(database);
+
+        System.out.printf("%-18s %14s %12s %12s %12s %12s%n",
+                "type", "insert/s", "table MiB", "index MiB", "rollup ms", "avg ms");
+
+        for (ValueType type : types) {
+            String table = "bench_sample_" + type.getName();
+            jdbi.useHandle(handle -> {
+                try {
+                    handle.execute("DROP TABLE IF EXISTS " + table);
+                    handle.execute("CREATE TABLE " + table + " ("
+                            + " sensor_id integer NOT NULL,"
+                            + " time timestamptz NOT NULL,"
+                            + " value " + type.getSqlType() + " NOT NULL,"
+                            + " UNIQUE(sensor_id, time))");
+
+                    double insertRate = insert(handle, table, type);
+                    handle.execute("VACUUM ANALYZE " + table);
+
+                    long tableSize = handle.createQuery("SELECT pg_relation_size('" + table + "')")
+                            .mapTo(Long.class)
+                            .findOnly();
+                    long indexSize = handle.createQuery("SELECT pg_indexes_size('" + table + "')")
+                            .mapTo(Long.class)
+                            .findOnly();
+
+                    double rollup = query(handle, "SELECT sensor_id, date_trunc('hour', time),"
+                            + " " + scaled(type, "avg(value)")
+                            + ", " + scaled(type, "min(value)")
+                            + ", " + scaled(type, "max(value)")
+                            + " FROM " + table + " GROUP BY 1, 2");
+                    double average = query(handle, "SELECT " + scaled(type, "avg(value)")
+                            + " FROM " + table);
+
+                    System.out.printf(Locale.ENGLISH, "%-18s %14.0f %12.1f %12.1f %12.1f %12.1f%n",
+                            type.getSqlType(), insertRate, tableSize / MIB, indexSize / MIB,
+                            rollup, average);
+                } finally {
+                    handle.execute("DROP TABLE IF EXISTS " + table);
+                }
+            });
+        }
+    }
+
+    /**
+     * Inserts the samples, and returns the insert rate in samples per second. All types
+     * get the same random walk of values with {@value #SCALE} decimal places.
+     */
+    private double insert(Handle handle, String table, ValueType type) {
+        Random rnd = new Random(42L);
+        long[] walk = new long[sensors];
+        for (int ix = 0; ix < sensors; ix++) {
+            walk[ix] = 2000L + rnd.nextInt(1000);
+        }
+
+        long start = System.nanoTime();
+        PreparedBatch batch = null;
+        for (int ix = 0; ix < samples; ix++) {
+            if (batch == null) {
+                batch = handle.prepareBatch("INSERT INTO " + table + " (sensor_id, time, value)"
+                        + " VALUES (:sensor, :time, :value)"
+                        + " ON CONFLICT (sensor_id, time) DO NOTHING");
+            }
+
+            int sensor = ix % sensors;
+            walk[sensor] += rnd.nextInt(21) - 10;
+            batch.bind("sensor", sensor + 1)
+                    .bind("time", Instant.ofEpochSecond(START_TIME + (ix / sensors) * 10L))
+                    .bind("value", type.encode(BigDecimal.valueOf(walk[sensor], SCALE), SCALE))
+                    .add();
+
+            if (batch.size() >= batchSize) {
+                batch.execute();
+                batch = null;
+            }
+        }
+        if (batch != null) {
+            batch.execute();
+        }
+
+        return samples / ((System.nanoTime() - start) / 1_000_000_000.0);
+    }
+
+    /**
+     * Runs a query once for warming up, and then for the given number of runs. Returns
+     * the median duration, in milliseconds. Only the number of result rows is
+     * transferred, so the duration is not affected by the client.
+     */
+    private double query(Handle handle, String sql) {
+        String count = "SELECT count(*) FROM (" + sql + ") AS result";
+        handle.createQuery(count).mapTo(Long.class).findOnly();
+
+        double[] durations = new double[runs];
+        for (int ix = 0; ix < runs; ix++) {
+            long start = System.nanoTime();
+            handle.createQuery(count).mapTo(Long.class).findOnly();
+            durations[ix] = (System.nanoTime() - start) / 1_000_000.0;
+        }
+        Arrays.sort(durations);
+        return durations[runs / 2];
+    }
+
+    /**
+     * Scales the result of an aggregate function, if the values are stored as scaled
+     * integers.
+     */
+    private static String scaled(ValueType type, String aggregate) {
+        if (type == ValueType.BIGINT) {
+            return aggregate + " / " + BigDecimal.ONE.movePointRight(SCALE).toPlainString() + ".0";
+        }
+        return aggregate;
+    }
+
+}
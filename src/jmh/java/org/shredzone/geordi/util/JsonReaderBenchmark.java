@@ -0,0 +1,99 @@
+/*
+ * geordi
+ *
+ * Copyright (C) 2020 Richard "Shred" Körber
+ *   https://codeberg.org/shred/geordi
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.
+ */
+package org.shredzone.geordi.util;
+
+import static java.nio.charset.StandardCharsets.UTF_8;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.math.BigDecimal;
+import java.util.concurrent.TimeUnit;
+
+import org.json.JSONObject;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.shredzone.geordi.benchmark.Fixtures;
+
+/**
+ * Compares reading a single value from a JSON document with the {@link JsonReader}, and
+ * with a fully parsed {@link JSONObject}.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class JsonReaderBenchmark {
+
+    @Param({"8", "64", "512"})
+    private int temperatures;
+
+    private byte[] payload;
+
+    @Setup
+    public void setup() {
+        payload = Fixtures.aquaeroStatus(temperatures);
+    }
+
+    @Benchmark
+    public BigDecimal jsonReader() throws IOException {
+        BigDecimal result = null;
+        try (JsonReader json = new JsonReader(new InputStreamReader(
+                    new ByteArrayInputStream(payload), UTF_8))) {
+            json.beginObject();
+            while (json.hasNext()) {
+                if ("flow".equals(json.nextName())) {
+                    json.beginArray();
+                    json.beginObject();
+                    while (json.hasNext()) {
+                        if ("rate".equals(json.nextName())) {
+                            result = json.nextDecimal();
+                        } else {
+                            json.skipValue();
+                        }
+                    }
+                    json.endObject();
+                    while (json.hasNext()) {
+                        json.skipValue();
+                    }
+                    json.endArray();
+                } else {
+                    json.skipValue();
+                }
+            }
+            json.endObject();
+        }
+        return result;
+    }
+
+    @Benchmark
+    public BigDecimal jsonObject() {
+        JSONObject json = new JSONObject(new String(payload, UTF_8));
+        return json.getJSONArray("flow").getJSONObject(0).getBigDecimal("rate");
+    }
+
+}
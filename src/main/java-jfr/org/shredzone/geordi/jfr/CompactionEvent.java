@@ -0,0 +1,36 @@
+/*
+ * geordi
+ *
+ * Copyright (C) 2020 Richard "Shred" Körber
+ *   https://codeberg.org/shred/geordi
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.
+ */
+package org.shredzone.geordi.jfr;
+
+import jdk.jfr.Category;
+import jdk.jfr.Description;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+
+/**
+ * Flight Recorder event: removing unchanged samples before storage.
+ */
+@Name("geordi.Compaction")
+@Label("Compaction")
+@Category("Geordi")
+@Description("Removing unchanged samples before storage")
+class CompactionEvent extends JfrTracer.DeviceEvent {
+    @Label("Samples")
+    long samples;
+
+    @Label("Compacted Samples")
+    long compacted;
+}
@@ -0,0 +1,125 @@
+/*
+ * geordi
+ *
+ * Copyright (C) 2020 Richard "Shred" Körber
+ *   https://codeberg.org/shred/geordi
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.
+ */
+package org.shredzone.geordi.jfr;
+
+import jdk.jfr.Event;
+import jdk.jfr.FlightRecorder;
+import jdk.jfr.Label;
+import org.shredzone.geordi.metrics.PollContext;
+
+/**
+ * A {@link Tracer} that emits JDK Flight Recorder events.
+ * <p>
+ * This class is only compiled on JDKs that provide the {@code jdk.jfr} module, and is
+ * loaded by {@link Tracing} via reflection.
+ */
+public class JfrTracer implements Tracer {
+
+    public JfrTracer() {
+        if (!FlightRecorder.isAvailable()) {
+            throw new IllegalStateException("Flight Recorder is not available");
+        }
+    }
+
+    @Override
+    public Span poll() {
+        PollEvent event = new PollEvent();
+        if (!event.isEnabled()) {
+            return Span.NOOP;
+        }
+        setDevice(event);
+        PollContext context = PollContext.current();
+        long start = System.nanoTime();
+        event.begin();
+        return count -> {
+            event.samples = count;
+            if (context != null) {
+                long fetch = context.getFetchNanos();
+                long store = context.getStoreNanos();
+                event.fetchTime = fetch;
+                event.fetchedBytes = context.getFetchedBytes();
+                event.storeTime = store;
+                event.parseTime = Math.max(System.nanoTime() - start - fetch - store, 0L);
+            }
+            event.commit();
+        };
+    }
+
+    @Override
+    public Span fetch(String endpoint) {
+        FetchEvent event = new FetchEvent();
+        if (!event.isEnabled()) {
+            return Span.NOOP;
+        }
+        setDevice(event);
+        event.endpoint = endpoint;
+        event.begin();
+        return count -> {
+            event.bytes = count;
+            event.commit();
+        };
+    }
+
+    @Override
+    public Span compaction(int samples) {
+        CompactionEvent event = new CompactionEvent();
+        if (!event.isEnabled()) {
+            return Span.NOOP;
+        }
+        setDevice(event);
+        event.samples = samples;
+        event.begin();
+        return count -> {
+            event.compacted = count;
+            event.commit();
+        };
+    }
+
+    @Override
+    public Span store(int batchSize) {
+        StoreEvent event = new StoreEvent();
+        if (!event.isEnabled()) {
+            return Span.NOOP;
+        }
+        setDevice(event);
+        event.batchSize = batchSize;
+        event.begin();
+        return count -> event.commit();
+    }
+
+    /**
+     * Sets the device of the poll that is running on the current thread.
+     */
+    private static void setDevice(DeviceEvent event) {
+        PollContext context = PollContext.current();
+        if (context != null) {
+            event.deviceId = context.getDeviceId();
+            event.deviceType = context.getDeviceType();
+        }
+    }
+
+    /**
+     * Base class of all events that are related to a device.
+     */
+    abstract static class DeviceEvent extends Event {
+        @Label("Device ID")
+        int deviceId;
+
+        @Label("Device Type")
+        String deviceType;
+    }
+
+}
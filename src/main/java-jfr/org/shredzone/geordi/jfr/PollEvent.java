@@ -0,0 +1,54 @@
+/*
+ * geordi
+ *
+ * Copyright (C) 2020 Richard "Shred" Körber
+ *   https://codeberg.org/shred/geordi
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.
+ */
+package org.shredzone.geordi.jfr;
+
+import jdk.jfr.Category;
+import jdk.jfr.DataAmount;
+import jdk.jfr.Description;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+import jdk.jfr.Timespan;
+
+/**
+ * Flight Recorder event: reading the sensors of a device.
+ */
+@Name("geordi.Poll")
+@Label("Device Poll")
+@Category("Geordi")
+@Description("Reading the sensors of a device")
+class PollEvent extends JfrTracer.DeviceEvent {
+    @Label("Samples")
+    long samples;
+
+    @Label("Fetch Time")
+    @Description("Time spent on fetching, including waiting for responses shared with other devices")
+    @Timespan(Timespan.NANOSECONDS)
+    long fetchTime;
+
+    @Label("Fetched Bytes")
+    @DataAmount(DataAmount.BYTES)
+    long fetchedBytes;
+
+    @Label("Parse Time")
+    @Description("Time spent on processing the response, excluding fetch and store time")
+    @Timespan(Timespan.NANOSECONDS)
+    long parseTime;
+
+    @Label("Store Time")
+    @Description("Time spent on compacting and storing samples while the sensors were read")
+    @Timespan(Timespan.NANOSECONDS)
+    long storeTime;
+}
@@ -15,6 +15,9 @@
  */
 package org.shredzone.geordi;
 
+import java.time.Duration;
+import java.time.format.DateTimeParseException;
+
 import org.apache.commons.cli.CommandLine;
 import org.apache.commons.cli.CommandLineParser;
 import org.apache.commons.cli.DefaultParser;
@@ -24,6 +27,11 @@ import org.apache.commons.cli.ParseException;
 
 import com.google.inject.Guice;
 import com.google.inject.Injector;
+import org.shredzone.geordi.data.ValueType;
+import org.shredzone.geordi.service.FreshnessService;
+import org.shredzone.geordi.service.MetricsService;
+import org.shredzone.geordi.service.ValueMigrationService;
+import org.slf4j.LoggerFactory;
 
 /**
  * Geordi's main class.
@@ -41,24 +49,93 @@ public class Geordi {
         options.addOption("d", "database", true, "database URL");
         options.addOption("u", "user", true, "database user");
         options.addOption("p", "password", true, "database password");
+        options.addOption("m", "metrics", true, "port of the metrics endpoint");
+        options.addOption("s", "stale-after", true, "staleness threshold of devices and sensors");
+        options.addOption(null, "scheduler", true, "scheduler (quartz, wheel)");
+        options.addOption(null, "migrate-values", true,
+                "convert the sample values to another type (numeric, double, real, bigint)");
+        options.addOption(null, "finish-migration", false, "finish the conversion of the sample values");
+
+        GeordiModule module = new GeordiModule();
+        Integer metricsPort;
+        Duration staleAfter;
+        ValueType migrateValues;
+        boolean finishMigration;
 
         try {
             CommandLineParser parser = new DefaultParser();
             CommandLine cmd = parser.parse(options, args);
 
-            GeordiModule module = new GeordiModule();
             module.setDatabaseHost(getDatabaseHost(cmd));
             module.setDatabaseUser(getDatabaseUser(cmd));
             module.setDatabasePassword(getDatabasePassword(cmd));
+            module.setScheduler(getScheduler(cmd));
 
-            Injector injector = Guice.createInjector(module);
-            GeordiRunner runner = injector.getInstance(GeordiRunner.class);
-            runner.start();
-        } catch (ParseException ex) {
+            metricsPort = getMetricsPort(cmd);
+            staleAfter = getStaleAfter(cmd);
+
+            migrateValues = getMigrateValues(cmd);
+            finishMigration = cmd.hasOption("finish-migration");
+        } catch (ParseException | IllegalArgumentException | DateTimeParseException ex) {
+            System.err.println(ex.getMessage());
             HelpFormatter help = new HelpFormatter();
             help.printHelp("geordi", options, true);
             System.exit(1);
+            return;
+        }
+
+        Injector injector;
+        try {
+            injector = Guice.createInjector(module);
+        } catch (RuntimeException ex) {
+            LoggerFactory.getLogger(Geordi.class).error("Geordi could not be set up", ex);
+            System.exit(1);
+            return;
+        }
+
+        if (migrateValues != null || finishMigration) {
+            migrate(injector.getInstance(ValueMigrationService.class), migrateValues, finishMigration);
+            return;
         }
+
+        start(injector, metricsPort, staleAfter);
+    }
+
+    private static void start(Injector injector, Integer metricsPort, Duration staleAfter) {
+        try {
+            injector.getInstance(FreshnessService.class).setDefaultStaleAfter(staleAfter);
+            if (metricsPort != null) {
+                injector.getInstance(MetricsService.class).startServer(metricsPort);
+            }
+            GeordiRunner runner = injector.getInstance(GeordiRunner.class);
+            runner.start();
+        } catch (RuntimeException ex) {
+            LoggerFactory.getLogger(Geordi.class).error("Geordi could not be started", ex);
+            System.exit(1);
+        }
+    }
+
+    private static void migrate(ValueMigrationService service, ValueType target, boolean finish) {
+        int exitCode = 0;
+        try {
+            if (target != null) {
+                service.migrate(target);
+            }
+            if (finish) {
+                service.finish();
+            }
+        } catch (RuntimeException ex) {
+            LoggerFactory.getLogger(Geordi.class).error("Migration failed", ex);
+            exitCode = 1;
+        }
+        System.exit(exitCode);
+    }
+
+    private static ValueType getMigrateValues(CommandLine cmd) {
+        if (cmd.hasOption("migrate-values")) {
+            return ValueType.of(cmd.getOptionValue("migrate-values"));
+        }
+        return null;
     }
 
     private static String getDatabaseHost(CommandLine cmd) {
@@ -110,4 +187,43 @@ public class Geordi {
         return null;
     }
 
+    private static Integer getMetricsPort(CommandLine cmd) {
+        if (cmd.hasOption("metrics")) {
+            return Integer.valueOf(cmd.getOptionValue("metrics"));
+        } else {
+            String env = System.getenv("GEORDI_METRICS_PORT");
+            if (env != null) {
+                return Integer.valueOf(env.trim());
+            }
+        }
+
+        return null;
+    }
+
+    private static Duration getStaleAfter(CommandLine cmd) {
+        if (cmd.hasOption("stale-after")) {
+            return Duration.parse(cmd.getOptionValue("stale-after"));
+        } else {
+            String env = System.getenv("GEORDI_STALE_AFTER");
+            if (env != null) {
+                return Duration.parse(env.trim());
+            }
+        }
+
+        return null;
+    }
+
+    private static String getScheduler(CommandLine cmd) {
+        if (cmd.hasOption("scheduler")) {
+            return cmd.getOptionValue("scheduler");
+        } else {
+            String env = System.getenv("GEORDI_SCHEDULER");
+            if (env != null) {
+                return env.trim();
+            }
+        }
+
+        return "quartz";
+    }
+
 }
@@ -25,13 +25,35 @@ import org.quartz.impl.StdSchedulerFactory;
 import org.shredzone.geordi.device.AquaeroDevice;
 import org.shredzone.geordi.device.AvmDevice;
 import org.shredzone.geordi.device.Ccu2Device;
+import org.shredzone.geordi.device.Ccu2RpcDevice;
 import org.shredzone.geordi.device.Device;
 import org.shredzone.geordi.device.DustyDevice;
+import org.shredzone.geordi.device.InternalDevice;
 import org.shredzone.geordi.device.KaminariDevice;
+import org.shredzone.geordi.device.LineProtocolDevice;
+import org.shredzone.geordi.device.ModbusDevice;
+import org.shredzone.geordi.device.PrometheusDevice;
+import org.shredzone.geordi.device.PushDevice;
+import org.shredzone.geordi.device.VirtualDevice;
+import org.shredzone.geordi.scheduler.PollScheduler;
+import org.shredzone.geordi.scheduler.QuartzPollScheduler;
+import org.shredzone.geordi.scheduler.TimingWheelPollScheduler;
 import org.shredzone.geordi.service.CompactingService;
 import org.shredzone.geordi.service.CompactingServiceImpl;
 import org.shredzone.geordi.service.DatabaseService;
 import org.shredzone.geordi.service.DatabaseServiceImpl;
+import org.shredzone.geordi.service.DerivingService;
+import org.shredzone.geordi.service.DerivingServiceImpl;
+import org.shredzone.geordi.service.FreshnessService;
+import org.shredzone.geordi.service.FreshnessServiceImpl;
+import org.shredzone.geordi.service.IngestService;
+import org.shredzone.geordi.service.IngestServiceImpl;
+import org.shredzone.geordi.service.MetricsService;
+import org.shredzone.geordi.service.MetricsServiceImpl;
+import org.shredzone.geordi.service.ResponseCacheService;
+import org.shredzone.geordi.service.ResponseCacheServiceImpl;
+import org.shredzone.geordi.service.ValueMigrationService;
+import org.shredzone.geordi.service.ValueMigrationServiceImpl;
 
 /**
  * Guice module definitions for Geordi.
@@ -41,6 +63,7 @@ public class GeordiModule extends AbstractModule {
     private String databaseHost;
     private String databaseUser;
     private String databasePassword;
+    private String scheduler = "quartz";
 
     public void setDatabaseHost(String databaseHost) {
         this.databaseHost = databaseHost;
@@ -54,23 +77,52 @@ public class GeordiModule extends AbstractModule {
         this.databasePassword = databasePassword;
     }
 
+    /**
+     * Sets the scheduler that polls the devices. "quartz" uses the Quartz scheduler
+     * (default), "wheel" uses a lightweight timing wheel.
+     */
+    public void setScheduler(String scheduler) {
+        if (!"quartz".equals(scheduler) && !"wheel".equals(scheduler)) {
+            throw new IllegalArgumentException("Unknown scheduler: " + scheduler);
+        }
+        this.scheduler = scheduler;
+    }
+
     @Override
     protected void configure() {
         bind(DatabaseService.class).to(DatabaseServiceImpl.class);
         bind(CompactingService.class).to(CompactingServiceImpl.class);
+        bind(DerivingService.class).to(DerivingServiceImpl.class);
+        bind(IngestService.class).to(IngestServiceImpl.class);
+        bind(ResponseCacheService.class).to(ResponseCacheServiceImpl.class);
+        bind(MetricsService.class).to(MetricsServiceImpl.class);
+        bind(FreshnessService.class).to(FreshnessServiceImpl.class);
+        bind(ValueMigrationService.class).to(ValueMigrationServiceImpl.class);
 
         MapBinder<String, Device> mapbinder = MapBinder.newMapBinder(binder(), String.class, Device.class);
         mapbinder.addBinding("aquaero").to(AquaeroDevice.class);
         mapbinder.addBinding("avm").to(AvmDevice.class);
         mapbinder.addBinding("ccu2").to(Ccu2Device.class);
+        mapbinder.addBinding("ccu2rpc").to(Ccu2RpcDevice.class);
         mapbinder.addBinding("dusty").to(DustyDevice.class);
+        mapbinder.addBinding("internal").to(InternalDevice.class);
         mapbinder.addBinding("kaminari").to(KaminariDevice.class);
+        mapbinder.addBinding("lineprotocol").to(LineProtocolDevice.class);
+        mapbinder.addBinding("modbus").to(ModbusDevice.class);
+        mapbinder.addBinding("prometheus").to(PrometheusDevice.class);
+        mapbinder.addBinding("push").to(PushDevice.class);
+        mapbinder.addBinding("virtual").to(VirtualDevice.class);
         // Add more device implementations here...
 
-        try {
-            bind(Scheduler.class).toInstance(StdSchedulerFactory.getDefaultScheduler());
-        } catch (SchedulerException ex) {
-            throw new IllegalStateException(ex);
+        if ("wheel".equals(scheduler)) {
+            bind(PollScheduler.class).to(TimingWheelPollScheduler.class);
+        } else {
+            bind(PollScheduler.class).to(QuartzPollScheduler.class);
+            try {
+                bind(Scheduler.class).toInstance(StdSchedulerFactory.getDefaultScheduler());
+            } catch (SchedulerException ex) {
+                throw new IllegalStateException(ex);
+            }
         }
 
         Jdbi jdbi;
@@ -17,27 +17,19 @@ package org.shredzone.geordi;
 
 import static java.util.stream.Collectors.toList;
 
-import java.util.LinkedList;
 import java.util.List;
-import java.util.Objects;
 
 import javax.inject.Inject;
 import javax.inject.Singleton;
 
-import org.quartz.CronScheduleBuilder;
-import org.quartz.Job;
-import org.quartz.JobBuilder;
-import org.quartz.JobDetail;
-import org.quartz.JobExecutionContext;
-import org.quartz.Scheduler;
-import org.quartz.SchedulerException;
-import org.quartz.Trigger;
-import org.quartz.TriggerBuilder;
-import org.shredzone.geordi.data.Sample;
 import org.shredzone.geordi.device.Device;
+import org.shredzone.geordi.scheduler.PollScheduler;
 import org.shredzone.geordi.service.CompactingService;
 import org.shredzone.geordi.service.DatabaseService;
-import org.shredzone.geordi.util.GuiceJobFactory;
+import org.shredzone.geordi.service.DerivingService;
+import org.shredzone.geordi.service.FreshnessService;
+import org.shredzone.geordi.service.MetricsService;
+import org.shredzone.geordi.service.ResponseCacheService;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
@@ -49,86 +41,109 @@ public class GeordiRunner {
 
     private final Logger log = LoggerFactory.getLogger(getClass());
 
-    private static final String ID_KEY = "id";
-
     @Inject
     private DatabaseService databaseService;
 
     @Inject
-    private Scheduler scheduler;
+    private CompactingService compactingService;
+
+    @Inject
+    private DerivingService derivingService;
+
+    @Inject
+    private ResponseCacheService responseCacheService;
+
+    @Inject
+    private MetricsService metricsService;
 
     @Inject
-    private GuiceJobFactory guiceJobFactory;
+    private FreshnessService freshnessService;
+
+    @Inject
+    private PollScheduler pollScheduler;
 
     /**
      * Starts Geordi.
      * <p>
-     * The Quartz scheduler is started, and the cron expressions of all {@link Device} in
-     * the database are added, so each device is triggered on the desired frequency.
+     * The {@link PollScheduler} is started, and the cron expressions of all
+     * {@link Device} in the database are added, so each device is triggered on the desired frequency.
+     * Before that, the state of all compacting sensors is restored from the database,
+     * the virtual sensors are set up, and the freshness tracking is started. The devices
+     * are started right before they are scheduled.
+     * <p>
+     * When Geordi is terminated, the scheduler is stopped and all devices are shut down.
      */
     public void start() {
-        try {
-            scheduler.start();
-            scheduler.setJobFactory(guiceJobFactory);
+        List<Device> devices = databaseService.fetchDevices();
 
-            for (Device dev : databaseService.fetchDevices()) {
-                log.info("Registered device: {}", dev.getName());
+        compactingService.restoreState(devices.stream()
+                .map(Device::getSensors)
+                .flatMap(List::stream)
+                .collect(toList()));
 
-                JobDetail job = JobBuilder.newJob(DeviceJob.class)
-                        .withIdentity(dev.getName())
-                        .usingJobData(ID_KEY, dev.getId())
-                        .build();
+        derivingService.setup(devices);
+        freshnessService.setup(devices);
+        registerMetrics(devices);
 
-                Trigger trigger = TriggerBuilder.newTrigger()
-                        .withIdentity(dev.getName())
-                        .startNow()
-                        .withSchedule(CronScheduleBuilder.cronSchedule(dev.getCron()))
-                        .build();
-
-                scheduler.scheduleJob(job, trigger);
+        for (Device dev : devices) {
+            log.info("Registered device: {}", dev.getName());
+            try {
+                dev.start();
+            } catch (RuntimeException ex) {
+                log.warn("Could not start device {}, retrying on next poll", dev.getName(), ex);
             }
-        } catch (SchedulerException ex) {
-            throw new IllegalStateException(ex);
+            pollScheduler.schedule(dev);
         }
+        pollScheduler.start();
+
+        Runtime.getRuntime().addShutdownHook(new Thread(() -> shutdown(devices), "geordi-shutdown"));
 
         log.info("Geordi is in the engine room!");
     }
 
     /**
-     * A Quartz {@link Job} that fetches a {@link Device} from database, reads all the
-     * sensor values and stores them into the database.
+     * Stops the {@link PollScheduler} and shuts down all devices.
+     *
+     * @param devices
+     *            List of all {@link Device}
      */
-    private static class DeviceJob implements Job {
-        private final Logger log = LoggerFactory.getLogger(getClass());
-
-        @Inject
-        private DatabaseService databaseService;
-
-        @Inject
-        private CompactingService compactingService;
-
-        @Override
-        public void execute(JobExecutionContext context) {
-            int devId = context.getJobDetail().getJobDataMap().getIntValue(ID_KEY);
+    private void shutdown(List<Device> devices) {
+        log.info("Geordi is leaving the engine room");
+        pollScheduler.shutdown();
+        for (Device dev : devices) {
             try {
-                Device device = databaseService.getDevice(devId);
-
-                List<Sample> samples = new LinkedList<>(device.readSensors());
-                samples.removeIf(compactingService::wasUnchanged);
-
-                List<Sample> preSamples = samples.stream()
-                        .map(compactingService::lastUnchanged)
-                        .filter(Objects::nonNull)
-                        .collect(toList());
-
-                databaseService.storeSamples(preSamples);
-                databaseService.storeSamples(samples);
-
-                samples.forEach(compactingService::rememberSample);
-            } catch (Exception ex) {
-                log.error("Failed to poll device {}", devId, ex);
+                dev.shutdown();
+            } catch (RuntimeException ex) {
+                log.warn("Could not shut down device {}", dev.getName(), ex);
             }
         }
     }
 
+    /**
+     * Registers metrics that are kept by the devices and services themselves.
+     *
+     * @param devices
+     *            List of all {@link Device}
+     */
+    private void registerMetrics(List<Device> devices) {
+        for (Device dev : devices) {
+            String deviceId = String.valueOf(dev.getId());
+            metricsService.counterFunction("geordi_polls_total", "Device polls, including skipped polls",
+                    dev::getPollCount, "device", deviceId, "name", dev.getName());
+            metricsService.counterFunction("geordi_polls_skipped_total", "Device polls with unchanged payload",
+                    dev::getSkipCount, "device", deviceId, "name", dev.getName());
+        }
+
+        metricsService.counterFunction("geordi_http_fetches_total", "HTTP requests sent to devices",
+                responseCacheService::getFetchCount);
+        metricsService.counterFunction("geordi_http_shared_total", "HTTP responses shared between devices",
+                responseCacheService::getSharedHitCount);
+        metricsService.counterFunction("geordi_http_unchanged_total", "HTTP responses with unchanged payload",
+                responseCacheService::getUnchangedCount);
+        metricsService.gauge("geordi_stale_devices", "Devices without a successful poll for too long",
+                freshnessService::getStaleDeviceCount);
+        metricsService.gauge("geordi_stale_sensors", "Sensors without a new sample for too long",
+                freshnessService::getStaleSensorCount);
+    }
+
 }
@@ -0,0 +1,112 @@
+/*
+ * geordi
+ *
+ * Copyright (C) 2020 Richard "Shred" Körber
+ *   https://codeberg.org/shred/geordi
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.
+ */
+package org.shredzone.geordi.compacting;
+
+import java.math.BigDecimal;
+import java.time.Duration;
+import java.time.format.DateTimeParseException;
+
+import org.json.JSONException;
+import org.json.JSONObject;
+import org.shredzone.geordi.GeordiException;
+
+/**
+ * The compacting configuration of a sensor, parsed from the global sensor options.
+ * <p>
+ * Objects are immutable.
+ */
+public class CompactingConfig {
+
+    private final String method;
+    private final BigDecimal absolute;
+    private final BigDecimal relative;
+    private final Duration maxInterval;
+
+    private CompactingConfig(String method, BigDecimal absolute, BigDecimal relative, Duration maxInterval) {
+        this.method = method;
+        this.absolute = absolute;
+        this.relative = relative;
+        this.maxInterval = maxInterval;
+    }
+
+    /**
+     * Parses the compacting configuration of a sensor config.
+     *
+     * @param config
+     *         Sensor config
+     * @return {@link CompactingConfig}, or {@code null} if the sensor is not in compact
+     * mode
+     * @throws GeordiException
+     *         if the compacting configuration is invalid
+     */
+    public static CompactingConfig parse(JSONObject config) {
+        try {
+            if (!config.optBoolean("Compacting", false)) {
+                return null;
+            }
+
+            String method = config.optString("CompactingMethod", "equal");
+            if (!"equal".equals(method) && !"deadband".equals(method)
+                    && !"swingingDoor".equals(method)) {
+                throw new GeordiException("Unknown CompactingMethod '" + method + "'");
+            }
+
+            BigDecimal absolute = BigDecimal.ZERO;
+            if (config.has("CompactingTolerance")) {
+                absolute = config.getBigDecimal("CompactingTolerance").abs();
+            }
+
+            BigDecimal relative = BigDecimal.ZERO;
+            if (config.has("CompactingRelativeTolerance")) {
+                relative = config.getBigDecimal("CompactingRelativeTolerance").abs();
+            }
+
+            Duration maxInterval = null;
+            if (config.has("CompactingMaxInterval")) {
+                maxInterval = Duration.parse(config.getString("CompactingMaxInterval")).abs();
+            }
+
+            return new CompactingConfig(method, absolute, relative, maxInterval);
+        } catch (JSONException | DateTimeParseException ex) {
+            throw new GeordiException("Invalid compacting config", ex);
+        }
+    }
+
+    /**
+     * Returns the maximum interval between two stored samples, or {@code null} if there
+     * is no such interval. The interval is guaranteed to be positive.
+     */
+    public Duration getMaxInterval() {
+        return maxInterval;
+    }
+
+    /**
+     * Creates a new {@link Compactor} for this configuration.
+     */
+    public Compactor createCompactor() {
+        switch (method) {
+            case "deadband":
+                return new DeadbandCompactor(absolute, relative);
+
+            case "swingingDoor":
+                return new SwingingDoorCompactor(absolute, relative);
+
+            default:
+                return new DeadbandCompactor(BigDecimal.ZERO, BigDecimal.ZERO);
+        }
+    }
+
+}
@@ -0,0 +1,136 @@
+/*
+ * geordi
+ *
+ * Copyright (C) 2020 Richard "Shred" Körber
+ *   https://codeberg.org/shred/geordi
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.
+ */
+package org.shredzone.geordi.compacting;
+
+import java.math.BigDecimal;
+
+import org.shredzone.geordi.data.Sample;
+
+/**
+ * A {@link Compactor} keeps the compaction state of a single sensor. It decides if a
+ * new {@link Sample} can be reconstructed from the samples that have already been
+ * stored, so it does not need to be stored in database.
+ * <p>
+ * Implementations are not threadsafe.
+ */
+public abstract class Compactor {
+
+    private Sample stored;
+    private Sample unchanged;
+
+    /**
+     * Checks if the given {@link Sample} is unchanged, so it does not need to be stored.
+     * If it is unchanged, it is remembered as the last unchanged sample.
+     *
+     * @param sample
+     *         {@link Sample} to check
+     * @return {@code true} if the sample is unchanged
+     */
+    public boolean isUnchanged(Sample sample) {
+        if (stored == null) {
+            return false;
+        }
+
+        boolean result = isRedundant(stored, sample);
+        if (result) {
+            unchanged = sample;
+        }
+        return result;
+    }
+
+    /**
+     * Forgets about the last unchanged {@link Sample}, so no sample will be
+     * regenerated for it.
+     */
+    public void discardUnchanged() {
+        unchanged = null;
+    }
+
+    /**
+     * Regenerates the last unchanged {@link Sample}.
+     *
+     * @return Regenerated {@link Sample}, or {@code null} if there was no unchanged
+     * sample since the last stored sample
+     */
+    public Sample getLastUnchanged() {
+        if (stored == null || unchanged == null) {
+            return null;
+        }
+        return regenerate(stored, unchanged);
+    }
+
+    /**
+     * Sets the {@link Sample} that was most recently stored in database.
+     *
+     * @param sample
+     *         Stored {@link Sample}
+     */
+    public void setStored(Sample sample) {
+        stored = sample;
+        unchanged = null;
+        reset(sample);
+    }
+
+    /**
+     * Checks if the sample is redundant to the stored sample.
+     *
+     * @param stored
+     *         {@link Sample} that was most recently stored
+     * @param sample
+     *         {@link Sample} to check
+     * @return {@code true} if the sample is redundant
+     */
+    protected abstract boolean isRedundant(Sample stored, Sample sample);
+
+    /**
+     * Regenerates a sample that was not stored, so the series can be interpolated up
+     * to the next stored sample.
+     *
+     * @param stored
+     *         {@link Sample} that was most recently stored
+     * @param unchanged
+     *         The last {@link Sample} that was found to be redundant
+     * @return {@link Sample} to be stored
+     */
+    protected abstract Sample regenerate(Sample stored, Sample unchanged);
+
+    /**
+     * Invoked when a new sample was stored. Implementations can reset their internal
+     * state here.
+     *
+     * @param stored
+     *         {@link Sample} that was stored
+     */
+    protected void reset(Sample stored) {
+        // default: do nothing
+    }
+
+    /**
+     * Computes the absolute tolerance.
+     *
+     * @param absolute
+     *         Absolute tolerance
+     * @param relative
+     *         Tolerance relative to the reference value
+     * @param reference
+     *         Reference value
+     * @return The larger one of both tolerances
+     */
+    protected static BigDecimal tolerance(BigDecimal absolute, BigDecimal relative, BigDecimal reference) {
+        return absolute.max(relative.multiply(reference).abs());
+    }
+
+}
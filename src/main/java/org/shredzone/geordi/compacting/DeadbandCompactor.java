@@ -0,0 +1,59 @@
+/*
+ * geordi
+ *
+ * Copyright (C) 2020 Richard "Shred" Körber
+ *   https://codeberg.org/shred/geordi
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.
+ */
+package org.shredzone.geordi.compacting;
+
+import java.math.BigDecimal;
+
+import org.shredzone.geordi.data.Sample;
+
+/**
+ * A {@link Compactor} that considers a sample unchanged if its value does not differ
+ * from the stored value by more than a tolerance. With a tolerance of zero, only equal
+ * values are considered unchanged.
+ * <p>
+ * The stored value is kept until the deadband is left, so the regenerated sample
+ * carries the stored value.
+ */
+public class DeadbandCompactor extends Compactor {
+
+    private final BigDecimal absolute;
+    private final BigDecimal relative;
+
+    /**
+     * Creates a new {@link DeadbandCompactor}.
+     *
+     * @param absolute
+     *         Absolute tolerance
+     * @param relative
+     *         Tolerance relative to the stored value (e.g. 0.01 for 1%)
+     */
+    public DeadbandCompactor(BigDecimal absolute, BigDecimal relative) {
+        this.absolute = absolute.abs();
+        this.relative = relative.abs();
+    }
+
+    @Override
+    protected boolean isRedundant(Sample stored, Sample sample) {
+        BigDecimal delta = sample.getValue().subtract(stored.getValue()).abs();
+        return delta.compareTo(tolerance(absolute, relative, stored.getValue())) <= 0;
+    }
+
+    @Override
+    protected Sample regenerate(Sample stored, Sample unchanged) {
+        return new Sample(stored.getSensor(), unchanged.getTimestamp(), stored.getValue());
+    }
+
+}
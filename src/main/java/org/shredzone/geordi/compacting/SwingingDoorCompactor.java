@@ -0,0 +1,83 @@
+/*
+ * geordi
+ *
+ * Copyright (C) 2020 Richard "Shred" Körber
+ *   https://codeberg.org/shred/geordi
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.
+ */
+package org.shredzone.geordi.compacting;
+
+import java.math.BigDecimal;
+
+import org.shredzone.geordi.data.Sample;
+
+/**
+ * A {@link Compactor} that uses the swinging door trending algorithm. A sample is
+ * unchanged if a straight line from the stored sample to it does not deviate from any
+ * of the samples in between by more than the tolerance.
+ * <p>
+ * When the door is broken, the last unchanged sample is regenerated with its original
+ * value, so a linear interpolation between the stored samples reconstructs the signal
+ * within the tolerance.
+ */
+public class SwingingDoorCompactor extends Compactor {
+
+    private final BigDecimal absolute;
+    private final BigDecimal relative;
+
+    private double tolerance;
+    private double minSlope;
+    private double maxSlope;
+
+    /**
+     * Creates a new {@link SwingingDoorCompactor}.
+     *
+     * @param absolute
+     *         Absolute tolerance
+     * @param relative
+     *         Tolerance relative to the stored value (e.g. 0.01 for 1%)
+     */
+    public SwingingDoorCompactor(BigDecimal absolute, BigDecimal relative) {
+        this.absolute = absolute.abs();
+        this.relative = relative.abs();
+    }
+
+    @Override
+    protected boolean isRedundant(Sample stored, Sample sample) {
+        double dt = (sample.getTimestamp().toEpochMilli() - stored.getTimestamp().toEpochMilli()) / 1000.0;
+        if (dt <= 0.0) {
+            return stored.getValue().compareTo(sample.getValue()) == 0;
+        }
+
+        double dv = sample.getValue().doubleValue() - stored.getValue().doubleValue();
+        double slope = dv / dt;
+        if (slope < minSlope || slope > maxSlope) {
+            return false;
+        }
+
+        minSlope = Math.max(minSlope, (dv - tolerance) / dt);
+        maxSlope = Math.min(maxSlope, (dv + tolerance) / dt);
+        return true;
+    }
+
+    @Override
+    protected Sample regenerate(Sample stored, Sample unchanged) {
+        return unchanged;
+    }
+
+    @Override
+    protected void reset(Sample stored) {
+        tolerance = tolerance(absolute, relative, stored.getValue()).doubleValue();
+        minSlope = Double.NEGATIVE_INFINITY;
+        maxSlope = Double.POSITIVE_INFINITY;
+    }
+
+}
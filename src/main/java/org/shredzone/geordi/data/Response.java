@@ -0,0 +1,81 @@
+/*
+ * geordi
+ *
+ * Copyright (C) 2020 Richard "Shred" Körber
+ *   https://codeberg.org/shred/geordi
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.
+ */
+package org.shredzone.geordi.data;
+
+/**
+ * A {@link Response} contains the response of a device endpoint.
+ * <p>
+ * Objects are immutable.
+ *
+ * @param <T>
+ *            Type of the body, e.g. {@code byte[]} for the raw body, or a document that
+ *            was parsed from the body
+ */
+public class Response<T> {
+
+    private final int status;
+    private final T body;
+    private final long version;
+
+    /**
+     * Creates a new {@link Response}.
+     *
+     * @param status
+     *            HTTP status code
+     * @param body
+     *            Response body or parsed document, or {@code null} if the request
+     *            failed
+     * @param version
+     *            Content version. Responses with identical content have the same
+     *            version.
+     */
+    public Response(int status, T body, long version) {
+        this.status = status;
+        this.body = body;
+        this.version = version;
+    }
+
+    /**
+     * Returns the HTTP status code.
+     */
+    public int getStatus() {
+        return status;
+    }
+
+    /**
+     * Returns {@code true} if there is a response body.
+     */
+    public boolean isOk() {
+        return body != null;
+    }
+
+    /**
+     * Returns the response body or parsed document, or {@code null} if the request
+     * failed. The returned body is shared and must not be modified.
+     */
+    public T getBody() {
+        return body;
+    }
+
+    /**
+     * Returns the content version. It changes whenever the content of the endpoint has
+     * changed.
+     */
+    public long getVersion() {
+        return version;
+    }
+
+}
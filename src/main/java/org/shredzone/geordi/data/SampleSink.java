@@ -0,0 +1,34 @@
+/*
+ * geordi
+ *
+ * Copyright (C) 2018 Richard "Shred" Körber
+ *   https://codeberg.org/shred/geordi
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.
+ */
+package org.shredzone.geordi.data;
+
+/**
+ * A {@link SampleSink} receives the {@link Sample} of a device while they are read. This
+ * way, samples can be processed while the device is still parsing its response, and
+ * need not be collected first.
+ */
+@FunctionalInterface
+public interface SampleSink {
+
+    /**
+     * Accepts a {@link Sample} that was read.
+     *
+     * @param sample
+     *            {@link Sample} that was read
+     */
+    void accept(Sample sample);
+
+}
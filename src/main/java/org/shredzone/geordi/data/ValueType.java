@@ -0,0 +1,214 @@
+/*
+ * geordi
+ *
+ * Copyright (C) 2018 Richard "Shred" Körber
+ *   https://codeberg.org/shred/geordi
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.
+ */
+package org.shredzone.geordi.data;
+
+import java.math.BigDecimal;
+import java.math.RoundingMode;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+
+import org.shredzone.geordi.GeordiException;
+
+/**
+ * The SQL type of the {@code value} column of the {@code sample} table. Geordi detects
+ * the type on startup, and converts the {@link Sample} values accordingly.
+ * <p>
+ * {@link #BIGINT} stores the values as integers that have been multiplied by 10 to the
+ * power of the sensor's scale.
+ */
+public enum ValueType {
+
+    /**
+     * {@code numeric}, stores the exact value. This is the default.
+     */
+    NUMERIC("numeric", "numeric"),
+
+    /**
+     * {@code double precision}, stores the value as 8 byte floating point number.
+     */
+    DOUBLE("double", "double precision"),
+
+    /**
+     * {@code real}, stores the value as 4 byte floating point number.
+     */
+    REAL("real", "real"),
+
+    /**
+     * {@code bigint}, stores the value as 8 byte integer, scaled by the sensor's scale.
+     */
+    BIGINT("bigint", "bigint");
+
+    private final String typeName;
+    private final String sqlType;
+
+    ValueType(String typeName, String sqlType) {
+        this.typeName = typeName;
+        this.sqlType = sqlType;
+    }
+
+    /**
+     * Returns the name of the type, as used in the command line options.
+     */
+    public String getName() {
+        return typeName;
+    }
+
+    /**
+     * Returns the SQL type of the value column.
+     */
+    public String getSqlType() {
+        return sqlType;
+    }
+
+    /**
+     * Finds the {@link ValueType} by its name.
+     *
+     * @param name
+     *            Name of the type, or its SQL type
+     * @return {@link ValueType}
+     * @throws IllegalArgumentException
+     *             if the type is unknown
+     */
+    public static ValueType of(String name) {
+        for (ValueType type : values()) {
+            if (type.typeName.equals(name) || type.sqlType.equals(name)) {
+                return type;
+            }
+        }
+        throw new IllegalArgumentException("Unknown value type: " + name);
+    }
+
+    /**
+     * Finds the {@link ValueType} of a column, by its {@code data_type} in the
+     * information schema.
+     *
+     * @param dataType
+     *            Data type of the column
+     * @return {@link ValueType}
+     * @throws GeordiException
+     *             if the column type is not supported
+     */
+    public static ValueType ofColumn(String dataType) {
+        try {
+            return of(dataType);
+        } catch (IllegalArgumentException ex) {
+            throw new GeordiException("Unsupported type of sample value column: " + dataType, ex);
+        }
+    }
+
+    /**
+     * Converts a sample value to the object that is bound to the value column.
+     *
+     * @param value
+     *            Sample value
+     * @param scale
+     *            Scale of the sensor
+     * @return Value to be bound
+     */
+    public Object encode(BigDecimal value, int scale) {
+        switch (this) {
+            case DOUBLE:
+                return value.doubleValue();
+
+            case REAL:
+                return value.floatValue();
+
+            case BIGINT:
+                try {
+                    return value.movePointRight(scale).setScale(0, RoundingMode.HALF_UP).longValueExact();
+                } catch (ArithmeticException ex) {
+                    throw new GeordiException("Value " + value + " exceeds bigint range at scale " + scale, ex);
+                }
+
+            default:
+                return value;
+        }
+    }
+
+    /**
+     * Reads a sample value from the value column.
+     *
+     * @param rs
+     *            {@link ResultSet} to read from
+     * @param column
+     *            Column label
+     * @param scale
+     *            Scale of the sensor
+     * @return Sample value
+     */
+    public BigDecimal decode(ResultSet rs, String column, int scale) throws SQLException {
+        switch (this) {
+            case DOUBLE:
+                return BigDecimal.valueOf(rs.getDouble(column));
+
+            case REAL:
+                return new BigDecimal(Float.toString(rs.getFloat(column)));
+
+            case BIGINT:
+                return BigDecimal.valueOf(rs.getLong(column), scale);
+
+            default:
+                return rs.getBigDecimal(column);
+        }
+    }
+
+    /**
+     * Returns an SQL expression that converts a value of this type to {@code numeric}.
+     *
+     * @param expr
+     *            SQL expression of the value
+     * @param scale
+     *            SQL expression of the sensor's scale
+     * @return SQL expression of the {@code numeric} value
+     */
+    public String toNumericSql(String expr, String scale) {
+        switch (this) {
+            case DOUBLE:
+            case REAL:
+                return "(" + expr + ")::numeric";
+
+            case BIGINT:
+                return "round((" + expr + ")::numeric / power(10::numeric, " + scale + "), " + scale + ")";
+
+            default:
+                return expr;
+        }
+    }
+
+    /**
+     * Returns an SQL expression that converts a {@code numeric} value to this type.
+     *
+     * @param expr
+     *            SQL expression of the {@code numeric} value
+     * @param scale
+     *            SQL expression of the sensor's scale
+     * @return SQL expression of the value
+     */
+    public String fromNumericSql(String expr, String scale) {
+        switch (this) {
+            case DOUBLE:
+            case REAL:
+                return "(" + expr + ")::" + sqlType;
+
+            case BIGINT:
+                return "round((" + expr + ") * power(10::numeric, " + scale + "))::bigint";
+
+            default:
+                return expr;
+        }
+    }
+
+}
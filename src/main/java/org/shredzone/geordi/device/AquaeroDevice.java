@@ -15,26 +15,36 @@
  */
 package org.shredzone.geordi.device;
 
+import static java.nio.charset.StandardCharsets.UTF_8;
+import static java.util.stream.Collectors.toList;
+
+import java.io.ByteArrayInputStream;
 import java.io.IOException;
-import java.io.InputStream;
+import java.io.InputStreamReader;
 import java.math.BigDecimal;
 import java.net.MalformedURLException;
 import java.net.URL;
+import java.time.Duration;
 import java.time.Instant;
+import java.time.format.DateTimeParseException;
 import java.util.ArrayList;
 import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
 import java.util.List;
+import java.util.Map;
+import java.util.Set;
 
 import javax.inject.Inject;
 
-import org.json.JSONArray;
 import org.json.JSONException;
 import org.json.JSONObject;
-import org.json.JSONTokener;
 import org.shredzone.geordi.GeordiException;
+import org.shredzone.geordi.data.Response;
 import org.shredzone.geordi.data.Sample;
 import org.shredzone.geordi.sensor.Sensor;
-import org.shredzone.geordi.service.DatabaseService;
+import org.shredzone.geordi.service.ResponseCacheService;
+import org.shredzone.geordi.util.JsonReader;
 
 /**
  * A {@link Device} implementation that reads Aquaero fan controllers. It
@@ -46,22 +56,78 @@ import org.shredzone.geordi.service.DatabaseService;
 public class AquaeroDevice extends Device {
 
     @Inject
-    private DatabaseService databaseService;
+    private ResponseCacheService responseCacheService;
+
+    private URL serverUrl;
+    private Duration cacheTtl;
+    private volatile long lastVersion = -1L;
+    private List<AquaeroSensor> sensors;
+    private Set<String> keys;
+    private Set<String> prefixes;
+
+    @Override
+    public void prepare() {
+        serverUrl = getServerUrl();
+        try {
+            cacheTtl = Duration.parse(getConfig().optString("cacheTtl", "PT1S"));
+        } catch (DateTimeParseException ex) {
+            throw new GeordiException("Bad cacheTtl config", ex);
+        }
+        sensors = getSensors().stream()
+                .map(AquaeroSensor::new)
+                .collect(toList());
+
+        keys = new HashSet<>();
+        prefixes = new HashSet<>();
+        for (AquaeroSensor sensor : sensors) {
+            keys.add(sensor.key);
+            for (int ix = sensor.key.indexOf('/'); ix >= 0; ix = sensor.key.indexOf('/', ix + 1)) {
+                prefixes.add(sensor.key.substring(0, ix));
+            }
+        }
+    }
 
     @Override
     public List<Sample> readSensors() {
-        JSONObject json;
-        try (InputStream in = getServerUrl().openStream()) {
-            json = new JSONObject(new JSONTokener(in));
-        } catch (IOException | JSONException ex) {
+        Response<byte[]> response = fetchFromServer();
+        if (response.getVersion() == lastVersion) {
+            countPoll(true);
+            return Collections.emptyList();
+        }
+        countPoll(false);
+
+        String time = null;
+        Map<String, BigDecimal> values = new HashMap<>();
+
+        try (JsonReader json = new JsonReader(new InputStreamReader(
+                    new ByteArrayInputStream(response.getBody()), UTF_8))) {
+            json.beginObject();
+            while (json.hasNext()) {
+                String name = json.nextName();
+                if ("time".equals(name)) {
+                    time = json.nextString();
+                } else {
+                    readValue(json, name, values);
+                }
+            }
+            json.endObject();
+        } catch (IOException ex) {
             throw new GeordiException("Could not read data for sensor " + getId(), ex);
         }
 
-        Instant ts = Instant.parse(json.getString("time") + "Z");
+        if (time == null) {
+            throw new GeordiException("No time in data of sensor " + getId());
+        }
 
-        List<Sample> result = new ArrayList<>();
-        for (Sensor sensor : databaseService.fetchSensors(this)) {
-            BigDecimal value = getSensorValue(json, sensor);
+        Instant ts = Instant.parse(time + "Z");
+        lastVersion = response.getVersion();
+
+        List<Sample> result = new ArrayList<>(sensors.size());
+        for (AquaeroSensor sensor : sensors) {
+            BigDecimal value = values.get(sensor.key);
+            if (value == null) {
+                throw new GeordiException("No value " + sensor.key + " in data of sensor " + getId());
+            }
 
             // If Pyquaero runs on a Raspberry Pi 1, there might be a misreading of
             // the sensors due to a hardware bug. We will ignore the 0 value that is
@@ -70,44 +136,74 @@ public class AquaeroDevice extends Device {
                 return Collections.emptyList();
             }
 
-            result.add(new Sample(sensor, ts, value));
+            result.add(new Sample(sensor.sensor, ts, value));
         }
 
         return result;
     }
 
     /**
-     * Gets the {@link Sensor} value from the JSON data.
+     * Reads a JSON value. If the value is required by a sensor, it is added to the
+     * values. If it is an object or array that contains a value required by a sensor,
+     * it is descended into. All other values are skipped.
      *
      * @param json
-     *            JSON data of Pyquaero
-     * @param sensor
-     *            {@link Sensor} to read
-     * @return Value that was read
+     *            {@link JsonReader} positioned at the value
+     * @param path
+     *            Path of the value, parts separated by '/'
+     * @param values
+     *            Map to add the found values to
      */
-    private BigDecimal getSensorValue(JSONObject json, Sensor sensor) {
-        JSONObject config = sensor.getConfig();
-        JSONArray data = locate(json, config.getString("type"));
-        JSONObject values = data.getJSONObject(config.getInt("index"));
-        return values.getBigDecimal(config.getString("value"));
+    private void readValue(JsonReader json, String path, Map<String, BigDecimal> values)
+            throws IOException {
+        if (keys.contains(path)) {
+            BigDecimal value = json.nextDecimal();
+            if (value != null) {
+                values.put(path, value);
+            }
+            return;
+        }
+
+        if (!prefixes.contains(path)) {
+            json.skipValue();
+            return;
+        }
+
+        JsonReader.Token token = json.peek();
+        if (token == JsonReader.Token.BEGIN_OBJECT) {
+            json.beginObject();
+            while (json.hasNext()) {
+                String name = json.nextName();
+                readValue(json, path + '/' + name, values);
+            }
+            json.endObject();
+        } else if (token == JsonReader.Token.BEGIN_ARRAY) {
+            json.beginArray();
+            for (int ix = 0; json.hasNext(); ix++) {
+                readValue(json, path + '/' + ix, values);
+            }
+            json.endArray();
+        } else {
+            json.skipValue();
+        }
     }
 
     /**
-     * Locates a JSON array containing sensor data.
+     * Fetches the status from the Pyquaero server.
      *
-     * @param json
-     *            JSON data of pyquaero
-     * @param path
-     *            Path to the array
-     * @return JSON array
+     * @return {@link Response} of the server
      */
-    private JSONArray locate(JSONObject json, String path) {
-        String[] parts = path.split("[/.]");
-        JSONObject current = json;
-        for (int ix = 0; ix < parts.length - 1; ix++) {
-            current = current.getJSONObject(parts[ix]);
+    private Response<byte[]> fetchFromServer() {
+        try {
+            Response<byte[]> response = responseCacheService.fetch(serverUrl.toString(), cacheTtl, serverUrl::openConnection);
+            if (!response.isOk()) {
+                throw new GeordiException("Could not read data for sensor " + getId()
+                        + ", HTTP status " + response.getStatus());
+            }
+            return response;
+        } catch (IOException ex) {
+            throw new GeordiException("Could not read data for sensor " + getId(), ex);
         }
-        return current.getJSONArray(parts[parts.length - 1]);
     }
 
     /**
@@ -123,4 +219,24 @@ public class AquaeroDevice extends Device {
         }
     }
 
+    /**
+     * The parsed configuration of an Aquaero {@link Sensor}.
+     */
+    private static class AquaeroSensor {
+        private final Sensor sensor;
+        private final String key;
+
+        public AquaeroSensor(Sensor sensor) {
+            try {
+                JSONObject config = sensor.getConfig();
+                this.sensor = sensor;
+                this.key = String.join("/", config.getString("type").split("[/.]"))
+                        + '/' + config.getInt("index")
+                        + '/' + config.getString("value");
+            } catch (JSONException ex) {
+                throw new GeordiException("Bad config of sensor " + sensor.getId(), ex);
+            }
+        }
+    }
+
 }
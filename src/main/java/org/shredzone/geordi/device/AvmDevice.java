@@ -19,27 +19,38 @@ import static java.math.RoundingMode.HALF_UP;
 import static java.nio.charset.StandardCharsets.UTF_16LE;
 import static java.nio.charset.StandardCharsets.UTF_8;
 
+import java.io.ByteArrayInputStream;
 import java.io.IOException;
 import java.io.InputStreamReader;
 import java.io.Reader;
 import java.math.BigDecimal;
+import java.net.HttpURLConnection;
 import java.net.URL;
 import java.security.MessageDigest;
 import java.security.NoSuchAlgorithmException;
+import java.time.Duration;
 import java.time.Instant;
+import java.time.format.DateTimeParseException;
+import java.util.HashMap;
 import java.util.List;
+import java.util.Map;
 import java.util.Objects;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
 import java.util.function.Function;
+import java.util.function.Supplier;
 import java.util.stream.Collectors;
 
 import javax.inject.Inject;
 
+import org.json.JSONException;
 import org.json.JSONObject;
 import org.shredzone.commons.xml.XQuery;
 import org.shredzone.geordi.GeordiException;
+import org.shredzone.geordi.data.Response;
 import org.shredzone.geordi.data.Sample;
 import org.shredzone.geordi.sensor.Sensor;
-import org.shredzone.geordi.service.DatabaseService;
+import org.shredzone.geordi.service.ResponseCacheService;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
@@ -55,6 +66,8 @@ public class AvmDevice  extends Device {
             '8', '9', 'a', 'b', 'c', 'd', 'e', 'f'
     };
     private static final String NO_SESSION = "0000000000000000";
+    private static final Duration SESSION_TIMEOUT = Duration.ofMinutes(10);
+    private static final ConcurrentMap<String, Session> SESSIONS = new ConcurrentHashMap<>();
     private static final BigDecimal TWO = new BigDecimal("2");
     private static final BigDecimal TEN = BigDecimal.TEN;
     private static final BigDecimal ONE_THOUSAND = new BigDecimal("1000");
@@ -62,16 +75,49 @@ public class AvmDevice  extends Device {
     private final Logger log = LoggerFactory.getLogger(getClass());
 
     @Inject
-    private DatabaseService databaseService;
+    private ResponseCacheService responseCacheService;
+
+    private String hostName;
+    private String user;
+    private String password;
+    private Duration cacheTtl;
+    private List<AvmSensor> sensors;
+
+    @Override
+    public void prepare() {
+        try {
+            hostName = (getConfig().optBoolean("tls", false) ? "https" : "http")
+                    + "://"
+                    + getConfig().optString("host", "fritz.box");
+            user = getConfig().getString("user");
+            password = getConfig().getString("password");
+        } catch (JSONException ex) {
+            throw new GeordiException("Bad login config", ex);
+        }
+
+        try {
+            cacheTtl = Duration.parse(getConfig().optString("cacheTtl", "PT1S"));
+        } catch (DateTimeParseException ex) {
+            throw new GeordiException("Bad cacheTtl config", ex);
+        }
+
+        sensors = getSensors().stream()
+                .map(AvmSensor::new)
+                .collect(Collectors.toList());
+    }
 
     @Override
     public List<Sample> readSensors() {
-        String sid = getSessionId();
-        XQuery values = fetchFromServer(sid);
+        XQuery values = fetchFromServer();
         Instant instant = Instant.now();
 
-        return databaseService.fetchSensors(this).stream()
-                .map(sensor -> getSensorValue(values, sensor, instant))
+        // Index all devices by their AIN in a single pass, instead of searching the
+        // entire document for each sensor.
+        Map<String, XQuery> devices = new HashMap<>();
+        values.select("//device").forEach(dev -> devices.putIfAbsent(dev.attr().get("identifier"), dev));
+
+        return sensors.stream()
+                .map(sensor -> getSensorValue(devices, sensor, instant))
                 .filter(Objects::nonNull)
                 .collect(Collectors.toList());
     }
@@ -79,56 +125,31 @@ public class AvmDevice  extends Device {
     /**
      * Reads the current sensor value from the given {@link Sensor}.
      *
-     * @param values
-     *         XML that was read from the AHA interface
+     * @param devices
+     *         Map of AINs and their device XML that was read from the AHA interface
      * @param sensor
-     *         {@link Sensor} to be read
+     *         {@link AvmSensor} to be read
      * @param instant
      *         {@link Instant} of sensor reading
      * @return {@link Sample} containing the sensor value
      */
-    private Sample getSensorValue(XQuery values, Sensor sensor, Instant instant) {
+    private Sample getSensorValue(Map<String, XQuery> devices, AvmSensor sensor, Instant instant) {
         try {
-            JSONObject config = sensor.getConfig();
-
-            XQuery sensorDevice = values.get(String.format(
-                    "//device[@identifier='%s']",
-                    config.getString("ain")
-            ));
+            XQuery sensorDevice = devices.get(sensor.ain);
+            if (sensorDevice == null) {
+                throw new GeordiException("Unknown AIN " + sensor.ain);
+            }
 
             if ("0".equals(sensorDevice.get("present").text())) {
                 return null;
             }
 
-            BigDecimal value = null;
-            String type = config.getString("type");
-            if ("power".equals(type)) {
-                value = getValue(sensorDevice, "powermeter/power",
-                        v -> v.setScale(3, HALF_UP)
-                            .divide(ONE_THOUSAND, HALF_UP));
-            } else if ("voltage".equals(type)) {
-                value = getValue(sensorDevice, "powermeter/voltage",
-                        v -> v.setScale(3, HALF_UP)
-                            .divide(ONE_THOUSAND, HALF_UP));
-            } else if ("temperature".equals(type)) {
-                value = getValue(sensorDevice, "temperature/celsius",
-                        v -> v.setScale(1, HALF_UP)
-                            .divide(TEN, HALF_UP));
-            } else if ("switch".equals(type)) {
-                value = getValue(sensorDevice, "switch/state", v -> v);
-            } else if ("alert".equals(type)) {
-                value = getValue(sensorDevice, "alert/state", v -> v);
-            } else if ("currentTemperature".equals(type)) {
-                value = getValue(sensorDevice, "hkr/tist", AvmDevice::convertTemp);
-            } else if ("targetTemperature".equals(type)) {
-                value = getValue(sensorDevice, "hkr/tsoll", AvmDevice::convertTemp);
-            }
-
+            BigDecimal value = getValue(sensorDevice, sensor.valuePath, sensor.mapper);
             if (value != null) {
-                return new Sample(sensor, instant, value);
+                return new Sample(sensor.sensor, instant, value);
             }
         } catch (Exception ex) {
-            log.warn("Could not read sensor id {} ({})", sensor.getId(), sensor.getName(), ex);
+            log.warn("Could not read sensor id {} ({})", sensor.sensor.getId(), sensor.sensor.getName(), ex);
         }
         return null;
     }
@@ -154,16 +175,41 @@ public class AvmDevice  extends Device {
                 .orElse(null);
     }
 
+    /**
+     * Reads the current status from the AHA interface, using a cached session ID if
+     * possible. If the session ID was rejected, a new login is performed once.
+     *
+     * @return XML containing the overall sensor status
+     */
+    private XQuery fetchFromServer() {
+        Session session = SESSIONS.computeIfAbsent(hostName + '|' + user, k -> new Session());
+
+        String sid = session.getSessionId(this::login);
+        XQuery result = fetchFromServer(sid);
+        if (result == null) {
+            log.debug("Session of FRITZ!Box {} was rejected, logging in again", hostName);
+            session.invalidate(sid);
+            sid = session.getSessionId(this::login);
+            result = fetchFromServer(sid);
+        }
+
+        if (result == null) {
+            throw new GeordiException("Session was rejected by FRITZ!Box " + hostName);
+        }
+
+        return result;
+    }
+
     /**
      * Logs into the AHA interface and returns a Session ID.
      *
      * @return Session ID
      */
-    private String getSessionId() {
+    private String login() {
         try {
             String challenge;
 
-            URL url1 = new URL(getHostName() + "/login_sid.lua");
+            URL url1 = new URL(hostName + "/login_sid.lua");
             try (Reader in = new InputStreamReader(url1.openStream(), UTF_8)) {
                 XQuery xml = XQuery.parse(in);
                 String sid = findSessionId(xml);
@@ -175,20 +221,18 @@ public class AvmDevice  extends Device {
             }
 
             if (challenge == null) {
-                throw new GeordiException("No challenge provided by FRITZ!Box " + getHostName());
+                throw new GeordiException("No challenge provided by FRITZ!Box " + hostName);
             }
 
-            String user = getConfig().getString("user");
-            String password = getConfig().getString("password");
             String response = computeResponse(challenge, password);
 
-            URL url2 = new URL(getHostName() + "/login_sid.lua?username="
+            URL url2 = new URL(hostName + "/login_sid.lua?username="
                     + user + "&response=" + response);
             try (Reader in = new InputStreamReader(url2.openStream(), UTF_8)) {
                 XQuery xml = XQuery.parse(in);
                 String sid = findSessionId(xml);
                 if (sid == null || NO_SESSION.equals(sid)) {
-                    throw new GeordiException("Access denied by FRITZ!Box " + getHostName() + " for user " + user);
+                    throw new GeordiException("Access denied by FRITZ!Box " + hostName + " for user " + user);
                 }
 
                 return sid;
@@ -257,16 +301,25 @@ public class AvmDevice  extends Device {
      *
      * @param sid
      *         Session ID
-     * @return XML containing the overall sensor status
+     * @return XML containing the overall sensor status, or {@code null} if the session
+     * ID was rejected
      */
     private XQuery fetchFromServer(String sid) {
         try {
-            URL url = new URL(getHostName()
+            URL url = new URL(hostName
                     + "/webservices/homeautoswitch.lua"
                     + "?switchcmd=getdevicelistinfos"
                     + "&sid=" + sid);
 
-            try (Reader in = new InputStreamReader(url.openStream(), UTF_8)) {
+            Response<byte[]> response = responseCacheService.fetch(hostName + '|' + user, cacheTtl, url::openConnection);
+            if (response.getStatus() == HttpURLConnection.HTTP_FORBIDDEN) {
+                return null;
+            }
+            if (!response.isOk()) {
+                throw new GeordiException("Could not read from FRITZ!Box, HTTP status " + response.getStatus());
+            }
+
+            try (Reader in = new InputStreamReader(new ByteArrayInputStream(response.getBody()), UTF_8)) {
                 return XQuery.parse(in);
             }
         } catch (IOException ex) {
@@ -274,17 +327,6 @@ public class AvmDevice  extends Device {
         }
     }
 
-    /**
-     * Returns the host name of the AHA interface.
-     *
-     * @return Host name (e.g. "http://fritz.box")
-     */
-    private String getHostName() {
-        return getConfig().optBoolean("tls", false) ? "https" : "http"
-                + "://"
-                + getConfig().optString("host", "fritz.box");
-    }
-
     /**
      * Converts a thermostat decimal into a temperature value.
      *
@@ -304,4 +346,88 @@ public class AvmDevice  extends Device {
                 .divide(TWO, HALF_UP);
     }
 
+    /**
+     * The parsed configuration of an AVM {@link Sensor}.
+     */
+    private static class AvmSensor {
+        private final Sensor sensor;
+        private final String ain;
+        private final String valuePath;
+        private final Function<BigDecimal, BigDecimal> mapper;
+
+        public AvmSensor(Sensor sensor) {
+            try {
+                JSONObject config = sensor.getConfig();
+                this.sensor = sensor;
+                this.ain = config.getString("ain");
+
+                String type = config.getString("type");
+                if ("power".equals(type)) {
+                    valuePath = "powermeter/power";
+                    mapper = v -> v.setScale(3, HALF_UP).divide(ONE_THOUSAND, HALF_UP);
+                } else if ("voltage".equals(type)) {
+                    valuePath = "powermeter/voltage";
+                    mapper = v -> v.setScale(3, HALF_UP).divide(ONE_THOUSAND, HALF_UP);
+                } else if ("temperature".equals(type)) {
+                    valuePath = "temperature/celsius";
+                    mapper = v -> v.setScale(1, HALF_UP).divide(TEN, HALF_UP);
+                } else if ("switch".equals(type)) {
+                    valuePath = "switch/state";
+                    mapper = v -> v;
+                } else if ("alert".equals(type)) {
+                    valuePath = "alert/state";
+                    mapper = v -> v;
+                } else if ("currentTemperature".equals(type)) {
+                    valuePath = "hkr/tist";
+                    mapper = AvmDevice::convertTemp;
+                } else if ("targetTemperature".equals(type)) {
+                    valuePath = "hkr/tsoll";
+                    mapper = AvmDevice::convertTemp;
+                } else {
+                    throw new GeordiException("Unknown type '" + type + "' of sensor " + sensor.getId());
+                }
+            } catch (JSONException ex) {
+                throw new GeordiException("Bad config of sensor " + sensor.getId(), ex);
+            }
+        }
+    }
+
+    /**
+     * A login session of a FRITZ!Box. Sessions are shared by all devices that connect to
+     * the same FRITZ!Box with the same user, and logins are serialized.
+     */
+    private static class Session {
+        private String sid;
+        private Instant lastUsed;
+
+        /**
+         * Returns the current session ID. If there is no session, or the session has
+         * been idle for too long, a new login is performed.
+         *
+         * @param login
+         *         Performs a login and returns the new session ID
+         * @return Session ID
+         */
+        public synchronized String getSessionId(Supplier<String> login) {
+            Instant now = Instant.now();
+            if (sid == null || lastUsed.plus(SESSION_TIMEOUT).isBefore(now)) {
+                sid = login.get();
+            }
+            lastUsed = now;
+            return sid;
+        }
+
+        /**
+         * Invalidates the given session ID, if it is still the current one.
+         *
+         * @param rejectedSid
+         *         Session ID that was rejected
+         */
+        public synchronized void invalidate(String rejectedSid) {
+            if (rejectedSid.equals(sid)) {
+                sid = null;
+            }
+        }
+    }
+
 }
@@ -16,22 +16,36 @@
 package org.shredzone.geordi.device;
 
 import java.io.IOException;
+import java.io.InputStream;
 import java.io.InputStreamReader;
 import java.io.Reader;
 import java.math.BigDecimal;
+import java.net.MalformedURLException;
 import java.net.URL;
+import java.time.Duration;
 import java.time.Instant;
+import java.time.format.DateTimeParseException;
+import java.util.ArrayList;
+import java.util.HashSet;
 import java.util.List;
+import java.util.Map;
+import java.util.Set;
 import java.util.stream.Collectors;
 
 import javax.inject.Inject;
+import javax.xml.stream.XMLInputFactory;
+import javax.xml.stream.XMLStreamConstants;
+import javax.xml.stream.XMLStreamException;
+import javax.xml.stream.XMLStreamReader;
 
+import org.json.JSONException;
 import org.json.JSONObject;
-import org.shredzone.commons.xml.XQuery;
 import org.shredzone.geordi.GeordiException;
+import org.shredzone.geordi.data.Response;
 import org.shredzone.geordi.data.Sample;
+import org.shredzone.geordi.data.SampleSink;
 import org.shredzone.geordi.sensor.Sensor;
-import org.shredzone.geordi.service.DatabaseService;
+import org.shredzone.geordi.service.ResponseCacheService;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
@@ -41,63 +55,186 @@ import org.slf4j.LoggerFactory;
  * <p>
  * Requires the <a href="https://github.com/hobbyquaker/XML-API">XML-API CCU addon</a> to
  * be installed on the CCU2.
+ * <p>
+ * The response is parsed by a streaming parser while it is read. Only the datapoints
+ * that are requested by any device polling the same CCU2 are kept, and are shared
+ * between these devices. If enabled, only the required datapoints are fetched from the
+ * CCU2.
  *
  * @see <a href="https://www.eq-3.de/">eQ-3 AG</a>
  */
 public class Ccu2Device extends Device {
+    private static final String KEY_NAME = "name:";
+    private static final String KEY_ID = "id:";
+    private static final String KEY_TYPE = "type:";
+
+    private static final XMLInputFactory XML_INPUT_FACTORY = XMLInputFactory.newInstance();
+    static {
+        XML_INPUT_FACTORY.setProperty(XMLInputFactory.SUPPORT_DTD, false);
+        XML_INPUT_FACTORY.setProperty(XMLInputFactory.IS_SUPPORTING_EXTERNAL_ENTITIES, false);
+    }
 
     private final Logger log = LoggerFactory.getLogger(getClass());
 
     @Inject
-    private DatabaseService databaseService;
+    private ResponseCacheService responseCacheService;
+
+    @Inject
+    private Ccu2KeyRegistry keyRegistry;
+
+    private URL serverUrl;
+    private Duration cacheTtl;
+    private volatile long lastVersion = -1L;
+    private List<Ccu2Sensor> sensors;
+    private Map<String, List<Ccu2Sensor>> sensorsByKey;
+    private Map<String, List<String>> selectiveKeys;
+    private boolean indexByName;
+    private boolean indexById;
+    private boolean indexByType;
+
+    @Override
+    public void prepare() {
+        sensors = getSensors().stream()
+                .map(Ccu2Sensor::new)
+                .collect(Collectors.toList());
+
+        sensorsByKey = sensors.stream()
+                .collect(Collectors.groupingBy(sensor -> sensor.key));
+        Set<String> keys = sensorsByKey.keySet();
+        indexByName = keys.stream().anyMatch(k -> k.startsWith(KEY_NAME));
+        indexById = keys.stream().anyMatch(k -> k.startsWith(KEY_ID));
+        indexByType = keys.stream().anyMatch(k -> k.startsWith(KEY_TYPE));
+
+        try {
+            if (getConfig().optBoolean("selectiveFetch", false)) {
+                if (sensors.stream().anyMatch(sensor -> sensor.datapointId == null)) {
+                    throw new GeordiException("selectiveFetch requires datapointId on all sensors");
+                }
+
+                selectiveKeys = sensors.stream()
+                        .collect(Collectors.groupingBy(
+                                sensor -> sensor.datapointId,
+                                Collectors.mapping(sensor -> sensor.key,
+                                        Collectors.collectingAndThen(Collectors.toSet(), ArrayList::new))));
+
+                serverUrl = new URL("http://"
+                        + getConfig().getString("host")
+                        + "/addons/xmlapi/state.cgi?datapoint_id="
+                        + String.join(",", selectiveKeys.keySet()));
+            } else {
+                serverUrl = new URL("http://"
+                        + getConfig().getString("host")
+                        + "/addons/xmlapi/statelist.cgi");
+                keyRegistry.register(serverUrl.toString(), keys);
+            }
+        } catch (MalformedURLException | JSONException ex) {
+            throw new GeordiException("Bad host config", ex);
+        }
+
+        try {
+            cacheTtl = Duration.parse(getConfig().optString("cacheTtl", "PT1S"));
+        } catch (DateTimeParseException ex) {
+            throw new GeordiException("Bad cacheTtl config", ex);
+        }
+    }
 
     @Override
     public List<Sample> readSensors() {
-        XQuery values = fetchFromServer();
+        return collectSensors();
+    }
 
-        return databaseService.fetchSensors(this).stream()
-                .map(sensor -> getSensorValue(values, sensor))
-                .filter(it -> it != null)
-                .collect(Collectors.toList());
+    @Override
+    public void readSensors(SampleSink sink) {
+        Response<List<Datapoint>> response = fetchFromServer();
+        if (response.getVersion() == lastVersion) {
+            countPoll(true);
+            return;
+        }
+        countPoll(false);
+
+        lastVersion = response.getVersion();
+
+        Set<String> found = new HashSet<>();
+        for (Datapoint dp : response.getBody()) {
+            if (found.size() >= sensorsByKey.size()) {
+                break;
+            }
+            emitDatapoint(found, dp, sink);
+        }
+
+        if (found.size() < sensorsByKey.size()) {
+            sensors.stream()
+                    .filter(sensor -> !found.contains(sensor.key))
+                    .forEach(sensor -> log.warn("Could not read sensor id {} ({}): Datapoint not found",
+                            sensor.sensor.getId(), sensor.sensor.getName()));
+        }
+    }
+
+    /**
+     * Emits the samples of all sensors that refer to the given datapoint.
+     *
+     * @param found
+     *            Keys of the datapoints that have been found so far
+     * @param dp
+     *            {@link Datapoint} to emit
+     * @param sink
+     *            {@link SampleSink} that receives the samples
+     */
+    private void emitDatapoint(Set<String> found, Datapoint dp, SampleSink sink) {
+        if (selectiveKeys != null) {
+            List<String> keys = selectiveKeys.get(dp.iseId);
+            if (keys != null) {
+                keys.forEach(key -> emit(found, key, dp, sink));
+            }
+            return;
+        }
+
+        if (indexByName) {
+            emit(found, KEY_NAME + dp.name, dp, sink);
+        }
+
+        if (dp.deviceId != null && dp.channelId != null) {
+            String channelPath = dp.deviceId + '/' + dp.channelId + '/';
+            if (indexById) {
+                emit(found, KEY_ID + channelPath + dp.iseId, dp, sink);
+            }
+            if (indexByType) {
+                emit(found, KEY_TYPE + channelPath + dp.type, dp, sink);
+            }
+        }
+    }
+
+    private void emit(Set<String> found, String key, Datapoint dp, SampleSink sink) {
+        if (key == null || found.contains(key)) {
+            return;
+        }
+
+        List<Ccu2Sensor> keySensors = sensorsByKey.get(key);
+        if (keySensors != null) {
+            found.add(key);
+            for (Ccu2Sensor sensor : keySensors) {
+                Sample sample = getSensorValue(dp, sensor);
+                if (sample != null) {
+                    sink.accept(sample);
+                }
+            }
+        }
     }
 
     /**
-     * Reads the current sensor value from the given {@link Sensor}.
+     * Reads the current sensor value from the given {@link Datapoint}.
      *
-     * @param values
-     *            XML that was read from the CCU2
+     * @param datapoint
+     *            {@link Datapoint} that was read from the CCU2
      * @param sensor
-     *            {@link Sensor} to be read
+     *            {@link Ccu2Sensor} to be read
      * @return {@link Sample} containing the sensor value
      */
-    private Sample getSensorValue(XQuery values, Sensor sensor) {
+    private Sample getSensorValue(Datapoint datapoint, Ccu2Sensor sensor) {
         try {
-            JSONObject config = sensor.getConfig();
-
-            XQuery sensorDevice;
-
-            if (config.has("datapointName")) {
-                sensorDevice = values.get(String.format(
-                        "//datapoint[@name='%s']",
-                        config.getString("datapointName")));
-            } else if (config.has("datapointId")) {
-                sensorDevice = values.get(String.format(
-                        "/stateList/device[@ise_id='%d']/channel[@ise_id='%d']/datapoint[@ise_id='%d']",
-                        config.getInt("deviceId"),
-                        config.getInt("channelId"),
-                        config.getInt("datapointId")));
-            } else {
-                sensorDevice = values.get(String.format(
-                        "/stateList/device[@ise_id='%d']/channel[@ise_id='%d']/datapoint[@type='%s']",
-                        config.getInt("deviceId"),
-                        config.getInt("channelId"),
-                        config.getString("type")));
-            }
+            Instant timestamp = Instant.ofEpochMilli(Long.parseLong(datapoint.timestamp) * 1000L);
 
-            String timestampStr = sensorDevice.attr().get("timestamp");
-            Instant timestamp = Instant.ofEpochMilli(Long.parseLong(timestampStr) * 1000L);
-
-            String valueStr = sensorDevice.attr().get("value");
+            String valueStr = datapoint.value;
             BigDecimal value;
             if ("false".equals(valueStr)) {
                 value = BigDecimal.ZERO;
@@ -107,9 +244,9 @@ public class Ccu2Device extends Device {
                 value = new BigDecimal(valueStr);
             }
 
-            return new Sample(sensor, timestamp, value);
+            return new Sample(sensor.sensor, timestamp, value);
         } catch (Exception ex) {
-            log.warn("Could not read sensor id {} ({})", sensor.getId(), sensor.getName(), ex);
+            log.warn("Could not read sensor id {} ({})", sensor.sensor.getId(), sensor.sensor.getName(), ex);
             return null;
         }
     }
@@ -117,20 +254,218 @@ public class Ccu2Device extends Device {
     /**
      * Reads the current status from the CCU2.
      *
-     * @return XML containing the sensor status
+     * @return {@link Response} containing the datapoints of the CCU2
      */
-    private XQuery fetchFromServer() {
+    private Response<List<Datapoint>> fetchFromServer() {
         try {
-            URL url = new URL("http://"
-                            + getConfig().getString("host")
-                            + "/addons/xmlapi/statelist.cgi");
-
-            try (Reader in = new InputStreamReader(url.openStream(), "iso-8859-1")) {
-                return XQuery.parse(in);
+            String url = serverUrl.toString();
+            ResponseCacheService.BodyParser<List<Datapoint>> parser = selectiveKeys != null
+                    ? Ccu2Device::parse
+                    : in -> parse(in, keyRegistry.getKeys(url));
+            Response<List<Datapoint>> response = responseCacheService.fetch(url,
+                    cacheTtl, serverUrl::openConnection, parser);
+            if (!response.isOk()) {
+                throw new GeordiException("Could not read CCU2, HTTP status " + response.getStatus());
             }
+            return response;
         } catch (IOException ex) {
             throw new GeordiException("Could not read CCU2", ex);
         }
     }
 
+    /**
+     * Parses the XML response of the CCU2 while it is read, and keeps all datapoints.
+     *
+     * @param in
+     *            {@link InputStream} of the response
+     * @return List of all {@link Datapoint}, in document order
+     */
+    static List<Datapoint> parse(InputStream in) throws IOException {
+        return parse(in, null);
+    }
+
+    /**
+     * Parses the XML response of the CCU2 while it is read. Only the datapoints matching
+     * one of the given keys are kept. The result only depends on the response and the
+     * keys, so it can be shared with other devices polling the same CCU2 if the keys
+     * contain the keys of all these devices.
+     *
+     * @param in
+     *            {@link InputStream} of the response
+     * @param keys
+     *            Keys of the datapoints to be kept, or {@code null} to keep all
+     *            datapoints
+     * @return List of the matching {@link Datapoint}, in document order
+     */
+    static List<Datapoint> parse(InputStream in, Set<String> keys) throws IOException {
+        try {
+            Reader rd = new InputStreamReader(in, "iso-8859-1");
+            XMLStreamReader reader = XML_INPUT_FACTORY.createXMLStreamReader(rd);
+            try {
+                return parse(reader, keys != null ? new KeyFilter(keys) : null);
+            } finally {
+                reader.close();
+            }
+        } catch (XMLStreamException ex) {
+            throw new GeordiException("Could not read CCU2", ex);
+        }
+    }
+
+    /**
+     * Parses the datapoints of the XML response.
+     *
+     * @param reader
+     *            {@link XMLStreamReader} of the response
+     * @param filter
+     *            {@link KeyFilter} of the datapoints to be kept, or {@code null} to keep
+     *            all datapoints
+     * @return List of the matching {@link Datapoint}, in document order
+     */
+    private static List<Datapoint> parse(XMLStreamReader reader, KeyFilter filter)
+                throws XMLStreamException {
+        List<Datapoint> result = new ArrayList<>();
+        String deviceId = null;
+        String channelId = null;
+
+        while (reader.hasNext()) {
+            int event = reader.next();
+            if (event == XMLStreamConstants.START_ELEMENT) {
+                switch (reader.getLocalName()) {
+                    case "device":
+                        deviceId = reader.getAttributeValue(null, "ise_id");
+                        break;
+
+                    case "channel":
+                        channelId = reader.getAttributeValue(null, "ise_id");
+                        break;
+
+                    case "datapoint":
+                        if (filter == null || filter.matches(deviceId, channelId, reader)) {
+                            result.add(new Datapoint(deviceId, channelId, reader));
+                        }
+                        break;
+
+                    default:
+                        // ignore all other elements
+                }
+            } else if (event == XMLStreamConstants.END_ELEMENT) {
+                if ("device".equals(reader.getLocalName())) {
+                    deviceId = null;
+                } else if ("channel".equals(reader.getLocalName())) {
+                    channelId = null;
+                }
+            }
+        }
+
+        return result;
+    }
+
+    /**
+     * Checks if a datapoint of the XML response matches one of the requested keys. Keys
+     * of a kind that is not requested are not generated at all.
+     */
+    private static class KeyFilter {
+        private final Set<String> keys;
+        private final boolean byName;
+        private final boolean byId;
+        private final boolean byType;
+
+        public KeyFilter(Set<String> keys) {
+            this.keys = keys;
+            this.byName = keys.stream().anyMatch(k -> k.startsWith(KEY_NAME));
+            this.byId = keys.stream().anyMatch(k -> k.startsWith(KEY_ID));
+            this.byType = keys.stream().anyMatch(k -> k.startsWith(KEY_TYPE));
+        }
+
+        /**
+         * Checks if the datapoint matches one of the keys.
+         *
+         * @param deviceId
+         *            ID of the device the datapoint belongs to, or {@code null}
+         * @param channelId
+         *            ID of the channel the datapoint belongs to, or {@code null}
+         * @param reader
+         *            {@link XMLStreamReader} positioned at the datapoint element
+         */
+        public boolean matches(String deviceId, String channelId, XMLStreamReader reader) {
+            if (byName && keys.contains(KEY_NAME + reader.getAttributeValue(null, "name"))) {
+                return true;
+            }
+            if (deviceId == null || channelId == null) {
+                return false;
+            }
+            String channelPath = deviceId + '/' + channelId + '/';
+            return (byId && keys.contains(KEY_ID + channelPath + reader.getAttributeValue(null, "ise_id")))
+                    || (byType && keys.contains(KEY_TYPE + channelPath + reader.getAttributeValue(null, "type")));
+        }
+    }
+
+    /**
+     * A datapoint of the CCU2 response.
+     */
+    static class Datapoint {
+        private final String deviceId;
+        private final String channelId;
+        private final String iseId;
+        private final String name;
+        private final String type;
+        private final String timestamp;
+        private final String value;
+
+        /**
+         * Creates a new {@link Datapoint}.
+         *
+         * @param deviceId
+         *            ID of the device the datapoint belongs to, or {@code null}
+         * @param channelId
+         *            ID of the channel the datapoint belongs to, or {@code null}
+         * @param reader
+         *            {@link XMLStreamReader} positioned at the datapoint element
+         */
+        public Datapoint(String deviceId, String channelId, XMLStreamReader reader) {
+            this.deviceId = deviceId;
+            this.channelId = channelId;
+            this.iseId = reader.getAttributeValue(null, "ise_id");
+            this.name = reader.getAttributeValue(null, "name");
+            this.type = reader.getAttributeValue(null, "type");
+            this.timestamp = reader.getAttributeValue(null, "timestamp");
+            this.value = reader.getAttributeValue(null, "value");
+        }
+    }
+
+    /**
+     * The parsed configuration of a CCU2 {@link Sensor}.
+     */
+    private static class Ccu2Sensor {
+        private final Sensor sensor;
+        private final String key;
+        private final String datapointId;
+
+        public Ccu2Sensor(Sensor sensor) {
+            try {
+                JSONObject config = sensor.getConfig();
+                this.sensor = sensor;
+
+                if (config.has("datapointName")) {
+                    key = KEY_NAME + config.getString("datapointName");
+                    datapointId = null;
+                } else if (config.has("datapointId")) {
+                    datapointId = String.valueOf(config.getInt("datapointId"));
+                    key = KEY_ID
+                            + config.getInt("deviceId") + '/'
+                            + config.getInt("channelId") + '/'
+                            + datapointId;
+                } else {
+                    key = KEY_TYPE
+                            + config.getInt("deviceId") + '/'
+                            + config.getInt("channelId") + '/'
+                            + config.getString("type");
+                    datapointId = null;
+                }
+            } catch (JSONException ex) {
+                throw new GeordiException("Bad config of sensor " + sensor.getId(), ex);
+            }
+        }
+    }
+
 }
@@ -0,0 +1,65 @@
+/*
+ * geordi
+ *
+ * Copyright (C) 2020 Richard "Shred" Körber
+ *   https://codeberg.org/shred/geordi
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.
+ */
+package org.shredzone.geordi.device;
+
+import java.util.Collection;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+
+import javax.inject.Singleton;
+
+/**
+ * Keeps the datapoint keys that are requested from each CCU2 URL, by all devices that
+ * poll that URL. The state list is filtered by these keys while it is parsed, so the
+ * parsed response only holds the datapoints that are actually needed, and can still be
+ * shared between the devices.
+ */
+@Singleton
+class Ccu2KeyRegistry {
+
+    private final Map<String, Set<String>> keysByUrl = new ConcurrentHashMap<>();
+
+    /**
+     * Registers the keys that a device requests from a CCU2 URL.
+     *
+     * @param url
+     *            CCU2 URL
+     * @param keys
+     *            Datapoint keys of the device
+     */
+    public void register(String url, Collection<String> keys) {
+        keysByUrl.compute(url, (k, old) -> {
+            Set<String> result = old != null ? new HashSet<>(old) : new HashSet<>();
+            result.addAll(keys);
+            return result;
+        });
+    }
+
+    /**
+     * Returns the keys that are requested from a CCU2 URL by all devices.
+     *
+     * @param url
+     *            CCU2 URL
+     * @return Set of datapoint keys. Must not be modified.
+     */
+    public Set<String> getKeys(String url) {
+        Set<String> keys = keysByUrl.get(url);
+        return keys != null ? keys : new HashSet<>();
+    }
+
+}
@@ -0,0 +1,330 @@
+/*
+ * geordi
+ *
+ * Copyright (C) 2020 Richard "Shred" Körber
+ *   https://codeberg.org/shred/geordi
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.
+ */
+package org.shredzone.geordi.device;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.math.BigDecimal;
+import java.net.InetSocketAddress;
+import java.net.MalformedURLException;
+import java.net.URL;
+import java.time.Duration;
+import java.time.Instant;
+import java.time.format.DateTimeParseException;
+import java.time.temporal.ChronoUnit;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import javax.inject.Inject;
+import javax.xml.stream.XMLStreamException;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpServer;
+import org.json.JSONException;
+import org.json.JSONObject;
+import org.shredzone.geordi.GeordiException;
+import org.shredzone.geordi.data.Sample;
+import org.shredzone.geordi.data.SampleSink;
+import org.shredzone.geordi.sensor.Sensor;
+import org.shredzone.geordi.service.IngestService;
+import org.shredzone.geordi.util.XmlRpc;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * A {@link Device} implementation that receives value changes from Homematic CCU2 home
+ * automation centrals as they happen.
+ * <p>
+ * Geordi registers itself as XML-RPC event receiver at the CCU2, and stores the events
+ * of all sensors that are configured by their datapoint name. If no events are received
+ * for a while, the registration is renewed, and the sensors are polled like with
+ * {@link Ccu2Device} until events are received again. The registration is removed when
+ * Geordi is shut down.
+ * <p>
+ * Events are ingested, and polled values are passed to the poll's sink, under the same
+ * lock. This way, events and polled values of a sensor are not compacted or stored
+ * concurrently while the poll is running.
+ *
+ * @see <a href="https://www.eq-3.de/">eQ-3 AG</a>
+ */
+public class Ccu2RpcDevice extends Ccu2Device {
+    private static final List<String> METHODS = Arrays.asList(
+            "event", "listDevices", "newDevices", "deleteDevices", "updateDevice",
+            "replaceDevice", "readdedDevice", "system.listMethods", "system.multicall");
+
+    private final Logger log = LoggerFactory.getLogger(getClass());
+    private final Object ingestLock = new Object();
+
+    @Inject
+    private IngestService ingestService;
+
+    private String callbackUrl;
+    private String callbackBind;
+    private int callbackPort;
+    private Duration eventTimeout;
+    private Map<String, URL> interfaceUrls;
+    private Map<String, String> interfaceNames;
+    private Map<String, Sensor> datapoints;
+
+    private HttpServer server;
+    private volatile Instant registered;
+    private volatile Instant lastEvent;
+
+    @Override
+    public void prepare() {
+        super.prepare();
+
+        try {
+            JSONObject config = getConfig();
+            String host = config.getString("host");
+
+            String callbackHost = config.getString("callbackHost");
+            callbackPort = config.getInt("callbackPort");
+            callbackUrl = "http://" + callbackHost + ':' + callbackPort + '/';
+            callbackBind = config.optString("callbackBind", callbackHost);
+            eventTimeout = Duration.parse(config.optString("eventTimeout", "PT10M"));
+
+            JSONObject interfaces = config.optJSONObject("interfaces");
+            if (interfaces == null) {
+                interfaces = new JSONObject();
+                interfaces.put("BidCos-RF", 2001);
+                interfaces.put("HmIP-RF", 2010);
+            }
+
+            interfaceUrls = new HashMap<>();
+            interfaceNames = new HashMap<>();
+            for (String name : interfaces.keySet()) {
+                String interfaceId = "geordi-" + getId() + '-' + name;
+                interfaceUrls.put(interfaceId, new URL("http://" + host + ':' + interfaces.getInt(name) + '/'));
+                interfaceNames.put(interfaceId, name);
+            }
+        } catch (JSONException | MalformedURLException | DateTimeParseException ex) {
+            throw new GeordiException("Bad RPC config", ex);
+        }
+
+        datapoints = new HashMap<>();
+        for (Sensor sensor : getSensors()) {
+            String name = sensor.getConfig().optString("datapointName", null);
+            if (name != null) {
+                datapoints.put(name, sensor);
+            }
+        }
+    }
+
+    @Override
+    public boolean isEventDriven(Sensor sensor) {
+        // Events are only sent when a value has changed
+        return true;
+    }
+
+    @Override
+    public void readSensors(SampleSink sink) {
+        startServer();
+
+        Instant now = Instant.now();
+        Instant last = lastEvent;
+        if (last != null && last.plus(eventTimeout).isAfter(now)) {
+            // Events are received, nothing to poll
+            return;
+        }
+
+        Instant reg = registered;
+        if (reg == null || reg.plus(eventTimeout).isBefore(now)) {
+            register();
+        }
+
+        // Polled values are accepted under the lock, so they cannot interleave with events
+        super.readSensors(sample -> {
+            synchronized (ingestLock) {
+                sink.accept(sample);
+            }
+        });
+    }
+
+    /**
+     * Removes the registration at all interfaces of the CCU2, and stops the XML-RPC
+     * server.
+     */
+    @Override
+    public synchronized void shutdown() {
+        if (server == null) {
+            return;
+        }
+
+        for (Map.Entry<String, URL> entry : interfaceUrls.entrySet()) {
+            try {
+                XmlRpc.call(entry.getValue(), "init", callbackUrl, "");
+                log.debug("Deregistered from CCU2 interface {}", entry.getValue());
+            } catch (IOException ex) {
+                log.warn("Could not deregister from CCU2 interface {}", entry.getValue(), ex);
+            }
+        }
+        registered = null;
+
+        server.stop(0);
+        server = null;
+    }
+
+    /**
+     * Starts the XML-RPC server that receives the events, if it is not running yet.
+     */
+    private synchronized void startServer() {
+        if (server != null) {
+            return;
+        }
+
+        try {
+            server = HttpServer.create(new InetSocketAddress(callbackBind, callbackPort), 0);
+            server.createContext("/", this::handle);
+            server.start();
+            log.info("Listening to CCU2 events of device {} on {}:{}", getName(), callbackBind, callbackPort);
+        } catch (IOException ex) {
+            throw new GeordiException("Could not start XML-RPC server", ex);
+        }
+    }
+
+    /**
+     * Registers Geordi as event receiver on all interfaces of the CCU2.
+     */
+    private void register() {
+        for (Map.Entry<String, URL> entry : interfaceUrls.entrySet()) {
+            try {
+                XmlRpc.call(entry.getValue(), "init", callbackUrl, entry.getKey());
+                log.debug("Registered at CCU2 interface {}", entry.getValue());
+            } catch (IOException ex) {
+                log.warn("Could not register at CCU2 interface {}", entry.getValue(), ex);
+            }
+        }
+        registered = Instant.now();
+    }
+
+    /**
+     * Handles an XML-RPC request of the CCU2.
+     */
+    private void handle(HttpExchange exchange) throws IOException {
+        try {
+            XmlRpc.MethodCall call;
+            try (InputStream in = exchange.getRequestBody()) {
+                call = XmlRpc.parseCall(in);
+            }
+
+            List<Sample> samples = new ArrayList<>();
+            Object result = invoke(call.getMethodName(), call.getParams(), samples);
+
+            exchange.getResponseHeaders().set("Content-Type", XmlRpc.getContentType());
+            exchange.sendResponseHeaders(200, 0);
+            try (OutputStream out = exchange.getResponseBody()) {
+                XmlRpc.writeResponse(out, result);
+            }
+
+            if (!samples.isEmpty()) {
+                synchronized (ingestLock) {
+                    ingestService.ingest(samples);
+                }
+            }
+        } catch (XMLStreamException ex) {
+            log.warn("Bad XML-RPC request from {}", exchange.getRemoteAddress(), ex);
+            exchange.sendResponseHeaders(400, -1);
+        } catch (Exception ex) {
+            log.error("Failed to process CCU2 events of device {}", getId(), ex);
+        } finally {
+            exchange.close();
+        }
+    }
+
+    /**
+     * Invokes an XML-RPC method.
+     *
+     * @param method
+     *         Method name
+     * @param params
+     *         Method parameters
+     * @param samples
+     *         List to add {@link Sample} of received events to
+     * @return Method result
+     */
+    private Object invoke(String method, List<Object> params, List<Sample> samples) {
+        switch (method) {
+            case "event":
+                onEvent(params, samples);
+                return "";
+
+            case "system.multicall": {
+                List<Object> results = new ArrayList<>();
+                for (Object c : (List<?>) params.get(0)) {
+                    Map<?, ?> subcall = (Map<?, ?>) c;
+                    List<Object> subparams = new ArrayList<>((List<?>) subcall.get("params"));
+                    results.add(Collections.singletonList(
+                            invoke(String.valueOf(subcall.get("methodName")), subparams, samples)));
+                }
+                return results;
+            }
+
+            case "listDevices":
+                return Collections.emptyList();
+
+            case "system.listMethods":
+                return METHODS;
+
+            default:
+                return "";
+        }
+    }
+
+    /**
+     * Converts an event into a {@link Sample}, if the datapoint belongs to a sensor.
+     *
+     * @param params
+     *         Event parameters: interface ID, address, value key, and value
+     * @param samples
+     *         List to add the {@link Sample} to
+     */
+    private void onEvent(List<Object> params, List<Sample> samples) {
+        String interfaceName = interfaceNames.get(String.valueOf(params.get(0)));
+        if (interfaceName == null) {
+            return;
+        }
+
+        lastEvent = Instant.now();
+
+        String name = interfaceName + '.' + params.get(1) + '.' + params.get(2);
+        Sensor sensor = datapoints.get(name);
+        if (sensor == null) {
+            return;
+        }
+
+        Object value = params.get(3);
+        BigDecimal decimal;
+        if (value instanceof Boolean) {
+            decimal = (Boolean) value ? BigDecimal.ONE : BigDecimal.ZERO;
+        } else if (value instanceof BigDecimal) {
+            decimal = (BigDecimal) value;
+        } else if (value instanceof Number) {
+            decimal = new BigDecimal(value.toString());
+        } else {
+            log.debug("Ignoring non-numeric value of datapoint {}", name);
+            return;
+        }
+
+        samples.add(new Sample(sensor, Instant.now().truncatedTo(ChronoUnit.MILLIS), decimal));
+    }
+
+}
@@ -15,11 +15,19 @@
  */
 package org.shredzone.geordi.device;
 
+import java.util.ArrayList;
+import java.util.Collections;
 import java.util.List;
+import java.util.concurrent.atomic.LongAdder;
 
 import org.json.JSONObject;
 import org.quartz.CronExpression;
+import org.shredzone.geordi.GeordiException;
 import org.shredzone.geordi.data.Sample;
+import org.shredzone.geordi.data.SampleSink;
+import org.shredzone.geordi.sensor.Sensor;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
 
 /**
  * A {@link Device} is some kind of hardware that is to be frequently polled for new
@@ -30,10 +38,15 @@ import org.shredzone.geordi.data.Sample;
  */
 public abstract class Device {
 
+    private final Logger log = LoggerFactory.getLogger(getClass());
+    private final LongAdder pollCount = new LongAdder();
+    private final LongAdder skipCount = new LongAdder();
+
     private int id;
     private String name;
     private CronExpression cron;
     private JSONObject config;
+    private List<Sensor> sensors = Collections.emptyList();
 
     /**
      * Reads the device ID.
@@ -91,6 +104,68 @@ public abstract class Device {
         this.config = config;
     }
 
+    /**
+     * Returns all {@link Sensor} of this device.
+     */
+    public List<Sensor> getSensors() {
+        return sensors;
+    }
+
+    /**
+     * Sets the {@link Sensor} of this device.
+     */
+    public void setSensors(List<Sensor> sensors) {
+        this.sensors = Collections.unmodifiableList(new ArrayList<>(sensors));
+    }
+
+    /**
+     * Checks if a {@link Sensor} of this device only delivers samples on events or value
+     * changes, rather than on every poll. The staleness of such sensors is only checked
+     * if they have an explicit "StaleAfter" option.
+     *
+     * @param sensor
+     *         {@link Sensor} of this device
+     * @return {@code true} if the sensor is event-driven. The default is {@code false}.
+     */
+    public boolean isEventDriven(Sensor sensor) {
+        return false;
+    }
+
+    /**
+     * Prepares the device for polling. It is invoked once, after the configuration and
+     * the sensors of the device have been set.
+     * <p>
+     * Implementations should parse and validate the device and sensor configurations
+     * here, so it does not need to be done on every poll.
+     *
+     * @throws GeordiException
+     *         if the device or sensor configuration is invalid
+     */
+    public void prepare() {
+        // default: nothing to prepare
+    }
+
+    /**
+     * Starts the device. It is invoked once, after Geordi has been set up and before the
+     * devices are polled.
+     * <p>
+     * Implementations that receive samples from their sensors should start their
+     * listeners here, so no samples are refused until the first poll.
+     */
+    public void start() {
+        // default: nothing to start
+    }
+
+    /**
+     * Shuts down the device. It is invoked once, when Geordi is terminated.
+     * <p>
+     * Implementations should stop their servers and threads here, and remove
+     * registrations they made at the device.
+     */
+    public void shutdown() {
+        // default: nothing to shut down
+    }
+
     /**
      * Reads all sensors of this device.
      *
@@ -99,4 +174,63 @@ public abstract class Device {
      */
     public abstract List<Sample> readSensors();
 
+    /**
+     * Reads all sensors of this device, and passes each {@link Sample} to the given
+     * {@link SampleSink}.
+     * <p>
+     * By default, the samples are read by {@link #readSensors()} and then passed to the
+     * sink. Implementations should override this method if they are able to emit the
+     * samples while parsing the response of the device, and then implement
+     * {@link #readSensors()} by {@link #collectSensors()}.
+     *
+     * @param sink
+     *         {@link SampleSink} that accepts the samples that have been read
+     */
+    public void readSensors(SampleSink sink) {
+        readSensors().forEach(sink::accept);
+    }
+
+    /**
+     * Reads all sensors of this device by {@link #readSensors(SampleSink)}, and
+     * collects the samples.
+     *
+     * @return List of {@link Sample} objects containing all current sensor values that
+     *         have been read.
+     */
+    protected final List<Sample> collectSensors() {
+        List<Sample> result = new ArrayList<>();
+        readSensors(result::add);
+        return result;
+    }
+
+    /**
+     * Returns the number of polls that fetched a payload from the device.
+     */
+    public long getPollCount() {
+        return pollCount.sum();
+    }
+
+    /**
+     * Returns the number of polls that were skipped, because the payload of the device
+     * was unchanged since the previous poll.
+     */
+    public long getSkipCount() {
+        return skipCount.sum();
+    }
+
+    /**
+     * Counts a poll of the device.
+     *
+     * @param skipped
+     *         {@code true} if the payload was unchanged and the poll was skipped
+     */
+    protected void countPoll(boolean skipped) {
+        pollCount.increment();
+        if (skipped) {
+            skipCount.increment();
+            log.debug("Device {} is unchanged, skipped {} of {} polls",
+                    id, skipCount.sum(), pollCount.sum());
+        }
+    }
+
 }
@@ -15,30 +15,41 @@
  */
 package org.shredzone.geordi.device;
 
+import static java.nio.charset.StandardCharsets.UTF_8;
+import static java.util.stream.Collectors.toList;
+
+import java.io.ByteArrayInputStream;
 import java.io.IOException;
-import java.io.InputStream;
+import java.io.InputStreamReader;
 import java.math.BigDecimal;
 import java.math.RoundingMode;
 import java.net.MalformedURLException;
 import java.net.URL;
+import java.time.Duration;
 import java.time.Instant;
+import java.time.format.DateTimeParseException;
 import java.time.temporal.ChronoField;
 import java.time.temporal.ChronoUnit;
 import java.time.temporal.Temporal;
 import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
 import java.util.List;
+import java.util.Map;
 import java.util.Optional;
+import java.util.Set;
 
 import javax.inject.Inject;
 
-import org.json.JSONArray;
 import org.json.JSONException;
 import org.json.JSONObject;
-import org.json.JSONTokener;
 import org.shredzone.geordi.GeordiException;
+import org.shredzone.geordi.data.Response;
 import org.shredzone.geordi.data.Sample;
 import org.shredzone.geordi.sensor.Sensor;
-import org.shredzone.geordi.service.DatabaseService;
+import org.shredzone.geordi.service.ResponseCacheService;
+import org.shredzone.geordi.util.JsonReader;
 
 /**
  * A {@link Device} implementation that reads particulate sensors. It also supports all
@@ -52,72 +63,188 @@ import org.shredzone.geordi.service.DatabaseService;
  */
 public class DustyDevice extends Device {
 
+    private static final String BMP_TEMPERATURE = "BMP_temperature";
+    private static final String HUMIDITY = "humidity";
+
     @Inject
-    private DatabaseService databaseService;
+    private ResponseCacheService responseCacheService;
+
+    private URL serverUrl;
+    private Duration cacheTtl;
+    private volatile long lastVersion = -1L;
+    private volatile Map<String, BigDecimal> lastValues;
+    private volatile Instant lastTimestamp;
+    private List<DustySensor> sensors;
+    private Set<String> valueTypes;
+
+    @Override
+    public void prepare() {
+        serverUrl = getServerUrl();
+        try {
+            cacheTtl = Duration.parse(getConfig().optString("cacheTtl", "PT1S"));
+        } catch (DateTimeParseException ex) {
+            throw new GeordiException("Bad cacheTtl config", ex);
+        }
+        sensors = getSensors().stream()
+                .map(DustySensor::new)
+                .collect(toList());
+
+        valueTypes = new HashSet<>();
+        for (DustySensor sensor : sensors) {
+            valueTypes.add(sensor.valueType);
+            if (sensor.height != null) {
+                valueTypes.add(BMP_TEMPERATURE);
+            }
+            if (sensor.dewpoint) {
+                valueTypes.add(HUMIDITY);
+            }
+        }
+    }
 
     @Override
     public List<Sample> readSensors() {
-        JSONObject json;
-        try (InputStream in = getServerUrl().openStream()) {
-            json = new JSONObject(new JSONTokener(in));
-        } catch (IOException | JSONException ex) {
+        Response<byte[]> response = fetchFromServer();
+        if (response.getVersion() == lastVersion) {
+            countPoll(true);
+            return Collections.emptyList();
+        }
+
+        long age = -1L;
+        Map<String, BigDecimal> values = new HashMap<>();
+
+        try (JsonReader json = new JsonReader(new InputStreamReader(
+                    new ByteArrayInputStream(response.getBody()), UTF_8))) {
+            json.beginObject();
+            while (json.hasNext()) {
+                String name = json.nextName();
+                if ("age".equals(name)) {
+                    age = json.nextLong();
+                } else if ("sensordatavalues".equals(name)) {
+                    readValues(json, values);
+                } else {
+                    json.skipValue();
+                }
+            }
+            json.endObject();
+        } catch (IOException ex) {
             throw new GeordiException("Could not read data for sensor " + getId(), ex);
         }
 
+        if (age < 0L) {
+            throw new GeordiException("No age in data of sensor " + getId());
+        }
+
+        lastVersion = response.getVersion();
+
         // Dusty only returns the "age" of the last sample, in seconds. To convert it
         // into a timestamp, we subtract the "age" from the current time, and truncate
         // it to slots having a width of 2 seconds. This way, "ts" will always contain
         // the same timestamp of the sample, taking into account that Dusty's internal
         // clock is not synchronized to the server's clock.
         Instant ts = Instant.now()
-                    .minus(json.getLong("age"), ChronoUnit.SECONDS)
+                    .minus(age, ChronoUnit.SECONDS)
                     .with(DustyDevice::truncate2Seconds);
 
-        JSONArray values = json.getJSONArray("sensordatavalues");
+        // The "age" changes on every poll, so the payload is never unchanged. Instead,
+        // the poll is skipped if the used values are unchanged, and the timestamp is
+        // in the same or an adjacent slot, so it is still the same measurement.
+        Instant previousTs = lastTimestamp;
+        if (values.equals(lastValues) && previousTs != null
+                && Duration.between(previousTs, ts).abs().getSeconds() <= 2L) {
+            countPoll(true);
+            return Collections.emptyList();
+        }
+        countPoll(false);
+        lastValues = values;
+        lastTimestamp = ts;
 
-        List<Sample> result = new ArrayList<>();
-        for (Sensor sensor : databaseService.fetchSensors(this)) {
+        List<Sample> result = new ArrayList<>(sensors.size());
+        for (DustySensor sensor : sensors) {
             getSensorValue(values, sensor)
-                    .map(value -> new Sample(sensor, ts, value))
+                    .map(value -> new Sample(sensor.sensor, ts, value))
                     .ifPresent(result::add);
         }
 
         return result;
     }
 
+    /**
+     * Reads the "sensordatavalues" array of the JSON response. Only the values that are
+     * required by the sensors are decoded.
+     *
+     * @param json
+     *            {@link JsonReader} positioned at the array
+     * @param values
+     *            Map to add the value types and their values to
+     */
+    private void readValues(JsonReader json, Map<String, BigDecimal> values) throws IOException {
+        json.beginArray();
+        while (json.hasNext()) {
+            String type = null;
+            String pending = null;
+            BigDecimal value = null;
+
+            json.beginObject();
+            while (json.hasNext()) {
+                String name = json.nextName();
+                if ("value_type".equals(name)) {
+                    type = json.nextString();
+                } else if ("value".equals(name) && type == null) {
+                    // value_type is still unknown, so keep the raw value for later
+                    pending = json.nextString();
+                } else if ("value".equals(name) && valueTypes.contains(type)) {
+                    value = json.nextDecimal();
+                } else {
+                    json.skipValue();
+                }
+            }
+            json.endObject();
+
+            if (type != null && valueTypes.contains(type) && !values.containsKey(type)) {
+                if (value == null && pending != null) {
+                    try {
+                        value = new BigDecimal(pending);
+                    } catch (NumberFormatException ex) {
+                        // not a numeric value, ignore it
+                    }
+                }
+                if (value != null) {
+                    values.put(type, value);
+                }
+            }
+        }
+        json.endArray();
+    }
+
     /**
      * Reads the value of a {@link Sensor} from the JSON response.
      *
      * @param values
-     *            JSON response of Dusty
+     *            Values of the JSON response of Dusty
      * @param sensor
-     *            {@link Sensor} to read
+     *            {@link DustySensor} to read
      * @return Sensor value, or empty if the sensor provided no value
      */
-    private Optional<BigDecimal> getSensorValue(JSONArray values, Sensor sensor) {
-        JSONObject config = sensor.getConfig();
-
-        String key = config.getString("value_type");
-
-        Optional<BigDecimal> result = findValue(values, key);
+    private Optional<BigDecimal> getSensorValue(Map<String, BigDecimal> values, DustySensor sensor) {
+        Optional<BigDecimal> result = findValue(values, sensor.valueType);
 
-        if (config.has("divisor")) {
-            result = result.map(it -> it.divide(config.getBigDecimal("divisor")));
+        if (sensor.divisor != null) {
+            result = result.map(it -> it.divide(sensor.divisor));
         }
 
-        if (config.has("height")) {
-            Optional<BigDecimal> temp = findValue(values, "BMP_temperature");
+        if (sensor.height != null) {
+            Optional<BigDecimal> temp = findValue(values, BMP_TEMPERATURE);
             if (!temp.isPresent()) {
                 return Optional.empty();
             }
             result = result.map(BigDecimal::doubleValue)
-                    .map(it -> convertToRelative(it, temp.get().doubleValue(), config.getInt("height")))
+                    .map(it -> convertToRelative(it, temp.get().doubleValue(), sensor.height))
                     .map(BigDecimal::new)
                     .map(it -> it.setScale(2, RoundingMode.HALF_UP));
         }
 
-        if (config.has("dewpoint") && config.getBoolean("dewpoint") == true) {
-            Optional<BigDecimal> humidity = findValue(values, "humidity");
+        if (sensor.dewpoint) {
+            Optional<BigDecimal> humidity = findValue(values, HUMIDITY);
             if (!humidity.isPresent()) {
                 return Optional.empty();
             }
@@ -141,19 +268,31 @@ public class DustyDevice extends Device {
      * Finds a sensor value in the JSON data.
      *
      * @param values
-     *            JSON data
+     *            Values of the JSON data
      * @param key
      *            Sensor key
      * @return Sensor value, or empty if not found
      */
-    private Optional<BigDecimal> findValue(JSONArray values, String key) {
-        for (int ix = 0; ix < values.length(); ix++) {
-            JSONObject jo = values.getJSONObject(ix);
-            if (key.equals(jo.getString("value_type"))) {
-                return Optional.of(jo.getBigDecimal("value"));
+    private Optional<BigDecimal> findValue(Map<String, BigDecimal> values, String key) {
+        return Optional.ofNullable(values.get(key));
+    }
+
+    /**
+     * Fetches the current data from Dusty.
+     *
+     * @return {@link Response} of Dusty
+     */
+    private Response<byte[]> fetchFromServer() {
+        try {
+            Response<byte[]> response = responseCacheService.fetch(serverUrl.toString(), cacheTtl, serverUrl::openConnection);
+            if (!response.isOk()) {
+                throw new GeordiException("Could not read data for sensor " + getId()
+                        + ", HTTP status " + response.getStatus());
             }
+            return response;
+        } catch (IOException ex) {
+            throw new GeordiException("Could not read data for sensor " + getId(), ex);
         }
-        return Optional.empty();
     }
 
     /**
@@ -218,4 +357,28 @@ public class DustyDevice extends Device {
         return Instant.ofEpochSecond(time);
     }
 
+    /**
+     * The parsed configuration of a Dusty {@link Sensor}.
+     */
+    private static class DustySensor {
+        private final Sensor sensor;
+        private final String valueType;
+        private final BigDecimal divisor;
+        private final Integer height;
+        private final boolean dewpoint;
+
+        public DustySensor(Sensor sensor) {
+            try {
+                JSONObject config = sensor.getConfig();
+                this.sensor = sensor;
+                this.valueType = config.getString("value_type");
+                this.divisor = config.has("divisor") ? config.getBigDecimal("divisor") : null;
+                this.height = config.has("height") ? config.getInt("height") : null;
+                this.dewpoint = config.optBoolean("dewpoint", false);
+            } catch (JSONException ex) {
+                throw new GeordiException("Bad config of sensor " + sensor.getId(), ex);
+            }
+        }
+    }
+
 }
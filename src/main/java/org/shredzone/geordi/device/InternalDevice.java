@@ -0,0 +1,205 @@
+/*
+ * geordi
+ *
+ * Copyright (C) 2020 Richard "Shred" Körber
+ *   https://codeberg.org/shred/geordi
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.
+ */
+package org.shredzone.geordi.device;
+
+import static java.util.stream.Collectors.toList;
+
+import java.lang.management.GarbageCollectorMXBean;
+import java.lang.management.ManagementFactory;
+import java.math.BigDecimal;
+import java.math.RoundingMode;
+import java.time.Instant;
+import java.time.temporal.ChronoUnit;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+
+import javax.inject.Inject;
+
+import org.json.JSONException;
+import org.json.JSONObject;
+import org.shredzone.geordi.GeordiException;
+import org.shredzone.geordi.data.Sample;
+import org.shredzone.geordi.sensor.Sensor;
+import org.shredzone.geordi.service.MetricsService;
+
+/**
+ * A {@link Device} that records Geordi's own health, like memory usage and the
+ * throughput of the polling pipeline.
+ * <p>
+ * The values are read from the JVM and from the {@link MetricsService}. Rates are
+ * computed from the difference to the previous poll, so they are available from the
+ * second poll on.
+ */
+public class InternalDevice extends Device {
+    private static final Set<String> STATS = new HashSet<>(Arrays.asList(
+            "heapUsed", "gcTime", "threads", "pollRate", "errorRate", "pollLatency",
+            "insertRate", "compactionRatio", "queueDepth"));
+
+    @Inject
+    private MetricsService metricsService;
+
+    private List<InternalSensor> sensors;
+    private Snapshot last;
+
+    @Override
+    public void prepare() {
+        sensors = getSensors().stream()
+                .map(InternalSensor::new)
+                .collect(toList());
+    }
+
+    @Override
+    public synchronized List<Sample> readSensors() {
+        countPoll(false);
+
+        Snapshot current = new Snapshot();
+        Instant ts = Instant.now().truncatedTo(ChronoUnit.SECONDS);
+
+        List<Sample> result = new ArrayList<>(sensors.size());
+        for (InternalSensor sensor : sensors) {
+            Double value = getValue(sensor.stat, current, last);
+            if (value != null && !value.isNaN() && !value.isInfinite()) {
+                result.add(new Sample(sensor.sensor, ts,
+                        BigDecimal.valueOf(value).setScale(sensor.scale, RoundingMode.HALF_UP)));
+            }
+        }
+
+        last = current;
+        return result;
+    }
+
+    /**
+     * Computes the value of a statistic.
+     *
+     * @param stat
+     *            Name of the statistic
+     * @param current
+     *            Current {@link Snapshot}
+     * @param previous
+     *            {@link Snapshot} of the previous poll, or {@code null} if this is the
+     *            first poll
+     * @return Value, or {@code null} if it cannot be computed yet
+     */
+    private Double getValue(String stat, Snapshot current, Snapshot previous) {
+        switch (stat) {
+            case "heapUsed":
+                return (double) ManagementFactory.getMemoryMXBean().getHeapMemoryUsage().getUsed();
+
+            case "threads":
+                return (double) ManagementFactory.getThreadMXBean().getThreadCount();
+
+            case "queueDepth":
+                return metricsService.total("geordi_queue_depth");
+
+            default:
+                // all other statistics are rates
+        }
+
+        if (previous == null) {
+            return null;
+        }
+
+        double minutes = (current.nanoTime - previous.nanoTime) / 60_000_000_000.0;
+        if (minutes <= 0.0) {
+            return null;
+        }
+
+        switch (stat) {
+            case "gcTime":
+                return (current.gcMillis - previous.gcMillis) / minutes;
+
+            case "pollRate":
+                return (current.polls - previous.polls) / minutes;
+
+            case "errorRate":
+                return (current.errors - previous.errors) / minutes;
+
+            case "insertRate":
+                return (current.stored - previous.stored) / (minutes * 60.0);
+
+            case "pollLatency": {
+                double polls = current.polls - previous.polls;
+                return polls > 0.0 ? (current.pollSeconds - previous.pollSeconds) / polls : null;
+            }
+
+            case "compactionRatio": {
+                double samples = current.samples - previous.samples;
+                return samples > 0.0 ? (current.compacted - previous.compacted) * 100.0 / samples : null;
+            }
+
+            default:
+                throw new IllegalStateException("Unknown stat " + stat);
+        }
+    }
+
+    /**
+     * The counters at the time of a poll.
+     */
+    private class Snapshot {
+        private final long nanoTime = System.nanoTime();
+        private final long gcMillis;
+        private final double polls;
+        private final double errors;
+        private final double pollSeconds;
+        private final double samples;
+        private final double compacted;
+        private final double stored;
+
+        public Snapshot() {
+            long gc = 0L;
+            for (GarbageCollectorMXBean bean : ManagementFactory.getGarbageCollectorMXBeans()) {
+                gc += Math.max(bean.getCollectionTime(), 0L);
+            }
+            gcMillis = gc;
+
+            polls = metricsService.total("geordi_poll_seconds", "phase", "parse");
+            errors = metricsService.total("geordi_poll_errors_total");
+            pollSeconds = metricsService.observedSum("geordi_poll_seconds");
+            samples = metricsService.total("geordi_samples_read_total")
+                    + metricsService.total("geordi_samples_derived_total");
+            compacted = metricsService.total("geordi_samples_compacted_total");
+            stored = metricsService.total("geordi_samples_stored_total");
+        }
+    }
+
+    /**
+     * The parsed configuration of an internal {@link Sensor}.
+     */
+    private static class InternalSensor {
+        private final Sensor sensor;
+        private final String stat;
+        private final int scale;
+
+        public InternalSensor(Sensor sensor) {
+            try {
+                JSONObject config = sensor.getConfig();
+                this.sensor = sensor;
+                this.stat = config.getString("stat");
+                this.scale = config.optInt("scale", 2);
+            } catch (JSONException ex) {
+                throw new GeordiException("Bad config of sensor " + sensor.getId(), ex);
+            }
+
+            if (!STATS.contains(stat)) {
+                throw new GeordiException("Unknown stat " + stat + " of sensor " + sensor.getId());
+            }
+        }
+    }
+
+}
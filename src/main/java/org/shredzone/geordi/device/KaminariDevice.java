@@ -15,117 +15,397 @@
  */
 package org.shredzone.geordi.device;
 
+import static java.nio.charset.StandardCharsets.UTF_8;
+import static java.util.stream.Collectors.toList;
+import static java.util.stream.Collectors.toSet;
+
 import java.io.IOException;
 import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.math.BigDecimal;
 import java.net.HttpURLConnection;
 import java.net.MalformedURLException;
 import java.net.URL;
+import java.time.Duration;
 import java.time.Instant;
+import java.time.format.DateTimeParseException;
 import java.time.temporal.ChronoField;
 import java.time.temporal.ChronoUnit;
 import java.time.temporal.Temporal;
 import java.util.ArrayList;
+import java.util.HashMap;
 import java.util.List;
+import java.util.Map;
+import java.util.Objects;
 import java.util.Optional;
+import java.util.Set;
 
 import javax.inject.Inject;
 
-import org.json.JSONArray;
 import org.json.JSONException;
-import org.json.JSONObject;
-import org.json.JSONTokener;
 import org.shredzone.geordi.GeordiException;
 import org.shredzone.geordi.data.Sample;
+import org.shredzone.geordi.data.SampleSink;
 import org.shredzone.geordi.sensor.Sensor;
-import org.shredzone.geordi.service.DatabaseService;
+import org.shredzone.geordi.service.IngestService;
+import org.shredzone.geordi.util.JsonReader;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
 
 /**
  * A {@link Device} implementation for the Kaminari lightning sensor project.
+ * <p>
+ * When polling, the status is read and then all lightning events are cleared on the
+ * sensor. Events that are detected between these two requests are cleared without
+ * being read, and are lost. The events are also cleared before they are stored, so
+ * they are lost if storing fails. Kaminari offers no way to avoid this without
+ * sequence numbers.
+ * <p>
+ * In streaming mode, lightning events are long-polled from Kaminari by a background
+ * thread, and stored as soon as they are detected. Each event carries a sequence
+ * number, and only the events that have been stored are cleared on the sensor. Events
+ * that have been stored are not stored again, even if they could not be cleared.
  *
  * @see <a href="https://kaminari.shredzone.org">Kaminari project page</a>
  */
 public class KaminariDevice extends Device {
+    private static final Duration RETRY_DELAY = Duration.ofSeconds(10);
+
+    private final Logger log = LoggerFactory.getLogger(getClass());
 
     @Inject
-    private DatabaseService databaseService;
+    private IngestService ingestService;
+
+    private URL statusUrl;
+    private URL clearUrl;
+    private String apikey;
+    private boolean streaming;
+    private Duration longPollTimeout;
+    private List<KaminariSensor> sensors;
+    private Set<String> keys;
+    private Set<String> lightningKeys;
+
+    private Thread streamThread;
+    private long cursor = -1L;
+
+    @Override
+    public void prepare() {
+        statusUrl = getServerUrl("status");
+        clearUrl = getServerUrl("clear");
+        apikey = getConfig().optString("apikey", null);
+
+        try {
+            streaming = getConfig().optBoolean("streaming", false);
+            longPollTimeout = Duration.parse(getConfig().optString("longPollTimeout", "PT60S"));
+        } catch (DateTimeParseException ex) {
+            throw new GeordiException("Bad longPollTimeout config", ex);
+        }
+
+        if (streaming && apikey == null) {
+            throw new GeordiException("Streaming mode requires an apikey");
+        }
+
+        sensors = getSensors().stream()
+                .map(KaminariSensor::new)
+                .collect(toList());
+        keys = sensors.stream()
+                .map(sensor -> sensor.key)
+                .filter(Objects::nonNull)
+                .collect(toSet());
+        lightningKeys = sensors.stream()
+                .map(sensor -> sensor.lightningKey)
+                .filter(Objects::nonNull)
+                .collect(toSet());
+    }
+
+    @Override
+    public boolean isEventDriven(Sensor sensor) {
+        // Lightning sensors only deliver samples when a lightning was detected
+        return sensor.getConfig().has("lightning_key");
+    }
 
     @Override
     public List<Sample> readSensors() {
-        JSONObject json;
-        try (InputStream in = openConnection("status").getInputStream()) {
-            json = new JSONObject(new JSONTokener(in));
-        } catch (IOException | JSONException ex) {
-            throw new GeordiException("Could not read data for sensor " + getId(), ex);
+        return collectSensors();
+    }
+
+    @Override
+    public void readSensors(SampleSink sink) {
+        if (streaming) {
+            startStreaming();
+
+            // Lightnings are streamed, so only the generic values are polled here
+            Status status = fetchStatus(statusUrl, null);
+            emitSensorValues(status.values, sink);
+            return;
         }
 
-        List<Sensor> sensors = databaseService.fetchSensors(this);
-        List<Sample> result = new ArrayList<>();
+        // Lightnings are passed to the sink while the response is parsed
+        Status status = fetchStatus(statusUrl, sink);
+        emitSensorValues(status.values, sink);
+
+        // Race: lightnings detected since the status was read are cleared as well, and
+        // the sink has not stored the lightnings yet. Only streaming mode avoids this.
 
-        JSONArray values = json.getJSONArray("lightnings");
-        for (int ix = 0; ix < values.length(); ix++) {
-            JSONObject jo = values.getJSONObject(ix);
-            for (Sensor sensor : sensors) {
-                getLightningValue(jo, sensor).ifPresent(result::add);
+        try (InputStream in = openConnection(clearUrl).getInputStream()) {
+            while (in.read() != -1) {
+                // intentionally left empty
             }
+        } catch (IOException ex) {
+            throw new GeordiException("Could not clear data for sensor " + getId(), ex);
         }
+    }
 
-        Instant now = Instant.now();
-        for (Sensor sensor : sensors) {
-            getSensorValue(json, sensor, now).ifPresent(result::add);
+    /**
+     * Stops streaming the lightning events.
+     */
+    @Override
+    public synchronized void shutdown() {
+        if (streamThread != null) {
+            streamThread.interrupt();
+            streamThread = null;
         }
+    }
 
-        try (InputStream in = openConnection("clear").getInputStream()) {
+    /**
+     * Starts the thread that streams the lightning events, if it is not running yet.
+     */
+    private synchronized void startStreaming() {
+        if (streamThread != null) {
+            return;
+        }
+
+        streamThread = new Thread(this::streamLightnings, "kaminari-" + getId());
+        streamThread.setDaemon(true);
+        streamThread.start();
+        log.info("Streaming lightnings of device {}", getName());
+    }
+
+    /**
+     * Long-polls lightning events, stores them, and acknowledges them.
+     * <p>
+     * The events are only stored after the response was read completely. If reading or
+     * storing fails, the events are not acknowledged, and are fetched again by the next
+     * poll. Stored events are never fetched again, even if they could not be
+     * acknowledged. The acknowledgement is then retried before the next poll.
+     */
+    private void streamLightnings() {
+        long acknowledged = cursor;
+        while (!Thread.currentThread().isInterrupted()) {
+            try {
+                if (cursor > acknowledged) {
+                    try {
+                        acknowledge(cursor);
+                        acknowledged = cursor;
+                    } catch (IOException ex) {
+                        log.warn("Failed to clear lightnings of device {}, retrying", getId(), ex);
+                    }
+                }
+
+                URL url = new URL(statusUrl, "status?wait=" + longPollTimeout.getSeconds()
+                        + (cursor >= 0L ? "&after=" + cursor : ""));
+                List<Sample> lightnings = new ArrayList<>();
+                Status status = fetchStatus(url, lightnings::add);
+
+                if (!lightnings.isEmpty()) {
+                    ingestService.ingest(lightnings);
+                }
+
+                if (status.lastSeq > cursor) {
+                    cursor = status.lastSeq;
+                }
+            } catch (Exception ex) {
+                log.warn("Failed to stream lightnings of device {}, retrying", getId(), ex);
+                try {
+                    Thread.sleep(RETRY_DELAY.toMillis());
+                } catch (InterruptedException ie) {
+                    Thread.currentThread().interrupt();
+                }
+            }
+        }
+    }
+
+    /**
+     * Clears all lightning events up to the given sequence number on Kaminari.
+     *
+     * @param seq
+     *            Sequence number of the last lightning event that was stored
+     */
+    private void acknowledge(long seq) throws IOException {
+        HttpURLConnection connection = openConnection(new URL(clearUrl, "clear?upto=" + seq));
+        try (InputStream in = connection.getInputStream()) {
             while (in.read() != -1) {
                 // intentionally left empty
             }
+        }
+    }
+
+    /**
+     * Fetches and parses the status of Kaminari.
+     *
+     * @param url
+     *            Status URL to fetch
+     * @param lightnings
+     *            {@link SampleSink} that accepts the lightning events, or {@code null}
+     *            to skip them
+     * @return {@link Status} that was read
+     */
+    private Status fetchStatus(URL url, SampleSink lightnings) {
+        HttpURLConnection connection;
+        try {
+            connection = openConnection(url);
+            if (streaming && lightnings != null) {
+                connection.setReadTimeout((int) longPollTimeout.plusSeconds(30).toMillis());
+            }
         } catch (IOException ex) {
-            throw new GeordiException("Could not clear data for sensor " + getId(), ex);
+            throw new GeordiException("Could not connect to sensor " + getId(), ex);
         }
 
-        return result;
+        try {
+            return parseStatus(connection.getInputStream(), lightnings);
+        } catch (IOException ex) {
+            throw new GeordiException("Could not read data for sensor " + getId(), ex);
+        }
     }
 
-    private Optional<Sample> getLightningValue(JSONObject values, Sensor sensor) {
-        JSONObject config = sensor.getConfig();
-        if (!config.has("lightning_key")) {
-            return Optional.empty();
+    /**
+     * Parses the status of Kaminari.
+     *
+     * @param in
+     *            {@link InputStream} of the status response, UTF-8 encoded. It is
+     *            closed after parsing.
+     * @param lightnings
+     *            {@link SampleSink} that accepts the lightning events, or {@code null}
+     *            to skip them
+     * @return {@link Status} that was read
+     */
+    Status parseStatus(InputStream in, SampleSink lightnings) throws IOException {
+        Status status = new Status();
+
+        try (JsonReader json = new JsonReader(new InputStreamReader(in, UTF_8))) {
+            json.beginObject();
+            while (json.hasNext()) {
+                String name = json.nextName();
+                if (lightnings != null && "lightnings".equals(name)) {
+                    readLightnings(json, status, lightnings);
+                } else if (keys.contains(name)) {
+                    BigDecimal value = json.nextDecimal();
+                    if (value != null) {
+                        status.values.put(name, value);
+                    }
+                } else {
+                    json.skipValue();
+                }
+            }
+            json.endObject();
         }
 
-        Instant ts = Instant.now()
-                .minus(values.getLong("age"), ChronoUnit.SECONDS)
-                .with(KaminariDevice::truncate2Seconds);
+        return status;
+    }
 
-        String key = config.getString("lightning_key");
-        return Optional.ofNullable(values.optBigDecimal(key, null))
-                .map(value -> new Sample(sensor, ts, value));
+    /**
+     * Reads the "lightnings" array of the JSON response, and emits a {@link Sample} for
+     * each lightning and sensor.
+     *
+     * @param json
+     *            {@link JsonReader} positioned at the array
+     * @param status
+     *            {@link Status} to update the last sequence number of
+     * @param sink
+     *            {@link SampleSink} that accepts the lightning samples
+     */
+    private void readLightnings(JsonReader json, Status status, SampleSink sink) throws IOException {
+        json.beginArray();
+        while (json.hasNext()) {
+            Map<String, BigDecimal> values = new HashMap<>();
+            long age = -1L;
+            long seq = -1L;
+
+            json.beginObject();
+            while (json.hasNext()) {
+                String name = json.nextName();
+                if ("age".equals(name)) {
+                    age = json.nextLong();
+                } else if ("seq".equals(name)) {
+                    seq = json.nextLong();
+                } else if (lightningKeys.contains(name)) {
+                    BigDecimal value = json.nextDecimal();
+                    if (value != null) {
+                        values.put(name, value);
+                    }
+                } else {
+                    json.skipValue();
+                }
+            }
+            json.endObject();
+
+            if (age < 0L) {
+                throw new IOException("Lightning without age");
+            }
+
+            if (streaming) {
+                if (seq < 0L) {
+                    throw new IOException("Lightning without sequence number, streaming is not supported");
+                }
+                if (seq <= cursor) {
+                    continue; // already stored
+                }
+                status.lastSeq = Math.max(status.lastSeq, seq);
+            }
+
+            Instant ts = Instant.now()
+                    .minus(age, ChronoUnit.SECONDS)
+                    .with(KaminariDevice::truncate2Seconds);
+
+            for (KaminariSensor sensor : sensors) {
+                getLightningValue(values, sensor, ts).ifPresent(sink::accept);
+            }
+        }
+        json.endArray();
     }
 
     /**
-     * Reads the value of a {@link Sensor} from the JSON response.
+     * Reads the lightning value of a {@link Sensor}.
      *
      * @param values
-     *            JSON response of Kaminari
+     *            Values of a single lightning
      * @param sensor
-     *            {@link Sensor} to read
+     *            {@link KaminariSensor} to read
+     * @param ts
+     *            Timestamp of the lightning
      * @return Sensor value, or empty if the sensor provided no value
      */
-    private Optional<Sample> getSensorValue(JSONObject values, Sensor sensor, Instant now) {
-        JSONObject config = sensor.getConfig();
-        if (!config.has("key")) {
+    private Optional<Sample> getLightningValue(Map<String, BigDecimal> values, KaminariSensor sensor, Instant ts) {
+        if (sensor.lightningKey == null) {
             return Optional.empty();
         }
 
-        String key = config.getString("key");
-        return Optional.ofNullable(values.optBigDecimal(key, null))
-                .map(value -> new Sample(sensor, now, value));
+        return Optional.ofNullable(values.get(sensor.lightningKey))
+                .map(value -> new Sample(sensor.sensor, ts, value));
+    }
+
+    /**
+     * Emits the generic values of all {@link Sensor} from the JSON response.
+     *
+     * @param values
+     *            Values of the JSON response of Kaminari
+     * @param sink
+     *            {@link SampleSink} that accepts the sensor values
+     */
+    private void emitSensorValues(Map<String, BigDecimal> values, SampleSink sink) {
+        Instant now = Instant.now();
+        for (KaminariSensor sensor : sensors) {
+            if (sensor.key != null && values.containsKey(sensor.key)) {
+                sink.accept(new Sample(sensor.sensor, now, values.get(sensor.key)));
+            }
+        }
     }
 
     /**
      * Opens a connection to Kaminari.
      */
-    private HttpURLConnection openConnection(String target) throws IOException {
-        HttpURLConnection connection = (HttpURLConnection) getServerUrl(target).openConnection();
-        String apikey = getConfig().getString("apikey");
+    private HttpURLConnection openConnection(URL url) throws IOException {
+        HttpURLConnection connection = (HttpURLConnection) url.openConnection();
         if (apikey != null) {
             connection.setRequestProperty("X-API-Key", apikey);
         }
@@ -156,4 +436,27 @@ public class KaminariDevice extends Device {
         return Instant.ofEpochSecond(time);
     }
 
+    /**
+     * The parsed status of Kaminari.
+     */
+    static class Status {
+        private final Map<String, BigDecimal> values = new HashMap<>();
+        private long lastSeq = -1L;
+    }
+
+    /**
+     * The parsed configuration of a Kaminari {@link Sensor}.
+     */
+    private static class KaminariSensor {
+        private final Sensor sensor;
+        private final String lightningKey;
+        private final String key;
+
+        public KaminariSensor(Sensor sensor) {
+            this.sensor = sensor;
+            this.lightningKey = sensor.getConfig().optString("lightning_key", null);
+            this.key = sensor.getConfig().optString("key", null);
+        }
+    }
+
 }
@@ -0,0 +1,721 @@
+/*
+ * geordi
+ *
+ * Copyright (C) 2020 Richard "Shred" Körber
+ *   https://codeberg.org/shred/geordi
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.
+ */
+package org.shredzone.geordi.device;
+
+import static java.nio.charset.StandardCharsets.UTF_8;
+
+import java.io.IOException;
+import java.math.BigDecimal;
+import java.net.InetSocketAddress;
+import java.nio.ByteBuffer;
+import java.nio.channels.DatagramChannel;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.channels.SocketChannel;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import javax.inject.Inject;
+
+import org.json.JSONException;
+import org.json.JSONObject;
+import org.shredzone.geordi.GeordiException;
+import org.shredzone.geordi.data.Sample;
+import org.shredzone.geordi.metrics.Counter;
+import org.shredzone.geordi.sensor.Sensor;
+import org.shredzone.geordi.service.IngestService;
+import org.shredzone.geordi.service.MetricsService;
+import org.shredzone.geordi.util.ByteDecimals;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * A {@link Device} implementation that receives InfluxDB line protocol via TCP and UDP.
+ * <p>
+ * The lines are parsed directly from the receive buffers, without creating intermediate
+ * strings. Measurements and fields are looked up in hash tables that only contain the
+ * configured ones, so points of other measurements are skipped without parsing their
+ * fields. The tags are then matched against the sensor configurations.
+ * Matching points are queued, and handed over to storage in batches by a separate
+ * thread, so the listener is never blocked by the database.
+ *
+ * @see <a href="https://docs.influxdata.com/influxdb/v1.8/write_protocols/line_protocol_reference/">Line protocol reference</a>
+ */
+public class LineProtocolDevice extends Device {
+    private static final int MAX_TAGS = 32;
+    private static final int BUFFER_SIZE = 64 * 1024;
+    private static final int MAX_DATAGRAMS = 64;
+
+    private final Logger log = LoggerFactory.getLogger(getClass());
+
+    @Inject
+    private IngestService ingestService;
+
+    @Inject
+    private MetricsService metricsService;
+
+    private InetSocketAddress address;
+    private boolean tcp;
+    private boolean udp;
+    private TimeUnit precision;
+    private int batchSize;
+    private LineSensor[] sensors;
+    private MeasurementGroup[] groups;
+    private int[] table;
+
+    private BlockingQueue<Sample> queue;
+    private final AtomicLong dropped = new AtomicLong();
+    private Counter droppedTotal;
+    private Thread listenerThread;
+    private Thread storageThread;
+
+    // Scratch space of the listener thread
+    private final int[] tags = new int[MAX_TAGS * 4];
+    private boolean[] matches;
+
+    @Override
+    public void prepare() {
+        try {
+            JSONObject config = getConfig();
+            int port = config.getInt("port");
+            address = config.has("bind")
+                    ? new InetSocketAddress(config.getString("bind"), port)
+                    : new InetSocketAddress(port);
+            tcp = config.optBoolean("tcp", true);
+            udp = config.optBoolean("udp", true);
+            batchSize = config.optInt("batchSize", 1000);
+            queue = new ArrayBlockingQueue<>(config.optInt("queueSize", 100000));
+
+            String prec = config.optString("precision", "ns");
+            switch (prec) {
+                case "ns": precision = TimeUnit.NANOSECONDS; break;
+                case "us": precision = TimeUnit.MICROSECONDS; break;
+                case "ms": precision = TimeUnit.MILLISECONDS; break;
+                case "s": precision = TimeUnit.SECONDS; break;
+                default: throw new GeordiException("Unknown precision " + prec);
+            }
+        } catch (JSONException | IllegalArgumentException ex) {
+            throw new GeordiException("Bad line protocol config", ex);
+        }
+
+        if (!tcp && !udp) {
+            throw new GeordiException("Neither tcp nor udp is enabled");
+        }
+
+        sensors = getSensors().stream()
+                .map(LineSensor::new)
+                .toArray(LineSensor[]::new);
+        matches = new boolean[sensors.length];
+
+        Map<String, List<LineSensor>> byMeasurement = new LinkedHashMap<>();
+        for (int ix = 0; ix < sensors.length; ix++) {
+            sensors[ix].index = ix;
+            byMeasurement.computeIfAbsent(new String(sensors[ix].measurement, UTF_8),
+                    k -> new ArrayList<>()).add(sensors[ix]);
+        }
+        groups = byMeasurement.values().stream()
+                .map(MeasurementGroup::new)
+                .toArray(MeasurementGroup[]::new);
+        table = createTable(groups);
+
+        BlockingQueue<Sample> q = queue;
+        String deviceId = String.valueOf(getId());
+        metricsService.gauge("geordi_queue_depth", "Samples waiting for storage",
+                q::size, "device", deviceId, "name", getName());
+        droppedTotal = metricsService.counter("geordi_queue_dropped_total",
+                "Samples dropped because the queue was full", "device", deviceId, "name", getName());
+    }
+
+    @Override
+    public boolean isEventDriven(Sensor sensor) {
+        // Points are sent at the client's own pace, not by the cron expression
+        return true;
+    }
+
+    @Override
+    public List<Sample> readSensors() {
+        startListener();
+
+        long lost = dropped.getAndSet(0L);
+        if (lost > 0L) {
+            log.warn("Dropped {} points of device {}, queue was full", lost, getName());
+        }
+
+        // Values are pushed by the sensors, nothing to poll
+        return Collections.emptyList();
+    }
+
+    /**
+     * Starts the listener and the storage thread, if they are not running yet.
+     */
+    private synchronized void startListener() {
+        if (listenerThread != null) {
+            return;
+        }
+
+        Selector selector;
+        try {
+            selector = Selector.open();
+
+            if (tcp) {
+                ServerSocketChannel server = ServerSocketChannel.open();
+                server.bind(address);
+                server.configureBlocking(false);
+                server.register(selector, SelectionKey.OP_ACCEPT);
+            }
+
+            if (udp) {
+                DatagramChannel datagram = DatagramChannel.open();
+                datagram.bind(address);
+                datagram.configureBlocking(false);
+                datagram.register(selector, SelectionKey.OP_READ, ByteBuffer.allocateDirect(BUFFER_SIZE));
+            }
+        } catch (IOException ex) {
+            throw new GeordiException("Could not start line protocol listener", ex);
+        }
+
+        listenerThread = new Thread(() -> listen(selector), "lineprotocol-" + getId());
+        listenerThread.setDaemon(true);
+        listenerThread.start();
+
+        storageThread = new Thread(this::store, "lineprotocol-store-" + getId());
+        storageThread.setDaemon(true);
+        storageThread.start();
+
+        log.info("Receiving line protocol of device {} on {}", getName(), address);
+    }
+
+    /**
+     * Stops the listener, and stores the points that are still queued.
+     */
+    @Override
+    public synchronized void shutdown() {
+        if (listenerThread != null) {
+            listenerThread.interrupt();
+            storageThread.interrupt();
+            listenerThread = null;
+            storageThread = null;
+        }
+    }
+
+    /**
+     * Selector loop of the listener thread. When the thread is interrupted, all
+     * channels are closed.
+     */
+    private void listen(Selector selector) {
+        while (!Thread.currentThread().isInterrupted()) {
+            try {
+                selector.select();
+                Iterator<SelectionKey> it = selector.selectedKeys().iterator();
+                while (it.hasNext()) {
+                    SelectionKey key = it.next();
+                    it.remove();
+                    try {
+                        if (key.isAcceptable()) {
+                            accept(selector, (ServerSocketChannel) key.channel());
+                        } else if (key.isReadable() && key.channel() instanceof DatagramChannel) {
+                            receive((DatagramChannel) key.channel(), (ByteBuffer) key.attachment());
+                        } else if (key.isReadable()) {
+                            read(key, (SocketChannel) key.channel(), (ByteBuffer) key.attachment());
+                        }
+                    } catch (IOException ex) {
+                        log.debug("Connection failed", ex);
+                        if (key.channel() instanceof SocketChannel) {
+                            key.channel().close();
+                        }
+                    }
+                }
+            } catch (Exception ex) {
+                log.error("Line protocol listener of device {} failed", getId(), ex);
+            }
+        }
+
+        try {
+            for (SelectionKey key : selector.keys()) {
+                key.channel().close();
+            }
+            selector.close();
+        } catch (IOException ex) {
+            log.debug("Failed to close listener", ex);
+        }
+    }
+
+    private void accept(Selector selector, ServerSocketChannel server) throws IOException {
+        SocketChannel channel = server.accept();
+        if (channel != null) {
+            channel.configureBlocking(false);
+            channel.register(selector, SelectionKey.OP_READ, ByteBuffer.allocateDirect(BUFFER_SIZE));
+        }
+    }
+
+    private void receive(DatagramChannel channel, ByteBuffer buf) throws IOException {
+        // Limit the datagrams per select, so a UDP flood cannot starve the TCP clients
+        for (int ix = 0; ix < MAX_DATAGRAMS; ix++) {
+            buf.clear();
+            if (channel.receive(buf) == null) {
+                return;
+            }
+            buf.flip();
+            parseLines(buf, true);
+        }
+    }
+
+    private void read(SelectionKey key, SocketChannel channel, ByteBuffer buf) throws IOException {
+        int count = channel.read(buf);
+        buf.flip();
+        buf.position(parseLines(buf, count < 0));
+        buf.compact();
+
+        if (count < 0) {
+            key.cancel();
+            channel.close();
+        } else if (!buf.hasRemaining()) {
+            log.warn("Line exceeds {} bytes, discarding it", BUFFER_SIZE);
+            buf.clear();
+        }
+    }
+
+    /**
+     * Parses all complete lines in the buffer.
+     *
+     * @param buf
+     *            {@link ByteBuffer} to parse, between position and limit
+     * @param complete
+     *            {@code true} if the buffer contains no partial line at the end
+     * @return Position after the last line that was parsed
+     */
+    int parseLines(ByteBuffer buf, boolean complete) {
+        int start = buf.position();
+        int limit = buf.limit();
+        for (int ix = start; ix < limit; ix++) {
+            if (buf.get(ix) == '\n') {
+                parseLine(buf, start, ix);
+                start = ix + 1;
+            }
+        }
+        if (complete && start < limit) {
+            parseLine(buf, start, limit);
+            start = limit;
+        }
+        return start;
+    }
+
+    /**
+     * Parses a single line, and queues a {@link Sample} for each matching sensor.
+     *
+     * @param buf
+     *            {@link ByteBuffer} containing the line
+     * @param start
+     *            Start of the line
+     * @param end
+     *            End of the line, exclusive
+     */
+    private void parseLine(ByteBuffer buf, int start, int end) {
+        while (start < end && isWhitespace(buf.get(start))) {
+            start++;
+        }
+        while (end > start && isWhitespace(buf.get(end - 1))) {
+            end--;
+        }
+        if (start == end || buf.get(start) == '#') {
+            return;
+        }
+
+        // Measurement
+        int pos = scan(buf, start, end, ',', ' ');
+        MeasurementGroup group = lookup(groups, table, buf, start, pos);
+        if (group == null) {
+            return;
+        }
+
+        // Tags
+        int tagCount = 0;
+        while (pos < end && buf.get(pos) == ',') {
+            int keyStart = pos + 1;
+            int keyEnd = scan(buf, keyStart, end, '=', '=');
+            int valueEnd = scan(buf, keyEnd + 1, end, ',', ' ');
+            if (tagCount < MAX_TAGS) {
+                int t = tagCount * 4;
+                tags[t] = keyStart;
+                tags[t + 1] = keyEnd;
+                tags[t + 2] = keyEnd + 1;
+                tags[t + 3] = valueEnd;
+                tagCount++;
+            }
+            pos = valueEnd;
+        }
+
+        if (pos >= end) {
+            return; // no fields
+        }
+
+        boolean anyMatch = false;
+        for (LineSensor sensor : group.sensors) {
+            matches[sensor.index] = sensor.matches(buf, tags, tagCount);
+            anyMatch |= matches[sensor.index];
+        }
+        if (!anyMatch) {
+            return;
+        }
+
+        // Fields, up to the next space that is not quoted
+        int fieldsStart = pos + 1;
+        int fieldsEnd = fieldsStart;
+        boolean quoted = false;
+        while (fieldsEnd < end) {
+            byte b = buf.get(fieldsEnd);
+            if (b == '\\') {
+                fieldsEnd++;
+            } else if (b == '"') {
+                quoted = !quoted;
+            } else if (b == ' ' && !quoted) {
+                break;
+            }
+            fieldsEnd++;
+        }
+        fieldsEnd = Math.min(fieldsEnd, end);
+
+        Instant ts;
+        if (fieldsEnd < end) {
+            long time = ByteDecimals.parseLong(buf, fieldsEnd + 1, end);
+            if (time == Long.MIN_VALUE) {
+                return; // bad timestamp
+            }
+            ts = toInstant(time);
+        } else {
+            ts = Instant.now();
+        }
+
+        pos = fieldsStart;
+        while (pos < fieldsEnd) {
+            int keyStart = pos;
+            int keyEnd = scan(buf, keyStart, fieldsEnd, '=', '=');
+            int valueStart = keyEnd + 1;
+            int valueEnd;
+            if (valueStart < fieldsEnd && buf.get(valueStart) == '"') {
+                valueEnd = valueStart + 1;
+                while (valueEnd < fieldsEnd && buf.get(valueEnd) != '"') {
+                    valueEnd += buf.get(valueEnd) == '\\' ? 2 : 1;
+                }
+                valueEnd = Math.min(valueEnd + 1, fieldsEnd);
+            } else {
+                valueEnd = scan(buf, valueStart, fieldsEnd, ',', ',');
+            }
+
+            FieldGroup field = lookup(group.fields, group.table, buf, keyStart, keyEnd);
+            BigDecimal value = null;
+            for (int ix = 0; field != null && ix < field.sensors.length; ix++) {
+                LineSensor sensor = field.sensors[ix];
+                if (matches[sensor.index]) {
+                    if (value == null) {
+                        value = parseValue(buf, valueStart, valueEnd);
+                        if (value == null) {
+                            break; // not a numeric value
+                        }
+                    }
+                    if (!queue.offer(new Sample(sensor.sensor, ts, value))) {
+                        dropped.incrementAndGet();
+                        droppedTotal.increment();
+                    }
+                }
+            }
+
+            pos = valueEnd + 1;
+        }
+    }
+
+    /**
+     * Storage loop. Takes the queued samples and ingests them in batches. When the
+     * thread is interrupted, the remaining samples are ingested.
+     */
+    private void store() {
+        List<Sample> batch = new ArrayList<>(batchSize);
+        while (!Thread.currentThread().isInterrupted()) {
+            try {
+                batch.add(queue.take());
+                queue.drainTo(batch, batchSize - 1);
+                ingestService.ingest(batch);
+            } catch (InterruptedException ex) {
+                Thread.currentThread().interrupt();
+            } catch (Exception ex) {
+                log.error("Failed to store {} points of device {}", batch.size(), getId(), ex);
+            } finally {
+                batch.clear();
+            }
+        }
+
+        queue.drainTo(batch);
+        if (!batch.isEmpty()) {
+            try {
+                ingestService.ingest(batch);
+            } catch (Exception ex) {
+                log.error("Failed to store {} points of device {}", batch.size(), getId(), ex);
+            }
+        }
+    }
+
+    /**
+     * Converts a line protocol timestamp to an {@link Instant}.
+     */
+    private Instant toInstant(long time) {
+        switch (precision) {
+            case SECONDS: return Instant.ofEpochSecond(time);
+            case MILLISECONDS: return Instant.ofEpochMilli(time);
+            case MICROSECONDS: return Instant.ofEpochSecond(0L, time * 1000L);
+            default: return Instant.ofEpochSecond(0L, time);
+        }
+    }
+
+    /**
+     * Scans for the next unescaped occurrence of one of the two delimiters.
+     *
+     * @return Position of the delimiter, or {@code end} if not found
+     */
+    private static int scan(ByteBuffer buf, int start, int end, char delim1, char delim2) {
+        int pos = start;
+        while (pos < end) {
+            byte b = buf.get(pos);
+            if (b == '\\') {
+                pos += 2;
+                continue;
+            }
+            if (b == delim1 || b == delim2) {
+                return pos;
+            }
+            pos++;
+        }
+        return end;
+    }
+
+    /**
+     * Parses a field value. Floats, integers ("i" suffix), unsigned integers ("u"
+     * suffix) and booleans are accepted.
+     *
+     * @return Value, or {@code null} if the value is not numeric
+     */
+    private static BigDecimal parseValue(ByteBuffer buf, int start, int end) {
+        if (start >= end) {
+            return null;
+        }
+
+        byte first = buf.get(start);
+        if (first == 't' || first == 'T') {
+            return BigDecimal.ONE;
+        }
+        if (first == 'f' || first == 'F') {
+            return BigDecimal.ZERO;
+        }
+
+        byte last = buf.get(end - 1);
+        if (last == 'i' || last == 'u') {
+            end--;
+        }
+
+        return ByteDecimals.parseDecimal(buf, start, end);
+    }
+
+    /**
+     * Creates an open addressing hash table of the given entries, with a load factor of
+     * 50%.
+     *
+     * @return Hash table, containing the index of the entry, or -1 for a free slot
+     */
+    private static int[] createTable(Named[] entries) {
+        int size = Integer.highestOneBit(Math.max(entries.length, 1) * 4);
+        int[] result = new int[size];
+        Arrays.fill(result, -1);
+        for (int ix = 0; ix < entries.length; ix++) {
+            int slot = entries[ix].hash & (size - 1);
+            while (result[slot] >= 0) {
+                slot = (slot + 1) & (size - 1);
+            }
+            result[slot] = ix;
+        }
+        return result;
+    }
+
+    /**
+     * Looks up the entry of a raw name in a hash table.
+     *
+     * @return Entry, or {@code null} if no sensor uses this name
+     */
+    private static <T extends Named> T lookup(T[] entries, int[] table, ByteBuffer buf, int start, int end) {
+        int hash = 0;
+        for (int ix = start; ix < end; ix++) {
+            hash = 31 * hash + buf.get(ix);
+        }
+
+        int mask = table.length - 1;
+        int slot = hash & mask;
+        while (table[slot] >= 0) {
+            T entry = entries[table[slot]];
+            if (entry.hash == hash && equalsBytes(buf, start, end, entry.name)) {
+                return entry;
+            }
+            slot = (slot + 1) & mask;
+        }
+        return null;
+    }
+
+    private static boolean equalsBytes(ByteBuffer buf, int start, int end, byte[] pattern) {
+        if (end - start != pattern.length) {
+            return false;
+        }
+        for (int ix = 0; ix < pattern.length; ix++) {
+            if (buf.get(start + ix) != pattern[ix]) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private static boolean isWhitespace(byte b) {
+        return b == ' ' || b == '\t' || b == '\r';
+    }
+
+    /**
+     * Escapes a name like in the line protocol, so it can be compared to the raw bytes.
+     */
+    private static byte[] escape(String name, boolean escapeEquals) {
+        StringBuilder sb = new StringBuilder(name.length() + 4);
+        for (char ch : name.toCharArray()) {
+            if (ch == ',' || ch == ' ' || (escapeEquals && ch == '=')) {
+                sb.append('\\');
+            }
+            sb.append(ch);
+        }
+        return sb.toString().getBytes(UTF_8);
+    }
+
+    /**
+     * An entry of a hash table, with its escaped name.
+     */
+    private abstract static class Named {
+        protected final byte[] name;
+        protected final int hash;
+
+        protected Named(byte[] name) {
+            this.name = name;
+
+            int h = 0;
+            for (byte b : name) {
+                h = 31 * h + b;
+            }
+            this.hash = h;
+        }
+    }
+
+    /**
+     * All sensors of a measurement, and a hash table of their fields.
+     */
+    private static class MeasurementGroup extends Named {
+        private final LineSensor[] sensors;
+        private final FieldGroup[] fields;
+        private final int[] table;
+
+        public MeasurementGroup(List<LineSensor> sensors) {
+            super(sensors.get(0).measurement);
+            this.sensors = sensors.toArray(new LineSensor[0]);
+
+            Map<String, List<LineSensor>> byField = new LinkedHashMap<>();
+            for (LineSensor sensor : sensors) {
+                byField.computeIfAbsent(new String(sensor.field, UTF_8),
+                        k -> new ArrayList<>()).add(sensor);
+            }
+            this.fields = byField.values().stream()
+                    .map(FieldGroup::new)
+                    .toArray(FieldGroup[]::new);
+            this.table = createTable(fields);
+        }
+    }
+
+    /**
+     * All sensors of a field of a measurement.
+     */
+    private static class FieldGroup extends Named {
+        private final LineSensor[] sensors;
+
+        public FieldGroup(List<LineSensor> sensors) {
+            super(sensors.get(0).field);
+            this.sensors = sensors.toArray(new LineSensor[0]);
+        }
+    }
+
+    /**
+     * The parsed configuration of a line protocol {@link Sensor}.
+     */
+    private static class LineSensor {
+        private final Sensor sensor;
+        private int index;
+        private final byte[] measurement;
+        private final byte[] field;
+        private final byte[][] tagKeys;
+        private final byte[][] tagValues;
+
+        public LineSensor(Sensor sensor) {
+            try {
+                JSONObject config = sensor.getConfig();
+                this.sensor = sensor;
+                this.measurement = escape(config.getString("measurement"), false);
+                this.field = escape(config.optString("field", "value"), true);
+
+                JSONObject tagConfig = config.optJSONObject("tags");
+                int count = tagConfig != null ? tagConfig.length() : 0;
+                this.tagKeys = new byte[count][];
+                this.tagValues = new byte[count][];
+                if (tagConfig != null) {
+                    int ix = 0;
+                    for (String key : tagConfig.keySet()) {
+                        tagKeys[ix] = escape(key, true);
+                        tagValues[ix] = escape(tagConfig.getString(key), true);
+                        ix++;
+                    }
+                }
+            } catch (JSONException ex) {
+                throw new GeordiException("Bad config of sensor " + sensor.getId(), ex);
+            }
+        }
+
+        /**
+         * Checks if all configured tags are present.
+         */
+        private boolean matches(ByteBuffer buf, int[] tags, int tagCount) {
+            for (int ix = 0; ix < tagKeys.length; ix++) {
+                boolean found = false;
+                for (int t = 0; t < tagCount * 4 && !found; t += 4) {
+                    found = equalsBytes(buf, tags[t], tags[t + 1], tagKeys[ix])
+                            && equalsBytes(buf, tags[t + 2], tags[t + 3], tagValues[ix]);
+                }
+                if (!found) {
+                    return false;
+                }
+            }
+            return true;
+        }
+    }
+
+}
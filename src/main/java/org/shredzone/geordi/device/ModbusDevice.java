@@ -0,0 +1,361 @@
+/*
+ * geordi
+ *
+ * Copyright (C) 2020 Richard "Shred" Körber
+ *   https://codeberg.org/shred/geordi
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.
+ */
+package org.shredzone.geordi.device;
+
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.math.BigDecimal;
+import java.net.InetSocketAddress;
+import java.net.Socket;
+import java.time.Duration;
+import java.time.Instant;
+import java.time.format.DateTimeParseException;
+import java.time.temporal.ChronoUnit;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.json.JSONException;
+import org.json.JSONObject;
+import org.shredzone.geordi.GeordiException;
+import org.shredzone.geordi.data.Sample;
+import org.shredzone.geordi.sensor.Sensor;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * A {@link Device} implementation that reads registers of Modbus TCP devices, like heat
+ * pumps or energy meters.
+ * <p>
+ * The registers of all sensors are merged into as few read requests as possible. The
+ * requests are pipelined over a single persistent connection, and the responses are
+ * matched by their transaction ID.
+ *
+ * @see <a href="https://modbus.org/specs.php">Modbus specifications</a>
+ */
+public class ModbusDevice extends Device {
+    private static final int READ_HOLDING_REGISTERS = 0x03;
+    private static final int READ_INPUT_REGISTERS = 0x04;
+    private static final int MAX_REGISTERS = 125;
+
+    private final Logger log = LoggerFactory.getLogger(getClass());
+
+    private InetSocketAddress address;
+    private int unitId;
+    private int pipeline;
+    private int timeout;
+    private List<ReadRequest> requests;
+
+    private Socket socket;
+    private DataInputStream in;
+    private DataOutputStream out;
+    private int transactionId;
+
+    @Override
+    public void prepare() {
+        int maxGap;
+        int maxRegisters;
+        try {
+            JSONObject config = getConfig();
+            address = new InetSocketAddress(config.getString("host"), config.optInt("port", 502));
+            unitId = config.optInt("unitId", 1);
+            pipeline = Math.max(config.optInt("pipeline", 8), 1);
+            timeout = (int) Duration.parse(config.optString("timeout", "PT5S")).toMillis();
+            maxGap = config.optInt("maxGap", 0);
+            maxRegisters = Math.min(config.optInt("maxRegisters", MAX_REGISTERS), MAX_REGISTERS);
+        } catch (JSONException | DateTimeParseException ex) {
+            throw new GeordiException("Bad Modbus config", ex);
+        }
+
+        List<ModbusSensor> sensors = new ArrayList<>();
+        for (Sensor sensor : getSensors()) {
+            sensors.add(new ModbusSensor(sensor));
+        }
+        sensors.sort(Comparator.comparingInt((ModbusSensor s) -> s.function)
+                .thenComparingInt(s -> s.register));
+
+        // Coalesce the registers into contiguous ranges
+        requests = new ArrayList<>();
+        ReadRequest current = null;
+        for (ModbusSensor sensor : sensors) {
+            if (current != null
+                    && current.function == sensor.function
+                    && sensor.register <= current.start + current.count + maxGap
+                    && sensor.register + sensor.type.registers - current.start <= maxRegisters) {
+                current.add(sensor);
+            } else {
+                current = new ReadRequest(sensor);
+                requests.add(current);
+            }
+        }
+
+        log.debug("Device {} reads {} sensors with {} requests", getId(), sensors.size(), requests.size());
+    }
+
+    @Override
+    public synchronized List<Sample> readSensors() {
+        Instant now = Instant.now().truncatedTo(ChronoUnit.MILLIS);
+        try {
+            connect();
+            List<Sample> result = new ArrayList<>();
+            for (int ix = 0; ix < requests.size(); ix += pipeline) {
+                List<ReadRequest> window = requests.subList(ix, Math.min(ix + pipeline, requests.size()));
+                execute(window, now, result);
+            }
+            return result;
+        } catch (IOException ex) {
+            disconnect();
+            throw new GeordiException("Could not read Modbus device " + getId(), ex);
+        }
+    }
+
+    /**
+     * Sends a window of requests at once, then reads and decodes all responses.
+     *
+     * @param window
+     *            {@link ReadRequest} to send
+     * @param now
+     *            Timestamp of the samples
+     * @param result
+     *            List to add the {@link Sample} to
+     */
+    private void execute(List<ReadRequest> window, Instant now, List<Sample> result) throws IOException {
+        Map<Integer, ReadRequest> pending = new HashMap<>();
+        for (ReadRequest request : window) {
+            int tid = nextTransactionId();
+            pending.put(tid, request);
+
+            out.writeShort(tid);
+            out.writeShort(0);      // protocol identifier
+            out.writeShort(6);      // length of the remaining frame
+            out.writeByte(unitId);
+            out.writeByte(request.function);
+            out.writeShort(request.start);
+            out.writeShort(request.count);
+        }
+        out.flush();
+
+        while (!pending.isEmpty()) {
+            int tid = in.readUnsignedShort();
+            in.readUnsignedShort(); // protocol identifier
+            int length = in.readUnsignedShort();
+            if (length < 2) {
+                throw new IOException("Bad frame length " + length);
+            }
+            in.readUnsignedByte();  // unit identifier
+            byte[] pdu = new byte[length - 1];
+            in.readFully(pdu);
+
+            ReadRequest request = pending.remove(tid);
+            if (request == null) {
+                log.debug("Ignoring response with unknown transaction ID {}", tid);
+                continue;
+            }
+
+            int function = pdu[0] & 0xFF;
+            if ((function & 0x80) != 0) {
+                log.warn("Modbus device {} returned exception {} for registers {}-{}",
+                        getId(), pdu.length > 1 ? pdu[1] & 0xFF : -1,
+                        request.start, request.start + request.count - 1);
+                continue;
+            }
+
+            if (pdu.length < 2 + request.count * 2 || (pdu[1] & 0xFF) != request.count * 2) {
+                throw new IOException("Bad response size for registers starting at " + request.start);
+            }
+
+            for (ModbusSensor sensor : request.sensors) {
+                BigDecimal value = sensor.decode(pdu, 2 + (sensor.register - request.start) * 2);
+                if (value != null) {
+                    result.add(new Sample(sensor.sensor, now, value));
+                }
+            }
+        }
+    }
+
+    private int nextTransactionId() {
+        transactionId = (transactionId + 1) & 0xFFFF;
+        return transactionId;
+    }
+
+    /**
+     * Connects to the Modbus device, unless there is already a connection.
+     */
+    private void connect() throws IOException {
+        if (socket != null) {
+            return;
+        }
+
+        Socket s = new Socket();
+        try {
+            s.connect(address, timeout);
+            s.setSoTimeout(timeout);
+            s.setTcpNoDelay(true);
+            in = new DataInputStream(s.getInputStream());
+            out = new DataOutputStream(new BufferedOutputStream(s.getOutputStream()));
+            socket = s;
+        } catch (IOException ex) {
+            s.close();
+            throw ex;
+        }
+    }
+
+    /**
+     * Closes the connection to the Modbus device. It is reopened on the next poll.
+     */
+    private void disconnect() {
+        if (socket != null) {
+            try {
+                socket.close();
+            } catch (IOException ex) {
+                log.debug("Could not close Modbus connection", ex);
+            }
+            socket = null;
+            in = null;
+            out = null;
+        }
+    }
+
+    /**
+     * Data types of register values.
+     */
+    private enum DataType {
+        INT16(1), UINT16(1), INT32(2), UINT32(2), FLOAT32(2);
+
+        private final int registers;
+
+        DataType(int registers) {
+            this.registers = registers;
+        }
+    }
+
+    /**
+     * A read request of a contiguous range of registers.
+     */
+    private static class ReadRequest {
+        private final int function;
+        private final int start;
+        private int count;
+        private final List<ModbusSensor> sensors = new ArrayList<>();
+
+        public ReadRequest(ModbusSensor sensor) {
+            this.function = sensor.function;
+            this.start = sensor.register;
+            add(sensor);
+        }
+
+        public void add(ModbusSensor sensor) {
+            sensors.add(sensor);
+            count = Math.max(count, sensor.register + sensor.type.registers - start);
+        }
+    }
+
+    /**
+     * The parsed configuration of a Modbus {@link Sensor}.
+     */
+    private static class ModbusSensor {
+        private final Sensor sensor;
+        private final int function;
+        private final int register;
+        private final DataType type;
+        private final boolean swapWords;
+        private final BigDecimal scale;
+
+        public ModbusSensor(Sensor sensor) {
+            try {
+                JSONObject config = sensor.getConfig();
+                this.sensor = sensor;
+                this.register = config.getInt("register");
+
+                String table = config.optString("table", "holding");
+                switch (table) {
+                    case "holding": function = READ_HOLDING_REGISTERS; break;
+                    case "input": function = READ_INPUT_REGISTERS; break;
+                    default: throw new GeordiException("Unknown register table " + table);
+                }
+
+                this.type = DataType.valueOf(config.optString("type", "int16").toUpperCase());
+                this.swapWords = "little".equals(config.optString("wordOrder", "big"));
+                this.scale = config.has("scale") ? config.getBigDecimal("scale") : null;
+
+                if (register < 0 || register + type.registers > 0x10000) {
+                    throw new GeordiException("Register out of range: " + register);
+                }
+            } catch (JSONException | IllegalArgumentException | GeordiException ex) {
+                throw new GeordiException("Bad config of sensor " + sensor.getId(), ex);
+            }
+        }
+
+        /**
+         * Decodes the sensor value.
+         *
+         * @param pdu
+         *            Response PDU
+         * @param offset
+         *            Offset of the sensor's first register in the PDU
+         * @return Decoded and scaled value, or {@code null} if it is not a number
+         */
+        public BigDecimal decode(byte[] pdu, int offset) {
+            BigDecimal value;
+            switch (type) {
+                case INT16:
+                    value = BigDecimal.valueOf((short) word(pdu, offset));
+                    break;
+
+                case UINT16:
+                    value = BigDecimal.valueOf(word(pdu, offset));
+                    break;
+
+                case INT32:
+                    value = BigDecimal.valueOf(dword(pdu, offset));
+                    break;
+
+                case UINT32:
+                    value = BigDecimal.valueOf(dword(pdu, offset) & 0xFFFFFFFFL);
+                    break;
+
+                case FLOAT32: {
+                    float f = Float.intBitsToFloat(dword(pdu, offset));
+                    if (Float.isNaN(f) || Float.isInfinite(f)) {
+                        return null;
+                    }
+                    value = new BigDecimal(Float.toString(f));
+                    break;
+                }
+
+                default:
+                    throw new IllegalStateException("Unknown type " + type);
+            }
+
+            return scale != null ? value.multiply(scale) : value;
+        }
+
+        private int dword(byte[] pdu, int offset) {
+            int high = word(pdu, offset);
+            int low = word(pdu, offset + 2);
+            return swapWords ? (low << 16) | high : (high << 16) | low;
+        }
+
+        private static int word(byte[] pdu, int offset) {
+            return ((pdu[offset] & 0xFF) << 8) | (pdu[offset + 1] & 0xFF);
+        }
+    }
+
+}
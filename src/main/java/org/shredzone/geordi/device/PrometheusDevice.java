@@ -0,0 +1,386 @@
+/*
+ * geordi
+ *
+ * Copyright (C) 2020 Richard "Shred" Körber
+ *   https://codeberg.org/shred/geordi
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.
+ */
+package org.shredzone.geordi.device;
+
+import static java.nio.charset.StandardCharsets.UTF_8;
+
+import java.io.IOException;
+import java.math.BigDecimal;
+import java.net.MalformedURLException;
+import java.net.URL;
+import java.net.URLConnection;
+import java.nio.ByteBuffer;
+import java.time.Duration;
+import java.time.Instant;
+import java.time.format.DateTimeParseException;
+import java.time.temporal.ChronoUnit;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+import javax.inject.Inject;
+
+import org.json.JSONException;
+import org.json.JSONObject;
+import org.shredzone.geordi.GeordiException;
+import org.shredzone.geordi.data.Response;
+import org.shredzone.geordi.data.Sample;
+import org.shredzone.geordi.sensor.Sensor;
+import org.shredzone.geordi.service.ResponseCacheService;
+import org.shredzone.geordi.util.ByteDecimals;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * A {@link Device} implementation that scrapes endpoints exposing metrics in the
+ * Prometheus text format or in OpenMetrics format.
+ * <p>
+ * The exposition is parsed in a single pass directly from the response bytes. Metric
+ * names are looked up in a hash table that only contains the configured metrics, so
+ * lines of other metrics are skipped without parsing their labels or values.
+ * <p>
+ * If the labels of a sensor match several series, only the first one is used, so each
+ * sensor gets at most one sample per scrape.
+ *
+ * @see <a href="https://prometheus.io/docs/instrumenting/exposition_formats/">Exposition formats</a>
+ */
+public class PrometheusDevice extends Device {
+    private static final int MAX_LABELS = 64;
+
+    private final Logger log = LoggerFactory.getLogger(getClass());
+
+    @Inject
+    private ResponseCacheService responseCacheService;
+
+    private URL metricsUrl;
+    private Duration cacheTtl;
+    private MetricGroup[] groups;
+    private int[] table;
+
+    @Override
+    public void prepare() {
+        try {
+            metricsUrl = new URL(getConfig().getString("url"));
+            cacheTtl = Duration.parse(getConfig().optString("cacheTtl", "PT1S"));
+        } catch (JSONException | MalformedURLException | DateTimeParseException ex) {
+            throw new GeordiException("Bad url config", ex);
+        }
+
+        Map<String, List<MetricSensor>> byName = new LinkedHashMap<>();
+        int index = 0;
+        for (Sensor sensor : getSensors()) {
+            MetricSensor ms = new MetricSensor(sensor, index++);
+            byName.computeIfAbsent(ms.metric, k -> new ArrayList<>()).add(ms);
+        }
+
+        groups = byName.entrySet().stream()
+                .map(e -> new MetricGroup(e.getKey(), e.getValue()))
+                .toArray(MetricGroup[]::new);
+
+        // Open addressing hash table of the metric names, with a load factor of 50%
+        int size = Integer.highestOneBit(Math.max(groups.length, 1) * 4);
+        table = new int[size];
+        for (int ix = 0; ix < table.length; ix++) {
+            table[ix] = -1;
+        }
+        for (int ix = 0; ix < groups.length; ix++) {
+            int slot = groups[ix].hash & (size - 1);
+            while (table[slot] >= 0) {
+                slot = (slot + 1) & (size - 1);
+            }
+            table[slot] = ix;
+        }
+    }
+
+    @Override
+    public List<Sample> readSensors() {
+        Response<byte[]> response;
+        try {
+            response = responseCacheService.fetch(metricsUrl.toString(), cacheTtl, this::openConnection);
+        } catch (IOException ex) {
+            throw new GeordiException("Could not scrape device " + getId(), ex);
+        }
+
+        if (!response.isOk()) {
+            throw new GeordiException("Could not scrape device " + getId()
+                    + ", HTTP status " + response.getStatus());
+        }
+
+        Instant now = Instant.now().truncatedTo(ChronoUnit.MILLIS);
+        List<Sample> result = new ArrayList<>();
+        parse(ByteBuffer.wrap(response.getBody()), now, result);
+        return result;
+    }
+
+    /**
+     * Opens a connection to the metrics endpoint.
+     */
+    private URLConnection openConnection() throws IOException {
+        URLConnection connection = metricsUrl.openConnection();
+        connection.setRequestProperty("Accept",
+                "application/openmetrics-text;version=1.0.0,text/plain;version=0.0.4;q=0.5");
+        return connection;
+    }
+
+    /**
+     * Parses the exposition, and adds a {@link Sample} for each matching sensor.
+     *
+     * @param buf
+     *            {@link ByteBuffer} containing the exposition
+     * @param now
+     *            Timestamp of the samples
+     * @param result
+     *            List to add the {@link Sample} to
+     */
+    private void parse(ByteBuffer buf, Instant now, List<Sample> result) {
+        int[] labels = new int[MAX_LABELS * 4];
+        boolean[] used = new boolean[getSensors().size()];
+        int limit = buf.limit();
+        int pos = 0;
+
+        while (pos < limit) {
+            int lineEnd = pos;
+            while (lineEnd < limit && buf.get(lineEnd) != '\n') {
+                lineEnd++;
+            }
+            parseLine(buf, pos, lineEnd, labels, used, now, result);
+            pos = lineEnd + 1;
+        }
+    }
+
+    /**
+     * Parses a single line of the exposition. {@code used} marks the sensors that
+     * already matched a series of this exposition.
+     */
+    private void parseLine(ByteBuffer buf, int start, int end, int[] labels, boolean[] used,
+                Instant now, List<Sample> result) {
+        if (start >= end || buf.get(start) == '#') {
+            return;
+        }
+
+        // Metric name, hashed while scanning
+        int pos = start;
+        int hash = 0;
+        while (pos < end) {
+            byte b = buf.get(pos);
+            if (b == '{' || b == ' ' || b == '\t') {
+                break;
+            }
+            hash = 31 * hash + b;
+            pos++;
+        }
+        int nameEnd = pos;
+
+        MetricGroup group = lookup(buf, start, nameEnd, hash);
+        if (group == null) {
+            return;
+        }
+
+        // Labels
+        int labelCount = 0;
+        if (pos < end && buf.get(pos) == '{') {
+            pos++;
+            while (pos < end && buf.get(pos) != '}') {
+                if (buf.get(pos) == ',' || buf.get(pos) == ' ') {
+                    pos++;
+                    continue;
+                }
+
+                int keyStart = pos;
+                while (pos < end && buf.get(pos) != '=') {
+                    pos++;
+                }
+                int keyEnd = pos;
+                pos++; // '='
+                if (pos >= end || buf.get(pos) != '"') {
+                    return; // malformed
+                }
+                int valueStart = ++pos;
+                while (pos < end && buf.get(pos) != '"') {
+                    pos += buf.get(pos) == '\\' ? 2 : 1;
+                }
+                if (pos >= end) {
+                    return; // malformed
+                }
+                int valueEnd = pos++;
+
+                if (labelCount < MAX_LABELS) {
+                    int l = labelCount * 4;
+                    labels[l] = keyStart;
+                    labels[l + 1] = keyEnd;
+                    labels[l + 2] = valueStart;
+                    labels[l + 3] = valueEnd;
+                    labelCount++;
+                }
+            }
+            pos++; // '}'
+        }
+
+        // Value
+        while (pos < end && (buf.get(pos) == ' ' || buf.get(pos) == '\t')) {
+            pos++;
+        }
+        int valueStart = pos;
+        while (pos < end && buf.get(pos) != ' ' && buf.get(pos) != '\t' && buf.get(pos) != '\r') {
+            pos++;
+        }
+        int valueEnd = pos;
+
+        boolean parsed = false;
+        BigDecimal value = null;
+        for (MetricSensor sensor : group.sensors) {
+            if (!sensor.matches(buf, labels, labelCount)) {
+                continue;
+            }
+
+            if (used[sensor.index]) {
+                if (!sensor.ambiguous) {
+                    log.warn("Sensor {} matches several series of metric {}, only the first one is stored",
+                            sensor.sensor.getId(), sensor.metric);
+                    sensor.ambiguous = true;
+                }
+                continue;
+            }
+            used[sensor.index] = true;
+
+            if (!parsed) {
+                // NaN and infinite values are not parsed and result in null
+                value = ByteDecimals.parseDecimal(buf, valueStart, valueEnd);
+                parsed = true;
+            }
+            if (value != null) {
+                result.add(new Sample(sensor.sensor, now, value));
+            }
+        }
+    }
+
+    /**
+     * Looks up the {@link MetricGroup} of a metric name.
+     *
+     * @return {@link MetricGroup}, or {@code null} if no sensor uses this metric
+     */
+    private MetricGroup lookup(ByteBuffer buf, int start, int end, int hash) {
+        int mask = table.length - 1;
+        int slot = hash & mask;
+        while (table[slot] >= 0) {
+            MetricGroup group = groups[table[slot]];
+            if (group.hash == hash && equalsBytes(buf, start, end, group.name)) {
+                return group;
+            }
+            slot = (slot + 1) & mask;
+        }
+        return null;
+    }
+
+    private static boolean equalsBytes(ByteBuffer buf, int start, int end, byte[] pattern) {
+        if (end - start != pattern.length) {
+            return false;
+        }
+        for (int ix = 0; ix < pattern.length; ix++) {
+            if (buf.get(start + ix) != pattern[ix]) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Escapes a label value like in the exposition format, so it can be compared to the
+     * raw bytes.
+     */
+    private static byte[] escape(String value) {
+        return value.replace("\\", "\\\\")
+                .replace("\"", "\\\"")
+                .replace("\n", "\\n")
+                .getBytes(UTF_8);
+    }
+
+    /**
+     * All sensors of a metric name.
+     */
+    private static class MetricGroup {
+        private final byte[] name;
+        private final int hash;
+        private final MetricSensor[] sensors;
+
+        public MetricGroup(String name, List<MetricSensor> sensors) {
+            this.name = name.getBytes(UTF_8);
+            this.sensors = sensors.toArray(new MetricSensor[0]);
+
+            int h = 0;
+            for (byte b : this.name) {
+                h = 31 * h + b;
+            }
+            this.hash = h;
+        }
+    }
+
+    /**
+     * The parsed configuration of a Prometheus {@link Sensor}.
+     */
+    private static class MetricSensor {
+        private final Sensor sensor;
+        private final int index;
+        private final String metric;
+        private final byte[][] labelNames;
+        private final byte[][] labelValues;
+
+        private boolean ambiguous;
+
+        public MetricSensor(Sensor sensor, int index) {
+            try {
+                JSONObject config = sensor.getConfig();
+                this.sensor = sensor;
+                this.index = index;
+                this.metric = config.getString("metric");
+
+                JSONObject labelConfig = config.optJSONObject("labels");
+                int count = labelConfig != null ? labelConfig.length() : 0;
+                this.labelNames = new byte[count][];
+                this.labelValues = new byte[count][];
+                if (labelConfig != null) {
+                    int ix = 0;
+                    for (String key : labelConfig.keySet()) {
+                        labelNames[ix] = key.getBytes(UTF_8);
+                        labelValues[ix] = escape(labelConfig.getString(key));
+                        ix++;
+                    }
+                }
+            } catch (JSONException ex) {
+                throw new GeordiException("Bad config of sensor " + sensor.getId(), ex);
+            }
+        }
+
+        /**
+         * Checks if all configured labels are present with the configured values.
+         */
+        private boolean matches(ByteBuffer buf, int[] labels, int labelCount) {
+            for (int ix = 0; ix < labelNames.length; ix++) {
+                boolean found = false;
+                for (int l = 0; l < labelCount * 4 && !found; l += 4) {
+                    found = equalsBytes(buf, labels[l], labels[l + 1], labelNames[ix])
+                            && equalsBytes(buf, labels[l + 2], labels[l + 3], labelValues[ix]);
+                }
+                if (!found) {
+                    return false;
+                }
+            }
+            return true;
+        }
+    }
+
+}
@@ -0,0 +1,380 @@
+/*
+ * geordi
+ *
+ * Copyright (C) 2020 Richard "Shred" Körber
+ *   https://codeberg.org/shred/geordi
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.
+ */
+package org.shredzone.geordi.device;
+
+import static java.nio.charset.StandardCharsets.UTF_8;
+
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.math.BigDecimal;
+import java.net.InetSocketAddress;
+import java.time.Instant;
+import java.time.format.DateTimeParseException;
+import java.time.temporal.ChronoUnit;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+import javax.inject.Inject;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpServer;
+import org.json.JSONException;
+import org.json.JSONObject;
+import org.shredzone.geordi.GeordiException;
+import org.shredzone.geordi.data.Sample;
+import org.shredzone.geordi.sensor.Sensor;
+import org.shredzone.geordi.service.IngestService;
+import org.shredzone.geordi.util.JsonReader;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * A {@link Device} implementation that receives sensor values that are pushed by the
+ * sensors via HTTP POST.
+ * <p>
+ * Two payload formats are accepted. The luftdaten.info format ("send to own API") is
+ * mapped to the sensors by their {@code value_type}. The generic batch format is mapped
+ * by the sensor's {@code key}, and may carry an explicit timestamp per sample.
+ */
+public class PushDevice extends Device {
+    private static final String LUFTDATEN_PATH = "/luftdaten";
+    private static final String BATCH_PATH = "/batch";
+
+    private final Logger log = LoggerFactory.getLogger(getClass());
+
+    @Inject
+    private IngestService ingestService;
+
+    private int port;
+    private int threads;
+    private String apikey;
+    private String esp8266id;
+    private Map<String, List<Sensor>> valueTypes;
+    private Map<String, List<Sensor>> keys;
+
+    private final Object ingestLock = new Object();
+    private final Map<Integer, Instant> lastTimestamps = new HashMap<>();
+
+    private HttpServer server;
+    private ExecutorService executor;
+
+    @Override
+    public void prepare() {
+        try {
+            JSONObject config = getConfig();
+            port = config.getInt("port");
+            threads = config.optInt("threads", 2);
+            apikey = config.optString("apikey", null);
+            esp8266id = config.has("esp8266id") ? String.valueOf(config.get("esp8266id")) : null;
+        } catch (JSONException ex) {
+            throw new GeordiException("Bad push config", ex);
+        }
+
+        valueTypes = new HashMap<>();
+        keys = new HashMap<>();
+        for (Sensor sensor : getSensors()) {
+            JSONObject config = sensor.getConfig();
+            String valueType = config.optString("value_type", null);
+            String key = config.optString("key", null);
+            if (valueType == null && key == null) {
+                throw new GeordiException("Sensor " + sensor.getId() + " has neither value_type nor key");
+            }
+            if (valueType != null) {
+                valueTypes.computeIfAbsent(valueType, k -> new ArrayList<>()).add(sensor);
+            }
+            if (key != null) {
+                keys.computeIfAbsent(key, k -> new ArrayList<>()).add(sensor);
+            }
+        }
+    }
+
+    @Override
+    public boolean isEventDriven(Sensor sensor) {
+        // Samples are pushed at the sensor's own pace, not by the cron expression
+        return true;
+    }
+
+    @Override
+    public void start() {
+        startServer();
+    }
+
+    @Override
+    public List<Sample> readSensors() {
+        // Restarts the server if it could not be started before
+        startServer();
+
+        // Values are pushed by the sensors, nothing to poll
+        return Collections.emptyList();
+    }
+
+    /**
+     * Starts the HTTP server that receives the pushed values, if it is not running yet.
+     */
+    private synchronized void startServer() {
+        if (server != null) {
+            return;
+        }
+
+        try {
+            executor = Executors.newFixedThreadPool(threads, r -> {
+                Thread thread = new Thread(r, "push-" + getId());
+                thread.setDaemon(true);
+                return thread;
+            });
+
+            server = HttpServer.create(new InetSocketAddress(port), 0);
+            server.createContext(LUFTDATEN_PATH, ex -> handle(ex, this::readLuftdaten));
+            server.createContext(BATCH_PATH, ex -> handle(ex, this::readBatch));
+            server.setExecutor(executor);
+            server.start();
+            log.info("Receiving pushed values of device {} on port {}", getName(), port);
+        } catch (IOException ex) {
+            throw new GeordiException("Could not start push server", ex);
+        }
+    }
+
+    /**
+     * Stops the HTTP server.
+     */
+    @Override
+    public synchronized void shutdown() {
+        if (server != null) {
+            server.stop(0);
+            executor.shutdown();
+            server = null;
+        }
+    }
+
+    /**
+     * Handles a push request.
+     *
+     * @param exchange
+     *            {@link HttpExchange} of the request
+     * @param parser
+     *            {@link PayloadParser} that parses the request body
+     */
+    private void handle(HttpExchange exchange, PayloadParser parser) throws IOException {
+        try {
+            if (!"POST".equals(exchange.getRequestMethod())) {
+                exchange.sendResponseHeaders(405, -1);
+                return;
+            }
+
+            if (apikey != null && !apikey.equals(exchange.getRequestHeaders().getFirst("X-API-Key"))) {
+                exchange.sendResponseHeaders(403, -1);
+                return;
+            }
+
+            List<Sample> samples = new ArrayList<>();
+            try (JsonReader json = new JsonReader(new InputStreamReader(exchange.getRequestBody(), UTF_8))) {
+                parser.parse(json, samples);
+            } catch (IOException | DateTimeParseException | ArithmeticException ex) {
+                log.warn("Bad push request from {}", exchange.getRemoteAddress(), ex);
+                exchange.sendResponseHeaders(400, -1);
+                return;
+            }
+
+            ingest(samples);
+
+            exchange.sendResponseHeaders(204, -1);
+        } catch (Exception ex) {
+            log.error("Failed to process pushed values of device {}", getId(), ex);
+            exchange.sendResponseHeaders(500, -1);
+        } finally {
+            exchange.close();
+        }
+    }
+
+    /**
+     * Ingests the pushed samples. Requests are processed concurrently, so the samples
+     * are ingested one request after the other, in the order of their timestamps. Samples
+     * that are not newer than the last ingested sample of their sensor are dropped, as
+     * they would disturb the compaction of the sensor. If the samples could not be
+     * ingested, they are accepted again when the sender repeats the request.
+     *
+     * @param samples
+     *            List of {@link Sample} that have been pushed
+     */
+    private void ingest(List<Sample> samples) {
+        samples.sort(Comparator.comparing(Sample::getTimestamp));
+
+        synchronized (ingestLock) {
+            List<Sample> accepted = new ArrayList<>(samples.size());
+            Map<Integer, Instant> latest = new HashMap<>(lastTimestamps);
+            for (Sample sample : samples) {
+                Instant last = latest.get(sample.getSensor().getId());
+                if (last == null || sample.getTimestamp().isAfter(last)) {
+                    accepted.add(sample);
+                    latest.put(sample.getSensor().getId(), sample.getTimestamp());
+                }
+            }
+
+            if (accepted.size() < samples.size()) {
+                log.debug("Dropped {} outdated samples pushed to device {}",
+                        samples.size() - accepted.size(), getId());
+            }
+
+            if (!accepted.isEmpty()) {
+                ingestService.ingest(accepted);
+                lastTimestamps.putAll(latest);
+            }
+        }
+    }
+
+    /**
+     * Reads a luftdaten.info payload.
+     *
+     * @param json
+     *            {@link JsonReader} of the payload
+     * @param samples
+     *            List to add the {@link Sample} to
+     */
+    private void readLuftdaten(JsonReader json, List<Sample> samples) throws IOException {
+        Instant now = Instant.now().truncatedTo(ChronoUnit.SECONDS);
+        List<Sample> result = new ArrayList<>();
+        String senderId = null;
+
+        json.beginObject();
+        while (json.hasNext()) {
+            String name = json.nextName();
+            if ("esp8266id".equals(name)) {
+                senderId = json.nextString();
+            } else if ("sensordatavalues".equals(name)) {
+                json.beginArray();
+                while (json.hasNext()) {
+                    readLuftdatenValue(json, now, result);
+                }
+                json.endArray();
+            } else {
+                json.skipValue();
+            }
+        }
+        json.endObject();
+
+        if (esp8266id != null && !esp8266id.equals(senderId)) {
+            log.debug("Ignoring values of sender {}", senderId);
+            return;
+        }
+
+        samples.addAll(result);
+    }
+
+    /**
+     * Reads a single value of the luftdaten.info "sensordatavalues" array.
+     */
+    private void readLuftdatenValue(JsonReader json, Instant now, List<Sample> samples) throws IOException {
+        String type = null;
+        String value = null;
+
+        json.beginObject();
+        while (json.hasNext()) {
+            String name = json.nextName();
+            if ("value_type".equals(name)) {
+                type = json.nextString();
+            } else if ("value".equals(name)) {
+                value = json.nextString();
+            } else {
+                json.skipValue();
+            }
+        }
+        json.endObject();
+
+        List<Sensor> sensors = valueTypes.get(type);
+        if (sensors != null && value != null) {
+            BigDecimal decimal;
+            try {
+                decimal = new BigDecimal(value);
+            } catch (NumberFormatException ex) {
+                throw new IOException("Bad value of " + type + ": " + value, ex);
+            }
+            for (Sensor sensor : sensors) {
+                samples.add(new Sample(sensor, now, decimal));
+            }
+        }
+    }
+
+    /**
+     * Reads a generic batch payload.
+     * <p>
+     * The payload is an object with a "samples" array. Each entry contains the "key" of
+     * the sensor, the "value", and optionally the "time" of the sample as ISO-8601
+     * instant.
+     *
+     * @param json
+     *            {@link JsonReader} of the payload
+     * @param samples
+     *            List to add the {@link Sample} to
+     */
+    private void readBatch(JsonReader json, List<Sample> samples) throws IOException {
+        Instant now = Instant.now().truncatedTo(ChronoUnit.MILLIS);
+
+        json.beginObject();
+        while (json.hasNext()) {
+            if (!"samples".equals(json.nextName())) {
+                json.skipValue();
+                continue;
+            }
+
+            json.beginArray();
+            while (json.hasNext()) {
+                String key = null;
+                String time = null;
+                BigDecimal value = null;
+
+                json.beginObject();
+                while (json.hasNext()) {
+                    String name = json.nextName();
+                    if ("key".equals(name)) {
+                        key = json.nextString();
+                    } else if ("time".equals(name)) {
+                        time = json.nextString();
+                    } else if ("value".equals(name)) {
+                        value = json.nextDecimal();
+                    } else {
+                        json.skipValue();
+                    }
+                }
+                json.endObject();
+
+                List<Sensor> sensors = keys.get(key);
+                if (sensors != null && value != null) {
+                    Instant ts = time != null ? Instant.parse(time) : now;
+                    for (Sensor sensor : sensors) {
+                        samples.add(new Sample(sensor, ts, value));
+                    }
+                }
+            }
+            json.endArray();
+        }
+        json.endObject();
+    }
+
+    /**
+     * Parses a payload into {@link Sample}.
+     */
+    @FunctionalInterface
+    private interface PayloadParser {
+        void parse(JsonReader json, List<Sample> samples) throws IOException;
+    }
+
+}
@@ -0,0 +1,62 @@
+/*
+ * geordi
+ *
+ * Copyright (C) 2020 Richard "Shred" Körber
+ *   https://codeberg.org/shred/geordi
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.
+ */
+package org.shredzone.geordi.device;
+
+import static java.util.stream.Collectors.toList;
+
+import java.util.Collections;
+import java.util.List;
+
+import org.shredzone.geordi.data.Sample;
+import org.shredzone.geordi.expression.Derivation;
+import org.shredzone.geordi.sensor.Sensor;
+import org.shredzone.geordi.service.DerivingService;
+
+/**
+ * A {@link Device} that contains virtual sensors. Their values are computed from other
+ * sensors by the {@link DerivingService}, whenever one of the input values changes.
+ */
+public class VirtualDevice extends Device {
+
+    private List<Derivation> derivations;
+
+    @Override
+    public void prepare() {
+        derivations = getSensors().stream()
+                .map(Derivation::new)
+                .collect(toList());
+    }
+
+    /**
+     * Returns the {@link Derivation} of all virtual sensors of this device.
+     */
+    public List<Derivation> getDerivations() {
+        return derivations;
+    }
+
+    @Override
+    public boolean isEventDriven(Sensor sensor) {
+        // Virtual sensors are only computed when one of their input values changes
+        return true;
+    }
+
+    @Override
+    public List<Sample> readSensors() {
+        // Values are computed on ingestion, nothing to poll
+        return Collections.emptyList();
+    }
+
+}
@@ -0,0 +1,87 @@
+/*
+ * geordi
+ *
+ * Copyright (C) 2020 Richard "Shred" Körber
+ *   https://codeberg.org/shred/geordi
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.
+ */
+package org.shredzone.geordi.expression;
+
+import java.math.BigDecimal;
+import java.math.RoundingMode;
+
+import org.json.JSONException;
+import org.json.JSONObject;
+import org.shredzone.geordi.GeordiException;
+import org.shredzone.geordi.sensor.Sensor;
+
+/**
+ * A {@link Derivation} computes the value of a virtual sensor from the values of other
+ * sensors.
+ * <p>
+ * Objects are immutable.
+ */
+public class Derivation {
+
+    private final Sensor sensor;
+    private final Expression expression;
+    private final int scale;
+
+    /**
+     * Creates a new {@link Derivation} from the config of the virtual sensor.
+     *
+     * @param sensor
+     *         Virtual {@link Sensor}
+     * @throws GeordiException
+     *         if the configuration or the expression is invalid
+     */
+    public Derivation(Sensor sensor) {
+        try {
+            JSONObject config = sensor.getConfig();
+            this.sensor = sensor;
+            this.expression = Expression.compile(config.getString("expression"));
+            this.scale = config.optInt("scale", 2);
+        } catch (JSONException | GeordiException ex) {
+            throw new GeordiException("Bad config of sensor " + sensor.getId(), ex);
+        }
+    }
+
+    /**
+     * Returns the virtual {@link Sensor}.
+     */
+    public Sensor getSensor() {
+        return sensor;
+    }
+
+    /**
+     * Returns the compiled {@link Expression}.
+     */
+    public Expression getExpression() {
+        return expression;
+    }
+
+    /**
+     * Computes the value of the virtual sensor.
+     *
+     * @param values
+     *         Input values, in the order of {@link Expression#getInputs()}
+     * @return Computed value, or {@code null} if the expression is not defined for the
+     * given values
+     */
+    public BigDecimal compute(double[] values) {
+        double result = expression.evaluate(values);
+        if (Double.isNaN(result) || Double.isInfinite(result)) {
+            return null;
+        }
+        return new BigDecimal(result).setScale(scale, RoundingMode.HALF_UP);
+    }
+
+}
@@ -0,0 +1,307 @@
+/*
+ * geordi
+ *
+ * Copyright (C) 2020 Richard "Shred" Körber
+ *   https://codeberg.org/shred/geordi
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.
+ */
+package org.shredzone.geordi.expression;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.function.DoubleBinaryOperator;
+import java.util.function.DoubleUnaryOperator;
+
+import org.shredzone.geordi.GeordiException;
+
+/**
+ * A compiled arithmetic expression over sensor values.
+ * <p>
+ * Sensors are referenced by {@code $} and their ID, e.g. {@code $12}. The expression
+ * supports the operators {@code + - * / ^}, parentheses, the constants {@code pi} and
+ * {@code e}, and the functions {@code abs, sqrt, exp, ln, log10, min, max, pow}.
+ * <p>
+ * The expression is parsed once, and compiled into a tree of evaluator functions.
+ * Sensor references are resolved to array indexes, so no lookups are required on
+ * evaluation.
+ * <p>
+ * Objects are immutable.
+ */
+public class Expression {
+
+    private final String source;
+    private final List<Integer> inputs;
+    private final Node root;
+
+    private Expression(String source, List<Integer> inputs, Node root) {
+        this.source = source;
+        this.inputs = Collections.unmodifiableList(inputs);
+        this.root = root;
+    }
+
+    /**
+     * Compiles an expression.
+     *
+     * @param source
+     *         Expression to compile
+     * @return Compiled {@link Expression}
+     * @throws GeordiException
+     *         if the expression is invalid
+     */
+    public static Expression compile(String source) {
+        Parser parser = new Parser(source);
+        Node root = parser.parseExpression();
+        parser.skipWhitespace();
+        if (parser.pos < source.length()) {
+            throw parser.error("Unexpected character");
+        }
+        if (parser.inputs.isEmpty()) {
+            throw new GeordiException("Expression '" + source + "' does not reference a sensor");
+        }
+        return new Expression(source, parser.inputs, root);
+    }
+
+    /**
+     * Returns the IDs of the sensors that are referenced by the expression, in the order
+     * that is expected by {@link #evaluate(double[])}.
+     */
+    public List<Integer> getInputs() {
+        return inputs;
+    }
+
+    /**
+     * Evaluates the expression.
+     *
+     * @param values
+     *         Sensor values, in the order of {@link #getInputs()}
+     * @return Result. May be {@link Double#NaN} or infinite if the expression is not
+     * defined for the given values.
+     */
+    public double evaluate(double[] values) {
+        return root.eval(values);
+    }
+
+    @Override
+    public String toString() {
+        return source;
+    }
+
+    /**
+     * A compiled node of the expression tree.
+     */
+    @FunctionalInterface
+    private interface Node {
+        double eval(double[] values);
+    }
+
+    /**
+     * A simple recursive descent parser that compiles the expression.
+     */
+    private static class Parser {
+        private final String source;
+        private final List<Integer> inputs = new ArrayList<>();
+        private int pos = 0;
+
+        public Parser(String source) {
+            this.source = source;
+        }
+
+        // expression := term (('+' | '-') term)*
+        public Node parseExpression() {
+            Node result = parseTerm();
+            while (true) {
+                if (accept('+')) {
+                    result = binary(result, parseTerm(), (a, b) -> a + b);
+                } else if (accept('-')) {
+                    result = binary(result, parseTerm(), (a, b) -> a - b);
+                } else {
+                    return result;
+                }
+            }
+        }
+
+        // term := factor (('*' | '/') factor)*
+        private Node parseTerm() {
+            Node result = parseFactor();
+            while (true) {
+                if (accept('*')) {
+                    result = binary(result, parseFactor(), (a, b) -> a * b);
+                } else if (accept('/')) {
+                    result = binary(result, parseFactor(), (a, b) -> a / b);
+                } else {
+                    return result;
+                }
+            }
+        }
+
+        // factor := ('-' | '+') factor | power
+        private Node parseFactor() {
+            if (accept('-')) {
+                Node operand = parseFactor();
+                return values -> -operand.eval(values);
+            }
+            if (accept('+')) {
+                return parseFactor();
+            }
+            return parsePower();
+        }
+
+        // power := primary ('^' factor)?
+        private Node parsePower() {
+            Node base = parsePrimary();
+            if (accept('^')) {
+                return binary(base, parseFactor(), Math::pow);
+            }
+            return base;
+        }
+
+        // primary := number | '$' id | name | name '(' args ')' | '(' expression ')'
+        private Node parsePrimary() {
+            skipWhitespace();
+            if (pos >= source.length()) {
+                throw error("Unexpected end");
+            }
+
+            char ch = source.charAt(pos);
+
+            if (accept('(')) {
+                Node inner = parseExpression();
+                expect(')');
+                return inner;
+            }
+
+            if (ch == '$') {
+                pos++;
+                int start = pos;
+                while (pos < source.length() && Character.isDigit(source.charAt(pos))) {
+                    pos++;
+                }
+                if (start == pos) {
+                    throw error("Sensor ID expected");
+                }
+                Integer id = Integer.valueOf(source.substring(start, pos));
+                int index = inputs.indexOf(id);
+                if (index < 0) {
+                    index = inputs.size();
+                    inputs.add(id);
+                }
+                int slot = index;
+                return values -> values[slot];
+            }
+
+            if (Character.isDigit(ch) || ch == '.') {
+                int start = pos;
+                while (pos < source.length() && (Character.isDigit(source.charAt(pos)) || source.charAt(pos) == '.')) {
+                    pos++;
+                }
+                if (pos < source.length() && (source.charAt(pos) == 'e' || source.charAt(pos) == 'E')) {
+                    pos++;
+                    if (pos < source.length() && (source.charAt(pos) == '+' || source.charAt(pos) == '-')) {
+                        pos++;
+                    }
+                    while (pos < source.length() && Character.isDigit(source.charAt(pos))) {
+                        pos++;
+                    }
+                }
+                try {
+                    double value = Double.parseDouble(source.substring(start, pos));
+                    return values -> value;
+                } catch (NumberFormatException ex) {
+                    throw error("Bad number");
+                }
+            }
+
+            if (Character.isLetter(ch)) {
+                int start = pos;
+                while (pos < source.length() && Character.isLetterOrDigit(source.charAt(pos))) {
+                    pos++;
+                }
+                return parseName(source.substring(start, pos));
+            }
+
+            throw error("Unexpected character");
+        }
+
+        private Node parseName(String name) {
+            switch (name) {
+                case "pi":
+                    return values -> Math.PI;
+                case "e":
+                    return values -> Math.E;
+                case "abs":
+                    return unary(Math::abs);
+                case "sqrt":
+                    return unary(Math::sqrt);
+                case "exp":
+                    return unary(Math::exp);
+                case "ln":
+                    return unary(Math::log);
+                case "log10":
+                    return unary(Math::log10);
+                case "min":
+                    return function(Math::min);
+                case "max":
+                    return function(Math::max);
+                case "pow":
+                    return function(Math::pow);
+                default:
+                    throw error("Unknown name '" + name + "'");
+            }
+        }
+
+        private Node unary(DoubleUnaryOperator op) {
+            expect('(');
+            Node arg = parseExpression();
+            expect(')');
+            return values -> op.applyAsDouble(arg.eval(values));
+        }
+
+        private Node function(DoubleBinaryOperator op) {
+            expect('(');
+            Node left = parseExpression();
+            expect(',');
+            Node right = parseExpression();
+            expect(')');
+            return binary(left, right, op);
+        }
+
+        private static Node binary(Node left, Node right, DoubleBinaryOperator op) {
+            return values -> op.applyAsDouble(left.eval(values), right.eval(values));
+        }
+
+        private boolean accept(char ch) {
+            skipWhitespace();
+            if (pos < source.length() && source.charAt(pos) == ch) {
+                pos++;
+                return true;
+            }
+            return false;
+        }
+
+        private void expect(char ch) {
+            if (!accept(ch)) {
+                throw error("'" + ch + "' expected");
+            }
+        }
+
+        public void skipWhitespace() {
+            while (pos < source.length() && Character.isWhitespace(source.charAt(pos))) {
+                pos++;
+            }
+        }
+
+        public GeordiException error(String message) {
+            return new GeordiException(message + " at position " + pos + " of expression '" + source + "'");
+        }
+    }
+
+}
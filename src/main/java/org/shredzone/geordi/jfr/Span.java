@@ -0,0 +1,45 @@
+/*
+ * geordi
+ *
+ * Copyright (C) 2020 Richard "Shred" Körber
+ *   https://codeberg.org/shred/geordi
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.
+ */
+package org.shredzone.geordi.jfr;
+
+/**
+ * A traced section of the pipeline. It starts when it is created, and ends when one of
+ * the {@code end} methods is invoked. Spans that are not ended are discarded.
+ */
+public interface Span {
+
+    /**
+     * A {@link Span} that does nothing.
+     */
+    Span NOOP = count -> {};
+
+    /**
+     * Ends the span.
+     */
+    default void end() {
+        end(0L);
+    }
+
+    /**
+     * Ends the span.
+     *
+     * @param count
+     *         A count that is recorded with the span. The meaning depends on the kind
+     *         of span, e.g. the number of bytes or samples.
+     */
+    void end(long count);
+
+}
@@ -0,0 +1,55 @@
+/*
+ * geordi
+ *
+ * Copyright (C) 2020 Richard "Shred" Körber
+ *   https://codeberg.org/shred/geordi
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.
+ */
+package org.shredzone.geordi.jfr;
+
+/**
+ * Creates {@link Span} for the sections of the pipeline.
+ */
+public interface Tracer {
+
+    /**
+     * Starts a span for reading the sensors of a device. It is ended with the number of
+     * samples that were read.
+     */
+    Span poll();
+
+    /**
+     * Starts a span for fetching a response from a device. It is ended with the number
+     * of bytes that were fetched.
+     *
+     * @param endpoint
+     *         Endpoint that is fetched
+     */
+    Span fetch(String endpoint);
+
+    /**
+     * Starts a span for compacting samples. It is ended with the number of samples that
+     * were removed.
+     *
+     * @param samples
+     *         Number of samples to be compacted
+     */
+    Span compaction(int samples);
+
+    /**
+     * Starts a span for writing a batch of samples to the database.
+     *
+     * @param batchSize
+     *         Number of samples in the batch
+     */
+    Span store(int batchSize);
+
+}
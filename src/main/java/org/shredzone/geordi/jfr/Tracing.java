@@ -0,0 +1,89 @@
+/*
+ * geordi
+ *
+ * Copyright (C) 2020 Richard "Shred" Körber
+ *   https://codeberg.org/shred/geordi
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.
+ */
+package org.shredzone.geordi.jfr;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Emits JDK Flight Recorder events for the sections of the pipeline.
+ * <p>
+ * The events are only available if Geordi was built and is running on a JDK that
+ * provides the {@code jdk.jfr} module. Otherwise all spans are no-ops.
+ */
+public final class Tracing {
+    private static final String JFR_TRACER = "org.shredzone.geordi.jfr.JfrTracer";
+
+    private static final Tracer TRACER = load();
+
+    private Tracing() {
+        // utility class without constructor
+    }
+
+    /**
+     * Starts a span for reading the sensors of a device.
+     *
+     * @see Tracer#poll()
+     */
+    public static Span poll() {
+        return TRACER != null ? TRACER.poll() : Span.NOOP;
+    }
+
+    /**
+     * Starts a span for fetching a response from a device.
+     *
+     * @see Tracer#fetch(String)
+     */
+    public static Span fetch(String endpoint) {
+        return TRACER != null ? TRACER.fetch(endpoint) : Span.NOOP;
+    }
+
+    /**
+     * Starts a span for compacting samples.
+     *
+     * @see Tracer#compaction(int)
+     */
+    public static Span compaction(int samples) {
+        return TRACER != null ? TRACER.compaction(samples) : Span.NOOP;
+    }
+
+    /**
+     * Starts a span for writing a batch of samples to the database.
+     *
+     * @see Tracer#store(int)
+     */
+    public static Span store(int batchSize) {
+        return TRACER != null ? TRACER.store(batchSize) : Span.NOOP;
+    }
+
+    /**
+     * Loads the JFR based {@link Tracer}, if it is available.
+     *
+     * @return {@link Tracer}, or {@code null} if Flight Recorder is not supported
+     */
+    private static Tracer load() {
+        Logger log = LoggerFactory.getLogger(Tracing.class);
+        try {
+            Tracer tracer = (Tracer) Class.forName(JFR_TRACER).getDeclaredConstructor().newInstance();
+            log.debug("Flight Recorder events are enabled");
+            return tracer;
+        } catch (ReflectiveOperationException | LinkageError ex) {
+            log.debug("Flight Recorder events are not available");
+            return null;
+        }
+    }
+
+}
@@ -0,0 +1,166 @@
+/*
+ * geordi
+ *
+ * Copyright (C) 2020 Richard "Shred" Körber
+ *   https://codeberg.org/shred/geordi
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.
+ */
+package org.shredzone.geordi.metrics;
+
+import java.util.Arrays;
+import java.util.concurrent.atomic.DoubleAdder;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * A histogram with fixed bucket bounds. It is lock-free and threadsafe.
+ */
+public class Histogram {
+
+    /**
+     * Bucket bounds for latencies, in seconds.
+     */
+    public static final double[] LATENCY_BUCKETS = {
+            0.001, 0.0025, 0.005, 0.01, 0.025, 0.05, 0.1, 0.25, 0.5, 1.0, 2.5, 5.0, 10.0, 30.0, 60.0
+    };
+
+    /**
+     * Bucket bounds for sizes, like batch sizes.
+     */
+    public static final double[] SIZE_BUCKETS = {
+            1, 2, 5, 10, 20, 50, 100, 200, 500, 1000, 2000, 5000, 10000
+    };
+
+    private final double[] bounds;
+    private final LongAdder[] buckets;
+    private final LongAdder count = new LongAdder();
+    private final DoubleAdder sum = new DoubleAdder();
+
+    /**
+     * Creates a new {@link Histogram}.
+     *
+     * @param bounds
+     *         Upper bounds of the buckets, in ascending order
+     */
+    public Histogram(double[] bounds) {
+        this.bounds = bounds.clone();
+        this.buckets = new LongAdder[bounds.length];
+        for (int ix = 0; ix < buckets.length; ix++) {
+            buckets[ix] = new LongAdder();
+        }
+    }
+
+    /**
+     * Records a value.
+     *
+     * @param value
+     *         Value to record
+     */
+    public void observe(double value) {
+        for (int ix = 0; ix < bounds.length; ix++) {
+            if (value <= bounds[ix]) {
+                buckets[ix].increment();
+                break;
+            }
+        }
+        count.increment();
+        sum.add(value);
+    }
+
+    /**
+     * Records a duration, in seconds.
+     *
+     * @param nanos
+     *         Duration, in nanoseconds
+     */
+    public void observeNanos(long nanos) {
+        observe(nanos / 1_000_000_000.0);
+    }
+
+    /**
+     * Adds all recorded values of another {@link Histogram} to this histogram.
+     *
+     * @param other
+     *         {@link Histogram} to add, must have the same bucket bounds
+     */
+    public void add(Histogram other) {
+        if (!Arrays.equals(bounds, other.bounds)) {
+            throw new IllegalArgumentException("Histograms have different buckets");
+        }
+        for (int ix = 0; ix < buckets.length; ix++) {
+            buckets[ix].add(other.buckets[ix].sum());
+        }
+        count.add(other.count.sum());
+        sum.add(other.sum.sum());
+    }
+
+    /**
+     * Estimates a quantile of the recorded values. Like Prometheus, the value is
+     * interpolated linearly within the bucket that contains the quantile. If the
+     * quantile is above the largest bucket, the largest bucket bound is returned.
+     *
+     * @param q
+     *         Quantile, between 0.0 and 1.0
+     * @return Estimated value, or {@link Double#NaN} if no values were recorded
+     */
+    public double quantile(double q) {
+        long total = getCount();
+        if (total == 0L) {
+            return Double.NaN;
+        }
+
+        double rank = q * total;
+        long lower = 0L;
+        for (int ix = 0; ix < buckets.length; ix++) {
+            long upper = lower + buckets[ix].sum();
+            if (upper >= rank && upper > lower) {
+                double start = ix > 0 ? bounds[ix - 1] : 0.0;
+                return start + (bounds[ix] - start) * (rank - lower) / (upper - lower);
+            }
+            lower = upper;
+        }
+        return bounds[bounds.length - 1];
+    }
+
+    /**
+     * Returns the upper bounds of the buckets.
+     */
+    public double[] getBounds() {
+        return bounds.clone();
+    }
+
+    /**
+     * Returns the cumulative number of recorded values of each bucket.
+     */
+    public long[] getCumulativeCounts() {
+        long[] result = new long[buckets.length];
+        long total = 0L;
+        for (int ix = 0; ix < buckets.length; ix++) {
+            total += buckets[ix].sum();
+            result[ix] = total;
+        }
+        return result;
+    }
+
+    /**
+     * Returns the total number of recorded values.
+     */
+    public long getCount() {
+        return count.sum();
+    }
+
+    /**
+     * Returns the sum of all recorded values.
+     */
+    public double getSum() {
+        return sum.sum();
+    }
+
+}
@@ -0,0 +1,133 @@
+/*
+ * geordi
+ *
+ * Copyright (C) 2020 Richard "Shred" Körber
+ *   https://codeberg.org/shred/geordi
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.
+ */
+package org.shredzone.geordi.metrics;
+
+/**
+ * Collects statistics of the device poll that is running on the current thread, like
+ * the time spent on fetching data from the device, and on storing the samples.
+ * <p>
+ * If no poll is running on the current thread, all records are ignored.
+ */
+public final class PollContext {
+
+    private static final ThreadLocal<PollContext> CURRENT = new ThreadLocal<>();
+
+    private final int deviceId;
+    private final String deviceType;
+    private long fetchNanos;
+    private long fetchedBytes;
+    private long storeNanos;
+
+    private PollContext(int deviceId, String deviceType) {
+        this.deviceId = deviceId;
+        this.deviceType = deviceType;
+    }
+
+    /**
+     * Begins a poll on the current thread.
+     *
+     * @param deviceId
+     *         ID of the device that is polled
+     * @param deviceType
+     *         Type of the device that is polled
+     * @return {@link PollContext} of the poll
+     */
+    public static PollContext begin(int deviceId, String deviceType) {
+        PollContext context = new PollContext(deviceId, deviceType);
+        CURRENT.set(context);
+        return context;
+    }
+
+    /**
+     * Returns the {@link PollContext} of the poll running on the current thread, or
+     * {@code null} if there is none.
+     */
+    public static PollContext current() {
+        return CURRENT.get();
+    }
+
+    /**
+     * Ends the poll on the current thread.
+     */
+    public static void end() {
+        CURRENT.remove();
+    }
+
+    /**
+     * Records a fetch of device data.
+     *
+     * @param nanos
+     *         Time spent on fetching, in nanoseconds
+     * @param bytes
+     *         Number of bytes that were fetched
+     */
+    public static void recordFetch(long nanos, long bytes) {
+        PollContext context = CURRENT.get();
+        if (context != null) {
+            context.fetchNanos += nanos;
+            context.fetchedBytes += bytes;
+        }
+    }
+
+    /**
+     * Records the storage of samples.
+     *
+     * @param nanos
+     *         Time spent on compacting and storing samples, in nanoseconds
+     */
+    public static void recordStore(long nanos) {
+        PollContext context = CURRENT.get();
+        if (context != null) {
+            context.storeNanos += nanos;
+        }
+    }
+
+    /**
+     * Returns the ID of the device that is polled.
+     */
+    public int getDeviceId() {
+        return deviceId;
+    }
+
+    /**
+     * Returns the type of the device that is polled.
+     */
+    public String getDeviceType() {
+        return deviceType;
+    }
+
+    /**
+     * Returns the time spent on fetching device data, in nanoseconds.
+     */
+    public long getFetchNanos() {
+        return fetchNanos;
+    }
+
+    /**
+     * Returns the number of bytes that were fetched from the device.
+     */
+    public long getFetchedBytes() {
+        return fetchedBytes;
+    }
+
+    /**
+     * Returns the time spent on compacting and storing samples, in nanoseconds.
+     */
+    public long getStoreNanos() {
+        return storeNanos;
+    }
+
+}
@@ -0,0 +1,168 @@
+/*
+ * geordi
+ *
+ * Copyright (C) 2020 Richard "Shred" Körber
+ *   https://codeberg.org/shred/geordi
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.
+ */
+package org.shredzone.geordi.scheduler;
+
+import java.time.Instant;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+import javax.inject.Inject;
+import javax.inject.Singleton;
+
+import org.shredzone.geordi.device.Device;
+import org.shredzone.geordi.jfr.Span;
+import org.shredzone.geordi.jfr.Tracing;
+import org.shredzone.geordi.metrics.Histogram;
+import org.shredzone.geordi.metrics.PollContext;
+import org.shredzone.geordi.service.DatabaseService;
+import org.shredzone.geordi.service.FreshnessService;
+import org.shredzone.geordi.service.IngestSink;
+import org.shredzone.geordi.service.IngestService;
+import org.shredzone.geordi.service.MetricsService;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Polls a {@link Device}. It fetches the device from database, reads all the sensor
+ * values and stores them into the database. It is invoked by the {@link PollScheduler}
+ * whenever a device is due.
+ */
+@Singleton
+public class DevicePoller {
+
+    private final Logger log = LoggerFactory.getLogger(getClass());
+
+    @Inject
+    private DatabaseService databaseService;
+
+    @Inject
+    private IngestService ingestService;
+
+    @Inject
+    private MetricsService metricsService;
+
+    @Inject
+    private FreshnessService freshnessService;
+
+    private final Map<Integer, PollMetrics> pollMetrics = new ConcurrentHashMap<>();
+
+    /**
+     * Polls a device.
+     *
+     * @param devId
+     *            Device ID
+     * @param name
+     *            Device name
+     * @param scheduled
+     *            Time the poll was scheduled for, or {@code null} if unknown
+     * @param fired
+     *            Time the poll was actually started
+     */
+    public void poll(int devId, String name, Instant scheduled, Instant fired) {
+        long jobStart = System.nanoTime();
+        boolean success = false;
+        PollMetrics metrics = getPollMetrics(devId, name);
+
+        if (scheduled != null) {
+            long lag = fired.toEpochMilli() - scheduled.toEpochMilli();
+            metrics.lag.observe(Math.max(lag, 0L) / 1000.0);
+        }
+
+        try {
+            Device device = databaseService.getDevice(devId);
+            PollContext poll = PollContext.begin(devId, device.getClass().getSimpleName());
+
+            IngestSink sink = ingestService.open();
+            long read;
+            long storedWhileReading;
+            try {
+                Span span = Tracing.poll();
+                long start = System.nanoTime();
+                device.readSensors(sink);
+                read = System.nanoTime() - start;
+                storedWhileReading = poll.getStoreNanos();
+                span.end(sink.getSampleCount());
+            } finally {
+                // Samples that have been read before a failure are stored as well
+                sink.close();
+            }
+            metrics.fetch.observeNanos(poll.getFetchNanos());
+            metrics.parse.observeNanos(Math.max(read - poll.getFetchNanos() - storedWhileReading, 0L));
+            metrics.store.observeNanos(poll.getStoreNanos());
+            success = true;
+        } catch (Exception ex) {
+            Throwable cause = ex;
+            while (cause.getCause() != null && cause.getCause() != cause) {
+                cause = cause.getCause();
+            }
+            metricsService.counter("geordi_poll_errors_total", "Failed device polls",
+                            "device", String.valueOf(devId), "name", name,
+                            "type", cause.getClass().getSimpleName())
+                    .increment();
+            log.error("Failed to poll device {}", devId, ex);
+        } finally {
+            PollContext.end();
+            freshnessService.recordPoll(devId, scheduled, fired, System.nanoTime() - jobStart, success);
+        }
+    }
+
+    /**
+     * Returns the {@link PollMetrics} of a device. They are only looked up on the first
+     * poll, or when the device was renamed.
+     *
+     * @param devId
+     *            Device ID
+     * @param name
+     *            Device name
+     * @return {@link PollMetrics} of the device
+     */
+    private PollMetrics getPollMetrics(int devId, String name) {
+        PollMetrics metrics = pollMetrics.get(devId);
+        if (metrics == null || !metrics.name.equals(name)) {
+            metrics = new PollMetrics(devId, name);
+            pollMetrics.put(devId, metrics);
+        }
+        return metrics;
+    }
+
+    /**
+     * The metrics of a device's polls.
+     */
+    private class PollMetrics {
+        private final String name;
+        private final Histogram lag;
+        private final Histogram fetch;
+        private final Histogram parse;
+        private final Histogram store;
+
+        public PollMetrics(int devId, String name) {
+            String id = String.valueOf(devId);
+            this.name = name;
+            this.lag = metricsService.histogram("geordi_scheduler_lag_seconds",
+                    "Delay between scheduled and actual poll",
+                    Histogram.LATENCY_BUCKETS, "device", id, "name", name);
+            this.fetch = phase(id, name, "fetch");
+            this.parse = phase(id, name, "parse");
+            this.store = phase(id, name, "store");
+        }
+
+        private Histogram phase(String id, String name, String phase) {
+            return metricsService.histogram("geordi_poll_seconds", "Duration of device polls, by phase",
+                    Histogram.LATENCY_BUCKETS, "device", id, "name", name, "phase", phase);
+        }
+    }
+
+}
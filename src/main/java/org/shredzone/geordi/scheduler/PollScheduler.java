@@ -0,0 +1,44 @@
+/*
+ * geordi
+ *
+ * Copyright (C) 2020 Richard "Shred" Körber
+ *   https://codeberg.org/shred/geordi
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.
+ */
+package org.shredzone.geordi.scheduler;
+
+import org.shredzone.geordi.device.Device;
+
+/**
+ * A scheduler that polls the devices according to their cron expressions. The devices
+ * are polled by the {@link DevicePoller}.
+ */
+public interface PollScheduler {
+
+    /**
+     * Adds a {@link Device} to the scheduler.
+     *
+     * @param device
+     *            {@link Device} to be polled
+     */
+    void schedule(Device device);
+
+    /**
+     * Starts the scheduler.
+     */
+    void start();
+
+    /**
+     * Stops the scheduler, and waits for the running polls to complete.
+     */
+    void shutdown();
+
+}
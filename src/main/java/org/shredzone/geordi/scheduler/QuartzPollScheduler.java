@@ -0,0 +1,103 @@
+/*
+ * geordi
+ *
+ * Copyright (C) 2020 Richard "Shred" Körber
+ *   https://codeberg.org/shred/geordi
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.
+ */
+package org.shredzone.geordi.scheduler;
+
+import javax.inject.Inject;
+import javax.inject.Singleton;
+
+import org.quartz.CronScheduleBuilder;
+import org.quartz.Job;
+import org.quartz.JobBuilder;
+import org.quartz.JobDetail;
+import org.quartz.JobExecutionContext;
+import org.quartz.Scheduler;
+import org.quartz.SchedulerException;
+import org.quartz.Trigger;
+import org.quartz.TriggerBuilder;
+import org.shredzone.geordi.device.Device;
+import org.shredzone.geordi.util.GuiceJobFactory;
+
+/**
+ * A {@link PollScheduler} that uses the Quartz scheduler.
+ */
+@Singleton
+public class QuartzPollScheduler implements PollScheduler {
+
+    private static final String ID_KEY = "id";
+
+    @Inject
+    private Scheduler scheduler;
+
+    @Inject
+    private GuiceJobFactory guiceJobFactory;
+
+    @Override
+    public void schedule(Device device) {
+        JobDetail job = JobBuilder.newJob(DeviceJob.class)
+                .withIdentity(device.getName())
+                .usingJobData(ID_KEY, device.getId())
+                .build();
+
+        Trigger trigger = TriggerBuilder.newTrigger()
+                .withIdentity(device.getName())
+                .startNow()
+                .withSchedule(CronScheduleBuilder.cronSchedule(device.getCron()))
+                .build();
+
+        try {
+            scheduler.scheduleJob(job, trigger);
+        } catch (SchedulerException ex) {
+            throw new IllegalStateException(ex);
+        }
+    }
+
+    @Override
+    public void start() {
+        try {
+            scheduler.setJobFactory(guiceJobFactory);
+            scheduler.start();
+        } catch (SchedulerException ex) {
+            throw new IllegalStateException(ex);
+        }
+    }
+
+    @Override
+    public void shutdown() {
+        try {
+            scheduler.shutdown(true);
+        } catch (SchedulerException ex) {
+            throw new IllegalStateException(ex);
+        }
+    }
+
+    /**
+     * A Quartz {@link Job} that polls a {@link Device}.
+     */
+    public static class DeviceJob implements Job {
+        @Inject
+        private DevicePoller devicePoller;
+
+        @Override
+        public void execute(JobExecutionContext context) {
+            devicePoller.poll(
+                    context.getJobDetail().getJobDataMap().getIntValue(ID_KEY),
+                    context.getJobDetail().getKey().getName(),
+                    context.getScheduledFireTime() != null ? context.getScheduledFireTime().toInstant() : null,
+                    context.getFireTime().toInstant());
+        }
+    }
+
+}
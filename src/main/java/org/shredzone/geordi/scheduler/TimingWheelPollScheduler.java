@@ -0,0 +1,261 @@
+/*
+ * geordi
+ *
+ * Copyright (C) 2020 Richard "Shred" Körber
+ *   https://codeberg.org/shred/geordi
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.
+ */
+package org.shredzone.geordi.scheduler;
+
+import java.time.Instant;
+import java.util.Date;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.locks.LockSupport;
+
+import javax.inject.Inject;
+import javax.inject.Singleton;
+
+import org.quartz.CronExpression;
+import org.shredzone.geordi.device.Device;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * A lightweight {@link PollScheduler} that is based on a hierarchical timing wheel.
+ * <p>
+ * The wheel consists of {@value #LEVELS} levels of {@value #SLOTS} slots each. A slot of
+ * the lowest level covers one tick of {@value #TICK_MILLIS} ms, and each slot of a
+ * higher level covers an entire revolution of the level below. Triggers are kept in the
+ * slot of their next fire time. When a level completes a revolution, the current slot of
+ * the level above is cascaded down. This way, scheduling and firing a trigger takes
+ * constant time, regardless of the number of triggers.
+ * <p>
+ * The wheel is driven by a single thread that only moves triggers between slots. Due
+ * devices are polled on a separate executor. The next fire time of a trigger is computed
+ * from the device's {@link CronExpression} on the executor as well, and then handed back
+ * to the wheel thread.
+ * <p>
+ * Fire times are mapped to ticks when they are computed, so the wheel does not follow
+ * later changes of the system clock.
+ */
+@Singleton
+public class TimingWheelPollScheduler implements PollScheduler {
+
+    private static final long TICK_MILLIS = 10L;
+    private static final int SLOT_BITS = 6;
+    private static final int SLOTS = 1 << SLOT_BITS;
+    private static final int SLOT_MASK = SLOTS - 1;
+    private static final int LEVELS = 5;
+    private static final long MAX_DELTA = (1L << (SLOT_BITS * LEVELS)) - 1L;
+    private static final int POLL_THREADS = 10;
+
+    private final Logger log = LoggerFactory.getLogger(getClass());
+
+    @Inject
+    private DevicePoller devicePoller;
+
+    private final Entry[][] wheel = new Entry[LEVELS][SLOTS];
+    private final Queue<Entry> inbox = new ConcurrentLinkedQueue<>();
+    private final long originMillis = System.currentTimeMillis();
+    private final long originNanos = System.nanoTime();
+    private long currentTick;
+    private volatile boolean running;
+    private Thread wheelThread;
+    private ExecutorService executor;
+
+    @Override
+    public void schedule(Device device) {
+        Trigger trigger = new Trigger(device.getId(), device.getName(), device.getCron());
+        Date next = trigger.cron.getNextValidTimeAfter(new Date());
+        if (next == null) {
+            log.warn("Device {} is never polled", device.getName());
+            return;
+        }
+        inbox.add(new Entry(trigger, next.getTime(), toTick(next.getTime())));
+    }
+
+    @Override
+    public synchronized void start() {
+        if (running) {
+            return;
+        }
+
+        AtomicInteger threadCount = new AtomicInteger();
+        executor = Executors.newFixedThreadPool(POLL_THREADS,
+                r -> new Thread(r, "poller-" + threadCount.incrementAndGet()));
+
+        currentTick = toTick(System.currentTimeMillis());
+        running = true;
+        wheelThread = new Thread(this::run, "timing-wheel");
+        wheelThread.start();
+    }
+
+    @Override
+    public synchronized void shutdown() {
+        if (!running) {
+            return;
+        }
+
+        running = false;
+        LockSupport.unpark(wheelThread);
+        executor.shutdown();
+        try {
+            wheelThread.join();
+            executor.awaitTermination(Long.MAX_VALUE, TimeUnit.MILLISECONDS);
+        } catch (InterruptedException ex) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    /**
+     * Main loop of the wheel thread. It waits for the next tick, moves new triggers
+     * into the wheel, and fires all triggers of the tick. If the thread is behind, ticks
+     * are processed without waiting until it has caught up.
+     */
+    private void run() {
+        while (running) {
+            long wait = originNanos + currentTick * TICK_MILLIS * 1_000_000L - System.nanoTime();
+            if (wait > 0L) {
+                LockSupport.parkNanos(wait);
+                continue;
+            }
+
+            Entry entry;
+            while ((entry = inbox.poll()) != null) {
+                insert(entry);
+            }
+
+            try {
+                tick();
+            } catch (RuntimeException ex) {
+                log.error("Failed to fire triggers", ex);
+            }
+            currentTick++;
+        }
+    }
+
+    /**
+     * Processes the current tick. If the lowest level starts a new revolution, the
+     * current slots of the higher levels are cascaded down first.
+     */
+    private void tick() {
+        for (int level = 1; level < LEVELS; level++) {
+            if ((currentTick & ((1L << (SLOT_BITS * level)) - 1L)) != 0L) {
+                break;
+            }
+            int slot = (int) (currentTick >>> (SLOT_BITS * level)) & SLOT_MASK;
+            Entry entry = wheel[level][slot];
+            wheel[level][slot] = null;
+            while (entry != null) {
+                Entry next = entry.next;
+                insert(entry);
+                entry = next;
+            }
+        }
+
+        int slot = (int) currentTick & SLOT_MASK;
+        Entry entry = wheel[0][slot];
+        wheel[0][slot] = null;
+        while (entry != null) {
+            Entry next = entry.next;
+            fire(entry);
+            entry = next;
+        }
+    }
+
+    /**
+     * Inserts an entry into the slot of its fire tick. Entries that are already due are
+     * inserted into the current slot. Entries beyond the range of the wheel are inserted
+     * into the farthest slot, and are moved on when that slot is cascaded.
+     */
+    private void insert(Entry entry) {
+        long delta = entry.tick - currentTick;
+        long tick = entry.tick;
+        if (delta < 0L) {
+            delta = 0L;
+            tick = currentTick;
+        } else if (delta > MAX_DELTA) {
+            delta = MAX_DELTA;
+            tick = currentTick + MAX_DELTA;
+        }
+
+        int level = 0;
+        while (level < LEVELS - 1 && delta >= (1L << (SLOT_BITS * (level + 1)))) {
+            level++;
+        }
+
+        int slot = (int) (tick >>> (SLOT_BITS * level)) & SLOT_MASK;
+        entry.next = wheel[level][slot];
+        wheel[level][slot] = entry;
+    }
+
+    /**
+     * Fires an entry. The device is polled on the executor, after the next fire time was
+     * computed and handed back to the wheel.
+     */
+    private void fire(Entry entry) {
+        Trigger trigger = entry.trigger;
+        long scheduled = entry.fireTime;
+        executor.execute(() -> {
+            Instant fired = Instant.now();
+            Date next = trigger.cron.getNextValidTimeAfter(new Date(Math.max(scheduled, fired.toEpochMilli())));
+            if (next != null) {
+                inbox.add(new Entry(trigger, next.getTime(), toTick(next.getTime())));
+            }
+            devicePoller.poll(trigger.deviceId, trigger.name, Instant.ofEpochMilli(scheduled), fired);
+        });
+    }
+
+    /**
+     * Converts a wall clock time to the first tick that is not earlier.
+     */
+    private long toTick(long epochMillis) {
+        return Math.floorDiv(epochMillis - originMillis + TICK_MILLIS - 1L, TICK_MILLIS);
+    }
+
+    /**
+     * The schedule of a device.
+     */
+    private static class Trigger {
+        private final int deviceId;
+        private final String name;
+        private final CronExpression cron;
+
+        public Trigger(int deviceId, String name, CronExpression cron) {
+            this.deviceId = deviceId;
+            this.name = name;
+            this.cron = cron;
+        }
+    }
+
+    /**
+     * A single fire time of a {@link Trigger}. Entries of a slot are kept as a linked
+     * list.
+     */
+    private static class Entry {
+        private final Trigger trigger;
+        private final long fireTime;
+        private final long tick;
+        private Entry next;
+
+        public Entry(Trigger trigger, long fireTime, long tick) {
+            this.trigger = trigger;
+            this.fireTime = fireTime;
+            this.tick = tick;
+        }
+    }
+
+}
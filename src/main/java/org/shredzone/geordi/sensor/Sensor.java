@@ -16,6 +16,8 @@
 package org.shredzone.geordi.sensor;
 
 import org.json.JSONObject;
+import org.shredzone.geordi.GeordiException;
+import org.shredzone.geordi.compacting.CompactingConfig;
 import org.shredzone.geordi.device.Device;
 
 /**
@@ -23,10 +25,14 @@ import org.shredzone.geordi.device.Device;
  */
 public class Sensor {
 
+    private static final int MAX_SCALE = 18;
+
     private int id;
     private String name;
     private String unit;
     private JSONObject config;
+    private CompactingConfig compacting;
+    private int scale;
 
     /**
      * Reads the sensor ID.
@@ -78,10 +84,35 @@ public class Sensor {
     }
 
     /**
-     * Sets the sensor config.
+     * Sets the sensor config. The global sensor options are parsed and validated.
+     *
+     * @throws GeordiException
+     *         if the global sensor options are invalid
      */
     public void setConfig(JSONObject config) {
         this.config = config;
+        this.compacting = CompactingConfig.parse(config);
+
+        this.scale = config.optInt("Scale", 0);
+        if (scale < 0 || scale > MAX_SCALE) {
+            throw new GeordiException("Scale must be between 0 and " + MAX_SCALE);
+        }
+    }
+
+    /**
+     * Returns the {@link CompactingConfig} of the sensor, or {@code null} if the sensor
+     * is not in compact mode.
+     */
+    public CompactingConfig getCompacting() {
+        return compacting;
+    }
+
+    /**
+     * Returns the number of decimal places that are stored if the sample values are
+     * stored as scaled integers.
+     */
+    public int getScale() {
+        return scale;
     }
 
     @Override
@@ -15,7 +15,10 @@
  */
 package org.shredzone.geordi.service;
 
+import java.util.Collection;
+
 import org.shredzone.geordi.data.Sample;
+import org.shredzone.geordi.sensor.Sensor;
 
 /**
  * This service remembers the last sample value stored in database. It helps that sensor
@@ -30,7 +33,8 @@ public interface CompactingService {
      * @param sample
      *         {@link Sample} to check
      * @return {@code true} if the corresponding sensor is in compact mode, and the
-     * sample's value is equal to the previously stored sensor value.
+     * sample's value is unchanged compared to the previously stored sensor value,
+     * according to the sensor's compacting method.
      */
     boolean wasUnchanged(Sample sample);
 
@@ -54,4 +58,24 @@ public interface CompactingService {
      */
     void rememberSample(Sample sample);
 
+    /**
+     * Forgets the state of a {@link Sensor}, so its next sample will be stored. It is
+     * used if remembered samples could not be stored in the database after all.
+     *
+     * @param sensor
+     *         {@link Sensor} to forget
+     */
+    void forget(Sensor sensor);
+
+    /**
+     * Restores the state of the given {@link Sensor} from the samples that have been
+     * stored in the database before. This way, a restart of Geordi will not store
+     * redundant samples of compacting sensors.
+     *
+     * @param sensors
+     *         Collection of {@link Sensor} to restore. Sensors that are not in compact
+     *         mode are ignored.
+     */
+    void restoreState(Collection<Sensor> sensors);
+
 }
@@ -16,34 +16,39 @@
 package org.shredzone.geordi.service;
 
 import static java.time.Instant.now;
+import static java.util.stream.Collectors.toList;
 
-import java.math.BigDecimal;
 import java.time.Duration;
 import java.time.Instant;
-import java.time.format.DateTimeParseException;
 import java.time.temporal.ChronoUnit;
-import java.util.HashMap;
+import java.util.Collection;
+import java.util.List;
 import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
 
+import javax.inject.Inject;
 import javax.inject.Singleton;
 
+import org.shredzone.geordi.compacting.Compactor;
 import org.shredzone.geordi.data.Sample;
 import org.shredzone.geordi.sensor.Sensor;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
 /**
- * Implementation of CompactingService. It stores the last sample value in a hash map.
- * This implementation is threadsafe.
+ * Implementation of CompactingService. It keeps a {@link Compactor} for each sensor in
+ * a hash map. This implementation is threadsafe.
  */
 @Singleton
 public class CompactingServiceImpl implements CompactingService {
 
     private final Logger log = LoggerFactory.getLogger(getClass());
 
-    private final Map<Integer, BigDecimal> lastValue = new HashMap<>();
-    private final Map<Integer, Instant> firstUnchanged = new HashMap<>();
-    private final Map<Integer, Instant> lastUnchanged = new HashMap<>();
+    @Inject
+    private DatabaseService databaseService;
+
+    private final Map<Integer, Compactor> compactors = new ConcurrentHashMap<>();
+    private final Map<Integer, Instant> firstUnchanged = new ConcurrentHashMap<>();
 
     @Override
     public boolean wasUnchanged(Sample sample) {
@@ -53,23 +58,22 @@ public class CompactingServiceImpl implements CompactingService {
 
         int id = sample.getSensor().getId();
 
-        BigDecimal last = lastValue.get(id);
-        if (last == null) {
+        Compactor compactor = compactors.get(id);
+        if (compactor == null) {
             return false;
         }
 
-        boolean unchanged = last.compareTo(sample.getValue()) == 0;
+        boolean unchanged = compactor.isUnchanged(sample);
 
         Instant firstTs = firstUnchanged.get(id);
         if (unchanged && firstTs != null && isStorageRequired(sample.getSensor(), firstTs)) {
             firstUnchanged.put(id, sample.getTimestamp());
-            lastUnchanged.remove(id); // do not generate a "last unchanged" sample
+            compactor.discardUnchanged(); // do not generate a "last unchanged" sample
             return false;
         }
 
         if (unchanged) {
             firstUnchanged.putIfAbsent(id, sample.getTimestamp());
-            lastUnchanged.put(id, sample.getTimestamp());
         }
 
         return unchanged;
@@ -81,24 +85,39 @@ public class CompactingServiceImpl implements CompactingService {
             return null;
         }
 
-        int id = sample.getSensor().getId();
-        Instant ts = lastUnchanged.get(id);
-        BigDecimal value = lastValue.get(id);
+        Compactor compactor = compactors.get(sample.getSensor().getId());
+        return compactor != null ? compactor.getLastUnchanged() : null;
+    }
 
-        if (ts == null || value == null) {
-            return null;
+    @Override
+    public void rememberSample(Sample sample) {
+        if (isCompacting(sample.getSensor())) {
+            compactors.computeIfAbsent(sample.getSensor().getId(),
+                        id -> sample.getSensor().getCompacting().createCompactor())
+                    .setStored(sample);
         }
+    }
 
-        return new Sample(sample.getSensor(), ts, value);
+    @Override
+    public void forget(Sensor sensor) {
+        compactors.remove(sensor.getId());
+        firstUnchanged.remove(sensor.getId());
     }
 
     @Override
-    public void rememberSample(Sample sample) {
-        if (isCompacting(sample.getSensor())) {
-            int id = sample.getSensor().getId();
-            lastValue.put(id, sample.getValue());
-            lastUnchanged.remove(id);
+    public void restoreState(Collection<Sensor> sensors) {
+        List<Sensor> compacting = sensors.stream()
+                .filter(this::isCompacting)
+                .collect(toList());
+
+        for (Sample sample : databaseService.fetchLatestSamples(compacting)) {
+            rememberSample(sample);
+            // The stored sample starts the interval of unchanged values, so the
+            // CompactingMaxInterval is still honored after a restart.
+            firstUnchanged.put(sample.getSensor().getId(), sample.getTimestamp());
         }
+
+        log.info("Restored state of {} compacting sensors", compacting.size());
     }
 
     /**
@@ -109,34 +128,7 @@ public class CompactingServiceImpl implements CompactingService {
      * @return {@code true} if in compacting mode
      */
     private boolean isCompacting(Sensor sensor) {
-        return sensor.getConfig().optBoolean("Compacting", false);
-    }
-
-    /**
-     * Checks if the sensor has a compacting interval set.
-     *
-     * @param sensor
-     *         {@link Sensor} to check
-     * @return Compacting interval {@link Duration}, guaranteed to be negative. If there
-     * is no such interval, {@code null} is returned instead.
-     */
-    private Duration getStorageInterval(Sensor sensor) {
-        String span = sensor.getConfig().optString("CompactingMaxInterval", null);
-        if (span == null) {
-            return null;
-        }
-
-        try {
-            Duration result = Duration.parse(span);
-            if (!result.isNegative()) {
-                result = result.negated();
-            }
-            return result;
-        } catch (DateTimeParseException ex) {
-            log.warn("Sensor #" + sensor.getId() + " has invalid compactingInterval '"
-                    + span + "'", ex);
-            return null;
-        }
+        return sensor.getCompacting() != null;
     }
 
     /**
@@ -151,13 +143,13 @@ public class CompactingServiceImpl implements CompactingService {
      * if not
      */
     private boolean isStorageRequired(Sensor sensor, Instant lastStored) {
-        Duration interval = getStorageInterval(sensor);
+        Duration interval = sensor.getCompacting().getMaxInterval();
 
         if (interval == null) {
             return false;
         }
 
-        return lastStored.isBefore(now().plus(interval).plus(2, ChronoUnit.SECONDS));
+        return lastStored.isBefore(now().minus(interval).plus(2, ChronoUnit.SECONDS));
     }
 
 }
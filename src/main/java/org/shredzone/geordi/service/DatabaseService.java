@@ -18,7 +18,9 @@ package org.shredzone.geordi.service;
 import java.util.Collection;
 import java.util.List;
 
+import org.shredzone.geordi.GeordiException;
 import org.shredzone.geordi.data.Sample;
+import org.shredzone.geordi.data.ValueType;
 import org.shredzone.geordi.device.Device;
 import org.shredzone.geordi.sensor.Sensor;
 
@@ -29,6 +31,9 @@ public interface DatabaseService {
 
     /**
      * Returns a list of all {@link Device} defined in the database.
+     * <p>
+     * The devices are read from database only once. Their sensors are set, and they
+     * are prepared for polling.
      *
      * @return List of {@link Device}
      */
@@ -40,6 +45,8 @@ public interface DatabaseService {
      * @param id
      *            Device ID
      * @return {@link Device}
+     * @throws GeordiException
+     *             if there is no such device
      */
     public Device getDevice(int id);
 
@@ -60,4 +67,25 @@ public interface DatabaseService {
      */
     public void storeSamples(Collection<Sample> samples);
 
+    /**
+     * Fetches the most recent {@link Sample} that is stored in the database for each of
+     * the given {@link Sensor}.
+     *
+     * @param sensors
+     *            Collection of {@link Sensor} to fetch the latest {@link Sample} for
+     * @return List of the latest {@link Sample}. Sensors without any stored sample are
+     *         not contained in the list.
+     */
+    public List<Sample> fetchLatestSamples(Collection<Sensor> sensors);
+
+    /**
+     * Returns the {@link ValueType} of the sample values in the database. It is read
+     * from the database schema only once.
+     *
+     * @return {@link ValueType}
+     * @throws GeordiException
+     *             if the type of the value column is not supported
+     */
+    public ValueType getValueType();
+
 }
@@ -15,12 +15,18 @@
  */
 package org.shredzone.geordi.service;
 
+import static java.util.stream.Collectors.toMap;
+
 import java.sql.ResultSet;
 import java.sql.SQLException;
 import java.text.ParseException;
+import java.util.ArrayList;
 import java.util.Collection;
+import java.util.Collections;
+import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Map;
+import java.util.function.Function;
 
 import javax.inject.Inject;
 import javax.inject.Provider;
@@ -33,9 +39,16 @@ import org.jdbi.v3.core.statement.StatementContext;
 import org.json.JSONException;
 import org.json.JSONObject;
 import org.quartz.CronExpression;
+import org.shredzone.geordi.GeordiException;
 import org.shredzone.geordi.data.Sample;
+import org.shredzone.geordi.data.ValueType;
 import org.shredzone.geordi.device.Device;
+import org.shredzone.geordi.jfr.Span;
+import org.shredzone.geordi.jfr.Tracing;
+import org.shredzone.geordi.metrics.Histogram;
 import org.shredzone.geordi.sensor.Sensor;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
 
 /**
  * Implementation of {@link DatabaseService} that uses a Postgresql database via JDBI.
@@ -43,6 +56,8 @@ import org.shredzone.geordi.sensor.Sensor;
 @Singleton
 public class DatabaseServiceImpl implements DatabaseService {
 
+    private final Logger log = LoggerFactory.getLogger(getClass());
+
     @Inject
     private Map<String, Provider<Device>> devices;
 
@@ -52,24 +67,24 @@ public class DatabaseServiceImpl implements DatabaseService {
     @Inject
     private Jdbi jdbi;
 
+    @Inject
+    private MetricsService metricsService;
+
+    private Map<Integer, Device> deviceMap;
+    private ValueType valueType;
+
     @Override
     public List<Device> fetchDevices() {
-        return jdbi.withHandle(handle ->
-            handle.createQuery("SELECT * FROM device")
-                    .map(new DeviceMapper())
-                    .list()
-        );
+        return new ArrayList<>(getDeviceMap().values());
     }
 
     @Override
     public Device getDevice(int id) {
-        // TODO: Lazily prefetch all devices, then use that map
-        return jdbi.withHandle(handle ->
-            handle.createQuery("SELECT * FROM device WHERE id=:id")
-                    .bind("id", id)
-                    .map(new DeviceMapper())
-                    .findOnly()
-        );
+        Device device = getDeviceMap().get(id);
+        if (device == null) {
+            throw new GeordiException("Unknown device " + id);
+        }
+        return device;
     }
 
     @Override
@@ -88,14 +103,131 @@ public class DatabaseServiceImpl implements DatabaseService {
             return;
         }
 
+        ValueType type = getValueType();
+
+        Span span = Tracing.store(samples.size());
+        long start = System.nanoTime();
         jdbi.useHandle(handle -> {
             PreparedBatch batch = handle.prepareBatch(
                             "INSERT INTO sample (sensor_id, time, value)"
-                            + " VALUES (:s.sensor.id, :s.timestamp, :s.value)"
+                            + " VALUES (:sensor, :time, :value)"
                             + " ON CONFLICT (sensor_id, time) DO NOTHING");
-            samples.forEach(s -> batch.bindBean("s", s).add());
-            batch.execute();
+            int count = 0;
+            for (Sample s : samples) {
+                Object value;
+                try {
+                    value = type.encode(s.getValue(), s.getSensor().getScale());
+                } catch (GeordiException ex) {
+                    // Only reject this sample, the other samples of the batch are fine
+                    log.warn("Rejected sample of sensor {} at {}: {}",
+                            s.getSensor().getId(), s.getTimestamp(), ex.getMessage());
+                    metricsService.counter("geordi_samples_rejected_total",
+                            "Samples that could not be converted to the value column type").increment();
+                    continue;
+                }
+                batch.bind("sensor", s.getSensor().getId())
+                        .bind("time", s.getTimestamp())
+                        .bind("value", value)
+                        .add();
+                count++;
+            }
+            if (count > 0) {
+                batch.execute();
+            }
         });
+        span.end();
+
+        metricsService.histogram("geordi_jdbc_seconds", "Duration of database operations",
+                        Histogram.LATENCY_BUCKETS, "operation", "store")
+                .observeNanos(System.nanoTime() - start);
+        metricsService.histogram("geordi_store_batch_size", "Number of samples per insert batch",
+                        Histogram.SIZE_BUCKETS)
+                .observe(samples.size());
+    }
+
+    @Override
+    public List<Sample> fetchLatestSamples(Collection<Sensor> sensors) {
+        if (sensors.isEmpty()) {
+            return Collections.emptyList();
+        }
+
+        Map<Integer, Sensor> sensorMap = sensors.stream()
+                .collect(toMap(Sensor::getId, Function.identity(), (a, b) -> a));
+        ValueType type = getValueType();
+
+        // A lateral join is used instead of DISTINCT ON, so only a single index lookup
+        // is required per sensor, regardless of the number of stored samples.
+        return jdbi.withHandle(handle ->
+            handle.createQuery("SELECT sn.id, s.time, s.value FROM sensor sn"
+                            + " CROSS JOIN LATERAL (SELECT time, value FROM sample"
+                            + "   WHERE sensor_id = sn.id ORDER BY time DESC LIMIT 1) s"
+                            + " WHERE sn.id IN (<ids>)")
+                    .bindList("ids", new ArrayList<>(sensorMap.keySet()))
+                    .map((rs, ctx) -> {
+                        Sensor sensor = sensorMap.get(rs.getInt("id"));
+                        return new Sample(
+                                sensor,
+                                rs.getTimestamp("time").toInstant(),
+                                type.decode(rs, "value", sensor.getScale()));
+                    })
+                    .list()
+        );
+    }
+
+    @Override
+    public synchronized ValueType getValueType() {
+        if (valueType == null) {
+            String dataType = jdbi.withHandle(handle ->
+                handle.createQuery("SELECT data_type FROM information_schema.columns"
+                                + " WHERE table_schema = current_schema()"
+                                + " AND table_name = 'sample' AND column_name = 'value'")
+                        .mapTo(String.class)
+                        .findFirst()
+                        .orElseThrow(() -> new GeordiException("Table sample has no value column"))
+            );
+            valueType = ValueType.ofColumn(dataType);
+        }
+        return valueType;
+    }
+
+    /**
+     * Returns a map of all devices. The devices are read from database on the first
+     * invocation. Their sensors are set, and they are prepared for polling. If the values
+     * are stored as bigint, a warning is logged for all sensors without a scale.
+     *
+     * @return Map of device IDs and {@link Device}
+     */
+    private synchronized Map<Integer, Device> getDeviceMap() {
+        if (deviceMap == null) {
+            List<Device> devices = jdbi.withHandle(handle ->
+                handle.createQuery("SELECT * FROM device ORDER BY id")
+                        .map(new DeviceMapper())
+                        .list()
+            );
+
+            boolean scaled = getValueType() == ValueType.BIGINT;
+
+            Map<Integer, Device> result = new LinkedHashMap<>();
+            for (Device device : devices) {
+                device.setSensors(fetchSensors(device));
+                if (scaled) {
+                    device.getSensors().stream()
+                            .filter(sensor -> !sensor.getConfig().has("Scale"))
+                            .forEach(sensor -> log.warn("Sensor {} ({}) of device {} has no Scale,"
+                                    + " its values are stored as integers",
+                                    sensor.getId(), sensor.getName(), device.getName()));
+                }
+                try {
+                    device.prepare();
+                } catch (GeordiException ex) {
+                    throw new GeordiException("Bad config of device " + device.getId()
+                            + " (" + device.getName() + ")", ex);
+                }
+                result.put(device.getId(), device);
+            }
+            deviceMap = result;
+        }
+        return deviceMap;
     }
 
     /**
@@ -134,6 +266,8 @@ public class DatabaseServiceImpl implements DatabaseService {
                 return sens;
             } catch (JSONException ex) {
                 throw new SQLException("Bad config JSON", ex);
+            } catch (GeordiException ex) {
+                throw new SQLException("Bad config of sensor " + rs.getInt("id"), ex);
             }
         }
     }
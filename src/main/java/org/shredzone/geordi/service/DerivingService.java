@@ -0,0 +1,64 @@
+/*
+ * geordi
+ *
+ * Copyright (C) 2020 Richard "Shred" Körber
+ *   https://codeberg.org/shred/geordi
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.
+ */
+package org.shredzone.geordi.service;
+
+import java.util.Collection;
+import java.util.List;
+
+import org.shredzone.geordi.data.Sample;
+import org.shredzone.geordi.device.Device;
+import org.shredzone.geordi.device.VirtualDevice;
+import org.shredzone.geordi.sensor.Sensor;
+
+/**
+ * This service computes the values of virtual sensors from the values of other sensors.
+ */
+public interface DerivingService {
+
+    /**
+     * Sets up the virtual sensors of all {@link VirtualDevice}, and restores the latest
+     * values of their input sensors from the database.
+     *
+     * @param devices
+     *         Collection of all {@link Device}
+     * @throws org.shredzone.geordi.GeordiException
+     *         if a virtual sensor references an unknown sensor, or if virtual sensors
+     *         reference each other in a cycle
+     */
+    void setup(Collection<Device> devices);
+
+    /**
+     * Checks if the given {@link Sensor} is an input of a virtual sensor. This method
+     * does not block, and can be invoked for every sample that is read.
+     *
+     * @param sensor
+     *         {@link Sensor} to check
+     * @return {@code true} if the sensor's samples are required by {@link #derive(Collection)}
+     */
+    boolean isInput(Sensor sensor);
+
+    /**
+     * Computes the virtual sensors that are affected by the given {@link Sample}.
+     * Virtual sensors are only computed if one of their input values has changed, and
+     * if values of all their inputs are known.
+     *
+     * @param samples
+     *         Collection of {@link Sample} that have been read
+     * @return List of {@link Sample} of the affected virtual sensors
+     */
+    List<Sample> derive(Collection<Sample> samples);
+
+}
@@ -0,0 +1,190 @@
+/*
+ * geordi
+ *
+ * Copyright (C) 2020 Richard "Shred" Körber
+ *   https://codeberg.org/shred/geordi
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.
+ */
+package org.shredzone.geordi.service;
+
+import java.math.BigDecimal;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import javax.inject.Inject;
+import javax.inject.Singleton;
+
+import org.shredzone.geordi.GeordiException;
+import org.shredzone.geordi.data.Sample;
+import org.shredzone.geordi.device.Device;
+import org.shredzone.geordi.device.VirtualDevice;
+import org.shredzone.geordi.expression.Derivation;
+import org.shredzone.geordi.sensor.Sensor;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Implementation of {@link DerivingService}. It keeps the latest value of all sensors
+ * that are used as input of a virtual sensor. This implementation is threadsafe.
+ */
+@Singleton
+public class DerivingServiceImpl implements DerivingService {
+
+    private final Logger log = LoggerFactory.getLogger(getClass());
+
+    @Inject
+    private DatabaseService databaseService;
+
+    private final Map<Integer, List<Derivation>> derivationsByInput = new HashMap<>();
+    private final Map<Integer, Double> latest = new HashMap<>();
+    private volatile Set<Integer> inputIds = Collections.emptySet();
+
+    @Override
+    public synchronized void setup(Collection<Device> devices) {
+        Map<Integer, Sensor> sensors = new HashMap<>();
+        List<Derivation> derivations = new ArrayList<>();
+        for (Device device : devices) {
+            device.getSensors().forEach(s -> sensors.put(s.getId(), s));
+            if (device instanceof VirtualDevice) {
+                derivations.addAll(((VirtualDevice) device).getDerivations());
+            }
+        }
+
+        Set<Sensor> inputs = new HashSet<>();
+        for (Derivation derivation : derivations) {
+            for (Integer id : derivation.getExpression().getInputs()) {
+                Sensor input = sensors.get(id);
+                if (input == null) {
+                    throw new GeordiException("Unknown sensor " + id + " in expression of sensor "
+                            + derivation.getSensor().getId());
+                }
+                inputs.add(input);
+                derivationsByInput.computeIfAbsent(id, k -> new ArrayList<>()).add(derivation);
+            }
+        }
+
+        for (Derivation derivation : derivations) {
+            checkCycle(derivation.getSensor().getId(), derivation, new HashSet<>());
+        }
+
+        for (Sample sample : databaseService.fetchLatestSamples(inputs)) {
+            latest.put(sample.getSensor().getId(), sample.getValue().doubleValue());
+        }
+
+        inputIds = Collections.unmodifiableSet(new HashSet<>(derivationsByInput.keySet()));
+
+        if (!derivations.isEmpty()) {
+            log.info("Set up {} virtual sensors", derivations.size());
+        }
+    }
+
+    @Override
+    public boolean isInput(Sensor sensor) {
+        return inputIds.contains(sensor.getId());
+    }
+
+    @Override
+    public synchronized List<Sample> derive(Collection<Sample> samples) {
+        List<Sample> result = new ArrayList<>();
+        if (derivationsByInput.isEmpty()) {
+            return result;
+        }
+
+        // Virtual sensors may be input of other virtual sensors. There are no cycles,
+        // so this loop terminates.
+        Collection<Sample> pending = samples;
+        while (!pending.isEmpty()) {
+            pending = deriveOnce(pending);
+            result.addAll(pending);
+        }
+        return result;
+    }
+
+    /**
+     * Computes all virtual sensors that are directly affected by the given samples.
+     */
+    private List<Sample> deriveOnce(Collection<Sample> samples) {
+        Map<Derivation, Instant> affected = new LinkedHashMap<>();
+        for (Sample sample : samples) {
+            int id = sample.getSensor().getId();
+            List<Derivation> derivations = derivationsByInput.get(id);
+            if (derivations == null) {
+                continue;
+            }
+
+            Double value = sample.getValue().doubleValue();
+            Double previous = latest.put(id, value);
+            if (value.equals(previous)) {
+                continue;
+            }
+
+            for (Derivation derivation : derivations) {
+                affected.merge(derivation, sample.getTimestamp(),
+                        (a, b) -> a.isAfter(b) ? a : b);
+            }
+        }
+
+        List<Sample> result = new ArrayList<>(affected.size());
+        for (Map.Entry<Derivation, Instant> entry : affected.entrySet()) {
+            Derivation derivation = entry.getKey();
+            List<Integer> inputs = derivation.getExpression().getInputs();
+            double[] values = new double[inputs.size()];
+            boolean complete = true;
+            for (int ix = 0; ix < values.length && complete; ix++) {
+                Double value = latest.get(inputs.get(ix));
+                complete = value != null;
+                values[ix] = complete ? value : 0.0;
+            }
+            if (!complete) {
+                continue;
+            }
+
+            BigDecimal value = derivation.compute(values);
+            if (value != null) {
+                result.add(new Sample(derivation.getSensor(), entry.getValue(), value));
+            }
+        }
+        return result;
+    }
+
+    /**
+     * Checks that the virtual sensor does not depend on itself.
+     *
+     * @param id
+     *         ID of the virtual sensor to check
+     * @param derivation
+     *         Current {@link Derivation} in the dependency chain
+     * @param visited
+     *         IDs of the virtual sensors that have been visited
+     */
+    private void checkCycle(int id, Derivation derivation, Set<Integer> visited) {
+        int current = derivation.getSensor().getId();
+        if (!visited.add(current)) {
+            return;
+        }
+
+        for (Derivation dependent : derivationsByInput.getOrDefault(current, new ArrayList<>())) {
+            if (dependent.getSensor().getId() == id) {
+                throw new GeordiException("Virtual sensor " + id + " depends on itself");
+            }
+            checkCycle(id, dependent, visited);
+        }
+    }
+
+}
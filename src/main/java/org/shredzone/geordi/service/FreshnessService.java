@@ -0,0 +1,109 @@
+/*
+ * geordi
+ *
+ * Copyright (C) 2020 Richard "Shred" Körber
+ *   https://codeberg.org/shred/geordi
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.
+ */
+package org.shredzone.geordi.service;
+
+import java.io.IOException;
+import java.io.Writer;
+import java.time.Duration;
+import java.time.Instant;
+import java.util.Collection;
+
+import org.shredzone.geordi.data.Sample;
+import org.shredzone.geordi.device.Device;
+import org.shredzone.geordi.sensor.Sensor;
+
+/**
+ * This service keeps track of the freshness of all devices and sensors. It records when
+ * devices were polled and when sensor samples were received, and warns about devices and
+ * sensors that did not deliver new data for too long.
+ */
+public interface FreshnessService {
+
+    /**
+     * Sets the staleness threshold of devices and sensors that do not have an individual
+     * threshold. Must be invoked before {@link #setup(Collection)}.
+     *
+     * @param staleAfter
+     *         Staleness threshold, or {@code null} to derive the threshold from the
+     *         device's cron expression
+     */
+    void setDefaultStaleAfter(Duration staleAfter);
+
+    /**
+     * Sets up the freshness table for all {@link Device} and their {@link Sensor}, and
+     * starts the periodic staleness check.
+     *
+     * @param devices
+     *         Collection of all {@link Device}
+     * @throws org.shredzone.geordi.GeordiException
+     *         if a staleness threshold is invalid
+     */
+    void setup(Collection<Device> devices);
+
+    /**
+     * Records a poll of a device.
+     *
+     * @param deviceId
+     *         Device ID
+     * @param scheduled
+     *         Time the poll was scheduled for, or {@code null} if unknown
+     * @param started
+     *         Time the poll actually started
+     * @param nanos
+     *         Duration of the poll, in nanoseconds
+     * @param success
+     *         {@code true} if the poll was successful
+     */
+    void recordPoll(int deviceId, Instant scheduled, Instant started, long nanos, boolean success);
+
+    /**
+     * Records samples that have been read or derived, including the ones that are not
+     * stored because they were unchanged.
+     *
+     * @param samples
+     *         Collection of {@link Sample} that have been received
+     */
+    void recordReceived(Collection<Sample> samples);
+
+    /**
+     * Records samples that have been successfully stored in the database.
+     *
+     * @param samples
+     *         Collection of {@link Sample} that have been stored
+     */
+    void recordStored(Collection<Sample> samples);
+
+    /**
+     * Returns the number of devices that are currently stale.
+     */
+    int getStaleDeviceCount();
+
+    /**
+     * Returns the number of sensors that are currently stale.
+     */
+    int getStaleSensorCount();
+
+    /**
+     * Writes the freshness table as JSON.
+     *
+     * @param out
+     *         {@link Writer} to write to
+     * @param staleOnly
+     *         {@code true} to only write stale devices and sensors
+     */
+    void write(Writer out, boolean staleOnly) throws IOException;
+
+}
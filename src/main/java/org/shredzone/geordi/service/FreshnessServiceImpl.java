@@ -0,0 +1,433 @@
+/*
+ * geordi
+ *
+ * Copyright (C) 2020 Richard "Shred" Körber
+ *   https://codeberg.org/shred/geordi
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.
+ */
+package org.shredzone.geordi.service;
+
+import java.io.IOException;
+import java.io.Writer;
+import java.time.Duration;
+import java.time.Instant;
+import java.time.format.DateTimeParseException;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Date;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+import javax.inject.Singleton;
+
+import org.json.JSONArray;
+import org.json.JSONException;
+import org.json.JSONObject;
+import org.quartz.CronExpression;
+import org.shredzone.geordi.GeordiException;
+import org.shredzone.geordi.data.Sample;
+import org.shredzone.geordi.device.Device;
+import org.shredzone.geordi.sensor.Sensor;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Implementation of {@link FreshnessService}.
+ * <p>
+ * The sensor timestamps are kept in a single {@link AtomicLongArray}, with the sensors of
+ * a device occupying consecutive slots, so the table stays compact even with many
+ * sensors. Recording is lock-free for sensors. The staleness check runs on its own
+ * thread, so it also detects devices that are not polled because the scheduler is
+ * saturated.
+ * <p>
+ * Event-driven sensors (see {@link Device#isEventDriven(Sensor)}) do not inherit the
+ * threshold of their device, as they may not deliver samples for a long time. They are
+ * only checked if they have an explicit threshold.
+ */
+@Singleton
+public class FreshnessServiceImpl implements FreshnessService {
+
+    private static final Duration CHECK_INTERVAL = Duration.ofMinutes(1);
+    private static final Duration MIN_STALE_AFTER = Duration.ofMinutes(1);
+    private static final int STALE_POLLS = 3;
+
+    private static final int SAMPLE_TIME = 0;
+    private static final int RECEIVED_TIME = 1;
+    private static final int STORED_TIME = 2;
+    private static final int SLOT_SIZE = 3;
+
+    private final Logger log = LoggerFactory.getLogger(getClass());
+
+    private Duration defaultStaleAfter;
+    private volatile Map<Integer, DeviceEntry> devices = Collections.emptyMap();
+    private volatile Map<Integer, Integer> sensorSlots = Collections.emptyMap();
+    private volatile SensorEntry[] sensors = new SensorEntry[0];
+    private volatile AtomicLongArray sensorTimes = new AtomicLongArray(0);
+    private volatile long setupTime;
+    private volatile int staleDeviceCount;
+    private volatile int staleSensorCount;
+    private ScheduledExecutorService checker;
+
+    @Override
+    public void setDefaultStaleAfter(Duration staleAfter) {
+        this.defaultStaleAfter = staleAfter;
+    }
+
+    @Override
+    public synchronized void setup(Collection<Device> deviceList) {
+        Map<Integer, DeviceEntry> deviceMap = new LinkedHashMap<>();
+        Map<Integer, Integer> slotMap = new HashMap<>();
+        int sensorCount = deviceList.stream().mapToInt(dev -> dev.getSensors().size()).sum();
+        SensorEntry[] sensorArray = new SensorEntry[sensorCount];
+
+        int slot = 0;
+        for (Device device : deviceList) {
+            long interval = pollInterval(device.getCron());
+            long deviceStaleAfter = parseStaleAfter(device.getConfig(), staleAfter(interval));
+            DeviceEntry entry = new DeviceEntry(device.getId(), device.getName(),
+                    interval, deviceStaleAfter, slot, device.getSensors().size());
+            deviceMap.put(device.getId(), entry);
+
+            for (Sensor sensor : device.getSensors()) {
+                long sensorStaleAfter = device.isEventDriven(sensor) ? 0L : deviceStaleAfter;
+                sensorArray[slot] = new SensorEntry(sensor.getId(), sensor.getName(),
+                        parseStaleAfter(sensor.getConfig(), sensorStaleAfter));
+                slotMap.put(sensor.getId(), slot);
+                slot++;
+            }
+        }
+
+        setupTime = System.currentTimeMillis();
+        sensorTimes = new AtomicLongArray(sensorCount * SLOT_SIZE);
+        sensors = sensorArray;
+        sensorSlots = slotMap;
+        devices = deviceMap;
+
+        if (checker == null) {
+            checker = Executors.newSingleThreadScheduledExecutor(r -> {
+                Thread thread = new Thread(r, "freshness-check");
+                thread.setDaemon(true);
+                return thread;
+            });
+            checker.scheduleWithFixedDelay(this::check,
+                    CHECK_INTERVAL.toMillis(), CHECK_INTERVAL.toMillis(), TimeUnit.MILLISECONDS);
+        }
+    }
+
+    @Override
+    public void recordPoll(int deviceId, Instant scheduled, Instant started, long nanos, boolean success) {
+        DeviceEntry entry = devices.get(deviceId);
+        if (entry == null) {
+            return;
+        }
+
+        long lag = scheduled != null ? Math.max(started.toEpochMilli() - scheduled.toEpochMilli(), 0L) : 0L;
+        boolean lagging = entry.record(scheduled, started, lag, nanos, success);
+        if (lagging) {
+            log.warn("Poll of device {} ({}) started {} ms late, exceeding its poll interval of {} ms",
+                    entry.id, entry.name, lag, entry.interval);
+        }
+    }
+
+    @Override
+    public void recordReceived(Collection<Sample> samples) {
+        Map<Integer, Integer> slots = sensorSlots;
+        AtomicLongArray times = sensorTimes;
+        long now = System.currentTimeMillis();
+
+        for (Sample sample : samples) {
+            Integer slot = slots.get(sample.getSensor().getId());
+            if (slot != null) {
+                int base = slot * SLOT_SIZE;
+                times.accumulateAndGet(base + SAMPLE_TIME, sample.getTimestamp().toEpochMilli(), Math::max);
+                times.set(base + RECEIVED_TIME, now);
+            }
+        }
+    }
+
+    @Override
+    public void recordStored(Collection<Sample> samples) {
+        Map<Integer, Integer> slots = sensorSlots;
+        AtomicLongArray times = sensorTimes;
+        long now = System.currentTimeMillis();
+
+        for (Sample sample : samples) {
+            Integer slot = slots.get(sample.getSensor().getId());
+            if (slot != null) {
+                times.set(slot * SLOT_SIZE + STORED_TIME, now);
+            }
+        }
+    }
+
+    @Override
+    public int getStaleDeviceCount() {
+        return staleDeviceCount;
+    }
+
+    @Override
+    public int getStaleSensorCount() {
+        return staleSensorCount;
+    }
+
+    @Override
+    public void write(Writer out, boolean staleOnly) throws IOException {
+        SensorEntry[] sensorArray = sensors;
+        AtomicLongArray times = sensorTimes;
+
+        JSONArray deviceArray = new JSONArray();
+        for (DeviceEntry device : devices.values()) {
+            JSONArray sensorJson = new JSONArray();
+            for (int slot = device.firstSlot; slot < device.firstSlot + device.sensorCount; slot++) {
+                SensorEntry sensor = sensorArray[slot];
+                if (staleOnly && !sensor.stale) {
+                    continue;
+                }
+                int base = slot * SLOT_SIZE;
+                sensorJson.put(new JSONObject()
+                        .put("id", sensor.id)
+                        .put("name", sensor.name)
+                        .put("stale", sensor.stale)
+                        .put("staleAfter", duration(sensor.staleAfter))
+                        .put("lastSample", time(times.get(base + SAMPLE_TIME)))
+                        .put("lastReceived", time(times.get(base + RECEIVED_TIME)))
+                        .put("lastStored", time(times.get(base + STORED_TIME))));
+            }
+
+            if (staleOnly && !device.stale && sensorJson.length() == 0) {
+                continue;
+            }
+
+            synchronized (device) {
+                deviceArray.put(new JSONObject()
+                        .put("id", device.id)
+                        .put("name", device.name)
+                        .put("stale", device.stale)
+                        .put("staleAfter", duration(device.staleAfter))
+                        .put("lastScheduled", time(device.lastScheduled))
+                        .put("lastStarted", time(device.lastStarted))
+                        .put("lagMillis", device.lastLag)
+                        .put("maxLagMillis", device.maxLag)
+                        .put("durationMillis", device.lastNanos / 1_000_000L)
+                        .put("lastSuccess", time(device.lastSuccess))
+                        .put("lastFailure", time(device.lastFailure))
+                        .put("consecutiveFailures", device.failures)
+                        .put("sensors", sensorJson));
+            }
+        }
+
+        try {
+            new JSONObject()
+                    .put("time", Instant.now().toString())
+                    .put("staleDevices", staleDeviceCount)
+                    .put("staleSensors", staleSensorCount)
+                    .put("devices", deviceArray)
+                    .write(out);
+            out.flush();
+        } catch (JSONException ex) {
+            throw new IOException("Could not write status", ex);
+        }
+    }
+
+    /**
+     * Checks all devices and sensors for staleness, and logs a warning when a device or
+     * sensor becomes stale. Sensors of a stale device are not logged individually.
+     */
+    void check() {
+        try {
+            long now = System.currentTimeMillis();
+            SensorEntry[] sensorArray = sensors;
+            AtomicLongArray times = sensorTimes;
+            int staleDevices = 0;
+            int staleSensors = 0;
+
+            for (DeviceEntry device : devices.values()) {
+                long lastSuccess = Math.max(device.lastSuccess, setupTime);
+                boolean deviceStale = isStale(now, lastSuccess, device.staleAfter);
+                if (deviceStale && !device.stale) {
+                    log.warn("Device {} ({}) is stale, last successful poll was at {}",
+                            device.id, device.name, time(device.lastSuccess));
+                } else if (!deviceStale && device.stale) {
+                    log.info("Device {} ({}) is fresh again", device.id, device.name);
+                }
+                device.stale = deviceStale;
+                if (deviceStale) {
+                    staleDevices++;
+                }
+
+                for (int slot = device.firstSlot; slot < device.firstSlot + device.sensorCount; slot++) {
+                    SensorEntry sensor = sensorArray[slot];
+                    long received = times.get(slot * SLOT_SIZE + RECEIVED_TIME);
+                    boolean sensorStale = isStale(now, Math.max(received, setupTime), sensor.staleAfter);
+                    if (sensorStale && !sensor.stale && !deviceStale) {
+                        log.warn("Sensor {} ({}) of device {} is stale, last sample was received at {}",
+                                sensor.id, sensor.name, device.name, time(received));
+                    } else if (!sensorStale && sensor.stale && !deviceStale) {
+                        log.info("Sensor {} ({}) of device {} is fresh again", sensor.id, sensor.name, device.name);
+                    }
+                    sensor.stale = sensorStale;
+                    if (sensorStale) {
+                        staleSensors++;
+                    }
+                }
+            }
+
+            staleDeviceCount = staleDevices;
+            staleSensorCount = staleSensors;
+        } catch (RuntimeException ex) {
+            log.error("Freshness check failed", ex);
+        }
+    }
+
+    /**
+     * Checks if a timestamp is older than the staleness threshold.
+     */
+    private static boolean isStale(long now, long last, long staleAfter) {
+        return staleAfter > 0L && now - last > staleAfter;
+    }
+
+    /**
+     * Returns the default staleness threshold, in milliseconds.
+     *
+     * @param interval
+     *         Poll interval of the device, in milliseconds
+     */
+    private long staleAfter(long interval) {
+        if (defaultStaleAfter != null) {
+            return defaultStaleAfter.toMillis();
+        }
+        return Math.max(interval * STALE_POLLS, MIN_STALE_AFTER.toMillis());
+    }
+
+    /**
+     * Parses the "StaleAfter" global option.
+     *
+     * @param config
+     *         Device or sensor config
+     * @param def
+     *         Default threshold, in milliseconds
+     * @return Threshold, in milliseconds. 0 means that staleness is not checked.
+     */
+    private static long parseStaleAfter(JSONObject config, long def) {
+        if (config == null || !config.has("StaleAfter")) {
+            return def;
+        }
+        try {
+            return Duration.parse(config.getString("StaleAfter")).abs().toMillis();
+        } catch (JSONException | DateTimeParseException ex) {
+            throw new GeordiException("Invalid StaleAfter config", ex);
+        }
+    }
+
+    /**
+     * Estimates the poll interval of a cron expression, by the time between its next two
+     * fire times.
+     *
+     * @return Poll interval, in milliseconds, or 0 if the device is never polled
+     */
+    private static long pollInterval(CronExpression cron) {
+        if (cron == null) {
+            return 0L;
+        }
+        Date next = cron.getNextValidTimeAfter(new Date());
+        Date afterNext = next != null ? cron.getNextValidTimeAfter(next) : null;
+        if (afterNext == null) {
+            return 0L;
+        }
+        return afterNext.getTime() - next.getTime();
+    }
+
+    private static Object time(long epochMillis) {
+        return epochMillis > 0L ? Instant.ofEpochMilli(epochMillis).toString() : JSONObject.NULL;
+    }
+
+    private static Object duration(long millis) {
+        return millis > 0L ? Duration.ofMillis(millis).toString() : JSONObject.NULL;
+    }
+
+    /**
+     * Freshness of a device.
+     */
+    private static class DeviceEntry {
+        private final int id;
+        private final String name;
+        private final long interval;
+        private final long staleAfter;
+        private final int firstSlot;
+        private final int sensorCount;
+        private long lastScheduled;
+        private long lastStarted;
+        private long lastLag;
+        private long maxLag;
+        private long lastNanos;
+        private volatile long lastSuccess;
+        private long lastFailure;
+        private long failures;
+        private boolean lagging;
+        private volatile boolean stale;
+
+        public DeviceEntry(int id, String name, long interval, long staleAfter, int firstSlot, int sensorCount) {
+            this.id = id;
+            this.name = name;
+            this.interval = interval;
+            this.staleAfter = staleAfter;
+            this.firstSlot = firstSlot;
+            this.sensorCount = sensorCount;
+        }
+
+        /**
+         * Records a poll.
+         *
+         * @return {@code true} if the poll started later than the poll interval, but the
+         * previous poll did not
+         */
+        public synchronized boolean record(Instant scheduled, Instant started, long lag, long nanos,
+                boolean success) {
+            lastScheduled = scheduled != null ? scheduled.toEpochMilli() : 0L;
+            lastStarted = started.toEpochMilli();
+            lastLag = lag;
+            maxLag = Math.max(maxLag, lag);
+            lastNanos = nanos;
+            if (success) {
+                lastSuccess = lastStarted;
+                failures = 0L;
+            } else {
+                lastFailure = lastStarted;
+                failures++;
+            }
+
+            boolean wasLagging = lagging;
+            lagging = interval > 0L && lag > interval;
+            return lagging && !wasLagging;
+        }
+    }
+
+    /**
+     * Freshness settings of a sensor. The timestamps are kept in the sensor times array.
+     */
+    private static class SensorEntry {
+        private final int id;
+        private final String name;
+        private final long staleAfter;
+        private volatile boolean stale;
+
+        public SensorEntry(int id, String name, long staleAfter) {
+            this.id = id;
+            this.name = name;
+            this.staleAfter = staleAfter;
+        }
+    }
+
+}
@@ -0,0 +1,44 @@
+/*
+ * geordi
+ *
+ * Copyright (C) 2020 Richard "Shred" Körber
+ *   https://codeberg.org/shred/geordi
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.
+ */
+package org.shredzone.geordi.service;
+
+import java.util.Collection;
+
+import org.shredzone.geordi.data.Sample;
+
+/**
+ * This service takes {@link Sample} that have been read from a device, compacts them,
+ * and stores them into the database.
+ */
+public interface IngestService {
+
+    /**
+     * Compacts and stores the given {@link Sample}.
+     *
+     * @param samples
+     *         Collection of {@link Sample} that have been read
+     */
+    void ingest(Collection<Sample> samples);
+
+    /**
+     * Opens an {@link IngestSink} that compacts and stores the accepted {@link Sample}
+     * incrementally, while they are read from the device.
+     *
+     * @return {@link IngestSink} to be closed after the last sample was accepted
+     */
+    IngestSink open();
+
+}
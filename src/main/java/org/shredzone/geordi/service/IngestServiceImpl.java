@@ -0,0 +1,217 @@
+/*
+ * geordi
+ *
+ * Copyright (C) 2020 Richard "Shred" Körber
+ *   https://codeberg.org/shred/geordi
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.
+ */
+package org.shredzone.geordi.service;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.List;
+
+import javax.inject.Inject;
+import javax.inject.Singleton;
+
+import org.shredzone.geordi.data.Sample;
+import org.shredzone.geordi.jfr.Span;
+import org.shredzone.geordi.jfr.Tracing;
+import org.shredzone.geordi.metrics.Counter;
+import org.shredzone.geordi.metrics.Histogram;
+import org.shredzone.geordi.metrics.PollContext;
+
+/**
+ * Implementation of {@link IngestService}. It uses the {@link DerivingService} to
+ * compute virtual sensors, the {@link CompactingService} to remove unchanged samples,
+ * and the {@link DatabaseService} to store the remaining samples.
+ * <p>
+ * Samples are stored in batches of {@value #BATCH_SIZE}. Samples of sensors that are
+ * input of a virtual sensor are kept until the {@link IngestSink} is closed, so the
+ * virtual sensors are only computed once per poll.
+ */
+@Singleton
+public class IngestServiceImpl implements IngestService {
+
+    private static final int BATCH_SIZE = 500;
+
+    @Inject
+    private DatabaseService databaseService;
+
+    @Inject
+    private CompactingService compactingService;
+
+    @Inject
+    private DerivingService derivingService;
+
+    @Inject
+    private MetricsService metricsService;
+
+    @Inject
+    private FreshnessService freshnessService;
+
+    private volatile IngestMetrics metrics;
+
+    @Override
+    public void ingest(Collection<Sample> samples) {
+        try (IngestSink sink = open()) {
+            samples.forEach(sink::accept);
+        }
+    }
+
+    @Override
+    public IngestSink open() {
+        return new BatchingSink();
+    }
+
+    /**
+     * Compacts and stores a batch of samples.
+     *
+     * @param samples
+     *            {@link Sample} that have been read
+     * @param derived
+     *            {@link Sample} of virtual sensors
+     */
+    private void store(List<Sample> samples, List<Sample> derived) {
+        List<Sample> stored = new ArrayList<>(samples.size() + derived.size());
+        stored.addAll(samples);
+        stored.addAll(derived);
+        int total = stored.size();
+
+        Span span = Tracing.compaction(total);
+        long start = System.nanoTime();
+
+        // Samples of the same sensor must be compacted one after the other, as each
+        // stored sample is the reference for the next one.
+        List<Sample> preSamples = new ArrayList<>();
+        Iterator<Sample> it = stored.iterator();
+        while (it.hasNext()) {
+            Sample sample = it.next();
+            if (compactingService.wasUnchanged(sample)) {
+                it.remove();
+                continue;
+            }
+            Sample preSample = compactingService.lastUnchanged(sample);
+            if (preSample != null) {
+                preSamples.add(preSample);
+            }
+            compactingService.rememberSample(sample);
+        }
+
+        IngestMetrics m = getMetrics();
+        m.compaction.observeNanos(System.nanoTime() - start);
+        span.end(total - stored.size());
+
+        try {
+            databaseService.storeSamples(preSamples);
+            databaseService.storeSamples(stored);
+        } catch (RuntimeException ex) {
+            // The remembered samples were not stored, so they must not be used as
+            // reference for the next samples
+            stored.forEach(sample -> compactingService.forget(sample.getSensor()));
+            throw ex;
+        }
+
+        freshnessService.recordReceived(samples);
+        freshnessService.recordReceived(derived);
+        freshnessService.recordStored(preSamples);
+        freshnessService.recordStored(stored);
+
+        m.read.add(samples.size());
+        m.derived.add(derived.size());
+        m.compacted.add(total - stored.size());
+        m.stored.add(stored.size() + preSamples.size());
+    }
+
+    /**
+     * Returns the {@link IngestMetrics}. They are looked up on first use.
+     */
+    private IngestMetrics getMetrics() {
+        IngestMetrics result = metrics;
+        if (result == null) {
+            result = new IngestMetrics();
+            metrics = result;
+        }
+        return result;
+    }
+
+    /**
+     * The metrics of the ingest pipeline.
+     */
+    private class IngestMetrics {
+        private final Histogram compaction = metricsService.histogram("geordi_compaction_seconds",
+                "Time spent on compacting samples", Histogram.LATENCY_BUCKETS);
+        private final Counter read = metricsService.counter("geordi_samples_read_total",
+                "Samples read from devices");
+        private final Counter derived = metricsService.counter("geordi_samples_derived_total",
+                "Samples computed by virtual sensors");
+        private final Counter compacted = metricsService.counter("geordi_samples_compacted_total",
+                "Samples dropped because they were unchanged");
+        private final Counter stored = metricsService.counter("geordi_samples_stored_total",
+                "Samples written to the database");
+    }
+
+    /**
+     * An {@link IngestSink} that stores the samples as soon as a batch is complete.
+     * It is not threadsafe.
+     */
+    private class BatchingSink implements IngestSink {
+        private final List<Sample> batch = new ArrayList<>(BATCH_SIZE);
+        private final List<Sample> inputs = new ArrayList<>();
+        private int sampleCount;
+        private long storeNanos;
+
+        @Override
+        public void accept(Sample sample) {
+            batch.add(sample);
+            sampleCount++;
+            if (derivingService.isInput(sample.getSensor())) {
+                inputs.add(sample);
+            }
+            if (batch.size() >= BATCH_SIZE) {
+                flush(Collections.emptyList());
+            }
+        }
+
+        @Override
+        public int getSampleCount() {
+            return sampleCount;
+        }
+
+        @Override
+        public long getStoreNanos() {
+            return storeNanos;
+        }
+
+        @Override
+        public void close() {
+            List<Sample> derived = inputs.isEmpty()
+                    ? Collections.emptyList()
+                    : derivingService.derive(inputs);
+            inputs.clear();
+            if (!batch.isEmpty() || !derived.isEmpty()) {
+                flush(derived);
+            }
+        }
+
+        private void flush(List<Sample> derived) {
+            long start = System.nanoTime();
+            store(batch, derived);
+            batch.clear();
+            long nanos = System.nanoTime() - start;
+            storeNanos += nanos;
+            PollContext.recordStore(nanos);
+        }
+    }
+
+}
@@ -0,0 +1,48 @@
+/*
+ * geordi
+ *
+ * Copyright (C) 2018 Richard "Shred" Körber
+ *   https://codeberg.org/shred/geordi
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.
+ */
+package org.shredzone.geordi.service;
+
+import org.shredzone.geordi.data.Sample;
+import org.shredzone.geordi.data.SampleSink;
+
+/**
+ * A {@link SampleSink} that compacts and stores the accepted {@link Sample} in batches.
+ * It is opened by {@link IngestService#open()}, and must be closed after the last
+ * sample was accepted.
+ */
+public interface IngestSink extends SampleSink, AutoCloseable {
+
+    /**
+     * Returns the number of {@link Sample} that have been accepted so far.
+     */
+    int getSampleCount();
+
+    /**
+     * Returns the time that was spent on compacting and storing samples so far, in
+     * nanoseconds.
+     */
+    long getStoreNanos();
+
+    /**
+     * Computes the virtual sensors, and compacts and stores all pending samples.
+     * <p>
+     * Batches that have been stored before are not rolled back if the device fails
+     * later while reading its sensors. Closing the sink again has no effect.
+     */
+    @Override
+    void close();
+
+}
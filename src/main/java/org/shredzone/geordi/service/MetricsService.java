@@ -0,0 +1,146 @@
+/*
+ * geordi
+ *
+ * Copyright (C) 2020 Richard "Shred" Körber
+ *   https://codeberg.org/shred/geordi
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.
+ */
+package org.shredzone.geordi.service;
+
+import java.io.IOException;
+import java.io.Writer;
+import java.util.function.DoubleSupplier;
+
+import org.shredzone.geordi.metrics.Counter;
+import org.shredzone.geordi.metrics.Histogram;
+
+/**
+ * This service keeps the metrics of Geordi's polling and storage pipeline, and exposes
+ * them in Prometheus text format.
+ * <p>
+ * Metrics are identified by their name and their labels. Labels are given as pairs of
+ * label name and label value.
+ */
+public interface MetricsService {
+
+    /**
+     * Returns a {@link Counter}. It is created if it does not exist yet.
+     *
+     * @param name
+     *         Metric name
+     * @param help
+     *         Description of the metric
+     * @param labels
+     *         Label names and values, in pairs
+     * @return {@link Counter}
+     */
+    Counter counter(String name, String help, String... labels);
+
+    /**
+     * Returns a {@link Histogram}. It is created if it does not exist yet.
+     *
+     * @param name
+     *         Metric name
+     * @param help
+     *         Description of the metric
+     * @param buckets
+     *         Upper bounds of the buckets, in ascending order
+     * @param labels
+     *         Label names and values, in pairs
+     * @return {@link Histogram}
+     */
+    Histogram histogram(String name, String help, double[] buckets, String... labels);
+
+    /**
+     * Registers a gauge whose value is read on exposition.
+     *
+     * @param name
+     *         Metric name
+     * @param help
+     *         Description of the metric
+     * @param supplier
+     *         {@link DoubleSupplier} that returns the current value
+     * @param labels
+     *         Label names and values, in pairs
+     */
+    void gauge(String name, String help, DoubleSupplier supplier, String... labels);
+
+    /**
+     * Registers a counter whose value is read on exposition. This is useful for
+     * counters that are kept elsewhere.
+     *
+     * @param name
+     *         Metric name
+     * @param help
+     *         Description of the metric
+     * @param supplier
+     *         {@link DoubleSupplier} that returns the current value
+     * @param labels
+     *         Label names and values, in pairs
+     */
+    void counterFunction(String name, String help, DoubleSupplier supplier, String... labels);
+
+    /**
+     * Returns the total of a metric, summed up over all metrics of that name having the
+     * given labels. For histograms, the number of observations is returned.
+     *
+     * @param name
+     *         Metric name
+     * @param labels
+     *         Label names and values, in pairs. Only metrics with these labels are
+     *         summed up. Other labels are ignored.
+     * @return Total, or 0 if there is no such metric
+     */
+    double total(String name, String... labels);
+
+    /**
+     * Returns the sum of all observations of a histogram, summed up over all histograms
+     * of that name having the given labels.
+     *
+     * @param name
+     *         Metric name
+     * @param labels
+     *         Label names and values, in pairs. Only histograms with these labels are
+     *         summed up. Other labels are ignored.
+     * @return Sum of all observations, or 0 if there is no such histogram
+     */
+    double observedSum(String name, String... labels);
+
+    /**
+     * Returns a {@link Histogram} that merges all histograms of that name having the
+     * given labels. The returned histogram is a snapshot, and is not updated anymore.
+     *
+     * @param name
+     *         Metric name
+     * @param labels
+     *         Label names and values, in pairs. Only histograms with these labels are
+     *         merged. Other labels are ignored.
+     * @return Merged {@link Histogram}, or {@code null} if there is no such histogram
+     */
+    Histogram merged(String name, String... labels);
+
+    /**
+     * Writes all metrics in Prometheus text format.
+     *
+     * @param out
+     *         {@link Writer} to write to
+     */
+    void write(Writer out) throws IOException;
+
+    /**
+     * Starts an HTTP server that exposes the metrics at {@code /metrics}.
+     *
+     * @param port
+     *         Port to listen to
+     */
+    void startServer(int port);
+
+}
@@ -0,0 +1,310 @@
+/*
+ * geordi
+ *
+ * Copyright (C) 2020 Richard "Shred" Körber
+ *   https://codeberg.org/shred/geordi
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.
+ */
+package org.shredzone.geordi.service;
+
+import static java.nio.charset.StandardCharsets.UTF_8;
+
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.net.InetSocketAddress;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentSkipListMap;
+import java.util.function.DoubleSupplier;
+
+import javax.inject.Inject;
+import javax.inject.Singleton;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpServer;
+import org.shredzone.geordi.GeordiException;
+import org.shredzone.geordi.metrics.Counter;
+import org.shredzone.geordi.metrics.Histogram;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Implementation of {@link MetricsService}. Metrics are kept in concurrent maps, and
+ * are only read when they are exposed. This implementation is threadsafe.
+ * <p>
+ * The HTTP server also exposes the freshness table of the {@link FreshnessService} at
+ * {@code /status}.
+ */
+@Singleton
+public class MetricsServiceImpl implements MetricsService {
+
+    private final Logger log = LoggerFactory.getLogger(getClass());
+
+    @Inject
+    private FreshnessService freshnessService;
+
+    private final Map<String, Family> families = new ConcurrentSkipListMap<>();
+    private HttpServer server;
+
+    @Override
+    public Counter counter(String name, String help, String... labels) {
+        return (Counter) family(name, help, "counter")
+                .metrics.computeIfAbsent(labelString(labels), k -> new Counter());
+    }
+
+    @Override
+    public Histogram histogram(String name, String help, double[] buckets, String... labels) {
+        return (Histogram) family(name, help, "histogram")
+                .metrics.computeIfAbsent(labelString(labels), k -> new Histogram(buckets));
+    }
+
+    @Override
+    public void gauge(String name, String help, DoubleSupplier supplier, String... labels) {
+        family(name, help, "gauge").metrics.put(labelString(labels), supplier);
+    }
+
+    @Override
+    public void counterFunction(String name, String help, DoubleSupplier supplier, String... labels) {
+        family(name, help, "counter").metrics.put(labelString(labels), supplier);
+    }
+
+    @Override
+    public double total(String name, String... labels) {
+        Family family = families.get(name);
+        if (family == null) {
+            return 0.0;
+        }
+
+        double result = 0.0;
+        for (Map.Entry<String, Object> entry : family.metrics.entrySet()) {
+            if (!matches(entry.getKey(), labels)) {
+                continue;
+            }
+
+            Object metric = entry.getValue();
+            if (metric instanceof Counter) {
+                result += ((Counter) metric).get();
+            } else if (metric instanceof Histogram) {
+                result += ((Histogram) metric).getCount();
+            } else if (metric instanceof DoubleSupplier) {
+                result += ((DoubleSupplier) metric).getAsDouble();
+            }
+        }
+        return result;
+    }
+
+    @Override
+    public double observedSum(String name, String... labels) {
+        Family family = families.get(name);
+        if (family == null) {
+            return 0.0;
+        }
+
+        double result = 0.0;
+        for (Map.Entry<String, Object> entry : family.metrics.entrySet()) {
+            if (entry.getValue() instanceof Histogram && matches(entry.getKey(), labels)) {
+                result += ((Histogram) entry.getValue()).getSum();
+            }
+        }
+        return result;
+    }
+
+    @Override
+    public Histogram merged(String name, String... labels) {
+        Family family = families.get(name);
+        if (family == null) {
+            return null;
+        }
+
+        Histogram result = null;
+        for (Map.Entry<String, Object> entry : family.metrics.entrySet()) {
+            if (entry.getValue() instanceof Histogram && matches(entry.getKey(), labels)) {
+                Histogram histogram = (Histogram) entry.getValue();
+                if (result == null) {
+                    result = new Histogram(histogram.getBounds());
+                }
+                result.add(histogram);
+            }
+        }
+        return result;
+    }
+
+    @Override
+    public void write(Writer out) throws IOException {
+        for (Family family : families.values()) {
+            out.append("# HELP ").append(family.name).append(' ').append(family.help).append('\n');
+            out.append("# TYPE ").append(family.name).append(' ').append(family.type).append('\n');
+
+            for (Map.Entry<String, Object> entry : family.metrics.entrySet()) {
+                String labels = entry.getKey();
+                Object metric = entry.getValue();
+
+                if (metric instanceof Counter) {
+                    writeLine(out, family.name, labels, ((Counter) metric).get());
+                } else if (metric instanceof Histogram) {
+                    writeHistogram(out, family.name, labels, (Histogram) metric);
+                } else if (metric instanceof DoubleSupplier) {
+                    writeLine(out, family.name, labels, ((DoubleSupplier) metric).getAsDouble());
+                }
+            }
+        }
+        out.flush();
+    }
+
+    @Override
+    public synchronized void startServer(int port) {
+        if (server != null) {
+            return;
+        }
+
+        try {
+            server = HttpServer.create(new InetSocketAddress(port), 0);
+            server.createContext("/metrics", this::handle);
+            server.createContext("/status", this::handleStatus);
+            server.start();
+            log.info("Exposing metrics on port {}", port);
+        } catch (IOException ex) {
+            throw new GeordiException("Could not start metrics server", ex);
+        }
+    }
+
+    /**
+     * Handles a scrape request.
+     */
+    private void handle(HttpExchange exchange) throws IOException {
+        try {
+            exchange.getResponseHeaders().set("Content-Type", "text/plain; version=0.0.4; charset=utf-8");
+            exchange.sendResponseHeaders(200, 0);
+            try (Writer out = new OutputStreamWriter(exchange.getResponseBody(), UTF_8)) {
+                write(out);
+            }
+        } finally {
+            exchange.close();
+        }
+    }
+
+    /**
+     * Handles a status request. If the query contains "stale", only stale devices and
+     * sensors are returned.
+     */
+    private void handleStatus(HttpExchange exchange) throws IOException {
+        try {
+            String query = exchange.getRequestURI().getQuery();
+            boolean staleOnly = query != null && query.contains("stale");
+
+            exchange.getResponseHeaders().set("Content-Type", "application/json; charset=utf-8");
+            exchange.sendResponseHeaders(200, 0);
+            try (Writer out = new OutputStreamWriter(exchange.getResponseBody(), UTF_8)) {
+                freshnessService.write(out, staleOnly);
+            }
+        } finally {
+            exchange.close();
+        }
+    }
+
+    /**
+     * Returns the {@link Family} of the given metric name, creating it if necessary.
+     */
+    private Family family(String name, String help, String type) {
+        Family family = families.computeIfAbsent(name, k -> new Family(name, help, type));
+        if (!family.type.equals(type)) {
+            throw new IllegalArgumentException("Metric " + name + " is already registered as " + family.type);
+        }
+        return family;
+    }
+
+    private static void writeHistogram(Writer out, String name, String labels, Histogram histogram)
+            throws IOException {
+        String prefix = labels.isEmpty() ? "" : labels + ',';
+        double[] bounds = histogram.getBounds();
+        long[] counts = histogram.getCumulativeCounts();
+        for (int ix = 0; ix < bounds.length; ix++) {
+            writeLine(out, name + "_bucket", prefix + "le=\"" + bounds[ix] + '"', counts[ix]);
+        }
+        long count = histogram.getCount();
+        writeLine(out, name + "_bucket", prefix + "le=\"+Inf\"", count);
+        writeLine(out, name + "_sum", labels, histogram.getSum());
+        writeLine(out, name + "_count", labels, count);
+    }
+
+    private static void writeLine(Writer out, String name, String labels, double value) throws IOException {
+        out.append(name);
+        if (!labels.isEmpty()) {
+            out.append('{').append(labels).append('}');
+        }
+        out.append(' ');
+        if (value == Math.rint(value) && !Double.isInfinite(value)) {
+            out.append(Long.toString((long) value));
+        } else {
+            out.append(Double.toString(value));
+        }
+        out.append('\n');
+    }
+
+    /**
+     * Checks if the label string contains all the given label pairs.
+     */
+    private static boolean matches(String labelString, String... labels) {
+        if (labels.length % 2 != 0) {
+            throw new IllegalArgumentException("Labels must be given in pairs");
+        }
+
+        String wrapped = ',' + labelString + ',';
+        for (int ix = 0; ix < labels.length; ix += 2) {
+            String pair = labelString(labels[ix], labels[ix + 1]);
+            if (!wrapped.contains(',' + pair + ',')) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Converts label pairs into the exposition format.
+     */
+    private static String labelString(String... labels) {
+        if (labels.length % 2 != 0) {
+            throw new IllegalArgumentException("Labels must be given in pairs");
+        }
+
+        StringBuilder sb = new StringBuilder();
+        for (int ix = 0; ix < labels.length; ix += 2) {
+            if (ix > 0) {
+                sb.append(',');
+            }
+            sb.append(labels[ix]).append("=\"")
+                    .append(String.valueOf(labels[ix + 1])
+                            .replace("\\", "\\\\")
+                            .replace("\"", "\\\"")
+                            .replace("\n", "\\n"))
+                    .append('"');
+        }
+        return sb.toString();
+    }
+
+    /**
+     * All metrics with the same name.
+     */
+    private static class Family {
+        private final String name;
+        private final String help;
+        private final String type;
+        private final Map<String, Object> metrics = new ConcurrentHashMap<>();
+
+        public Family(String name, String help, String type) {
+            this.name = name;
+            this.help = help;
+            this.type = type;
+        }
+    }
+
+}
@@ -0,0 +1,144 @@
+/*
+ * geordi
+ *
+ * Copyright (C) 2020 Richard "Shred" Körber
+ *   https://codeberg.org/shred/geordi
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.
+ */
+package org.shredzone.geordi.service;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.URLConnection;
+import java.time.Duration;
+
+import org.shredzone.geordi.data.Response;
+
+/**
+ * This service shares the responses of device endpoints between devices. If several
+ * devices poll the same endpoint at the same time, or shortly after each other, the
+ * endpoint is only fetched once.
+ * <p>
+ * The service also detects if the content of an endpoint has changed since the last
+ * fetch. If the endpoint supports it, conditional requests are used. Otherwise a
+ * digest of the body is compared with the digest of the previous one. Unchanged
+ * responses keep their version, so devices can skip processing them.
+ * <p>
+ * Devices can either fetch the raw body, or pass a {@link BodyParser} that parses the
+ * body while it is read from the connection. In the latter case, only the parsed
+ * document is kept and shared, so the raw body is never buffered.
+ */
+public interface ResponseCacheService {
+
+    /**
+     * Returns the response of an endpoint.
+     * <p>
+     * If a response is currently being fetched by another thread, this thread waits for
+     * that response. If a response has been fetched within the given time to live, it
+     * is returned without fetching it again. Otherwise the endpoint is fetched.
+     *
+     * @param key
+     *         Key identifying the endpoint, e.g. its URL
+     * @param ttl
+     *         Maximum age of a cached response
+     * @param fetcher
+     *         {@link Fetcher} that opens a connection to the endpoint
+     * @return {@link Response} of the endpoint
+     */
+    default Response<byte[]> fetch(String key, Duration ttl, Fetcher fetcher) throws IOException {
+        return fetch(key, ttl, fetcher, BodyParser::readAll);
+    }
+
+    /**
+     * Returns the parsed response of an endpoint.
+     * <p>
+     * Works like {@link #fetch(String, Duration, Fetcher)}, but the body is parsed by
+     * the given {@link BodyParser} while it is read. The parsed document is shared with
+     * all devices fetching the same key, so it must be independent of the device, and
+     * it must not be modified. A key must always be fetched with the same parser.
+     *
+     * @param key
+     *         Key identifying the endpoint, e.g. its URL
+     * @param ttl
+     *         Maximum age of a cached response
+     * @param fetcher
+     *         {@link Fetcher} that opens a connection to the endpoint
+     * @param parser
+     *         {@link BodyParser} that parses the body
+     * @return {@link Response} containing the parsed document
+     */
+    <T> Response<T> fetch(String key, Duration ttl, Fetcher fetcher, BodyParser<T> parser)
+            throws IOException;
+
+    /**
+     * Returns the number of fetches that were actually performed.
+     */
+    long getFetchCount();
+
+    /**
+     * Returns the number of fetches that were served by a shared response.
+     */
+    long getSharedHitCount();
+
+    /**
+     * Returns the number of fetches where the endpoint's content was unchanged.
+     */
+    long getUnchangedCount();
+
+    /**
+     * Opens a connection to an endpoint.
+     */
+    @FunctionalInterface
+    interface Fetcher {
+        /**
+         * Opens the connection. It must not be connected yet, so conditional request
+         * headers can be added.
+         *
+         * @return {@link URLConnection} to the endpoint
+         */
+        URLConnection open() throws IOException;
+    }
+
+    /**
+     * Parses the body of a response.
+     */
+    @FunctionalInterface
+    interface BodyParser<T> {
+        /**
+         * Parses the body.
+         *
+         * @param in
+         *         {@link InputStream} of the body. The parser does not need to read it
+         *         to the end, and does not need to close it.
+         * @return Parsed document
+         */
+        T parse(InputStream in) throws IOException;
+
+        /**
+         * A parser that just reads the entire body.
+         *
+         * @param in
+         *         {@link InputStream} to read
+         * @return Body that was read
+         */
+        static byte[] readAll(InputStream in) throws IOException {
+            ByteArrayOutputStream out = new ByteArrayOutputStream(8192);
+            byte[] buffer = new byte[8192];
+            int len;
+            while ((len = in.read(buffer)) >= 0) {
+                out.write(buffer, 0, len);
+            }
+            return out.toByteArray();
+        }
+    }
+
+}
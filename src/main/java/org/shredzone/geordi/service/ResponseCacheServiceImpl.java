@@ -0,0 +1,316 @@
+/*
+ * geordi
+ *
+ * Copyright (C) 2020 Richard "Shred" Körber
+ *   https://codeberg.org/shred/geordi
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.
+ */
+package org.shredzone.geordi.service;
+
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.HttpURLConnection;
+import java.net.URLConnection;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.time.Duration;
+import java.time.Instant;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+
+import javax.inject.Singleton;
+
+import org.shredzone.geordi.data.Response;
+import org.shredzone.geordi.jfr.Span;
+import org.shredzone.geordi.jfr.Tracing;
+import org.shredzone.geordi.metrics.PollContext;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Implementation of {@link ResponseCacheService}. It keeps the last response of each
+ * endpoint. Concurrent fetches of the same endpoint are coalesced into a single fetch,
+ * and the body is only parsed once. This implementation is threadsafe.
+ * <p>
+ * To detect unchanged content, a SHA-256 digest of the body is computed while it is
+ * read, and only the digest is kept for the next fetch. If a parser stops reading early,
+ * only the part that was read is digested. This is sufficient, because the same input
+ * results in the same parsed document.
+ */
+@Singleton
+public class ResponseCacheServiceImpl implements ResponseCacheService {
+
+    private final Logger log = LoggerFactory.getLogger(getClass());
+
+    private final Map<String, Entry<?>> cache = new ConcurrentHashMap<>();
+    private final AtomicLong versions = new AtomicLong();
+    private final LongAdder fetchCount = new LongAdder();
+    private final LongAdder sharedHitCount = new LongAdder();
+    private final LongAdder unchangedCount = new LongAdder();
+
+    @Override
+    @SuppressWarnings("unchecked")
+    public <T> Response<T> fetch(String key, Duration ttl, Fetcher fetcher, BodyParser<T> parser)
+            throws IOException {
+        long start = System.nanoTime();
+        Entry<?>[] created = new Entry<?>[1];
+        Entry<T> entry = (Entry<T>) cache.compute(key, (k, e) -> {
+            if (e != null && e.isUsable(ttl)) {
+                return e;
+            }
+            created[0] = new Entry<>((Entry<T>) e);
+            return created[0];
+        });
+
+        if (entry != created[0]) {
+            sharedHitCount.increment();
+            log.debug("Shared response of {}", key);
+            Response<T> response = entry.get();
+            PollContext.recordFetch(System.nanoTime() - start, 0L);
+            return response;
+        }
+
+        fetchCount.increment();
+        Span span = Tracing.fetch(key);
+        try {
+            Response<T> response = fetch(fetcher, entry, parser);
+            if (!response.isOk()) {
+                cache.remove(key, entry);
+            }
+            entry.complete(response);
+            long bytes = entry.bytes;
+            PollContext.recordFetch(System.nanoTime() - start, bytes);
+            span.end(bytes);
+            return response;
+        } catch (IOException | RuntimeException ex) {
+            cache.remove(key, entry);
+            entry.future.completeExceptionally(ex);
+            throw ex;
+        }
+    }
+
+    @Override
+    public long getFetchCount() {
+        return fetchCount.sum();
+    }
+
+    @Override
+    public long getSharedHitCount() {
+        return sharedHitCount.sum();
+    }
+
+    @Override
+    public long getUnchangedCount() {
+        return unchangedCount.sum();
+    }
+
+    /**
+     * Fetches the endpoint, using a conditional request if possible.
+     *
+     * @param fetcher
+     *         {@link Fetcher} that opens a connection to the endpoint
+     * @param entry
+     *         {@link Entry} to be filled. Contains the validators, digest, and version
+     *         of the previous fetch, if there was one.
+     * @param parser
+     *         {@link BodyParser} that parses the body
+     * @return {@link Response} that was fetched
+     */
+    private <T> Response<T> fetch(Fetcher fetcher, Entry<T> entry, BodyParser<T> parser)
+            throws IOException {
+        Response<T> previous = entry.previous;
+
+        URLConnection conn = fetcher.open();
+        if (previous != null && entry.etag != null) {
+            conn.setRequestProperty("If-None-Match", entry.etag);
+        }
+        if (previous != null && entry.lastModified != null) {
+            conn.setRequestProperty("If-Modified-Since", entry.lastModified);
+        }
+
+        int status = HttpURLConnection.HTTP_OK;
+        if (conn instanceof HttpURLConnection) {
+            HttpURLConnection httpConn = (HttpURLConnection) conn;
+            status = httpConn.getResponseCode();
+
+            if (status == HttpURLConnection.HTTP_NOT_MODIFIED && previous != null) {
+                httpConn.disconnect();
+                unchangedCount.increment();
+                return previous;
+            }
+
+            if (status >= HttpURLConnection.HTTP_BAD_REQUEST) {
+                httpConn.disconnect();
+                return new Response<>(status, null, 0L);
+            }
+        }
+
+        T body;
+        byte[] digest;
+        try (DigestingInputStream in = new DigestingInputStream(conn.getInputStream())) {
+            body = parser.parse(in);
+            digest = in.digest();
+            entry.bytes = in.getCount();
+        }
+
+        entry.etag = conn.getHeaderField("ETag");
+        entry.lastModified = conn.getHeaderField("Last-Modified");
+
+        byte[] previousDigest = entry.digest;
+        entry.digest = digest;
+        if (previousDigest != null && MessageDigest.isEqual(previousDigest, digest)) {
+            unchangedCount.increment();
+            return new Response<>(status, body, entry.version);
+        }
+
+        return new Response<>(status, body, versions.incrementAndGet());
+    }
+
+    /**
+     * An {@link InputStream} that counts and digests the bytes that were read.
+     */
+    private static class DigestingInputStream extends FilterInputStream {
+        private final MessageDigest md;
+        private long count;
+
+        public DigestingInputStream(InputStream in) {
+            super(in);
+            try {
+                md = MessageDigest.getInstance("SHA-256");
+            } catch (NoSuchAlgorithmException ex) {
+                throw new IllegalStateException("SHA-256 is not supported", ex);
+            }
+        }
+
+        public long getCount() {
+            return count;
+        }
+
+        public byte[] digest() {
+            return md.digest();
+        }
+
+        @Override
+        public int read() throws IOException {
+            int b = super.read();
+            if (b >= 0) {
+                md.update((byte) b);
+                count++;
+            }
+            return b;
+        }
+
+        @Override
+        public int read(byte[] b, int off, int len) throws IOException {
+            int n = super.read(b, off, len);
+            if (n > 0) {
+                md.update(b, off, n);
+                count += n;
+            }
+            return n;
+        }
+
+        @Override
+        public long skip(long n) throws IOException {
+            // Skipped bytes must be digested as well
+            byte[] buffer = new byte[(int) Math.min(n, 8192L)];
+            long skipped = 0L;
+            while (skipped < n) {
+                int len = read(buffer, 0, (int) Math.min(n - skipped, buffer.length));
+                if (len < 0) {
+                    break;
+                }
+                skipped += len;
+            }
+            return skipped;
+        }
+
+        @Override
+        public boolean markSupported() {
+            return false;
+        }
+    }
+
+    /**
+     * A cached response, or a response that is currently being fetched.
+     */
+    private static class Entry<T> {
+        private final CompletableFuture<Response<T>> future = new CompletableFuture<>();
+        private volatile Response<T> previous;
+        private volatile Instant fetched;
+        private volatile String etag;
+        private volatile String lastModified;
+        private volatile byte[] digest;
+        private volatile long version;
+        private volatile long bytes;
+
+        /**
+         * Creates a new {@link Entry}.
+         *
+         * @param stale
+         *         The stale {@link Entry} that is replaced, or {@code null}
+         */
+        public Entry(Entry<T> stale) {
+            if (stale != null && stale.fetched != null) {
+                Response<T> response = stale.future.getNow(null);
+                this.etag = stale.etag;
+                this.lastModified = stale.lastModified;
+                this.digest = stale.digest;
+                this.version = response != null ? response.getVersion() : 0L;
+
+                // The previous response is only needed if the endpoint may reply "304"
+                if (etag != null || lastModified != null) {
+                    this.previous = response;
+                }
+            }
+        }
+
+        /**
+         * Checks if the entry can be used, because it is either currently being fetched,
+         * or it was fetched within the time to live.
+         */
+        public boolean isUsable(Duration ttl) {
+            Instant ts = fetched;
+            return ts == null
+                    ? !future.isDone()
+                    : ts.plus(ttl).isAfter(Instant.now());
+        }
+
+        public void complete(Response<T> response) {
+            if (response.isOk()) {
+                fetched = Instant.now();
+            }
+            previous = null;
+            future.complete(response);
+        }
+
+        public Response<T> get() throws IOException {
+            try {
+                return future.get();
+            } catch (InterruptedException ex) {
+                Thread.currentThread().interrupt();
+                throw new IOException("Interrupted while waiting for response", ex);
+            } catch (ExecutionException ex) {
+                Throwable cause = ex.getCause();
+                if (cause instanceof IOException) {
+                    throw (IOException) cause;
+                }
+                throw new IOException("Shared fetch failed", cause);
+            }
+        }
+    }
+
+}
@@ -0,0 +1,57 @@
+/*
+ * geordi
+ *
+ * Copyright (C) 2018 Richard "Shred" Körber
+ *   https://codeberg.org/shred/geordi
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.
+ */
+package org.shredzone.geordi.service;
+
+import org.shredzone.geordi.GeordiException;
+import org.shredzone.geordi.data.ValueType;
+
+/**
+ * This service converts the sample values in the database to another {@link ValueType}.
+ * <p>
+ * The migration is done in two steps. {@link #migrate(ValueType)} adds a column of the
+ * new type, and converts all existing samples in small chunks. Geordi can keep running
+ * meanwhile, as new samples are converted by a trigger. After that, Geordi is stopped,
+ * and {@link #finish()} replaces the value column by the new column. The next start of
+ * Geordi will then use the new value type.
+ */
+public interface ValueMigrationService {
+
+    /**
+     * Adds a column of the given type, and converts all samples. If the migration was
+     * interrupted, it continues with the samples that have not been converted yet.
+     * <p>
+     * If the samples are converted to {@link ValueType#BIGINT}, the "Scale" option is
+     * set on all sensors that do not have one yet. It is the largest scale of the stored
+     * values of the sensor.
+     *
+     * @param target
+     *            {@link ValueType} to convert to
+     * @throws GeordiException
+     *             if a migration to another type is in progress
+     */
+    void migrate(ValueType target);
+
+    /**
+     * Finishes the migration, by replacing the value column with the converted column.
+     * Geordi must not be running while the migration is finished.
+     *
+     * @throws GeordiException
+     *             if there is no migration in progress, or if not all samples have been
+     *             converted yet
+     */
+    void finish();
+
+}
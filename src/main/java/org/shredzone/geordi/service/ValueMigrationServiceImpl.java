@@ -0,0 +1,277 @@
+/*
+ * geordi
+ *
+ * Copyright (C) 2018 Richard "Shred" Körber
+ *   https://codeberg.org/shred/geordi
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.
+ */
+package org.shredzone.geordi.service;
+
+import java.sql.Timestamp;
+import java.util.AbstractMap.SimpleEntry;
+import java.util.List;
+import java.util.Optional;
+
+import javax.inject.Inject;
+import javax.inject.Singleton;
+
+import org.jdbi.v3.core.Handle;
+import org.jdbi.v3.core.Jdbi;
+import org.jdbi.v3.core.JdbiException;
+import org.jdbi.v3.core.statement.Update;
+import org.json.JSONObject;
+import org.shredzone.geordi.GeordiException;
+import org.shredzone.geordi.data.ValueType;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Implementation of {@link ValueMigrationService}.
+ * <p>
+ * The samples are converted sensor by sensor, in chunks of {@value #CHUNK_SIZE} samples
+ * that are located by the index of the sample table. Each chunk is converted in its own
+ * transaction, so the table is never locked for a long time. A {@code CHECK} constraint
+ * that is validated before the column is replaced makes sure that no sample was missed.
+ */
+@Singleton
+public class ValueMigrationServiceImpl implements ValueMigrationService {
+
+    private static final int CHUNK_SIZE = 10000;
+    private static final int MAX_SCALE = 6;
+    private static final long REPORT_INTERVAL = 30_000_000_000L;
+    private static final String COLUMN = "value_new";
+    private static final String CONSTRAINT = "value_new_not_null";
+    private static final String TRIGGER = "geordi_migrate_value";
+    private static final String SCALE_SQL = "coalesce((config->>'Scale')::int, 0)";
+
+    private final Logger log = LoggerFactory.getLogger(getClass());
+
+    @Inject
+    private Jdbi jdbi;
+
+    @Inject
+    private DatabaseService databaseService;
+
+    @Override
+    public void migrate(ValueType target) {
+        ValueType source = databaseService.getValueType();
+        if (source == target) {
+            log.info("Sample values are already stored as {}", target.getSqlType());
+            return;
+        }
+
+        Optional<ValueType> pending = getPendingType();
+        if (pending.isPresent() && pending.get() != target) {
+            throw new GeordiException("A migration to " + pending.get().getName() + " is in progress");
+        }
+
+        log.info("Converting sample values from {} to {}", source.getSqlType(), target.getSqlType());
+
+        if (target == ValueType.BIGINT) {
+            assignScales(source);
+        }
+        prepare(source, target);
+        convert(source, target);
+
+        log.info("All samples have been converted. Stop Geordi and finish the migration now.");
+    }
+
+    @Override
+    public void finish() {
+        ValueType target = getPendingType()
+                .orElseThrow(() -> new GeordiException("There is no migration in progress"));
+
+        try {
+            jdbi.useHandle(handle -> handle.execute("ALTER TABLE sample VALIDATE CONSTRAINT " + CONSTRAINT));
+        } catch (JdbiException ex) {
+            throw new GeordiException("Not all samples have been converted yet,"
+                    + " please run the migration again", ex);
+        }
+
+        jdbi.useTransaction(handle -> {
+            handle.execute("LOCK TABLE sample IN ACCESS EXCLUSIVE MODE");
+            handle.execute("DROP TRIGGER " + TRIGGER + " ON sample");
+            handle.execute("DROP FUNCTION " + TRIGGER + "()");
+            handle.execute("ALTER TABLE sample ALTER COLUMN " + COLUMN + " SET NOT NULL");
+            handle.execute("ALTER TABLE sample DROP CONSTRAINT " + CONSTRAINT);
+            handle.execute("ALTER TABLE sample DROP COLUMN value");
+            handle.execute("ALTER TABLE sample RENAME COLUMN " + COLUMN + " TO value");
+        });
+
+        log.info("Sample values are now stored as {}. Vacuum the sample table to reclaim the space"
+                + " of the old values.", target.getSqlType());
+    }
+
+    /**
+     * Returns the {@link ValueType} of a migration that is in progress.
+     */
+    private Optional<ValueType> getPendingType() {
+        return jdbi.withHandle(handle ->
+            handle.createQuery("SELECT data_type FROM information_schema.columns"
+                            + " WHERE table_schema = current_schema()"
+                            + " AND table_name = 'sample' AND column_name = '" + COLUMN + "'")
+                    .mapTo(String.class)
+                    .findFirst()
+                    .map(ValueType::ofColumn)
+        );
+    }
+
+    /**
+     * Sets the "Scale" option on all sensors that do not have one yet. The scale is
+     * taken from the stored samples of the sensor.
+     */
+    private void assignScales(ValueType source) {
+        jdbi.useHandle(handle -> {
+            List<SimpleEntry<Integer, String>> configs = handle
+                    .createQuery("SELECT id, config FROM sensor ORDER BY id")
+                    .map((rs, ctx) -> new SimpleEntry<>(rs.getInt("id"), rs.getString("config")))
+                    .list();
+
+            for (SimpleEntry<Integer, String> entry : configs) {
+                int id = entry.getKey();
+                JSONObject config = new JSONObject(entry.getValue());
+                if (config.has("Scale")) {
+                    continue;
+                }
+
+                Integer scale = handle.createQuery("SELECT max(scale(" + source.toNumericSql("value", "0") + "))"
+                                + " FROM sample WHERE sensor_id = :id")
+                        .bind("id", id)
+                        .mapTo(Integer.class)
+                        .findOnly();
+                if (scale == null) {
+                    log.warn("Sensor {} has no samples, please set its Scale option manually", id);
+                    continue;
+                }
+                if (scale > MAX_SCALE) {
+                    log.warn("Sensor {} has values with {} decimal places, they are rounded to {}",
+                            id, scale, MAX_SCALE);
+                    scale = MAX_SCALE;
+                }
+
+                config.put("Scale", scale);
+                handle.createUpdate("UPDATE sensor SET config = CAST(:config AS json) WHERE id = :id")
+                        .bind("config", config.toString())
+                        .bind("id", id)
+                        .execute();
+                log.info("Sensor {} is stored with scale {}", id, scale);
+            }
+        });
+    }
+
+    /**
+     * Adds the column for the converted values, the constraint that ensures that all
+     * samples are converted, and the trigger that converts new samples.
+     */
+    private void prepare(ValueType source, ValueType target) {
+        String scale = "(SELECT " + SCALE_SQL + " FROM sensor WHERE id = NEW.sensor_id)";
+        String convert = target.fromNumericSql(source.toNumericSql("NEW.value", scale), scale);
+
+        jdbi.useHandle(handle -> {
+            handle.execute("ALTER TABLE sample ADD COLUMN IF NOT EXISTS " + COLUMN + " " + target.getSqlType());
+
+            handle.execute("CREATE OR REPLACE FUNCTION " + TRIGGER + "() RETURNS trigger AS $$"
+                    + " BEGIN NEW." + COLUMN + " := " + convert + "; RETURN NEW; END"
+                    + " $$ LANGUAGE plpgsql");
+            handle.execute("DROP TRIGGER IF EXISTS " + TRIGGER + " ON sample");
+            handle.execute("CREATE TRIGGER " + TRIGGER + " BEFORE INSERT OR UPDATE OF value ON sample"
+                    + " FOR EACH ROW EXECUTE PROCEDURE " + TRIGGER + "()");
+
+            int constraints = handle.createQuery("SELECT count(*) FROM pg_constraint"
+                            + " WHERE conrelid = 'sample'::regclass AND conname = '" + CONSTRAINT + "'")
+                    .mapTo(Integer.class)
+                    .findOnly();
+            if (constraints == 0) {
+                handle.execute("ALTER TABLE sample ADD CONSTRAINT " + CONSTRAINT
+                        + " CHECK (" + COLUMN + " IS NOT NULL) NOT VALID");
+            }
+        });
+    }
+
+    /**
+     * Converts all samples that have not been converted yet. The statements are
+     * executed in auto-commit mode, so each chunk is committed separately.
+     */
+    private void convert(ValueType source, ValueType target) {
+        try (Handle handle = jdbi.open()) {
+            long estimate = handle.createQuery("SELECT reltuples::bigint FROM pg_class"
+                            + " WHERE oid = 'sample'::regclass")
+                    .mapTo(Long.class)
+                    .findOnly();
+
+            List<SensorScale> sensors = handle.createQuery("SELECT id, " + SCALE_SQL + " AS scale"
+                            + " FROM sensor ORDER BY id")
+                    .map((rs, ctx) -> new SensorScale(rs.getInt("id"), rs.getInt("scale")))
+                    .list();
+
+            long start = System.nanoTime();
+            long lastReport = start;
+            long converted = 0L;
+
+            for (SensorScale sensor : sensors) {
+                String scale = Integer.toString(sensor.scale);
+                String convert = target.fromNumericSql(source.toNumericSql("value", scale), scale);
+
+                Timestamp from = handle.createQuery("SELECT min(time) FROM sample WHERE sensor_id = :id")
+                        .bind("id", sensor.id)
+                        .map((rs, ctx) -> rs.getTimestamp(1))
+                        .findOnly();
+
+                while (from != null) {
+                    Timestamp next = handle.createQuery("SELECT time FROM sample"
+                                    + " WHERE sensor_id = :id AND time >= :from"
+                                    + " ORDER BY time OFFSET :chunk LIMIT 1")
+                            .bind("id", sensor.id)
+                            .bind("from", from)
+                            .bind("chunk", CHUNK_SIZE)
+                            .map((rs, ctx) -> rs.getTimestamp(1))
+                            .findFirst()
+                            .orElse(null);
+
+                    Update update = handle.createUpdate("UPDATE sample SET " + COLUMN + " = " + convert
+                                    + " WHERE sensor_id = :id AND time >= :from"
+                                    + (next != null ? " AND time < :next" : "")
+                                    + " AND " + COLUMN + " IS NULL")
+                            .bind("id", sensor.id)
+                            .bind("from", from);
+                    if (next != null) {
+                        update.bind("next", next);
+                    }
+                    converted += update.execute();
+                    from = next;
+
+                    long now = System.nanoTime();
+                    if (now - lastReport >= REPORT_INTERVAL) {
+                        log.info("Converted {} of about {} samples ({} samples/s)", converted, estimate,
+                                converted * 1_000_000_000L / (now - start));
+                        lastReport = now;
+                    }
+                }
+            }
+
+            log.info("Converted {} samples", converted);
+        }
+    }
+
+    /**
+     * A sensor and the scale of its values.
+     */
+    private static class SensorScale {
+        private final int id;
+        private final int scale;
+
+        public SensorScale(int id, int scale) {
+            this.id = id;
+            this.scale = scale;
+        }
+    }
+
+}
@@ -0,0 +1,144 @@
+/*
+ * geordi
+ *
+ * Copyright (C) 2020 Richard "Shred" Körber
+ *   https://codeberg.org/shred/geordi
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.
+ */
+package org.shredzone.geordi.util;
+
+import static java.nio.charset.StandardCharsets.UTF_8;
+
+import java.math.BigDecimal;
+import java.nio.ByteBuffer;
+
+/**
+ * Utility methods for parsing numbers directly from a {@link ByteBuffer}, without
+ * creating intermediate strings.
+ */
+public final class ByteDecimals {
+
+    private ByteDecimals() {
+        // utility class without constructor
+    }
+
+    /**
+     * Parses a decimal number, with optional sign, fraction and exponent.
+     *
+     * @param buf
+     *            {@link ByteBuffer} containing the number
+     * @param start
+     *            Start position of the number
+     * @param end
+     *            End position of the number, exclusive
+     * @return Value, or {@code null} if the number was invalid
+     */
+    public static BigDecimal parseDecimal(ByteBuffer buf, int start, int end) {
+        if (start >= end) {
+            return null;
+        }
+
+        int pos = start;
+        boolean negative = false;
+        if (buf.get(pos) == '-' || buf.get(pos) == '+') {
+            negative = buf.get(pos) == '-';
+            pos++;
+        }
+
+        long unscaled = 0L;
+        int scale = 0;
+        int digits = 0;
+        boolean fraction = false;
+        for (; pos < end; pos++) {
+            byte b = buf.get(pos);
+            if (b >= '0' && b <= '9') {
+                if (++digits > 18) {
+                    return parseSlow(buf, start, end);
+                }
+                unscaled = unscaled * 10L + (b - '0');
+                if (fraction) {
+                    scale++;
+                }
+            } else if (b == '.' && !fraction) {
+                fraction = true;
+            } else if ((b == 'e' || b == 'E') && digits > 0) {
+                long exp = parseLong(buf, pos + 1, end);
+                if (exp == Long.MIN_VALUE || Math.abs(exp) > 1000L) {
+                    return null;
+                }
+                scale -= (int) exp;
+                break;
+            } else {
+                return null;
+            }
+        }
+
+        if (digits == 0) {
+            return null;
+        }
+
+        return BigDecimal.valueOf(negative ? -unscaled : unscaled, scale);
+    }
+
+    /**
+     * Parses a signed long integer.
+     *
+     * @param buf
+     *            {@link ByteBuffer} containing the number
+     * @param start
+     *            Start position of the number
+     * @param end
+     *            End position of the number, exclusive
+     * @return Value, or {@link Long#MIN_VALUE} if the number was invalid
+     */
+    public static long parseLong(ByteBuffer buf, int start, int end) {
+        if (start >= end) {
+            return Long.MIN_VALUE;
+        }
+
+        int pos = start;
+        boolean negative = false;
+        if (buf.get(pos) == '-' || buf.get(pos) == '+') {
+            negative = buf.get(pos) == '-';
+            pos++;
+        }
+
+        if (pos >= end) {
+            return Long.MIN_VALUE;
+        }
+
+        long result = 0L;
+        for (; pos < end; pos++) {
+            byte b = buf.get(pos);
+            if (b < '0' || b > '9' || result > (Long.MAX_VALUE - (b - '0')) / 10L) {
+                return Long.MIN_VALUE;
+            }
+            result = result * 10L + (b - '0');
+        }
+        return negative ? -result : result;
+    }
+
+    /**
+     * Parses numbers with more than 18 digits.
+     */
+    private static BigDecimal parseSlow(ByteBuffer buf, int start, int end) {
+        byte[] bytes = new byte[end - start];
+        for (int ix = 0; ix < bytes.length; ix++) {
+            bytes[ix] = buf.get(start + ix);
+        }
+        try {
+            return new BigDecimal(new String(bytes, UTF_8));
+        } catch (NumberFormatException ex) {
+            return null;
+        }
+    }
+
+}
@@ -0,0 +1,341 @@
+/*
+ * geordi
+ *
+ * Copyright (C) 2020 Richard "Shred" Körber
+ *   https://codeberg.org/shred/geordi
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.
+ */
+package org.shredzone.geordi.util;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.Reader;
+import java.math.BigDecimal;
+
+/**
+ * A lenient streaming JSON pull parser. It reads the JSON document token by token,
+ * without building a tree structure. Values that are not needed can be skipped without
+ * decoding them.
+ * <p>
+ * Numbers are converted to {@link BigDecimal} directly from the input buffer, without
+ * creating intermediate strings.
+ * <p>
+ * The parser does not validate the document structure. Commas and colons are treated
+ * as whitespace.
+ */
+public class JsonReader implements Closeable {
+
+    /**
+     * The types of JSON tokens.
+     */
+    public enum Token {
+        BEGIN_OBJECT, END_OBJECT, BEGIN_ARRAY, END_ARRAY, STRING, NUMBER, BOOLEAN, NULL,
+        END_DOCUMENT
+    }
+
+    private final Reader in;
+    private final char[] buffer = new char[8192];
+    private int pos = 0;
+    private int limit = 0;
+
+    private Token peeked = null;
+    private char[] value = new char[64];
+    private int valueLength = 0;
+    private boolean booleanValue;
+
+    /**
+     * Creates a new {@link JsonReader}.
+     *
+     * @param in
+     *         {@link Reader} to read the JSON document from
+     */
+    public JsonReader(Reader in) {
+        this.in = in;
+    }
+
+    /**
+     * Returns the type of the next token, without consuming it.
+     */
+    public Token peek() throws IOException {
+        if (peeked == null) {
+            peeked = readToken();
+        }
+        return peeked;
+    }
+
+    /**
+     * Consumes the beginning of an object.
+     */
+    public void beginObject() throws IOException {
+        expect(Token.BEGIN_OBJECT);
+    }
+
+    /**
+     * Consumes the end of an object.
+     */
+    public void endObject() throws IOException {
+        expect(Token.END_OBJECT);
+    }
+
+    /**
+     * Consumes the beginning of an array.
+     */
+    public void beginArray() throws IOException {
+        expect(Token.BEGIN_ARRAY);
+    }
+
+    /**
+     * Consumes the end of an array.
+     */
+    public void endArray() throws IOException {
+        expect(Token.END_ARRAY);
+    }
+
+    /**
+     * Checks if the current object or array has more elements.
+     */
+    public boolean hasNext() throws IOException {
+        Token token = peek();
+        return token != Token.END_OBJECT && token != Token.END_ARRAY && token != Token.END_DOCUMENT;
+    }
+
+    /**
+     * Consumes the name of the next object property.
+     */
+    public String nextName() throws IOException {
+        return nextString();
+    }
+
+    /**
+     * Consumes the next value as string. Numbers and booleans are converted to their
+     * string representation.
+     *
+     * @return String, or {@code null} if the value was {@code null}
+     */
+    public String nextString() throws IOException {
+        Token token = peek();
+        peeked = null;
+        switch (token) {
+            case STRING:
+            case NUMBER:
+                return new String(value, 0, valueLength);
+
+            case BOOLEAN:
+                return String.valueOf(booleanValue);
+
+            case NULL:
+                return null;
+
+            default:
+                throw new IOException("Expected a string, but found " + token);
+        }
+    }
+
+    /**
+     * Consumes the next value as decimal. Strings are converted if they contain a
+     * number.
+     *
+     * @return {@link BigDecimal}, or {@code null} if the value was {@code null}, a
+     * boolean, a string not containing a number, an object or an array
+     */
+    public BigDecimal nextDecimal() throws IOException {
+        Token token = peek();
+        if (token == Token.NUMBER || token == Token.STRING) {
+            peeked = null;
+            try {
+                return new BigDecimal(value, 0, valueLength);
+            } catch (NumberFormatException ex) {
+                return null;
+            }
+        }
+
+        skipValue();
+        return null;
+    }
+
+    /**
+     * Consumes the next value as long integer.
+     */
+    public long nextLong() throws IOException {
+        BigDecimal result = nextDecimal();
+        if (result == null) {
+            throw new IOException("Expected a number");
+        }
+        return result.longValue();
+    }
+
+    /**
+     * Skips the next value. If it is an object or an array, all its content is skipped.
+     */
+    public void skipValue() throws IOException {
+        int depth = 0;
+        do {
+            Token token = peek();
+            peeked = null;
+            if (token == Token.BEGIN_OBJECT || token == Token.BEGIN_ARRAY) {
+                depth++;
+            } else if (token == Token.END_OBJECT || token == Token.END_ARRAY) {
+                depth--;
+            } else if (token == Token.END_DOCUMENT) {
+                throw new IOException("Unexpected end of document");
+            }
+        } while (depth > 0);
+    }
+
+    @Override
+    public void close() throws IOException {
+        in.close();
+    }
+
+    /**
+     * Consumes the next token, and makes sure it is of the expected type.
+     */
+    private void expect(Token expected) throws IOException {
+        Token token = peek();
+        if (token != expected) {
+            throw new IOException("Expected " + expected + ", but found " + token);
+        }
+        peeked = null;
+    }
+
+    /**
+     * Reads the next token from the input.
+     */
+    private Token readToken() throws IOException {
+        int ch;
+        do {
+            ch = read();
+        } while (ch == ' ' || ch == '\t' || ch == '\r' || ch == '\n' || ch == ',' || ch == ':');
+
+        switch (ch) {
+            case -1:  return Token.END_DOCUMENT;
+            case '{': return Token.BEGIN_OBJECT;
+            case '}': return Token.END_OBJECT;
+            case '[': return Token.BEGIN_ARRAY;
+            case ']': return Token.END_ARRAY;
+            case '"': readString(); return Token.STRING;
+            default:  return readLiteral((char) ch);
+        }
+    }
+
+    /**
+     * Reads a string into the value buffer, resolving all escape sequences.
+     */
+    private void readString() throws IOException {
+        valueLength = 0;
+        while (true) {
+            int ch = read();
+            if (ch == -1) {
+                throw new IOException("Unterminated string");
+            } else if (ch == '"') {
+                return;
+            } else if (ch == '\\') {
+                ch = read();
+                switch (ch) {
+                    case 'b': append('\b'); break;
+                    case 'f': append('\f'); break;
+                    case 'n': append('\n'); break;
+                    case 'r': append('\r'); break;
+                    case 't': append('\t'); break;
+                    case 'u': {
+                        int code = 0;
+                        for (int ix = 0; ix < 4; ix++) {
+                            int digit = Character.digit(read(), 16);
+                            if (digit < 0) {
+                                throw new IOException("Bad unicode escape");
+                            }
+                            code = (code << 4) | digit;
+                        }
+                        append((char) code);
+                        break;
+                    }
+                    case -1: throw new IOException("Unterminated string");
+                    default: append((char) ch);
+                }
+            } else {
+                append((char) ch);
+            }
+        }
+    }
+
+    /**
+     * Reads a literal (number, boolean, null) into the value buffer.
+     */
+    private Token readLiteral(char first) throws IOException {
+        valueLength = 0;
+        append(first);
+        while (true) {
+            if (pos == limit && !fill()) {
+                break;
+            }
+            char ch = buffer[pos];
+            if (ch == ',' || ch == ':' || ch == '}' || ch == ']' || ch == ' '
+                    || ch == '\t' || ch == '\r' || ch == '\n') {
+                break;
+            }
+            append(ch);
+            pos++;
+        }
+
+        if (isLiteral("true")) {
+            booleanValue = true;
+            return Token.BOOLEAN;
+        } else if (isLiteral("false")) {
+            booleanValue = false;
+            return Token.BOOLEAN;
+        } else if (isLiteral("null")) {
+            return Token.NULL;
+        } else if (first == '-' || (first >= '0' && first <= '9')) {
+            return Token.NUMBER;
+        }
+
+        throw new IOException("Unexpected literal: " + new String(value, 0, valueLength));
+    }
+
+    private boolean isLiteral(String literal) {
+        if (valueLength != literal.length()) {
+            return false;
+        }
+        for (int ix = 0; ix < valueLength; ix++) {
+            if (value[ix] != literal.charAt(ix)) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private void append(char ch) {
+        if (valueLength == value.length) {
+            char[] newValue = new char[value.length * 2];
+            System.arraycopy(value, 0, newValue, 0, valueLength);
+            value = newValue;
+        }
+        value[valueLength++] = ch;
+    }
+
+    private int read() throws IOException {
+        if (pos == limit && !fill()) {
+            return -1;
+        }
+        return buffer[pos++];
+    }
+
+    private boolean fill() throws IOException {
+        int len = in.read(buffer, 0, buffer.length);
+        if (len <= 0) {
+            return false;
+        }
+        pos = 0;
+        limit = len;
+        return true;
+    }
+
+}
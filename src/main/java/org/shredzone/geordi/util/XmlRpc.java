@@ -0,0 +1,346 @@
+/*
+ * geordi
+ *
+ * Copyright (C) 2020 Richard "Shred" Körber
+ *   https://codeberg.org/shred/geordi
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.
+ */
+package org.shredzone.geordi.util;
+
+import static java.nio.charset.StandardCharsets.UTF_8;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.math.BigDecimal;
+import java.net.HttpURLConnection;
+import java.net.URL;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+import javax.xml.stream.XMLInputFactory;
+import javax.xml.stream.XMLStreamConstants;
+import javax.xml.stream.XMLStreamException;
+import javax.xml.stream.XMLStreamReader;
+
+/**
+ * A minimal XML-RPC implementation, as it is used by the Homematic CCU.
+ * <p>
+ * Values are mapped to {@link String}, {@link Integer}, {@link Long}, {@link Boolean},
+ * {@link BigDecimal} (for doubles), {@link List} (for arrays) and {@link Map} (for
+ * structs). All other types are mapped to their {@link String} representation.
+ * <p>
+ * Requests and responses are always written in UTF-8, and the encoding is declared in
+ * the XML prolog.
+ */
+public final class XmlRpc {
+
+    private static final String PROLOG = "<?xml version=\"1.0\" encoding=\"UTF-8\"?>";
+    private static final String CONTENT_TYPE = "text/xml; charset=UTF-8";
+
+    private static final XMLInputFactory XML_INPUT_FACTORY = XMLInputFactory.newInstance();
+    static {
+        XML_INPUT_FACTORY.setProperty(XMLInputFactory.SUPPORT_DTD, false);
+        XML_INPUT_FACTORY.setProperty(XMLInputFactory.IS_SUPPORTING_EXTERNAL_ENTITIES, false);
+    }
+
+    private XmlRpc() {
+        // utility class without constructor
+    }
+
+    /**
+     * A parsed XML-RPC method call.
+     */
+    public static class MethodCall {
+        private final String methodName;
+        private final List<Object> params;
+
+        public MethodCall(String methodName, List<Object> params) {
+            this.methodName = methodName;
+            this.params = Collections.unmodifiableList(params);
+        }
+
+        /**
+         * Returns the name of the invoked method.
+         */
+        public String getMethodName() {
+            return methodName;
+        }
+
+        /**
+         * Returns the parameters of the method call.
+         */
+        public List<Object> getParams() {
+            return params;
+        }
+    }
+
+    /**
+     * Parses an XML-RPC method call.
+     *
+     * @param in
+     *         {@link InputStream} of the request body
+     * @return Parsed {@link MethodCall}
+     */
+    public static MethodCall parseCall(InputStream in) throws XMLStreamException {
+        XMLStreamReader reader = XML_INPUT_FACTORY.createXMLStreamReader(in);
+        try {
+            String methodName = null;
+            List<Object> params = new ArrayList<>();
+
+            while (reader.hasNext()) {
+                if (reader.next() == XMLStreamConstants.START_ELEMENT) {
+                    if ("methodName".equals(reader.getLocalName())) {
+                        methodName = reader.getElementText().trim();
+                    } else if ("value".equals(reader.getLocalName())) {
+                        params.add(parseValue(reader));
+                    }
+                }
+            }
+
+            if (methodName == null) {
+                throw new XMLStreamException("No methodName in XML-RPC call");
+            }
+
+            return new MethodCall(methodName, params);
+        } finally {
+            reader.close();
+        }
+    }
+
+    /**
+     * Invokes a method on an XML-RPC server.
+     *
+     * @param url
+     *         {@link URL} of the XML-RPC server
+     * @param methodName
+     *         Name of the method to invoke
+     * @param params
+     *         Method parameters
+     * @throws IOException
+     *         if the server could not be reached, or returned a fault
+     */
+    public static void call(URL url, String methodName, Object... params) throws IOException {
+        StringBuilder sb = new StringBuilder();
+        sb.append(PROLOG).append("<methodCall><methodName>");
+        escape(sb, methodName);
+        sb.append("</methodName><params>");
+        for (Object param : params) {
+            sb.append("<param>");
+            writeValue(sb, param);
+            sb.append("</param>");
+        }
+        sb.append("</params></methodCall>");
+
+        HttpURLConnection conn = (HttpURLConnection) url.openConnection();
+        conn.setRequestMethod("POST");
+        conn.setRequestProperty("Content-Type", CONTENT_TYPE);
+        conn.setDoOutput(true);
+        try (OutputStream out = conn.getOutputStream()) {
+            out.write(sb.toString().getBytes(UTF_8));
+        }
+
+        try (InputStream in = conn.getInputStream()) {
+            checkFault(in);
+        } catch (XMLStreamException ex) {
+            throw new IOException("Bad XML-RPC response", ex);
+        }
+    }
+
+    /**
+     * Returns the content type of XML-RPC requests and responses.
+     */
+    public static String getContentType() {
+        return CONTENT_TYPE;
+    }
+
+    /**
+     * Writes an XML-RPC method response.
+     *
+     * @param out
+     *         {@link OutputStream} to write the response to
+     * @param value
+     *         Value to return
+     */
+    public static void writeResponse(OutputStream out, Object value) throws IOException {
+        StringBuilder sb = new StringBuilder();
+        sb.append(PROLOG).append("<methodResponse><params><param>");
+        writeValue(sb, value);
+        sb.append("</param></params></methodResponse>");
+        out.write(sb.toString().getBytes(UTF_8));
+    }
+
+    /**
+     * Parses a value. The reader is positioned at the start of the {@code value}
+     * element, and is positioned at its end afterwards.
+     */
+    private static Object parseValue(XMLStreamReader reader) throws XMLStreamException {
+        StringBuilder text = new StringBuilder();
+        Object result = null;
+
+        while (reader.hasNext()) {
+            int event = reader.next();
+            if (event == XMLStreamConstants.CHARACTERS || event == XMLStreamConstants.CDATA) {
+                text.append(reader.getText());
+            } else if (event == XMLStreamConstants.START_ELEMENT) {
+                result = parseTyped(reader);
+            } else if (event == XMLStreamConstants.END_ELEMENT) {
+                break;
+            }
+        }
+
+        return result != null ? result : text.toString();
+    }
+
+    /**
+     * Parses a typed value. The reader is positioned at the start of the type element,
+     * and is positioned at its end afterwards.
+     */
+    private static Object parseTyped(XMLStreamReader reader) throws XMLStreamException {
+        switch (reader.getLocalName()) {
+            case "i4":
+            case "int":
+                return Integer.valueOf(reader.getElementText().trim());
+
+            case "i8":
+                return Long.valueOf(reader.getElementText().trim());
+
+            case "double":
+                return new BigDecimal(reader.getElementText().trim());
+
+            case "boolean":
+                return "1".equals(reader.getElementText().trim());
+
+            case "array": {
+                List<Object> result = new ArrayList<>();
+                int depth = 1;
+                while (depth > 0) {
+                    int event = reader.next();
+                    if (event == XMLStreamConstants.START_ELEMENT) {
+                        if ("value".equals(reader.getLocalName())) {
+                            result.add(parseValue(reader));
+                        } else {
+                            depth++;
+                        }
+                    } else if (event == XMLStreamConstants.END_ELEMENT) {
+                        depth--;
+                    }
+                }
+                return result;
+            }
+
+            case "struct": {
+                Map<String, Object> result = new LinkedHashMap<>();
+                String name = null;
+                int depth = 1;
+                while (depth > 0) {
+                    int event = reader.next();
+                    if (event == XMLStreamConstants.START_ELEMENT) {
+                        if ("name".equals(reader.getLocalName())) {
+                            name = reader.getElementText().trim();
+                        } else if ("value".equals(reader.getLocalName())) {
+                            result.put(name, parseValue(reader));
+                        } else {
+                            depth++;
+                        }
+                    } else if (event == XMLStreamConstants.END_ELEMENT) {
+                        depth--;
+                    }
+                }
+                return result;
+            }
+
+            default:
+                return reader.getElementText();
+        }
+    }
+
+    /**
+     * Checks if an XML-RPC response is a fault.
+     */
+    private static void checkFault(InputStream in) throws XMLStreamException, IOException {
+        XMLStreamReader reader = XML_INPUT_FACTORY.createXMLStreamReader(in);
+        try {
+            boolean fault = false;
+            while (reader.hasNext()) {
+                if (reader.next() == XMLStreamConstants.START_ELEMENT) {
+                    if ("fault".equals(reader.getLocalName())) {
+                        fault = true;
+                    } else if (fault && "value".equals(reader.getLocalName())) {
+                        Object value = parseValue(reader);
+                        if (value instanceof Map) {
+                            value = ((Map<?, ?>) value).get("faultString");
+                        }
+                        throw new IOException("XML-RPC fault: " + value);
+                    }
+                }
+            }
+        } finally {
+            reader.close();
+        }
+    }
+
+    /**
+     * Writes a value.
+     */
+    private static void writeValue(StringBuilder sb, Object value) {
+        sb.append("<value>");
+        if (value instanceof Boolean) {
+            sb.append("<boolean>").append((Boolean) value ? '1' : '0').append("</boolean>");
+        } else if (value instanceof Integer || value instanceof Short || value instanceof Byte) {
+            sb.append("<i4>").append(value).append("</i4>");
+        } else if (value instanceof Long) {
+            sb.append("<i8>").append(value).append("</i8>");
+        } else if (value instanceof Number) {
+            sb.append("<double>").append(value).append("</double>");
+        } else if (value instanceof List) {
+            sb.append("<array><data>");
+            for (Object item : (List<?>) value) {
+                writeValue(sb, item);
+            }
+            sb.append("</data></array>");
+        } else if (value instanceof Map) {
+            sb.append("<struct>");
+            for (Map.Entry<?, ?> member : ((Map<?, ?>) value).entrySet()) {
+                sb.append("<member><name>");
+                escape(sb, String.valueOf(member.getKey()));
+                sb.append("</name>");
+                writeValue(sb, member.getValue());
+                sb.append("</member>");
+            }
+            sb.append("</struct>");
+        } else {
+            sb.append("<string>");
+            escape(sb, value != null ? value.toString() : "");
+            sb.append("</string>");
+        }
+        sb.append("</value>");
+    }
+
+    /**
+     * Escapes a string for XML.
+     */
+    private static void escape(StringBuilder sb, String str) {
+        for (int ix = 0; ix < str.length(); ix++) {
+            char ch = str.charAt(ix);
+            switch (ch) {
+                case '<': sb.append("&lt;"); break;
+                case '>': sb.append("&gt;"); break;
+                case '&': sb.append("&amp;"); break;
+                default: sb.append(ch);
+            }
+        }
+    }
+
+}
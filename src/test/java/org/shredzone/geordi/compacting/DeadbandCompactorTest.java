@@ -0,0 +1,129 @@
+/*
+ * geordi
+ *
+ * Copyright (C) 2020 Richard "Shred" Körber
+ *   https://codeberg.org/shred/geordi
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.
+ */
+package org.shredzone.geordi.compacting;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.math.BigDecimal;
+import java.time.Instant;
+
+import org.junit.jupiter.api.Test;
+import org.shredzone.geordi.data.Sample;
+import org.shredzone.geordi.sensor.Sensor;
+
+/**
+ * Unit tests for {@link DeadbandCompactor}.
+ */
+public class DeadbandCompactorTest {
+
+    private final Sensor sensor = new Sensor();
+
+    /**
+     * Test that no sample is unchanged as long as nothing was stored.
+     */
+    @Test
+    public void testNothingStored() {
+        DeadbandCompactor compactor = new DeadbandCompactor(BigDecimal.ONE, BigDecimal.ZERO);
+        assertFalse(compactor.isUnchanged(sample(0, "20")));
+        assertNull(compactor.getLastUnchanged());
+    }
+
+    /**
+     * Test that with a tolerance of zero, only equal values are unchanged.
+     */
+    @Test
+    public void testZeroTolerance() {
+        DeadbandCompactor compactor = new DeadbandCompactor(BigDecimal.ZERO, BigDecimal.ZERO);
+        compactor.setStored(sample(0, "20.0"));
+
+        assertTrue(compactor.isUnchanged(sample(1, "20.00")));
+        assertFalse(compactor.isUnchanged(sample(2, "20.01")));
+        assertFalse(compactor.isUnchanged(sample(3, "19.99")));
+    }
+
+    /**
+     * Test the deadband with an absolute tolerance.
+     */
+    @Test
+    public void testAbsoluteTolerance() {
+        DeadbandCompactor compactor = new DeadbandCompactor(new BigDecimal("-0.5"), BigDecimal.ZERO);
+        compactor.setStored(sample(0, "20.0"));
+
+        assertTrue(compactor.isUnchanged(sample(1, "20.4")));
+        assertTrue(compactor.isUnchanged(sample(2, "19.5")));
+        assertTrue(compactor.isUnchanged(sample(3, "20.5")));
+        assertFalse(compactor.isUnchanged(sample(4, "20.51")));
+        assertFalse(compactor.isUnchanged(sample(5, "19.4")));
+    }
+
+    /**
+     * Test the deadband with a relative tolerance, and that the larger one of both
+     * tolerances is used.
+     */
+    @Test
+    public void testRelativeTolerance() {
+        DeadbandCompactor compactor = new DeadbandCompactor(BigDecimal.ZERO, new BigDecimal("0.01"));
+        compactor.setStored(sample(0, "-200"));
+        assertTrue(compactor.isUnchanged(sample(1, "-202")));
+        assertTrue(compactor.isUnchanged(sample(2, "-198")));
+        assertFalse(compactor.isUnchanged(sample(3, "-202.1")));
+
+        DeadbandCompactor both = new DeadbandCompactor(BigDecimal.ONE, new BigDecimal("0.01"));
+        both.setStored(sample(0, "50"));
+        assertTrue(both.isUnchanged(sample(1, "51")));
+        assertFalse(both.isUnchanged(sample(2, "51.1")));
+
+        both.setStored(sample(3, "500"));
+        assertTrue(both.isUnchanged(sample(4, "505")));
+        assertFalse(both.isUnchanged(sample(5, "505.1")));
+    }
+
+    /**
+     * Test that the last unchanged sample is regenerated with the stored value, and
+     * that it can be discarded.
+     */
+    @Test
+    public void testLastUnchanged() {
+        DeadbandCompactor compactor = new DeadbandCompactor(new BigDecimal("0.5"), BigDecimal.ZERO);
+        compactor.setStored(sample(0, "20.0"));
+        assertNull(compactor.getLastUnchanged());
+
+        assertTrue(compactor.isUnchanged(sample(1, "20.3")));
+        assertTrue(compactor.isUnchanged(sample(2, "19.8")));
+        assertFalse(compactor.isUnchanged(sample(3, "21.0")));
+
+        Sample last = compactor.getLastUnchanged();
+        assertEquals(Instant.ofEpochSecond(2L), last.getTimestamp());
+        assertEquals(new BigDecimal("20.0"), last.getValue());
+        assertEquals(sensor, last.getSensor());
+
+        compactor.discardUnchanged();
+        assertNull(compactor.getLastUnchanged());
+
+        assertTrue(compactor.isUnchanged(sample(4, "20.1")));
+        compactor.setStored(sample(5, "21.0"));
+        assertNull(compactor.getLastUnchanged());
+        assertFalse(compactor.isUnchanged(sample(6, "20.1")));
+    }
+
+    private Sample sample(long second, String value) {
+        return new Sample(sensor, Instant.ofEpochSecond(second), new BigDecimal(value));
+    }
+
+}
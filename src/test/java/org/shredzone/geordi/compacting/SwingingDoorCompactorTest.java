@@ -0,0 +1,147 @@
+/*
+ * geordi
+ *
+ * Copyright (C) 2020 Richard "Shred" Körber
+ *   https://codeberg.org/shred/geordi
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.
+ */
+package org.shredzone.geordi.compacting;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertSame;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.math.BigDecimal;
+import java.time.Instant;
+
+import org.junit.jupiter.api.Test;
+import org.shredzone.geordi.data.Sample;
+import org.shredzone.geordi.sensor.Sensor;
+
+/**
+ * Unit tests for {@link SwingingDoorCompactor}.
+ */
+public class SwingingDoorCompactorTest {
+
+    private final Sensor sensor = new Sensor();
+
+    /**
+     * Test that samples on a straight line are unchanged, regardless of its slope.
+     */
+    @Test
+    public void testStraightLine() {
+        SwingingDoorCompactor compactor = new SwingingDoorCompactor(new BigDecimal("0.1"), BigDecimal.ZERO);
+        compactor.setStored(sample(0, "10"));
+
+        for (int ix = 1; ix <= 100; ix++) {
+            assertTrue(compactor.isUnchanged(sample(ix, String.valueOf(10 + ix * 3))));
+        }
+        assertEquals(new BigDecimal("310"), compactor.getLastUnchanged().getValue());
+    }
+
+    /**
+     * Test that the door closes after a sample violated the narrowed slope range.
+     */
+    @Test
+    public void testDoorCloses() {
+        SwingingDoorCompactor compactor = new SwingingDoorCompactor(BigDecimal.ONE, BigDecimal.ZERO);
+        compactor.setStored(sample(0, "0"));
+
+        // Slopes are narrowed to [-0.5, 1.5], then to [0.5, 1.5]
+        assertTrue(compactor.isUnchanged(sample(1, "0.5")));
+        assertTrue(compactor.isUnchanged(sample(2, "2.0")));
+
+        // Slope 0.4 is below the lower door
+        assertFalse(compactor.isUnchanged(sample(3, "1.2")));
+
+        // Slope 1.6 is above the upper door
+        assertFalse(compactor.isUnchanged(sample(3, "4.8")));
+
+        // Slope 1.0 is still within the doors
+        assertTrue(compactor.isUnchanged(sample(3, "3.0")));
+    }
+
+    /**
+     * Test that the doors are reopened when a new sample was stored.
+     */
+    @Test
+    public void testReset() {
+        SwingingDoorCompactor compactor = new SwingingDoorCompactor(BigDecimal.ONE, BigDecimal.ZERO);
+        compactor.setStored(sample(0, "0"));
+        assertTrue(compactor.isUnchanged(sample(1, "0")));
+        assertFalse(compactor.isUnchanged(sample(2, "5")));
+
+        compactor.setStored(sample(2, "5"));
+        assertTrue(compactor.isUnchanged(sample(3, "0")));
+        assertFalse(compactor.isUnchanged(sample(4, "0")));
+    }
+
+    /**
+     * Test that the tolerance relative to the stored value is used, if it is larger.
+     */
+    @Test
+    public void testRelativeTolerance() {
+        SwingingDoorCompactor compactor = new SwingingDoorCompactor(BigDecimal.ONE, new BigDecimal("0.1"));
+        compactor.setStored(sample(0, "100"));
+
+        // Tolerance is 10, so the slopes are narrowed to [-10, 10]
+        assertTrue(compactor.isUnchanged(sample(1, "100")));
+        assertTrue(compactor.isUnchanged(sample(2, "119")));
+        assertFalse(compactor.isUnchanged(sample(2, "121")));
+    }
+
+    /**
+     * Test that samples with the timestamp of the stored sample are only unchanged if
+     * their value is equal.
+     */
+    @Test
+    public void testSameTimestamp() {
+        SwingingDoorCompactor compactor = new SwingingDoorCompactor(BigDecimal.ONE, BigDecimal.ZERO);
+        compactor.setStored(sample(5, "10.0"));
+
+        assertTrue(compactor.isUnchanged(sample(5, "10")));
+        assertFalse(compactor.isUnchanged(sample(5, "10.5")));
+        assertFalse(compactor.isUnchanged(sample(4, "10.5")));
+    }
+
+    /**
+     * Test that the last unchanged sample is regenerated with its original value, and
+     * that it can be discarded.
+     */
+    @Test
+    public void testLastUnchanged() {
+        SwingingDoorCompactor compactor = new SwingingDoorCompactor(BigDecimal.ONE, BigDecimal.ZERO);
+        assertFalse(compactor.isUnchanged(sample(0, "0")));
+        assertNull(compactor.getLastUnchanged());
+
+        compactor.setStored(sample(0, "0"));
+        assertNull(compactor.getLastUnchanged());
+
+        Sample unchanged = sample(1, "0.5");
+        assertTrue(compactor.isUnchanged(unchanged));
+        assertFalse(compactor.isUnchanged(sample(2, "9")));
+        assertSame(unchanged, compactor.getLastUnchanged());
+
+        compactor.discardUnchanged();
+        assertNull(compactor.getLastUnchanged());
+
+        assertTrue(compactor.isUnchanged(sample(2, "1.5")));
+        compactor.setStored(sample(3, "9"));
+        assertNull(compactor.getLastUnchanged());
+    }
+
+    private Sample sample(long second, String value) {
+        return new Sample(sensor, Instant.ofEpochSecond(second), new BigDecimal(value));
+    }
+
+}
@@ -0,0 +1,156 @@
+/*
+ * geordi
+ *
+ * Copyright (C) 2020 Richard "Shred" Körber
+ *   https://codeberg.org/shred/geordi
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.
+ */
+package org.shredzone.geordi.data;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertSame;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+import java.lang.reflect.Proxy;
+import java.math.BigDecimal;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+
+import org.junit.jupiter.api.Test;
+import org.shredzone.geordi.GeordiException;
+
+/**
+ * Unit tests for {@link ValueType}.
+ */
+public class ValueTypeTest {
+
+    /**
+     * Test that types are found by their name and by their SQL type.
+     */
+    @Test
+    public void testOf() {
+        for (ValueType type : ValueType.values()) {
+            assertSame(type, ValueType.of(type.getName()));
+            assertSame(type, ValueType.ofColumn(type.getSqlType()));
+        }
+        assertSame(ValueType.DOUBLE, ValueType.of("double precision"));
+        assertThrows(IllegalArgumentException.class, () -> ValueType.of("integer"));
+        assertThrows(GeordiException.class, () -> ValueType.ofColumn("text"));
+    }
+
+    /**
+     * Test that values are converted to the bound objects.
+     */
+    @Test
+    public void testEncode() {
+        BigDecimal value = new BigDecimal("21.456");
+
+        assertEquals(value, ValueType.NUMERIC.encode(value, 0));
+        assertEquals(21.456, ValueType.DOUBLE.encode(value, 0));
+        assertEquals(21.456f, ValueType.REAL.encode(value, 0));
+        assertEquals(21L, ValueType.BIGINT.encode(value, 0));
+        assertEquals(2146L, ValueType.BIGINT.encode(value, 2));
+        assertEquals(21456000L, ValueType.BIGINT.encode(value, 6));
+        assertEquals(-2146L, ValueType.BIGINT.encode(value.negate(), 2));
+    }
+
+    /**
+     * Test that values exceeding the bigint range at the sensor's scale are rejected.
+     */
+    @Test
+    public void testEncodeBigintRange() {
+        assertEquals(Long.MAX_VALUE, ValueType.BIGINT.encode(BigDecimal.valueOf(Long.MAX_VALUE), 0));
+        assertEquals(Long.MIN_VALUE, ValueType.BIGINT.encode(BigDecimal.valueOf(Long.MIN_VALUE), 0));
+
+        assertThrows(GeordiException.class,
+                () -> ValueType.BIGINT.encode(BigDecimal.valueOf(Long.MAX_VALUE).add(BigDecimal.ONE), 0));
+        assertThrows(GeordiException.class,
+                () -> ValueType.BIGINT.encode(new BigDecimal("1e12"), 8));
+        assertEquals(100_000_000_000L, ValueType.BIGINT.encode(new BigDecimal("1e3"), 8));
+    }
+
+    /**
+     * Test that values are read from the column, and scaled back.
+     */
+    @Test
+    public void testDecode() throws SQLException {
+        ResultSet rs = resultSet(2145L);
+
+        assertEquals(new BigDecimal("2145"), ValueType.NUMERIC.decode(rs, "value", 2));
+        assertEquals(new BigDecimal("2145.0"), ValueType.DOUBLE.decode(rs, "value", 2));
+        assertEquals(new BigDecimal("2145.0"), ValueType.REAL.decode(rs, "value", 2));
+        assertEquals(new BigDecimal("21.45"), ValueType.BIGINT.decode(rs, "value", 2));
+        assertEquals(new BigDecimal("2145"), ValueType.BIGINT.decode(rs, "value", 0));
+    }
+
+    /**
+     * Test the SQL expressions that convert values to numeric.
+     */
+    @Test
+    public void testToNumericSql() {
+        assertEquals("value", ValueType.NUMERIC.toNumericSql("value", "2"));
+        assertEquals("(value)::numeric", ValueType.DOUBLE.toNumericSql("value", "2"));
+        assertEquals("(value)::numeric", ValueType.REAL.toNumericSql("value", "2"));
+        assertEquals("round((value)::numeric / power(10::numeric, 2), 2)",
+                ValueType.BIGINT.toNumericSql("value", "2"));
+    }
+
+    /**
+     * Test the SQL expressions that convert numeric values to the column type.
+     */
+    @Test
+    public void testFromNumericSql() {
+        assertEquals("value", ValueType.NUMERIC.fromNumericSql("value", "2"));
+        assertEquals("(value)::double precision", ValueType.DOUBLE.fromNumericSql("value", "2"));
+        assertEquals("(value)::real", ValueType.REAL.fromNumericSql("value", "2"));
+        assertEquals("round((value) * power(10::numeric, 2))::bigint",
+                ValueType.BIGINT.fromNumericSql("value", "2"));
+    }
+
+    /**
+     * Test the conversion expressions as they are combined by the value migration.
+     */
+    @Test
+    public void testMigrationSql() {
+        String scale = "(SELECT coalesce((config->>'Scale')::int, 0) FROM sensor WHERE id = NEW.sensor_id)";
+
+        assertEquals("round((NEW.value) * power(10::numeric, " + scale + "))::bigint",
+                ValueType.BIGINT.fromNumericSql(ValueType.NUMERIC.toNumericSql("NEW.value", scale), scale));
+
+        assertEquals("(round((value)::numeric / power(10::numeric, 3), 3))::real",
+                ValueType.REAL.fromNumericSql(ValueType.BIGINT.toNumericSql("value", "3"), "3"));
+
+        assertEquals("round(((value)::numeric) * power(10::numeric, 1))::bigint",
+                ValueType.BIGINT.fromNumericSql(ValueType.DOUBLE.toNumericSql("value", "1"), "1"));
+    }
+
+    /**
+     * Creates a {@link ResultSet} that returns the given value for all columns.
+     */
+    private static ResultSet resultSet(long value) {
+        return (ResultSet) Proxy.newProxyInstance(ValueTypeTest.class.getClassLoader(),
+                new Class<?>[] {ResultSet.class}, (proxy, method, args) -> {
+                    switch (method.getName()) {
+                        case "getLong":
+                            return value;
+                        case "getDouble":
+                            return (double) value;
+                        case "getFloat":
+                            return (float) value;
+                        case "getBigDecimal":
+                            return BigDecimal.valueOf(value);
+                        default:
+                            throw new UnsupportedOperationException(method.getName());
+                    }
+                });
+    }
+
+}
@@ -0,0 +1,293 @@
+/*
+ * geordi
+ *
+ * Copyright (C) 2020 Richard "Shred" Körber
+ *   https://codeberg.org/shred/geordi
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.
+ */
+package org.shredzone.geordi.device;
+
+import static java.nio.charset.StandardCharsets.ISO_8859_1;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.math.BigDecimal;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.CopyOnWriteArrayList;
+
+import com.google.inject.Guice;
+import com.google.inject.Injector;
+import com.sun.net.httpserver.HttpServer;
+import org.json.JSONObject;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.shredzone.geordi.data.Sample;
+import org.shredzone.geordi.service.ResponseCacheService;
+import org.shredzone.geordi.service.ResponseCacheServiceImpl;
+
+/**
+ * Unit tests for {@link Ccu2Device}, against a stand-in for the XML-API of the CCU2.
+ */
+public class Ccu2DeviceTest {
+    private static final String STATELIST = "<?xml version=\"1.0\" encoding=\"ISO-8859-1\"?>"
+            + "<stateList>"
+            + "<device name=\"Bad\" ise_id=\"100\"><channel name=\"Bad:1\" ise_id=\"101\">"
+            + "<datapoint name=\"BidCos-RF.KEQ123:1.TEMPERATURE\" type=\"TEMPERATURE\" ise_id=\"102\""
+            + " value=\"20.5\" timestamp=\"1600000000\"/>"
+            + "<datapoint name=\"BidCos-RF.KEQ123:1.HUMIDITY\" type=\"HUMIDITY\" ise_id=\"103\""
+            + " value=\"55\" timestamp=\"1600000010\"/>"
+            + "</channel></device>"
+            + "<device name=\"Küche\" ise_id=\"200\"><channel name=\"Küche:1\" ise_id=\"201\">"
+            + "<datapoint name=\"BidCos-RF.KEQ456:1.STATE\" type=\"STATE\" ise_id=\"202\""
+            + " value=\"true\" timestamp=\"1600000020\"/>"
+            + "</channel></device>"
+            + "</stateList>";
+
+    private final ResponseCacheServiceImpl responseCacheService = new ResponseCacheServiceImpl();
+    private final List<String> requests = new CopyOnWriteArrayList<>();
+
+    private Injector injector;
+    private HttpServer ccu;
+    private volatile String statelist = STATELIST;
+
+    @BeforeEach
+    public void setup() throws IOException {
+        injector = Guice.createInjector(binder ->
+                binder.bind(ResponseCacheService.class).toInstance(responseCacheService));
+
+        ccu = HttpServer.create(new InetSocketAddress(InetAddress.getLoopbackAddress(), 0), 0);
+        ccu.createContext("/addons/xmlapi/", exchange -> {
+            requests.add(exchange.getRequestURI().toString());
+            byte[] body = statelist.getBytes(ISO_8859_1);
+            exchange.sendResponseHeaders(200, body.length);
+            try (OutputStream out = exchange.getResponseBody()) {
+                out.write(body);
+            }
+        });
+        ccu.start();
+    }
+
+    @AfterEach
+    public void tearDown() {
+        ccu.stop(0);
+    }
+
+    /**
+     * Test that datapoints are found by name, by ID, and by type.
+     */
+    @Test
+    public void testReadSensors() {
+        JSONObject byName = new JSONObject();
+        byName.put("datapointName", "BidCos-RF.KEQ123:1.TEMPERATURE");
+
+        JSONObject byId = new JSONObject();
+        byId.put("deviceId", 100);
+        byId.put("channelId", 101);
+        byId.put("datapointId", 103);
+
+        JSONObject byType = new JSONObject();
+        byType.put("deviceId", 200);
+        byType.put("channelId", 201);
+        byType.put("type", "STATE");
+
+        Ccu2Device device = createDevice(config("PT1S"), byName, byId, byType);
+        List<Sample> samples = new ArrayList<>();
+        device.readSensors(samples::add);
+
+        assertEquals(3, samples.size());
+        assertSample(samples.get(0), 1, "20.5", 1600000000L);
+        assertSample(samples.get(1), 2, "55", 1600000010L);
+        assertSample(samples.get(2), 3, "1", 1600000020L);
+    }
+
+    /**
+     * Test that devices polling the same CCU2 share one fetch, and that unchanged
+     * responses are skipped.
+     */
+    @Test
+    public void testSharedResponse() {
+        JSONObject temperature = new JSONObject();
+        temperature.put("datapointName", "BidCos-RF.KEQ123:1.TEMPERATURE");
+        JSONObject state = new JSONObject();
+        state.put("datapointName", "BidCos-RF.KEQ456:1.STATE");
+
+        Ccu2Device device1 = createDevice(config("PT1M"), temperature);
+        Ccu2Device device2 = createDevice(config("PT1M"), state);
+
+        List<Sample> samples1 = new ArrayList<>();
+        List<Sample> samples2 = new ArrayList<>();
+        device1.readSensors(samples1::add);
+        device2.readSensors(samples2::add);
+
+        assertEquals(1, requests.size());
+        assertEquals(1L, responseCacheService.getSharedHitCount());
+        assertSample(samples1.get(0), 1, "20.5", 1600000000L);
+        assertSample(samples2.get(0), 1, "1", 1600000020L);
+
+        // The cached response is unchanged for device1, so the poll is skipped
+        device1.readSensors(samples1::add);
+        assertEquals(1, samples1.size());
+        assertEquals(1L, device1.getSkipCount());
+    }
+
+    /**
+     * Test that only the required datapoints are fetched if selective fetch is enabled.
+     */
+    @Test
+    public void testSelectiveFetch() {
+        statelist = "<?xml version=\"1.0\" encoding=\"ISO-8859-1\"?><state>"
+                + "<datapoint ise_id=\"103\" value=\"56\" valuetype=\"4\" timestamp=\"1600000030\"/>"
+                + "</state>";
+
+        JSONObject byId = new JSONObject();
+        byId.put("deviceId", 100);
+        byId.put("channelId", 101);
+        byId.put("datapointId", 103);
+
+        JSONObject config = config("PT1S");
+        config.put("selectiveFetch", true);
+
+        Ccu2Device device = createDevice(config, byId);
+        List<Sample> samples = new ArrayList<>();
+        device.readSensors(samples::add);
+
+        assertEquals(1, requests.size());
+        assertTrue(requests.get(0).endsWith("/state.cgi?datapoint_id=103"));
+        assertEquals(1, samples.size());
+        assertSample(samples.get(0), 1, "56", 1600000030L);
+    }
+
+    /**
+     * Test that a missing datapoint only affects its own sensor.
+     */
+    @Test
+    public void testMissingDatapoint() {
+        JSONObject missing = new JSONObject();
+        missing.put("datapointName", "BidCos-RF.MISSING:1.TEMPERATURE");
+        JSONObject temperature = new JSONObject();
+        temperature.put("datapointName", "BidCos-RF.KEQ123:1.TEMPERATURE");
+
+        Ccu2Device device = createDevice(config("PT1S"), missing, temperature);
+        List<Sample> samples = new ArrayList<>();
+        device.readSensors(samples::add);
+
+        assertEquals(1, samples.size());
+        assertSample(samples.get(0), 2, "20.5", 1600000000L);
+    }
+
+    /**
+     * Test that samples are emitted in document order, and that several sensors can
+     * refer to the same datapoint.
+     */
+    @Test
+    public void testSameDatapoint() {
+        JSONObject state = new JSONObject();
+        state.put("datapointName", "BidCos-RF.KEQ456:1.STATE");
+        JSONObject byName = new JSONObject();
+        byName.put("datapointName", "BidCos-RF.KEQ123:1.TEMPERATURE");
+        JSONObject byType = new JSONObject();
+        byType.put("deviceId", 100);
+        byType.put("channelId", 101);
+        byType.put("type", "TEMPERATURE");
+
+        Ccu2Device device = createDevice(config("PT1S"), state, byName, byType);
+        List<Sample> samples = new ArrayList<>();
+        device.readSensors(samples::add);
+
+        assertEquals(3, samples.size());
+        assertSample(samples.get(0), 2, "20.5", 1600000000L);
+        assertSample(samples.get(1), 3, "20.5", 1600000000L);
+        assertSample(samples.get(2), 1, "1", 1600000020L);
+    }
+
+    /**
+     * Test that sensors sharing a datapoint ID are all read if selective fetch is
+     * enabled.
+     */
+    @Test
+    public void testSelectiveSameDatapoint() {
+        statelist = "<?xml version=\"1.0\" encoding=\"ISO-8859-1\"?><state>"
+                + "<datapoint ise_id=\"103\" value=\"56\" valuetype=\"4\" timestamp=\"1600000030\"/>"
+                + "</state>";
+
+        JSONObject byId = new JSONObject();
+        byId.put("deviceId", 100);
+        byId.put("channelId", 101);
+        byId.put("datapointId", 103);
+
+        JSONObject otherChannel = new JSONObject();
+        otherChannel.put("deviceId", 100);
+        otherChannel.put("channelId", 102);
+        otherChannel.put("datapointId", 103);
+
+        JSONObject config = config("PT1S");
+        config.put("selectiveFetch", true);
+
+        Ccu2Device device = createDevice(config, byId, otherChannel);
+        List<Sample> samples = new ArrayList<>();
+        device.readSensors(samples::add);
+
+        assertEquals(1, requests.size());
+        assertEquals(2, samples.size());
+        assertEquals(3, samples.get(0).getSensor().getId() + samples.get(1).getSensor().getId());
+        assertSample(samples.get(0), samples.get(0).getSensor().getId(), "56", 1600000030L);
+        assertSample(samples.get(1), samples.get(1).getSensor().getId(), "56", 1600000030L);
+    }
+
+    /**
+     * Test that only the datapoints matching the requested keys are kept while
+     * parsing.
+     */
+    @Test
+    public void testParseFilter() throws IOException {
+        Set<String> keys = new HashSet<>(Arrays.asList(
+                "name:BidCos-RF.KEQ456:1.STATE",
+                "id:100/101/103",
+                "type:999/999/TEMPERATURE"));
+
+        List<Ccu2Device.Datapoint> all = Ccu2Device.parse(
+                new ByteArrayInputStream(STATELIST.getBytes(ISO_8859_1)));
+        assertEquals(3, all.size());
+
+        List<Ccu2Device.Datapoint> filtered = Ccu2Device.parse(
+                new ByteArrayInputStream(STATELIST.getBytes(ISO_8859_1)), keys);
+        assertEquals(2, filtered.size());
+    }
+
+    private JSONObject config(String cacheTtl) {
+        JSONObject config = new JSONObject();
+        config.put("host", "127.0.0.1:" + ccu.getAddress().getPort());
+        config.put("cacheTtl", cacheTtl);
+        return config;
+    }
+
+    private Ccu2Device createDevice(JSONObject config, JSONObject... sensors) {
+        return TestDevices.create(injector, Ccu2Device.class, config, sensors);
+    }
+
+    private static void assertSample(Sample sample, int sensorId, String value, long epochSecond) {
+        assertEquals(sensorId, sample.getSensor().getId());
+        assertEquals(new BigDecimal(value), sample.getValue());
+        assertEquals(Instant.ofEpochSecond(epochSecond), sample.getTimestamp());
+    }
+
+}
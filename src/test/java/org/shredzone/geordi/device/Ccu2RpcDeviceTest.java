@@ -0,0 +1,229 @@
+/*
+ * geordi
+ *
+ * Copyright (C) 2020 Richard "Shred" Körber
+ *   https://codeberg.org/shred/geordi
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.
+ */
+package org.shredzone.geordi.device;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.math.BigDecimal;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.ServerSocket;
+import java.net.URL;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CopyOnWriteArrayList;
+
+import javax.xml.stream.XMLStreamException;
+
+import com.google.inject.Guice;
+import com.google.inject.Injector;
+import com.sun.net.httpserver.HttpServer;
+import org.json.JSONObject;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.shredzone.geordi.data.Sample;
+import org.shredzone.geordi.data.SampleSink;
+import org.shredzone.geordi.service.FixedResponseCacheService;
+import org.shredzone.geordi.service.IngestService;
+import org.shredzone.geordi.service.RecordingIngestService;
+import org.shredzone.geordi.service.ResponseCacheService;
+import org.shredzone.geordi.util.XmlRpc;
+
+/**
+ * Unit tests for {@link Ccu2RpcDevice}. A stand-in for the XML-RPC interface of the CCU2
+ * records the registrations, and sends events to the device.
+ */
+public class Ccu2RpcDeviceTest {
+    private static final String INTERFACE_ID = "geordi-7-BidCos-RF";
+    private static final String STATELIST = "<?xml version=\"1.0\" encoding=\"ISO-8859-1\"?>"
+            + "<stateList><device name=\"Bad\" ise_id=\"100\"><channel name=\"Bad:1\" ise_id=\"101\">"
+            + "<datapoint name=\"BidCos-RF.KEQ123:1.TEMPERATURE\" type=\"TEMPERATURE\" ise_id=\"102\""
+            + " value=\"20.5\" timestamp=\"1600000000\"/>"
+            + "</channel></device></stateList>";
+
+    private final RecordingIngestService ingestService = new RecordingIngestService();
+    private final FixedResponseCacheService responseCacheService = new FixedResponseCacheService();
+    private final List<XmlRpc.MethodCall> calls = new CopyOnWriteArrayList<>();
+
+    private HttpServer ccu;
+    private Ccu2RpcDevice device;
+    private URL callbackUrl;
+
+    @BeforeEach
+    public void setup() throws IOException {
+        ccu = HttpServer.create(new InetSocketAddress(InetAddress.getLoopbackAddress(), 0), 0);
+        ccu.createContext("/", exchange -> {
+            try (InputStream in = exchange.getRequestBody()) {
+                calls.add(XmlRpc.parseCall(in));
+            } catch (XMLStreamException ex) {
+                throw new IOException(ex);
+            }
+            exchange.sendResponseHeaders(200, 0);
+            try (OutputStream out = exchange.getResponseBody()) {
+                XmlRpc.writeResponse(out, "");
+            }
+        });
+        ccu.start();
+
+        responseCacheService.setBody(STATELIST);
+    }
+
+    @AfterEach
+    public void tearDown() {
+        if (device != null) {
+            device.shutdown();
+        }
+        ccu.stop(0);
+    }
+
+    /**
+     * Test that the device registers, polls until events arrive, and then ingests the
+     * events.
+     */
+    @Test
+    public void testRegisterAndReceiveEvents() throws Exception {
+        createDevice("PT1H");
+
+        List<Sample> polled = new ArrayList<>();
+        device.readSensors(polled::add);
+
+        assertEquals(1, calls.size());
+        assertEquals("init", calls.get(0).getMethodName());
+        assertEquals(Arrays.asList(callbackUrl.toString(), INTERFACE_ID), calls.get(0).getParams());
+
+        // Polled values are passed to the sink of the poller
+        assertEquals(1, polled.size());
+        assertEquals(new BigDecimal("20.5"), polled.get(0).getValue());
+        assertTrue(ingestService.getSamples().isEmpty());
+
+        XmlRpc.call(callbackUrl, "event", INTERFACE_ID, "KEQ123:1", "TEMPERATURE", new BigDecimal("21.5"));
+
+        Map<String, Object> event1 = new HashMap<>();
+        event1.put("methodName", "event");
+        event1.put("params", Arrays.asList(INTERFACE_ID, "KEQ123:1", "TEMPERATURE", 22));
+        Map<String, Object> event2 = new HashMap<>();
+        event2.put("methodName", "event");
+        event2.put("params", Arrays.asList(INTERFACE_ID, "KEQ123:1", "HUMIDITY", 55));
+        XmlRpc.call(callbackUrl, "system.multicall", Arrays.asList(event1, event2));
+
+        // Events of unknown interfaces are ignored
+        XmlRpc.call(callbackUrl, "event", "unknown", "KEQ123:1", "TEMPERATURE", 99);
+
+        List<Sample> samples = ingestService.getSamples();
+        assertEquals(2, samples.size());
+        assertEquals(new BigDecimal("21.5"), samples.get(0).getValue());
+        assertEquals(new BigDecimal("22"), samples.get(1).getValue());
+        assertEquals(1, samples.get(1).getSensor().getId());
+
+        // Events are received now, so the device is not polled again
+        long fetches = responseCacheService.getFetchCount();
+        device.readSensors(polled::add);
+        assertEquals(fetches, responseCacheService.getFetchCount());
+        assertEquals(1, calls.size());
+        assertEquals(1, polled.size());
+    }
+
+    /**
+     * Test that the registration is removed on shutdown, and the event receiver is
+     * stopped.
+     */
+    @Test
+    public void testShutdownDeregisters() throws Exception {
+        createDevice("PT1H");
+        device.readSensors(sample -> {});
+
+        device.shutdown();
+
+        assertEquals(2, calls.size());
+        assertEquals("init", calls.get(1).getMethodName());
+        assertEquals(Arrays.asList(callbackUrl.toString(), ""), calls.get(1).getParams());
+
+        assertThrows(IOException.class, () -> XmlRpc.call(callbackUrl, "event",
+                INTERFACE_ID, "KEQ123:1", "TEMPERATURE", 1));
+
+        // A second shutdown has no effect
+        device.shutdown();
+        assertEquals(2, calls.size());
+    }
+
+    /**
+     * Test that events and polled values are never ingested concurrently. The poll sink
+     * stores each sample when it is accepted.
+     */
+    @Test
+    public void testIngestIsSerialized() throws Exception {
+        // Poll on every invocation, even if events are received
+        createDevice("PT0S");
+        ingestService.setDelay(20L);
+        SampleSink storingSink = sample -> ingestService.ingest(Collections.singletonList(sample));
+        device.readSensors(storingSink);
+
+        Thread poller = new Thread(() -> {
+            for (int ix = 0; ix < 10; ix++) {
+                responseCacheService.setBody(STATELIST);
+                device.readSensors(storingSink);
+            }
+        });
+        poller.start();
+
+        for (int ix = 0; ix < 10; ix++) {
+            XmlRpc.call(callbackUrl, "event", INTERFACE_ID, "KEQ123:1", "TEMPERATURE", ix);
+        }
+        poller.join();
+
+        assertEquals(21, ingestService.getSamples().size());
+        assertEquals(1, ingestService.getMaxActiveCount());
+    }
+
+    private void createDevice(String eventTimeout) throws IOException {
+        int callbackPort;
+        try (ServerSocket socket = new ServerSocket(0, 0, InetAddress.getLoopbackAddress())) {
+            callbackPort = socket.getLocalPort();
+        }
+        callbackUrl = new URL("http://127.0.0.1:" + callbackPort + "/");
+
+        JSONObject interfaces = new JSONObject();
+        interfaces.put("BidCos-RF", ccu.getAddress().getPort());
+
+        JSONObject config = new JSONObject();
+        config.put("host", "127.0.0.1");
+        config.put("callbackHost", "127.0.0.1");
+        config.put("callbackPort", callbackPort);
+        config.put("eventTimeout", eventTimeout);
+        config.put("interfaces", interfaces);
+
+        JSONObject sensor = new JSONObject();
+        sensor.put("datapointName", "BidCos-RF.KEQ123:1.TEMPERATURE");
+
+        Injector injector = Guice.createInjector(binder -> {
+            binder.bind(IngestService.class).toInstance(ingestService);
+            binder.bind(ResponseCacheService.class).toInstance(responseCacheService);
+        });
+        device = TestDevices.create(injector, Ccu2RpcDevice.class, config, sensor);
+        calls.clear();
+    }
+
+}
@@ -0,0 +1,101 @@
+/*
+ * geordi
+ *
+ * Copyright (C) 2020 Richard "Shred" Körber
+ *   https://codeberg.org/shred/geordi
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.
+ */
+package org.shredzone.geordi.device;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.math.BigDecimal;
+import java.util.List;
+
+import com.google.inject.Guice;
+import com.google.inject.Injector;
+import org.json.JSONObject;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.shredzone.geordi.data.Sample;
+import org.shredzone.geordi.service.FixedResponseCacheService;
+import org.shredzone.geordi.service.ResponseCacheService;
+
+/**
+ * Unit tests for {@link DustyDevice}.
+ */
+public class DustyDeviceTest {
+
+    private final FixedResponseCacheService responseCacheService = new FixedResponseCacheService();
+
+    private DustyDevice device;
+
+    @BeforeEach
+    public void setup() {
+        JSONObject config = new JSONObject();
+        config.put("host", "127.0.0.1");
+
+        JSONObject pm10 = new JSONObject();
+        pm10.put("value_type", "SDS_P1");
+        JSONObject pressure = new JSONObject();
+        pressure.put("value_type", "BMP_pressure");
+        pressure.put("divisor", 100);
+
+        Injector injector = Guice.createInjector(binder ->
+                binder.bind(ResponseCacheService.class).toInstance(responseCacheService));
+        device = TestDevices.create(injector, DustyDevice.class, config, pm10, pressure);
+    }
+
+    /**
+     * Test that the sensor values are read.
+     */
+    @Test
+    public void testReadSensors() {
+        responseCacheService.setBody(data(52, "12.30", "7.53"));
+
+        List<Sample> samples = device.readSensors();
+        assertEquals(2, samples.size());
+        assertEquals(new BigDecimal("12.30"), samples.get(0).getValue());
+        assertEquals(new BigDecimal("993.1247"), samples.get(1).getValue());
+        assertEquals(samples.get(0).getTimestamp(), samples.get(1).getTimestamp());
+    }
+
+    /**
+     * Test that a poll is skipped if the same measurement is read again, even though
+     * the "age" has changed, and that unused values are ignored.
+     */
+    @Test
+    public void testSameMeasurementIsSkipped() throws Exception {
+        responseCacheService.setBody(data(52, "12.30", "7.53"));
+        assertEquals(2, device.readSensors().size());
+
+        Thread.sleep(1000L);
+        responseCacheService.setBody(data(53, "12.30", "8.00"));
+        assertTrue(device.readSensors().isEmpty());
+        assertEquals(1L, device.getSkipCount());
+
+        // A new measurement with a new value is read
+        responseCacheService.setBody(data(0, "13.00", "8.00"));
+        assertEquals(2, device.readSensors().size());
+        assertEquals(1L, device.getSkipCount());
+        assertEquals(3L, device.getPollCount());
+    }
+
+    private static String data(int age, String pm10, String pm25) {
+        return "{\"software_version\": \"NRZ-2020-129\", \"age\":\"" + age + "\", \"sensordatavalues\":["
+                + "{\"value_type\":\"SDS_P1\",\"value\":\"" + pm10 + "\"},"
+                + "{\"value_type\":\"SDS_P2\",\"value\":\"" + pm25 + "\"},"
+                + "{\"value_type\":\"BMP_pressure\",\"value\":\"99312.47\"}"
+                + "]}";
+    }
+
+}
@@ -0,0 +1,209 @@
+/*
+ * geordi
+ *
+ * Copyright (C) 2020 Richard "Shred" Körber
+ *   https://codeberg.org/shred/geordi
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.
+ */
+package org.shredzone.geordi.device;
+
+import static java.util.stream.Collectors.toList;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.io.IOException;
+import java.math.BigDecimal;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.function.BooleanSupplier;
+
+import com.google.inject.Guice;
+import com.google.inject.Injector;
+import org.json.JSONObject;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.shredzone.geordi.GeordiException;
+import org.shredzone.geordi.data.Sample;
+import org.shredzone.geordi.service.IngestService;
+import org.shredzone.geordi.service.RecordingIngestService;
+
+/**
+ * Unit tests for {@link KaminariDevice}, running against a {@link KaminariStandIn}.
+ */
+public class KaminariDeviceTest {
+    private static final String APIKEY = "s3cr3t";
+
+    private final RecordingIngestService ingestService = new RecordingIngestService();
+
+    private KaminariStandIn kaminari;
+    private KaminariDevice device;
+
+    @BeforeEach
+    public void setup() throws IOException {
+        kaminari = new KaminariStandIn(APIKEY);
+    }
+
+    @AfterEach
+    public void tearDown() {
+        if (device != null) {
+            device.shutdown();
+        }
+        kaminari.close();
+    }
+
+    /**
+     * Test that polling reads the lightnings and generic values, and clears the
+     * lightnings.
+     */
+    @Test
+    public void testPolling() {
+        createDevice(false);
+        kaminari.strike(1200L, 14L);
+        kaminari.strike(300L, 27L);
+
+        List<Sample> samples = new ArrayList<>();
+        device.readSensors(samples::add);
+
+        assertEquals(Arrays.asList(
+                new BigDecimal("1200"), new BigDecimal("14"),
+                new BigDecimal("300"), new BigDecimal("27"),
+                new BigDecimal("95")),
+                samples.stream().map(Sample::getValue).collect(toList()));
+        assertEquals(Arrays.asList("/status", "/clear"), kaminari.getRequests());
+        assertTrue(kaminari.getPending().isEmpty());
+    }
+
+    /**
+     * Test that streamed lightnings are stored, and only then cleared up to their
+     * sequence number.
+     */
+    @Test
+    public void testStreaming() throws Exception {
+        createDevice(true);
+        long seq1 = kaminari.strike(1200L, 14L);
+
+        // The poll only reads the generic values
+        List<Sample> samples = new ArrayList<>();
+        device.readSensors(samples::add);
+        assertEquals(1, samples.size());
+        assertEquals(new BigDecimal("95"), samples.get(0).getValue());
+
+        assertTrue(ingestService.awaitSamples(2, 5000L));
+        assertTrue(await(() -> kaminari.getPending().isEmpty()));
+        assertTrue(kaminari.getRequests().contains("/status?wait=1"));
+        assertTrue(kaminari.getRequests().contains("/clear?upto=" + seq1));
+
+        // A lightning that is detected later is delivered by the long poll
+        long seq2 = kaminari.strike(300L, 27L);
+        assertTrue(ingestService.awaitSamples(4, 5000L));
+        assertTrue(await(() -> kaminari.getRequests().contains("/clear?upto=" + seq2)));
+        assertTrue(kaminari.getRequests().contains("/status?wait=1&after=" + seq1));
+
+        assertEquals(Arrays.asList(
+                new BigDecimal("1200"), new BigDecimal("14"),
+                new BigDecimal("300"), new BigDecimal("27")),
+                ingestService.getSamples().stream().map(Sample::getValue).collect(toList()));
+    }
+
+    /**
+     * Test that lightnings are not cleared if they could not be stored.
+     */
+    @Test
+    public void testUningestedEventsAreNotCleared() throws Exception {
+        createDevice(true);
+        ingestService.setFailing(true);
+        long seq = kaminari.strike(1200L, 14L);
+
+        device.readSensors(sample -> {});
+
+        assertTrue(ingestService.awaitIngestCount(1, 5000L));
+        Thread.sleep(200L);
+
+        assertTrue(ingestService.getSamples().isEmpty());
+        assertEquals(Collections.singletonList(seq), kaminari.getPending());
+        assertFalse(kaminari.getRequests().stream().anyMatch(uri -> uri.startsWith("/clear")));
+    }
+
+    /**
+     * Test that stored lightnings are not stored again if they could not be cleared, and
+     * that clearing is retried.
+     */
+    @Test
+    public void testUnclearedEventsAreNotStoredTwice() throws Exception {
+        createDevice(true);
+        kaminari.setClearFailing(true);
+        long seq = kaminari.strike(1200L, 14L);
+
+        device.readSensors(sample -> {});
+
+        assertTrue(ingestService.awaitSamples(2, 5000L));
+        assertTrue(await(() -> kaminari.getRequests().contains("/clear?upto=" + seq)));
+        assertTrue(await(() -> kaminari.getRequests().contains("/status?wait=1&after=" + seq)));
+        assertEquals(Collections.singletonList(seq), kaminari.getPending());
+
+        kaminari.setClearFailing(false);
+        assertTrue(await(() -> kaminari.getPending().isEmpty()));
+        assertEquals(2, ingestService.getSamples().size());
+    }
+
+    /**
+     * Test that no lightnings are stored if the response could not be read completely.
+     */
+    @Test
+    public void testIncompleteResponseIsNotStored() throws Exception {
+        createDevice(true);
+        kaminari.setTruncating(true);
+        kaminari.strike(1200L, 14L);
+        long seq = kaminari.strike(300L, 27L);
+
+        // The poll also fails on the truncated response, but starts streaming
+        assertThrows(GeordiException.class, () -> device.readSensors(sample -> {}));
+
+        assertTrue(await(() -> kaminari.getRequests().contains("/status?wait=1")));
+        Thread.sleep(200L);
+
+        assertEquals(0, ingestService.getIngestCount());
+        assertEquals(Arrays.asList(seq - 1L, seq), kaminari.getPending());
+        assertFalse(kaminari.getRequests().stream().anyMatch(uri -> uri.startsWith("/clear")));
+    }
+
+    private void createDevice(boolean streaming) {
+        JSONObject config = new JSONObject();
+        config.put("host", kaminari.getHost());
+        config.put("apikey", APIKEY);
+        config.put("streaming", streaming);
+        config.put("longPollTimeout", "PT1S");
+
+        Injector injector = Guice.createInjector(binder ->
+                binder.bind(IngestService.class).toInstance(ingestService));
+        device = TestDevices.create(injector, KaminariDevice.class, config,
+                new JSONObject().put("lightning_key", "energy"),
+                new JSONObject().put("lightning_key", "distance"),
+                new JSONObject().put("key", "noiseFloorLevel"));
+    }
+
+    private static boolean await(BooleanSupplier condition) throws InterruptedException {
+        long deadline = System.currentTimeMillis() + 5000L;
+        while (!condition.getAsBoolean()) {
+            if (System.currentTimeMillis() > deadline) {
+                return false;
+            }
+            Thread.sleep(10L);
+        }
+        return true;
+    }
+
+}
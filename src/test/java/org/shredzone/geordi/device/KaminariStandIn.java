@@ -0,0 +1,220 @@
+/*
+ * geordi
+ *
+ * Copyright (C) 2020 Richard "Shred" Körber
+ *   https://codeberg.org/shred/geordi
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.
+ */
+package org.shredzone.geordi.device;
+
+import static java.nio.charset.StandardCharsets.UTF_8;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpServer;
+
+/**
+ * A stand-in for a Kaminari lightning detector with sequence number support. It
+ * implements long-polling of the status, and clearing the lightnings up to a sequence
+ * number. Long-polling requests are handled concurrently to other requests.
+ */
+public class KaminariStandIn implements AutoCloseable {
+
+    private final HttpServer server;
+    private final ExecutorService executor = Executors.newCachedThreadPool();
+    private final String apikey;
+    private final List<long[]> lightnings = new ArrayList<>();
+    private final List<String> requests = new CopyOnWriteArrayList<>();
+    private long nextSeq = 1L;
+    private volatile boolean clearFailing;
+    private volatile boolean truncating;
+
+    /**
+     * Starts a new stand-in on a free port of the loopback interface.
+     *
+     * @param apikey
+     *         API key that is required for clearing
+     */
+    public KaminariStandIn(String apikey) throws IOException {
+        this.apikey = apikey;
+        server = HttpServer.create(new InetSocketAddress(InetAddress.getLoopbackAddress(), 0), 0);
+        server.createContext("/status", this::handleStatus);
+        server.createContext("/clear", this::handleClear);
+        server.setExecutor(executor);
+        server.start();
+    }
+
+    /**
+     * Returns the host and port of the stand-in, as used in the device configuration.
+     */
+    public String getHost() {
+        return "127.0.0.1:" + server.getAddress().getPort();
+    }
+
+    /**
+     * Detects a new lightning.
+     *
+     * @param energy
+     *         Energy of the lightning
+     * @param distance
+     *         Distance of the lightning
+     * @return Sequence number of the lightning
+     */
+    public synchronized long strike(long energy, long distance) {
+        long seq = nextSeq++;
+        lightnings.add(new long[] {seq, energy, distance});
+        notifyAll();
+        return seq;
+    }
+
+    /**
+     * Returns the sequence numbers of all lightnings that have not been cleared yet.
+     */
+    public synchronized List<Long> getPending() {
+        List<Long> result = new ArrayList<>();
+        for (long[] lightning : lightnings) {
+            result.add(lightning[0]);
+        }
+        return result;
+    }
+
+    /**
+     * Returns the URIs of all requests that have been received so far.
+     */
+    public List<String> getRequests() {
+        return requests;
+    }
+
+    /**
+     * Lets all following clear requests fail with an error status.
+     */
+    public void setClearFailing(boolean clearFailing) {
+        this.clearFailing = clearFailing;
+    }
+
+    /**
+     * Truncates all following status responses after the first lightning, so they are
+     * not valid JSON.
+     */
+    public void setTruncating(boolean truncating) {
+        this.truncating = truncating;
+    }
+
+    @Override
+    public void close() {
+        synchronized (this) {
+            notifyAll();
+        }
+        server.stop(0);
+        executor.shutdownNow();
+    }
+
+    private void handleStatus(HttpExchange exchange) throws IOException {
+        requests.add(exchange.getRequestURI().toString());
+        Map<String, String> query = parseQuery(exchange);
+        long after = Long.parseLong(query.getOrDefault("after", "0"));
+        long waitMs = Long.parseLong(query.getOrDefault("wait", "0")) * 1000L;
+
+        StringBuilder sb = new StringBuilder("{\"noiseFloorLevel\":95,\"lightnings\":[");
+        synchronized (this) {
+            long deadline = System.currentTimeMillis() + waitMs;
+            while (lastSeq() <= after && System.currentTimeMillis() < deadline) {
+                try {
+                    wait(Math.max(1L, deadline - System.currentTimeMillis()));
+                } catch (InterruptedException ex) {
+                    Thread.currentThread().interrupt();
+                    break;
+                }
+            }
+
+            boolean first = true;
+            for (long[] lightning : lightnings) {
+                if (lightning[0] > after) {
+                    sb.append(first ? "" : ",")
+                            .append("{\"age\":0,\"seq\":").append(lightning[0])
+                            .append(",\"energy\":").append(lightning[1])
+                            .append(",\"distance\":").append(lightning[2])
+                            .append('}');
+                    first = false;
+                    if (truncating) {
+                        break;
+                    }
+                }
+            }
+        }
+        sb.append(truncating ? "," : "]}");
+
+        respond(exchange, 200, sb.toString());
+    }
+
+    private void handleClear(HttpExchange exchange) throws IOException {
+        requests.add(exchange.getRequestURI().toString());
+        if (!apikey.equals(exchange.getRequestHeaders().getFirst("X-API-Key"))) {
+            respond(exchange, 403, "");
+            return;
+        }
+        if (clearFailing) {
+            respond(exchange, 500, "");
+            return;
+        }
+
+        String upto = parseQuery(exchange).get("upto");
+        synchronized (this) {
+            if (upto != null) {
+                long seq = Long.parseLong(upto);
+                lightnings.removeIf(lightning -> lightning[0] <= seq);
+            } else {
+                lightnings.clear();
+            }
+        }
+
+        respond(exchange, 200, "OK");
+    }
+
+    private long lastSeq() {
+        return lightnings.isEmpty() ? 0L : lightnings.get(lightnings.size() - 1)[0];
+    }
+
+    private static Map<String, String> parseQuery(HttpExchange exchange) {
+        Map<String, String> result = new HashMap<>();
+        String query = exchange.getRequestURI().getQuery();
+        if (query != null) {
+            for (String param : query.split("&")) {
+                int eq = param.indexOf('=');
+                if (eq > 0) {
+                    result.put(param.substring(0, eq), param.substring(eq + 1));
+                }
+            }
+        }
+        return result;
+    }
+
+    private static void respond(HttpExchange exchange, int status, String body) throws IOException {
+        byte[] bytes = body.getBytes(UTF_8);
+        exchange.getResponseHeaders().set("Content-Type", "application/json");
+        exchange.sendResponseHeaders(status, bytes.length > 0 ? bytes.length : -1);
+        try (OutputStream out = exchange.getResponseBody()) {
+            out.write(bytes);
+        }
+    }
+
+}
@@ -0,0 +1,233 @@
+/*
+ * geordi
+ *
+ * Copyright (C) 2020 Richard "Shred" Körber
+ *   https://codeberg.org/shred/geordi
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.
+ */
+package org.shredzone.geordi.device;
+
+import static java.nio.charset.StandardCharsets.UTF_8;
+import static java.util.stream.Collectors.toList;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.math.BigDecimal;
+import java.net.InetAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.time.Duration;
+import java.time.Instant;
+import java.util.Arrays;
+import java.util.List;
+
+import com.google.inject.Guice;
+import com.google.inject.Injector;
+import org.json.JSONObject;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+import org.shredzone.geordi.data.Sample;
+import org.shredzone.geordi.service.FreshnessService;
+import org.shredzone.geordi.service.FreshnessServiceImpl;
+import org.shredzone.geordi.service.IngestService;
+import org.shredzone.geordi.service.MetricsService;
+import org.shredzone.geordi.service.MetricsServiceImpl;
+import org.shredzone.geordi.service.RecordingIngestService;
+
+/**
+ * Unit tests for {@link LineProtocolDevice}, sending lines to its TCP listener.
+ */
+public class LineProtocolDeviceTest {
+
+    private final RecordingIngestService ingestService = new RecordingIngestService();
+
+    private LineProtocolDevice device;
+    private int port;
+
+    @AfterEach
+    public void tearDown() {
+        if (device != null) {
+            device.shutdown();
+        }
+    }
+
+    /**
+     * Test that the fields of a point are stored in the sensors matching measurement,
+     * field and tags.
+     */
+    @Test
+    public void testPoint() throws Exception {
+        createDevice("ns");
+        send("weather,location=balcony,host=esp-12 temperature=21.5,humidity=55i 1588939200000000001\n"
+                + "weather,location=garden temperature=18.25,humidity=60u 1588939200000000002\n");
+
+        List<Sample> samples = await(3);
+        assertEquals(Arrays.asList(1L, 2L, 5L), ids(samples));
+        assertEquals(new BigDecimal("21.5"), samples.get(0).getValue());
+        assertEquals(new BigDecimal("55"), samples.get(1).getValue());
+        assertEquals(new BigDecimal("18.25"), samples.get(2).getValue());
+        assertEquals(Instant.ofEpochSecond(1588939200L, 1L), samples.get(0).getTimestamp());
+        assertEquals(Instant.ofEpochSecond(1588939200L, 2L), samples.get(2).getTimestamp());
+    }
+
+    /**
+     * Test that escaped measurements, tags and fields are matched.
+     */
+    @Test
+    public void testEscapes() throws Exception {
+        createDevice("ns");
+        send("my\\ weather,loc\\,ation=a\\=b\\ c wind\\ speed=3.5,wind=1\n"
+                + "my\\ weather,loc\\,ation=a\\=b wind\\ speed=7\n");
+
+        List<Sample> samples = await(1);
+        assertEquals(Arrays.asList(3L), ids(samples));
+        assertEquals(new BigDecimal("3.5"), samples.get(0).getValue());
+    }
+
+    /**
+     * Test that quoted string fields are skipped, even if they contain delimiters, and
+     * that booleans are stored as numbers.
+     */
+    @Test
+    public void testQuotedFields() throws Exception {
+        createDevice("ns");
+        send("weather,location=balcony temperature=\"a \\\"quoted\\\" text, humidity=1 \",humidity=t"
+                + " 1588939200000000000\n"
+                + "weather,location=balcony status=\"temperature=9 \",temperature=22 1588939200000000000\n");
+
+        List<Sample> samples = await(2);
+        assertEquals(Arrays.asList(2L, 1L), ids(samples));
+        assertEquals(BigDecimal.ONE, samples.get(0).getValue());
+        assertEquals(new BigDecimal("22"), samples.get(1).getValue());
+        assertEquals(Instant.ofEpochSecond(1588939200L), samples.get(1).getTimestamp());
+    }
+
+    /**
+     * Test that timestamps are converted by the configured precision, and that points
+     * without timestamp get the current time.
+     */
+    @Test
+    public void testPrecision() throws Exception {
+        createDevice("ms");
+        Instant before = Instant.now();
+        send("cpu load=1 1588939200123\n"
+                + "cpu load=2\n"
+                + "cpu load=3 bad\n"
+                + "cpu load=4 1588939200456\n");
+
+        List<Sample> samples = await(3);
+        assertEquals(Arrays.asList(new BigDecimal("1"), new BigDecimal("2"), new BigDecimal("4")),
+                samples.stream().map(Sample::getValue).collect(toList()));
+        assertEquals(Instant.ofEpochMilli(1588939200123L), samples.get(0).getTimestamp());
+        assertFalse(samples.get(1).getTimestamp().isBefore(before));
+        assertEquals(Instant.ofEpochMilli(1588939200456L), samples.get(2).getTimestamp());
+    }
+
+    /**
+     * Test that other measurements, comments and lines without fields are ignored.
+     */
+    @Test
+    public void testIgnoredLines() throws Exception {
+        createDevice("ns");
+        send("# weather,location=balcony temperature=1\n"
+                + "cpus load=2\n"
+                + "cp load=3\n"
+                + "weather,location=balcony\n"
+                + "weather,location=attic temperature=4\n"
+                + "weather temperature=5\r\n"
+                + "\n"
+                + "  cpu load=6  \r\n");
+
+        List<Sample> samples = await(1);
+        assertEquals(Arrays.asList(4L), ids(samples));
+        assertEquals(new BigDecimal("6"), samples.get(0).getValue());
+    }
+
+    /**
+     * Test that a line exceeding the receive buffer is discarded, and the following
+     * lines are still read.
+     */
+    @Test
+    public void testOverlongLine() throws Exception {
+        createDevice("ns");
+        StringBuilder sb = new StringBuilder("cpu,host=");
+        for (int ix = 0; ix < 70000; ix++) {
+            sb.append('x');
+        }
+        sb.append(" load=1\ncpu load=2\n");
+        send(sb.toString());
+
+        List<Sample> samples = await(1);
+        assertEquals(new BigDecimal("2"), samples.get(0).getValue());
+    }
+
+    private void createDevice(String precision) throws IOException {
+        try (ServerSocket socket = new ServerSocket(0, 0, InetAddress.getLoopbackAddress())) {
+            port = socket.getLocalPort();
+        }
+
+        JSONObject config = new JSONObject();
+        config.put("port", port);
+        config.put("bind", "127.0.0.1");
+        config.put("udp", false);
+        config.put("precision", precision);
+
+        Injector injector = Guice.createInjector(binder -> {
+            binder.bind(IngestService.class).toInstance(ingestService);
+            binder.bind(MetricsService.class).to(MetricsServiceImpl.class);
+            binder.bind(FreshnessService.class).to(FreshnessServiceImpl.class);
+        });
+        device = TestDevices.create(injector, LineProtocolDevice.class, config,
+                new JSONObject().put("measurement", "weather").put("field", "temperature")
+                        .put("tags", new JSONObject().put("location", "balcony")),
+                new JSONObject().put("measurement", "weather").put("field", "humidity")
+                        .put("tags", new JSONObject().put("location", "balcony")),
+                new JSONObject().put("measurement", "my weather").put("field", "wind speed")
+                        .put("tags", new JSONObject().put("loc,ation", "a=b c")),
+                new JSONObject().put("measurement", "cpu").put("field", "load"),
+                new JSONObject().put("measurement", "weather").put("field", "temperature")
+                        .put("tags", new JSONObject().put("location", "garden")));
+        device.readSensors();
+    }
+
+    /**
+     * Sends the lines via TCP, followed by a terminating point that is not stored.
+     */
+    private void send(String lines) throws IOException {
+        try (Socket socket = new Socket(InetAddress.getLoopbackAddress(), port)) {
+            OutputStream out = socket.getOutputStream();
+            out.write(lines.getBytes(UTF_8));
+            out.write("end value=0\n".getBytes(UTF_8));
+        }
+    }
+
+    /**
+     * Waits for the given number of samples, and makes sure that no further samples
+     * arrive.
+     */
+    private List<Sample> await(int count) throws InterruptedException {
+        assertTrue(ingestService.awaitSamples(count, 5000L));
+        Thread.sleep(Duration.ofMillis(200L).toMillis());
+        List<Sample> samples = ingestService.getSamples();
+        assertEquals(count, samples.size());
+        return samples;
+    }
+
+    private static List<Long> ids(List<Sample> samples) {
+        return samples.stream()
+                .map(sample -> (long) sample.getSensor().getId())
+                .collect(toList());
+    }
+
+}
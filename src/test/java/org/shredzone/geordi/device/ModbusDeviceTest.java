@@ -0,0 +1,232 @@
+/*
+ * geordi
+ *
+ * Copyright (C) 2020 Richard "Shred" Körber
+ *   https://codeberg.org/shred/geordi
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.
+ */
+package org.shredzone.geordi.device;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.math.BigDecimal;
+import java.util.List;
+import java.util.Map;
+import java.util.stream.Collectors;
+
+import com.google.inject.Guice;
+import com.google.inject.Injector;
+import org.json.JSONObject;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.shredzone.geordi.data.Sample;
+
+/**
+ * Unit tests for {@link ModbusDevice}, against a {@link ModbusStandIn} that answers
+ * pipelined requests in reverse order.
+ */
+public class ModbusDeviceTest {
+    private static final int HOLDING = 3;
+    private static final int INPUT = 4;
+
+    private final Injector injector = Guice.createInjector();
+
+    private ModbusStandIn standIn;
+
+    @BeforeEach
+    public void setup() throws Exception {
+        standIn = new ModbusStandIn();
+    }
+
+    @AfterEach
+    public void tearDown() throws Exception {
+        standIn.close();
+    }
+
+    /**
+     * Test that adjacent registers are merged, and that registers of different tables
+     * are never merged.
+     */
+    @Test
+    public void testCoalescing() {
+        standIn.set(HOLDING, 1, 215);
+        standIn.set(HOLDING, 2, 180);
+        standIn.set(HOLDING, 5, 7);
+        standIn.set(INPUT, 2, 42);
+
+        ModbusDevice device = createDevice(config(0, 125, 8),
+                sensor(2, "holding", "int16", null),
+                sensor(1, "holding", "int16", "0.1"),
+                sensor(5, "holding", "int16", null),
+                sensor(2, "input", "uint16", null));
+
+        Map<Integer, BigDecimal> values = read(device);
+        assertEquals(new BigDecimal("180"), values.get(1));
+        assertEquals(new BigDecimal("21.5"), values.get(2));
+        assertEquals(new BigDecimal("7"), values.get(3));
+        assertEquals(new BigDecimal("42"), values.get(4));
+
+        List<int[]> requests = standIn.getRequests();
+        assertEquals(3, requests.size());
+        assertArrayEquals(new int[] {HOLDING, 1, 2}, requests.get(0));
+        assertArrayEquals(new int[] {HOLDING, 5, 1}, requests.get(1));
+        assertArrayEquals(new int[] {INPUT, 2, 1}, requests.get(2));
+        assertEquals(3, standIn.getMaxPipelined());
+    }
+
+    /**
+     * Test that registers within the maximum gap are merged, up to the maximum number
+     * of registers per request.
+     */
+    @Test
+    public void testMaxGapAndMaxRegisters() {
+        ModbusDevice device = createDevice(config(3, 6, 8),
+                sensor(0, "holding", "int16", null),
+                sensor(4, "holding", "int32", null),
+                sensor(6, "holding", "int16", null),
+                sensor(20, "holding", "int16", null));
+
+        assertEquals(4, read(device).size());
+
+        List<int[]> requests = standIn.getRequests();
+        assertEquals(3, requests.size());
+        assertArrayEquals(new int[] {HOLDING, 0, 6}, requests.get(0));
+        assertArrayEquals(new int[] {HOLDING, 6, 1}, requests.get(1));
+        assertArrayEquals(new int[] {HOLDING, 20, 1}, requests.get(2));
+    }
+
+    /**
+     * Test that no more requests than the pipeline size are sent at once, and that the
+     * connection is reused.
+     */
+    @Test
+    public void testPipeline() {
+        JSONObject[] sensors = new JSONObject[10];
+        for (int ix = 0; ix < sensors.length; ix++) {
+            standIn.set(HOLDING, ix * 10, ix);
+            sensors[ix] = sensor(ix * 10, "holding", "uint16", null);
+        }
+
+        ModbusDevice device = createDevice(config(0, 125, 4), sensors);
+        for (int poll = 0; poll < 3; poll++) {
+            Map<Integer, BigDecimal> values = read(device);
+            assertEquals(10, values.size());
+            for (int ix = 0; ix < sensors.length; ix++) {
+                assertEquals(BigDecimal.valueOf(ix), values.get(ix + 1));
+            }
+        }
+
+        assertEquals(30, standIn.getRequests().size());
+        assertEquals(4, standIn.getMaxPipelined());
+        assertEquals(1, standIn.getConnections());
+    }
+
+    /**
+     * Test that an exception response only affects the sensors of that request.
+     */
+    @Test
+    public void testExceptionResponse() {
+        standIn.set(HOLDING, 1, 11);
+        standIn.set(HOLDING, 10, 12);
+        standIn.setIllegal(HOLDING, 10);
+
+        ModbusDevice device = createDevice(config(0, 125, 8),
+                sensor(1, "holding", "int16", null),
+                sensor(10, "holding", "int16", null));
+
+        Map<Integer, BigDecimal> values = read(device);
+        assertEquals(1, values.size());
+        assertEquals(new BigDecimal("11"), values.get(1));
+
+        // The connection is still usable
+        assertEquals(1, read(device).size());
+        assertEquals(1, standIn.getConnections());
+    }
+
+    /**
+     * Test decoding of signed, unsigned, 32-bit and float values, in both word orders.
+     */
+    @Test
+    public void testDataTypes() {
+        standIn.set(INPUT, 1, 0xFFFE);                  // int16 -2, uint16 65534
+        standIn.set(INPUT, 2, 0xFFFF);                  // int32 -2, big endian
+        standIn.set(INPUT, 3, 0xFFFE);
+        standIn.set(INPUT, 4, 0xFFFE);                  // uint32 4294967294, little endian
+        standIn.set(INPUT, 5, 0xFFFF);
+        standIn.set(INPUT, 6, 0x4148);                  // float32 12.5, big endian
+        standIn.set(INPUT, 7, 0x0000);
+        standIn.set(INPUT, 8, 0x0000);                  // float32 12.5, little endian
+        standIn.set(INPUT, 9, 0x4148);
+        standIn.set(INPUT, 10, 0x7FC0);                 // float32 NaN
+        standIn.set(INPUT, 11, 0x0000);
+
+        JSONObject uint32 = sensor(4, "input", "uint32", null);
+        uint32.put("wordOrder", "little");
+        JSONObject float32 = sensor(8, "input", "float32", null);
+        float32.put("wordOrder", "little");
+
+        ModbusDevice device = createDevice(config(0, 125, 8),
+                sensor(1, "input", "int16", null),
+                sensor(1, "input", "uint16", null),
+                sensor(2, "input", "int32", null),
+                uint32,
+                sensor(6, "input", "float32", null),
+                float32,
+                sensor(10, "input", "float32", null));
+
+        Map<Integer, BigDecimal> values = read(device);
+        assertEquals(new BigDecimal("-2"), values.get(1));
+        assertEquals(new BigDecimal("65534"), values.get(2));
+        assertEquals(new BigDecimal("-2"), values.get(3));
+        assertEquals(new BigDecimal("4294967294"), values.get(4));
+        assertEquals(new BigDecimal("12.5"), values.get(5));
+        assertEquals(new BigDecimal("12.5"), values.get(6));
+        assertTrue(!values.containsKey(7));
+
+        // All registers are read by a single request
+        assertEquals(1, standIn.getRequests().size());
+    }
+
+    private JSONObject config(int maxGap, int maxRegisters, int pipeline) {
+        JSONObject config = new JSONObject();
+        config.put("host", "127.0.0.1");
+        config.put("port", standIn.getPort());
+        config.put("maxGap", maxGap);
+        config.put("maxRegisters", maxRegisters);
+        config.put("pipeline", pipeline);
+        config.put("timeout", "PT2S");
+        return config;
+    }
+
+    private static JSONObject sensor(int register, String table, String type, String scale) {
+        JSONObject sensor = new JSONObject();
+        sensor.put("register", register);
+        sensor.put("table", table);
+        sensor.put("type", type);
+        if (scale != null) {
+            sensor.put("scale", new BigDecimal(scale));
+        }
+        return sensor;
+    }
+
+    private ModbusDevice createDevice(JSONObject config, JSONObject... sensors) {
+        return TestDevices.create(injector, ModbusDevice.class, config, sensors);
+    }
+
+    private static Map<Integer, BigDecimal> read(ModbusDevice device) {
+        return device.readSensors().stream()
+                .collect(Collectors.toMap(sample -> sample.getSensor().getId(), Sample::getValue));
+    }
+
+}
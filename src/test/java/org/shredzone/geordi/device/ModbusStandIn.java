@@ -0,0 +1,197 @@
+/*
+ * geordi
+ *
+ * Copyright (C) 2020 Richard "Shred" Körber
+ *   https://codeberg.org/shred/geordi
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.
+ */
+package org.shredzone.geordi.device;
+
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.net.InetAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.net.SocketTimeoutException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+
+/**
+ * A stand-in for a Modbus TCP device. It collects all pipelined requests that arrive
+ * at once, and answers them in reverse order, so the client must match the responses
+ * by their transaction ID.
+ */
+public class ModbusStandIn implements AutoCloseable {
+    private static final int ILLEGAL_DATA_ADDRESS = 0x02;
+
+    private final ServerSocket server;
+    private final Thread thread;
+    private final Map<Integer, Integer> registers = new ConcurrentHashMap<>();
+    private final Set<Integer> illegal = ConcurrentHashMap.newKeySet();
+    private final List<int[]> requests = new CopyOnWriteArrayList<>();
+    private volatile int maxPipelined;
+    private volatile int connections;
+
+    /**
+     * Starts a new stand-in on a free port of the loopback interface.
+     */
+    public ModbusStandIn() throws IOException {
+        server = new ServerSocket(0, 0, InetAddress.getLoopbackAddress());
+        thread = new Thread(this::serve, "modbus-standin");
+        thread.setDaemon(true);
+        thread.start();
+    }
+
+    /**
+     * Returns the port of the stand-in.
+     */
+    public int getPort() {
+        return server.getLocalPort();
+    }
+
+    /**
+     * Sets the value of a register.
+     *
+     * @param function
+     *         Read function of the register table, 3 (holding) or 4 (input)
+     * @param register
+     *         Register address
+     * @param value
+     *         16-bit register value
+     */
+    public void set(int function, int register, int value) {
+        registers.put(function << 16 | register, value & 0xFFFF);
+    }
+
+    /**
+     * Marks a register as illegal. Requests including this register are answered with
+     * an exception response.
+     */
+    public void setIllegal(int function, int register) {
+        illegal.add(function << 16 | register);
+    }
+
+    /**
+     * Returns all requests that were received, as function, start, and count.
+     */
+    public List<int[]> getRequests() {
+        return Collections.unmodifiableList(requests);
+    }
+
+    /**
+     * Returns the maximum number of requests that arrived at once.
+     */
+    public int getMaxPipelined() {
+        return maxPipelined;
+    }
+
+    /**
+     * Returns the number of connections that were accepted.
+     */
+    public int getConnections() {
+        return connections;
+    }
+
+    @Override
+    public void close() throws IOException {
+        server.close();
+        thread.interrupt();
+    }
+
+    private void serve() {
+        while (!server.isClosed()) {
+            try (Socket socket = server.accept()) {
+                connections++;
+                handle(socket);
+            } catch (IOException ex) {
+                // connection was closed, wait for the next one
+            }
+        }
+    }
+
+    private void handle(Socket socket) throws IOException {
+        DataInputStream in = new DataInputStream(socket.getInputStream());
+        DataOutputStream out = new DataOutputStream(new BufferedOutputStream(socket.getOutputStream()));
+
+        while (true) {
+            // Collect the requests that are sent at once
+            List<int[]> batch = new ArrayList<>();
+            socket.setSoTimeout(0);
+            batch.add(readRequest(in));
+            socket.setSoTimeout(100);
+            try {
+                while (true) {
+                    batch.add(readRequest(in));
+                }
+            } catch (SocketTimeoutException ex) {
+                // all pipelined requests have been received
+            }
+            maxPipelined = Math.max(maxPipelined, batch.size());
+
+            Collections.reverse(batch);
+            for (int[] request : batch) {
+                writeResponse(out, request);
+            }
+            out.flush();
+        }
+    }
+
+    private int[] readRequest(DataInputStream in) throws IOException {
+        int tid = in.readUnsignedShort();
+        in.readUnsignedShort();     // protocol identifier
+        in.readUnsignedShort();     // length
+        int unitId = in.readUnsignedByte();
+        int function = in.readUnsignedByte();
+        int start = in.readUnsignedShort();
+        int count = in.readUnsignedShort();
+        requests.add(new int[] {function, start, count});
+        return new int[] {tid, unitId, function, start, count};
+    }
+
+    private void writeResponse(DataOutputStream out, int[] request) throws IOException {
+        int tid = request[0];
+        int unitId = request[1];
+        int function = request[2];
+        int start = request[3];
+        int count = request[4];
+
+        boolean failed = false;
+        for (int ix = start; ix < start + count; ix++) {
+            failed |= illegal.contains(function << 16 | ix);
+        }
+
+        out.writeShort(tid);
+        out.writeShort(0);
+        if (failed) {
+            out.writeShort(3);
+            out.writeByte(unitId);
+            out.writeByte(function | 0x80);
+            out.writeByte(ILLEGAL_DATA_ADDRESS);
+            return;
+        }
+
+        out.writeShort(3 + count * 2);
+        out.writeByte(unitId);
+        out.writeByte(function);
+        out.writeByte(count * 2);
+        for (int ix = start; ix < start + count; ix++) {
+            out.writeShort(registers.getOrDefault(function << 16 | ix, 0));
+        }
+    }
+
+}
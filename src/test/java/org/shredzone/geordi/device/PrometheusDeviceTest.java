@@ -0,0 +1,208 @@
+/*
+ * geordi
+ *
+ * Copyright (C) 2020 Richard "Shred" Körber
+ *   https://codeberg.org/shred/geordi
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.
+ */
+package org.shredzone.geordi.device;
+
+import static java.util.stream.Collectors.toList;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+
+import java.time.Instant;
+import java.util.Arrays;
+import java.util.List;
+
+import com.google.inject.Guice;
+import com.google.inject.Injector;
+import org.json.JSONObject;
+import org.junit.jupiter.api.Test;
+import org.shredzone.geordi.data.Sample;
+import org.shredzone.geordi.service.FixedResponseCacheService;
+import org.shredzone.geordi.service.ResponseCacheService;
+
+/**
+ * Unit tests for {@link PrometheusDevice}.
+ */
+public class PrometheusDeviceTest {
+
+    private final FixedResponseCacheService responseCacheService = new FixedResponseCacheService();
+
+    /**
+     * Test that comments are ignored, and trailing timestamps are not part of the value.
+     */
+    @Test
+    public void testTextFormat() {
+        PrometheusDevice device = createDevice(
+                metric("inverter_power_watts"),
+                metric("inverter_energy_today_wh"));
+
+        Instant before = Instant.now().minusMillis(1L);
+        List<Sample> samples = read(device,
+                "# HELP inverter_power_watts Current power 1\n"
+                + "# TYPE inverter_power_watts gauge\n"
+                + "inverter_power_watts 1234.5 1588939200000\n"
+                + "#inverter_energy_today_wh 99\n"
+                + "\n"
+                + "inverter_energy_today_wh\t6789e0\n"
+                + "# EOF\n");
+
+        assertEquals(Arrays.asList("1:1234.5", "2:6789"), values(samples));
+        assertFalse(samples.get(0).getTimestamp().isBefore(before));
+        assertEquals(samples.get(0).getTimestamp(), samples.get(1).getTimestamp());
+    }
+
+    /**
+     * Test that lines ending with CRLF are read.
+     */
+    @Test
+    public void testCrLf() {
+        PrometheusDevice device = createDevice(
+                metric("temperature").put("labels", new JSONObject().put("room", "kitchen")),
+                metric("humidity"));
+
+        List<Sample> samples = read(device,
+                "# TYPE temperature gauge\r\n"
+                + "temperature{room=\"kitchen\"} 21.5\r\n"
+                + "humidity 55 1588939200000\r\n");
+
+        assertEquals(Arrays.asList("1:21.5", "2:55"), values(samples));
+    }
+
+    /**
+     * Test that the configured labels must be a subset of the labels of the series.
+     */
+    @Test
+    public void testLabelSubset() {
+        PrometheusDevice device = createDevice(
+                metric("power").put("labels", new JSONObject().put("string", "1")),
+                metric("power").put("labels", new JSONObject().put("string", "2").put("phase", "L1")),
+                metric("power").put("labels", new JSONObject().put("string", "3")));
+
+        List<Sample> samples = read(device,
+                "power{string=\"2\"} 10\n"
+                + "power{phase=\"L1\",string=\"1\",unit=\"W\"} 11\n"
+                + "power{ string=\"2\", phase=\"L1\" } 12\n"
+                + "power{string=\"33\"} 13\n"
+                + "power{string=\"3\" 14\n");
+
+        assertEquals(Arrays.asList("1:11", "2:12"), values(samples));
+    }
+
+    /**
+     * Test that escaped label values are matched.
+     */
+    @Test
+    public void testEscapedLabels() {
+        PrometheusDevice device = createDevice(
+                metric("files").put("labels", new JSONObject().put("path", "C:\\dir \"x\"\nnext")),
+                metric("files").put("labels", new JSONObject().put("path", "a}b,c=d")));
+
+        List<Sample> samples = read(device,
+                "files{path=\"C:\\dir \\\"x\\\"\\nnext\"} 1\n"
+                + "files{path=\"C:\\\\dir \\\"x\\\"\\nnext\"} 2\n"
+                + "files{path=\"a}b,c=d\"} 3\n");
+
+        assertEquals(Arrays.asList("1:2", "2:3"), values(samples));
+    }
+
+    /**
+     * Test that NaN and infinite values are not stored.
+     */
+    @Test
+    public void testNotANumber() {
+        PrometheusDevice device = createDevice(
+                metric("a"), metric("b"), metric("c"), metric("d"));
+
+        List<Sample> samples = read(device,
+                "a NaN\n"
+                + "b +Inf\n"
+                + "c -Inf\n"
+                + "d -1.5e-3\n");
+
+        assertEquals(Arrays.asList("4:-0.0015"), values(samples));
+    }
+
+    /**
+     * Test that metric names with the same hash code are distinguished.
+     */
+    @Test
+    public void testHashCollision() {
+        assertEquals("Aa".hashCode(), "BB".hashCode());
+        assertEquals("AaBB".hashCode(), "BBAa".hashCode());
+
+        PrometheusDevice device = createDevice(
+                metric("Aa"), metric("BB"), metric("AaBB"));
+
+        List<Sample> samples = read(device,
+                "BBAa 1\n"
+                + "BB 2\n"
+                + "AaAa 3\n"
+                + "Aa 4\n"
+                + "AaBB 5\n");
+
+        assertEquals(Arrays.asList("2:2", "1:4", "3:5"), values(samples));
+    }
+
+    /**
+     * Test that a sensor matching several series only gets the first one.
+     */
+    @Test
+    public void testSeveralSeries() {
+        PrometheusDevice device = createDevice(
+                metric("power"),
+                metric("power").put("labels", new JSONObject().put("string", "2")),
+                metric("temperature"));
+
+        List<Sample> samples = read(device,
+                "power{string=\"1\"} 10\n"
+                + "power{string=\"2\"} 20\n"
+                + "power{string=\"2\",phase=\"L2\"} 30\n"
+                + "temperature{sensor=\"a\"} NaN\n"
+                + "temperature{sensor=\"b\"} 21\n");
+
+        assertEquals(Arrays.asList("1:10", "2:20"), values(samples));
+
+        // The next scrape gets the first series again
+        samples = read(device, "power{string=\"2\"} 40\npower{string=\"1\"} 50\n");
+        assertEquals(Arrays.asList("1:40", "2:40"), values(samples));
+    }
+
+    private PrometheusDevice createDevice(JSONObject... sensors) {
+        JSONObject config = new JSONObject();
+        config.put("url", "http://127.0.0.1/metrics");
+
+        Injector injector = Guice.createInjector(binder ->
+                binder.bind(ResponseCacheService.class).toInstance(responseCacheService));
+        return TestDevices.create(injector, PrometheusDevice.class, config, sensors);
+    }
+
+    private List<Sample> read(PrometheusDevice device, String exposition) {
+        responseCacheService.setBody(exposition);
+        return device.readSensors();
+    }
+
+    private static JSONObject metric(String name) {
+        return new JSONObject().put("metric", name);
+    }
+
+    /**
+     * Returns the samples as "sensor id:value" strings.
+     */
+    private static List<String> values(List<Sample> samples) {
+        return samples.stream()
+                .map(sample -> sample.getSensor().getId() + ":" + sample.getValue().stripTrailingZeros().toPlainString())
+                .collect(toList());
+    }
+
+}
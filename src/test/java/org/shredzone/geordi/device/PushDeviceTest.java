@@ -0,0 +1,235 @@
+/*
+ * geordi
+ *
+ * Copyright (C) 2020 Richard "Shred" Körber
+ *   https://codeberg.org/shred/geordi
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.
+ */
+package org.shredzone.geordi.device;
+
+import static java.nio.charset.StandardCharsets.UTF_8;
+import static java.util.stream.Collectors.toList;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.math.BigDecimal;
+import java.net.HttpURLConnection;
+import java.net.InetAddress;
+import java.net.ServerSocket;
+import java.net.URL;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import com.google.inject.Guice;
+import com.google.inject.Injector;
+import org.json.JSONObject;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.shredzone.geordi.data.Sample;
+import org.shredzone.geordi.service.IngestService;
+import org.shredzone.geordi.service.RecordingIngestService;
+
+/**
+ * Unit tests for {@link PushDevice}.
+ */
+public class PushDeviceTest {
+    private static final String APIKEY = "s3cr3t";
+
+    private final RecordingIngestService ingestService = new RecordingIngestService();
+
+    private PushDevice device;
+    private String baseUrl;
+
+    @BeforeEach
+    public void setup() throws IOException {
+        int port;
+        try (ServerSocket socket = new ServerSocket(0, 0, InetAddress.getLoopbackAddress())) {
+            port = socket.getLocalPort();
+        }
+        baseUrl = "http://127.0.0.1:" + port;
+
+        JSONObject config = new JSONObject();
+        config.put("port", port);
+        config.put("apikey", APIKEY);
+        config.put("esp8266id", "4711");
+
+        Injector injector = Guice.createInjector(binder ->
+                binder.bind(IngestService.class).toInstance(ingestService));
+        device = TestDevices.create(injector, PushDevice.class, config,
+                new JSONObject().put("value_type", "SDS_P1"),
+                new JSONObject().put("value_type", "SDS_P2").put("key", "pm25"),
+                new JSONObject().put("key", "temperature"));
+        device.start();
+    }
+
+    @AfterEach
+    public void tearDown() {
+        device.shutdown();
+    }
+
+    /**
+     * Test that luftdaten.info payloads are mapped by their value type.
+     */
+    @Test
+    public void testLuftdaten() throws IOException {
+        String payload = "{\"esp8266id\": \"4711\", \"software_version\": \"NRZ-2020-129\","
+                + " \"sensordatavalues\": ["
+                + "{\"value_type\": \"SDS_P1\", \"value\": \"12.30\"},"
+                + "{\"value_type\": \"SDS_P2\", \"value\": \"4.70\"},"
+                + "{\"value_type\": \"signal\", \"value\": \"-71\"}]}";
+
+        assertEquals(204, post("/luftdaten", payload, APIKEY));
+
+        List<Sample> samples = ingestService.getSamples();
+        assertEquals(2, samples.size());
+        assertEquals(1, samples.get(0).getSensor().getId());
+        assertEquals(new BigDecimal("12.30"), samples.get(0).getValue());
+        assertEquals(2, samples.get(1).getSensor().getId());
+        assertEquals(new BigDecimal("4.70"), samples.get(1).getValue());
+
+        // Payloads of other senders are ignored
+        assertEquals(204, post("/luftdaten", payload.replace("4711", "4712"), APIKEY));
+        assertEquals(2, ingestService.getSamples().size());
+    }
+
+    /**
+     * Test that batch payloads are mapped by their key, with optional timestamps.
+     */
+    @Test
+    public void testBatch() throws IOException {
+        String payload = "{\"samples\": ["
+                + "{\"key\": \"temperature\", \"value\": 21.4, \"time\": \"2020-05-08T12:00:00Z\"},"
+                + "{\"key\": \"pm25\", \"value\": 3.1},"
+                + "{\"key\": \"unknown\", \"value\": 1}]}";
+
+        Instant before = Instant.now().minusSeconds(1L);
+        assertEquals(204, post("/batch", payload, APIKEY));
+
+        List<Sample> samples = ingestService.getSamples();
+        assertEquals(2, samples.size());
+        assertEquals(3, samples.get(0).getSensor().getId());
+        assertEquals(Instant.parse("2020-05-08T12:00:00Z"), samples.get(0).getTimestamp());
+        assertEquals(new BigDecimal("21.4"), samples.get(0).getValue());
+        assertEquals(2, samples.get(1).getSensor().getId());
+        assertTrue(samples.get(1).getTimestamp().isAfter(before));
+    }
+
+    /**
+     * Test that bad requests are rejected, and nothing is ingested.
+     */
+    @Test
+    public void testRejected() throws IOException {
+        String payload = "{\"samples\": [{\"key\": \"temperature\", \"value\": 21.4}]}";
+
+        assertEquals(403, post("/batch", payload, null));
+        assertEquals(403, post("/batch", payload, "wrong"));
+        assertEquals(400, post("/batch", "{\"samples\": [{\"key\": \"temperature\", \"time\": \"yesterday\","
+                + " \"value\": 1}]}", APIKEY));
+        assertEquals(400, post("/luftdaten", "{\"esp8266id\": \"4711\", \"sensordatavalues\": ["
+                + "{\"value_type\": \"SDS_P1\", \"value\": \"n/a\"}]}", APIKEY));
+
+        HttpURLConnection conn = (HttpURLConnection) new URL(baseUrl + "/batch").openConnection();
+        assertEquals(405, conn.getResponseCode());
+
+        assertTrue(ingestService.getSamples().isEmpty());
+    }
+
+    /**
+     * Test that the samples of a batch are ingested in the order of their timestamps,
+     * and samples that are not newer than the last ingested sample are dropped.
+     */
+    @Test
+    public void testOutOfOrder() throws IOException {
+        assertEquals(204, post("/batch", "{\"samples\": ["
+                + "{\"key\": \"temperature\", \"value\": 3, \"time\": \"2020-05-08T12:03:00Z\"},"
+                + "{\"key\": \"temperature\", \"value\": 1, \"time\": \"2020-05-08T12:01:00Z\"},"
+                + "{\"key\": \"temperature\", \"value\": 2, \"time\": \"2020-05-08T12:02:00Z\"}]}",
+                APIKEY));
+
+        assertEquals(204, post("/batch", "{\"samples\": ["
+                + "{\"key\": \"temperature\", \"value\": 4, \"time\": \"2020-05-08T12:02:30Z\"},"
+                + "{\"key\": \"temperature\", \"value\": 5, \"time\": \"2020-05-08T12:03:00Z\"},"
+                + "{\"key\": \"temperature\", \"value\": 6, \"time\": \"2020-05-08T12:04:00Z\"},"
+                + "{\"key\": \"pm25\", \"value\": 7, \"time\": \"2020-05-08T12:00:00Z\"}]}",
+                APIKEY));
+
+        List<Sample> samples = ingestService.getSamples();
+        assertEquals(Arrays.asList("3:1", "3:2", "3:3", "2:7", "3:6"), samples.stream()
+                .map(s -> s.getSensor().getId() + ":" + s.getValue())
+                .collect(toList()));
+    }
+
+    /**
+     * Test that samples of a failed ingest are accepted again when they are pushed
+     * again.
+     */
+    @Test
+    public void testRetry() throws IOException {
+        String payload = "{\"samples\": [{\"key\": \"temperature\", \"value\": 1,"
+                + " \"time\": \"2020-05-08T12:01:00Z\"}]}";
+
+        ingestService.setFailing(true);
+        assertEquals(500, post("/batch", payload, APIKEY));
+        assertTrue(ingestService.getSamples().isEmpty());
+
+        ingestService.setFailing(false);
+        assertEquals(204, post("/batch", payload, APIKEY));
+        assertEquals(1, ingestService.getSamples().size());
+    }
+
+    /**
+     * Test that concurrent pushes are ingested one after the other.
+     */
+    @Test
+    public void testSerializedIngest() throws Exception {
+        ingestService.setDelay(50L);
+
+        ExecutorService executor = Executors.newFixedThreadPool(4);
+        try {
+            List<Future<Integer>> results = new ArrayList<>();
+            for (int ix = 0; ix < 8; ix++) {
+                String payload = "{\"samples\": [{\"key\": \"temperature\", \"value\": " + ix + "}]}";
+                results.add(executor.submit(() -> post("/batch", payload, APIKEY)));
+            }
+            for (Future<Integer> result : results) {
+                assertEquals(204, result.get().intValue());
+            }
+        } finally {
+            executor.shutdown();
+        }
+
+        assertEquals(1, ingestService.getMaxActiveCount());
+        assertTrue(ingestService.getIngestCount() >= 1);
+    }
+
+    private int post(String path, String payload, String apikey) throws IOException {
+        HttpURLConnection conn = (HttpURLConnection) new URL(baseUrl + path).openConnection();
+        conn.setRequestMethod("POST");
+        conn.setRequestProperty("Content-Type", "application/json");
+        if (apikey != null) {
+            conn.setRequestProperty("X-API-Key", apikey);
+        }
+        conn.setDoOutput(true);
+        try (OutputStream out = conn.getOutputStream()) {
+            out.write(payload.getBytes(UTF_8));
+        }
+        return conn.getResponseCode();
+    }
+
+}
@@ -0,0 +1,68 @@
+/*
+ * geordi
+ *
+ * Copyright (C) 2020 Richard "Shred" Körber
+ *   https://codeberg.org/shred/geordi
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.
+ */
+package org.shredzone.geordi.device;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import com.google.inject.Injector;
+import org.json.JSONObject;
+import org.shredzone.geordi.sensor.Sensor;
+
+/**
+ * Creates {@link Device} instances for unit tests.
+ */
+public final class TestDevices {
+
+    private TestDevices() {
+        // utility class without constructor
+    }
+
+    /**
+     * Creates a prepared {@link Device}. The sensors are numbered from 1.
+     *
+     * @param injector
+     *         {@link Injector} that injects the device's dependencies
+     * @param type
+     *         {@link Device} implementation
+     * @param config
+     *         Device configuration
+     * @param sensorConfigs
+     *         Configurations of the device's sensors
+     * @return Prepared {@link Device}
+     */
+    public static <T extends Device> T create(Injector injector, Class<T> type,
+                JSONObject config, JSONObject... sensorConfigs) {
+        T device = injector.getInstance(type);
+        device.setId(7);
+        device.setName("test");
+        device.setConfig(config);
+
+        List<Sensor> sensors = new ArrayList<>();
+        for (int ix = 0; ix < sensorConfigs.length; ix++) {
+            Sensor sensor = new Sensor();
+            sensor.setId(ix + 1);
+            sensor.setName("sensor " + (ix + 1));
+            sensor.setConfig(sensorConfigs[ix]);
+            sensors.add(sensor);
+        }
+        device.setSensors(sensors);
+
+        device.prepare();
+        return device;
+    }
+
+}
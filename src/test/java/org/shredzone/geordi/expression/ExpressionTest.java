@@ -0,0 +1,138 @@
+/*
+ * geordi
+ *
+ * Copyright (C) 2020 Richard "Shred" Körber
+ *   https://codeberg.org/shred/geordi
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.
+ */
+package org.shredzone.geordi.expression;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.util.Arrays;
+
+import org.junit.jupiter.api.Test;
+import org.shredzone.geordi.GeordiException;
+
+/**
+ * Unit tests for {@link Expression}.
+ */
+public class ExpressionTest {
+    private static final double DELTA = 1.0e-9;
+
+    /**
+     * Test that sensor references are resolved to inputs in order of their first
+     * occurrence.
+     */
+    @Test
+    public void testInputs() {
+        Expression expr = Expression.compile("$12 + $3 * $12 - $7");
+        assertEquals(Arrays.asList(12, 3, 7), expr.getInputs());
+        assertEquals(2.0 + 4.0 * 2.0 - 1.0, expr.evaluate(new double[] {2.0, 4.0, 1.0}), DELTA);
+        assertEquals("$12 + $3 * $12 - $7", expr.toString());
+    }
+
+    /**
+     * Test operator precedence and associativity.
+     */
+    @Test
+    public void testPrecedence() {
+        assertEquals(7.0, eval("1 + 2 * 3 + $1"), DELTA);
+        assertEquals(9.0, eval("(1 + 2) * 3 + $1"), DELTA);
+        assertEquals(2.0, eval("8 / 2 / 2 + $1"), DELTA);
+        assertEquals(4.0, eval("7 - 2 - 1 + $1"), DELTA);
+        assertEquals(512.0, eval("2 ^ 3 ^ 2 + $1"), DELTA);
+        assertEquals(-4.0, eval("-2 ^ 2 + $1"), DELTA);
+        assertEquals(0.25, eval("2 ^ -2 + $1"), DELTA);
+        assertEquals(-6.0, eval("2 * -3 + $1"), DELTA);
+        assertEquals(3.0, eval("+3 - -$1"), DELTA);
+    }
+
+    /**
+     * Test number formats.
+     */
+    @Test
+    public void testNumbers() {
+        assertEquals(0.5, eval(".5 + $1"), DELTA);
+        assertEquals(1500.0, eval("1.5e3 + $1"), DELTA);
+        assertEquals(0.015, eval("1.5E-2 + $1"), DELTA);
+    }
+
+    /**
+     * Test constants and functions.
+     */
+    @Test
+    public void testFunctions() {
+        assertEquals(Math.PI, eval("pi + $1"), DELTA);
+        assertEquals(Math.E, eval("e + $1"), DELTA);
+        assertEquals(3.0, eval("abs(-3) + $1"), DELTA);
+        assertEquals(3.0, eval("sqrt(9) + $1"), DELTA);
+        assertEquals(Math.E, eval("exp(1) + $1"), DELTA);
+        assertEquals(1.0, eval("ln(e) + $1"), DELTA);
+        assertEquals(3.0, eval("log10(1000) + $1"), DELTA);
+        assertEquals(2.0, eval("min(2, 5) + $1"), DELTA);
+        assertEquals(5.0, eval("max(2, 5) + $1"), DELTA);
+        assertEquals(32.0, eval("pow(2, 5) + $1"), DELTA);
+        assertEquals(4.0, eval("max(min($1 + 4, 9), abs(-1))"), DELTA);
+    }
+
+    /**
+     * Test a typical virtual sensor, the dew point by the Magnus formula.
+     */
+    @Test
+    public void testDewPoint() {
+        Expression expr = Expression.compile(
+                "243.12 * (ln($2 / 100) + 17.62 * $1 / (243.12 + $1))"
+                + " / (17.62 - (ln($2 / 100) + 17.62 * $1 / (243.12 + $1)))");
+        assertEquals(Arrays.asList(2, 1), expr.getInputs());
+        assertEquals(9.26, expr.evaluate(new double[] {50.0, 20.0}), 0.01);
+    }
+
+    /**
+     * Test that undefined results are returned as NaN or infinity.
+     */
+    @Test
+    public void testUndefined() {
+        Expression expr = Expression.compile("1 / $1");
+        assertTrue(Double.isInfinite(expr.evaluate(new double[] {0.0})));
+        assertTrue(Double.isNaN(Expression.compile("sqrt($1)").evaluate(new double[] {-1.0})));
+    }
+
+    /**
+     * Test that invalid expressions are rejected.
+     */
+    @Test
+    public void testInvalid() {
+        assertInvalid("");
+        assertInvalid("1 + 2");
+        assertInvalid("$");
+        assertInvalid("$1 +");
+        assertInvalid("($1 + 2");
+        assertInvalid("$1 + 2)");
+        assertInvalid("$1 $2");
+        assertInvalid("foo($1)");
+        assertInvalid("min($1)");
+        assertInvalid("sqrt $1");
+        assertInvalid("1.2.3 + $1");
+        assertInvalid("$1 # 2");
+    }
+
+    private static double eval(String source) {
+        return Expression.compile(source).evaluate(new double[] {0.0});
+    }
+
+    private static void assertInvalid(String source) {
+        assertThrows(GeordiException.class, () -> Expression.compile(source));
+    }
+
+}
@@ -0,0 +1,185 @@
+/*
+ * geordi
+ *
+ * Copyright (C) 2020 Richard "Shred" Körber
+ *   https://codeberg.org/shred/geordi
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.
+ */
+package org.shredzone.geordi.scheduler;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertSame;
+
+import java.math.BigDecimal;
+import java.time.Instant;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import com.google.inject.Guice;
+import com.google.inject.Injector;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.shredzone.geordi.GeordiException;
+import org.shredzone.geordi.data.Sample;
+import org.shredzone.geordi.data.ValueType;
+import org.shredzone.geordi.device.Device;
+import org.shredzone.geordi.metrics.Histogram;
+import org.shredzone.geordi.sensor.Sensor;
+import org.shredzone.geordi.service.DatabaseService;
+import org.shredzone.geordi.service.FreshnessService;
+import org.shredzone.geordi.service.FreshnessServiceImpl;
+import org.shredzone.geordi.service.IngestService;
+import org.shredzone.geordi.service.MetricsService;
+import org.shredzone.geordi.service.MetricsServiceImpl;
+import org.shredzone.geordi.service.RecordingIngestService;
+
+/**
+ * Unit tests for {@link DevicePoller}.
+ */
+public class DevicePollerTest {
+
+    private final RecordingIngestService ingestService = new RecordingIngestService();
+    private final Map<Integer, Device> devices = new HashMap<>();
+
+    private DevicePoller poller;
+    private MetricsService metricsService;
+
+    @BeforeEach
+    public void setup() {
+        Injector injector = Guice.createInjector(binder -> {
+            binder.bind(DatabaseService.class).toInstance(new DeviceDatabase());
+            binder.bind(IngestService.class).toInstance(ingestService);
+            binder.bind(MetricsService.class).to(MetricsServiceImpl.class);
+            binder.bind(FreshnessService.class).to(FreshnessServiceImpl.class);
+        });
+        poller = injector.getInstance(DevicePoller.class);
+        metricsService = injector.getInstance(MetricsService.class);
+    }
+
+    /**
+     * Test that the samples are ingested, and the poll metrics are labelled by the
+     * device ID, so devices with the same name are kept apart.
+     */
+    @Test
+    public void testMetricsByDeviceId() {
+        addDevice(1, "Garden", false);
+        addDevice(2, "Garden", false);
+
+        Instant now = Instant.now();
+        poller.poll(1, "Garden", now.minusMillis(50L), now);
+        poller.poll(1, "Garden", now.minusMillis(50L), now);
+        poller.poll(2, "Garden", null, now);
+
+        assertEquals(3, ingestService.getSamples().size());
+
+        // three phases per poll
+        assertEquals(6.0, metricsService.total("geordi_poll_seconds", "device", "1"));
+        assertEquals(3.0, metricsService.total("geordi_poll_seconds", "device", "2"));
+        assertEquals(9.0, metricsService.total("geordi_poll_seconds", "name", "Garden"));
+        assertEquals(2.0, metricsService.total("geordi_scheduler_lag_seconds", "device", "1"));
+        assertEquals(0.0, metricsService.total("geordi_scheduler_lag_seconds", "device", "2"));
+
+        Histogram fetch = metricsService.histogram("geordi_poll_seconds", "",
+                Histogram.LATENCY_BUCKETS, "device", "1", "name", "Garden", "phase", "fetch");
+        assertEquals(2L, fetch.getCount());
+    }
+
+    /**
+     * Test that failed polls are counted by device and root cause.
+     */
+    @Test
+    public void testErrors() {
+        addDevice(3, "Broken", true);
+
+        poller.poll(3, "Broken", null, Instant.now());
+        poller.poll(3, "Broken", null, Instant.now());
+
+        assertEquals(2.0, metricsService.total("geordi_poll_errors_total",
+                "device", "3", "type", "IllegalStateException"));
+        assertEquals(0.0, metricsService.total("geordi_poll_seconds", "device", "3"));
+    }
+
+    /**
+     * Test that a renamed device is reported by its new name.
+     */
+    @Test
+    public void testRenamedDevice() {
+        addDevice(4, "Old", false);
+
+        poller.poll(4, "Old", null, Instant.now());
+        poller.poll(4, "New", null, Instant.now());
+
+        assertEquals(3.0, metricsService.total("geordi_poll_seconds", "device", "4", "name", "Old"));
+        assertEquals(3.0, metricsService.total("geordi_poll_seconds", "device", "4", "name", "New"));
+        assertSame(metricsService.histogram("geordi_poll_seconds", "", Histogram.LATENCY_BUCKETS,
+                        "device", "4", "name", "New", "phase", "store"),
+                metricsService.histogram("geordi_poll_seconds", "", Histogram.LATENCY_BUCKETS,
+                        "device", "4", "name", "New", "phase", "store"));
+    }
+
+    private void addDevice(int id, String name, boolean failing) {
+        Sensor sensor = new Sensor();
+        sensor.setId(id * 10);
+        sensor.setName("sensor");
+
+        Device device = new Device() {
+            @Override
+            public List<Sample> readSensors() {
+                if (failing) {
+                    throw new GeordiException("Could not read", new IllegalStateException("broken"));
+                }
+                return Collections.singletonList(new Sample(sensor, Instant.now(), BigDecimal.ONE));
+            }
+        };
+        device.setId(id);
+        device.setName(name);
+        devices.put(id, device);
+    }
+
+    /**
+     * A {@link DatabaseService} that only knows the devices of the test.
+     */
+    private class DeviceDatabase implements DatabaseService {
+        @Override
+        public List<Device> fetchDevices() {
+            throw new UnsupportedOperationException();
+        }
+
+        @Override
+        public Device getDevice(int id) {
+            return devices.get(id);
+        }
+
+        @Override
+        public List<Sensor> fetchSensors(Device device) {
+            throw new UnsupportedOperationException();
+        }
+
+        @Override
+        public void storeSamples(Collection<Sample> samples) {
+            throw new UnsupportedOperationException();
+        }
+
+        @Override
+        public List<Sample> fetchLatestSamples(Collection<Sensor> sensors) {
+            return Collections.emptyList();
+        }
+
+        @Override
+        public ValueType getValueType() {
+            throw new UnsupportedOperationException();
+        }
+    }
+
+}
@@ -0,0 +1,182 @@
+/*
+ * geordi
+ *
+ * Copyright (C) 2020 Richard "Shred" Körber
+ *   https://codeberg.org/shred/geordi
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.
+ */
+package org.shredzone.geordi.scheduler;
+
+import static java.util.stream.Collectors.toList;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.text.ParseException;
+import java.time.Instant;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+
+import com.google.inject.Guice;
+import com.google.inject.Injector;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.quartz.CronExpression;
+import org.shredzone.geordi.data.Sample;
+import org.shredzone.geordi.device.Device;
+
+/**
+ * Unit tests for {@link TimingWheelPollScheduler}.
+ */
+public class TimingWheelPollSchedulerTest {
+
+    private static final String EVERY_SECOND = "* * * * * ?";
+
+    private final RecordingPoller poller = new RecordingPoller();
+
+    private TimingWheelPollScheduler scheduler;
+
+    @BeforeEach
+    public void setup() {
+        Injector injector = Guice.createInjector(binder ->
+                binder.bind(DevicePoller.class).toProvider(() -> poller));
+        scheduler = injector.getInstance(TimingWheelPollScheduler.class);
+    }
+
+    @AfterEach
+    public void teardown() {
+        scheduler.shutdown();
+    }
+
+    /**
+     * Test that a device is polled at every fire time of its cron expression, and that
+     * the poll is started in time. A fire time one second ahead is beyond the lowest
+     * level of the wheel, so the triggers are cascaded down on every poll.
+     */
+    @Test
+    public void testEverySecond() throws ParseException, InterruptedException {
+        scheduler.schedule(device(1, EVERY_SECOND));
+        scheduler.start();
+        Thread.sleep(3500L);
+
+        List<Poll> polls = poller.getPolls(1);
+        assertTrue(polls.size() >= 3, "polled " + polls.size() + " times");
+        for (int ix = 0; ix < polls.size(); ix++) {
+            Poll poll = polls.get(ix);
+            assertEquals(0L, poll.scheduled.toEpochMilli() % 1000L);
+            long lag = poll.fired.toEpochMilli() - poll.scheduled.toEpochMilli();
+            assertTrue(lag >= 0L && lag < 500L, "lag is " + lag + " ms");
+            if (ix > 0) {
+                assertEquals(1000L, poll.scheduled.toEpochMilli()
+                        - polls.get(ix - 1).scheduled.toEpochMilli());
+            }
+        }
+    }
+
+    /**
+     * Test that many devices with the same fire times are all polled, and each of them
+     * only once per fire time.
+     */
+    @Test
+    public void testManyDevices() throws ParseException, InterruptedException {
+        for (int id = 1; id <= 500; id++) {
+            scheduler.schedule(device(id, EVERY_SECOND));
+        }
+        scheduler.start();
+        Thread.sleep(2500L);
+
+        for (int id = 1; id <= 500; id++) {
+            List<Poll> polls = poller.getPolls(id);
+            assertTrue(polls.size() >= 2, "device " + id + " polled " + polls.size() + " times");
+            List<Instant> scheduled = polls.stream().map(poll -> poll.scheduled).collect(toList());
+            assertEquals(scheduled.size(), scheduled.stream().distinct().count());
+        }
+    }
+
+    /**
+     * Test that devices with fire times far ahead or in the past are not polled.
+     */
+    @Test
+    public void testNotDue() throws ParseException, InterruptedException {
+        scheduler.schedule(device(1, "0 0 0 1 1 ? 2099"));
+        scheduler.schedule(device(2, "0 0 0 1 1 ? 2000"));
+        scheduler.schedule(device(3, EVERY_SECOND));
+        scheduler.start();
+        Thread.sleep(1500L);
+
+        assertTrue(poller.getPolls(1).isEmpty());
+        assertTrue(poller.getPolls(2).isEmpty());
+        assertFalse(poller.getPolls(3).isEmpty());
+    }
+
+    /**
+     * Test that no device is polled after the scheduler was shut down.
+     */
+    @Test
+    public void testShutdown() throws ParseException, InterruptedException {
+        scheduler.schedule(device(1, EVERY_SECOND));
+        scheduler.start();
+        Thread.sleep(1500L);
+        scheduler.shutdown();
+
+        int count = poller.getPolls(1).size();
+        assertTrue(count >= 1);
+        Thread.sleep(1500L);
+        assertEquals(count, poller.getPolls(1).size());
+    }
+
+    private static Device device(int id, String cron) throws ParseException {
+        Device device = new Device() {
+            @Override
+            public List<Sample> readSensors() {
+                return Collections.emptyList();
+            }
+        };
+        device.setId(id);
+        device.setName("device " + id);
+        device.setCron(new CronExpression(cron));
+        return device;
+    }
+
+    /**
+     * A single recorded poll.
+     */
+    private static class Poll {
+        private final Instant scheduled;
+        private final Instant fired;
+
+        public Poll(Instant scheduled, Instant fired) {
+            this.scheduled = scheduled;
+            this.fired = fired;
+        }
+    }
+
+    /**
+     * A {@link DevicePoller} that only records the polls.
+     */
+    private static class RecordingPoller extends DevicePoller {
+        private final Map<Integer, List<Poll>> polls = new ConcurrentHashMap<>();
+
+        @Override
+        public void poll(int devId, String name, Instant scheduled, Instant fired) {
+            polls.computeIfAbsent(devId, id -> new CopyOnWriteArrayList<>()).add(new Poll(scheduled, fired));
+        }
+
+        public List<Poll> getPolls(int devId) {
+            return polls.getOrDefault(devId, Collections.emptyList());
+        }
+    }
+
+}
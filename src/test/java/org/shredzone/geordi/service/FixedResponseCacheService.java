@@ -0,0 +1,72 @@
+/*
+ * geordi
+ *
+ * Copyright (C) 2020 Richard "Shred" Körber
+ *   https://codeberg.org/shred/geordi
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.
+ */
+package org.shredzone.geordi.service;
+
+import static java.nio.charset.StandardCharsets.UTF_8;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.time.Duration;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+
+import org.shredzone.geordi.data.Response;
+
+/**
+ * A {@link ResponseCacheService} for unit tests. It returns the same body on every
+ * fetch, without opening a connection.
+ */
+public class FixedResponseCacheService implements ResponseCacheService {
+
+    private final AtomicLong versions = new AtomicLong();
+    private final LongAdder fetchCount = new LongAdder();
+    private volatile Response<byte[]> response;
+
+    /**
+     * Sets the body that is returned on the following fetches. Each body gets a new
+     * version.
+     */
+    public void setBody(String body) {
+        response = new Response<>(200, body.getBytes(UTF_8), versions.incrementAndGet());
+    }
+
+    @Override
+    public <T> Response<T> fetch(String key, Duration ttl, Fetcher fetcher, BodyParser<T> parser)
+            throws IOException {
+        fetchCount.increment();
+        Response<byte[]> current = response;
+        try (InputStream in = new ByteArrayInputStream(current.getBody())) {
+            return new Response<>(current.getStatus(), parser.parse(in), current.getVersion());
+        }
+    }
+
+    @Override
+    public long getFetchCount() {
+        return fetchCount.sum();
+    }
+
+    @Override
+    public long getSharedHitCount() {
+        return 0L;
+    }
+
+    @Override
+    public long getUnchangedCount() {
+        return 0L;
+    }
+
+}
@@ -0,0 +1,170 @@
+/*
+ * geordi
+ *
+ * Copyright (C) 2020 Richard "Shred" Körber
+ *   https://codeberg.org/shred/geordi
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.
+ */
+package org.shredzone.geordi.service;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.io.IOException;
+import java.io.StringWriter;
+import java.util.Collections;
+import java.util.List;
+
+import com.google.inject.Guice;
+import com.google.inject.Injector;
+import org.json.JSONArray;
+import org.json.JSONObject;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.shredzone.geordi.data.Sample;
+import org.shredzone.geordi.device.Device;
+import org.shredzone.geordi.device.KaminariDevice;
+import org.shredzone.geordi.device.TestDevices;
+import org.shredzone.geordi.device.VirtualDevice;
+
+/**
+ * Unit tests for {@link FreshnessServiceImpl}.
+ */
+public class FreshnessServiceImplTest {
+
+    private Injector injector;
+    private FreshnessServiceImpl freshnessService;
+
+    @BeforeEach
+    public void setup() {
+        injector = Guice.createInjector(binder -> {
+            binder.bind(IngestService.class).toInstance(new RecordingIngestService());
+        });
+        freshnessService = new FreshnessServiceImpl();
+    }
+
+    /**
+     * Test that virtual sensors are only checked if they have their own threshold.
+     */
+    @Test
+    public void testVirtualSensors() throws IOException {
+        VirtualDevice device = TestDevices.create(injector, VirtualDevice.class,
+                new JSONObject().put("StaleAfter", "PT10M"),
+                new JSONObject().put("expression", "$1 * 2"),
+                new JSONObject().put("expression", "$1 * 3").put("StaleAfter", "PT1H"));
+
+        freshnessService.setup(Collections.singletonList(device));
+
+        JSONObject json = status();
+        assertEquals("PT10M", json.getString("staleAfter"));
+        assertEquals(JSONObject.NULL, sensor(json, 1).get("staleAfter"));
+        assertEquals("PT1H", sensor(json, 2).getString("staleAfter"));
+    }
+
+    /**
+     * Test that lightning sensors are only checked if they have their own threshold,
+     * and that the generic Kaminari values use the threshold of the device.
+     */
+    @Test
+    public void testLightningSensors() throws IOException {
+        KaminariDevice device = TestDevices.create(injector, KaminariDevice.class,
+                new JSONObject().put("host", "localhost").put("StaleAfter", "PT10M"),
+                new JSONObject().put("lightning_key", "energy"),
+                new JSONObject().put("lightning_key", "distance").put("StaleAfter", "PT24H"),
+                new JSONObject().put("key", "noiseFloorLevel"));
+
+        freshnessService.setup(Collections.singletonList(device));
+
+        JSONObject json = status();
+        assertEquals(JSONObject.NULL, sensor(json, 1).get("staleAfter"));
+        assertEquals("PT24H", sensor(json, 2).getString("staleAfter"));
+        assertEquals("PT10M", sensor(json, 3).getString("staleAfter"));
+    }
+
+    /**
+     * Test that an event-driven sensor without threshold is never reported as stale,
+     * while one with an explicit threshold is.
+     */
+    @Test
+    public void testCheckEventDriven() throws IOException, InterruptedException {
+        KaminariDevice device = TestDevices.create(injector, KaminariDevice.class,
+                new JSONObject().put("host", "localhost"),
+                new JSONObject().put("lightning_key", "energy"),
+                new JSONObject().put("lightning_key", "distance").put("StaleAfter", "PT0.05S"),
+                new JSONObject().put("key", "noiseFloorLevel"));
+
+        freshnessService.setup(Collections.singletonList(device));
+        Thread.sleep(100L);
+        freshnessService.check();
+
+        assertEquals(0, freshnessService.getStaleDeviceCount());
+        assertEquals(1, freshnessService.getStaleSensorCount());
+
+        JSONObject json = status();
+        assertFalse(json.getBoolean("stale"));
+        assertFalse(sensor(json, 1).getBoolean("stale"));
+        assertTrue(sensor(json, 2).getBoolean("stale"));
+        assertFalse(sensor(json, 3).getBoolean("stale"));
+    }
+
+    /**
+     * Test that a device that is not event-driven passes its threshold to all sensors.
+     */
+    @Test
+    public void testPolledSensors() throws IOException {
+        Device device = TestDevices.create(injector, PolledDevice.class,
+                new JSONObject().put("StaleAfter", "PT5M"),
+                new JSONObject(),
+                new JSONObject().put("StaleAfter", "PT0S"));
+
+        freshnessService.setup(Collections.singletonList(device));
+
+        JSONObject json = status();
+        assertEquals("PT5M", sensor(json, 1).getString("staleAfter"));
+        assertEquals(JSONObject.NULL, sensor(json, 2).get("staleAfter"));
+    }
+
+    /**
+     * Returns the status of the only device.
+     */
+    private JSONObject status() throws IOException {
+        StringWriter out = new StringWriter();
+        freshnessService.write(out, false);
+        JSONArray devices = new JSONObject(out.toString()).getJSONArray("devices");
+        assertEquals(1, devices.length());
+        return devices.getJSONObject(0);
+    }
+
+    /**
+     * Returns the status of the sensor with the given ID.
+     */
+    private static JSONObject sensor(JSONObject device, int id) {
+        JSONArray sensors = device.getJSONArray("sensors");
+        for (int ix = 0; ix < sensors.length(); ix++) {
+            if (sensors.getJSONObject(ix).getInt("id") == id) {
+                return sensors.getJSONObject(ix);
+            }
+        }
+        throw new AssertionError("Sensor " + id + " not found");
+    }
+
+    /**
+     * A {@link Device} that delivers a sample of each sensor on every poll.
+     */
+    public static class PolledDevice extends Device {
+        @Override
+        public List<Sample> readSensors() {
+            return Collections.emptyList();
+        }
+    }
+
+}
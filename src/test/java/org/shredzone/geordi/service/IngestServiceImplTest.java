@@ -0,0 +1,176 @@
+/*
+ * geordi
+ *
+ * Copyright (C) 2020 Richard "Shred" Körber
+ *   https://codeberg.org/shred/geordi
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.
+ */
+package org.shredzone.geordi.service;
+
+import static java.util.stream.Collectors.toList;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+import java.math.BigDecimal;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.List;
+
+import com.google.inject.Guice;
+import com.google.inject.Injector;
+import org.json.JSONObject;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.shredzone.geordi.GeordiException;
+import org.shredzone.geordi.data.Sample;
+import org.shredzone.geordi.data.ValueType;
+import org.shredzone.geordi.device.Device;
+import org.shredzone.geordi.sensor.Sensor;
+
+/**
+ * Unit tests for {@link IngestServiceImpl}.
+ */
+public class IngestServiceImplTest {
+
+    private static final Instant T0 = Instant.parse("2020-06-01T12:00:00Z");
+
+    private final SampleDatabase database = new SampleDatabase();
+
+    private IngestService ingestService;
+    private Sensor sensor;
+
+    @BeforeEach
+    public void setup() {
+        Injector injector = Guice.createInjector(binder -> {
+            binder.bind(DatabaseService.class).toInstance(database);
+            binder.bind(CompactingService.class).to(CompactingServiceImpl.class);
+            binder.bind(DerivingService.class).to(DerivingServiceImpl.class);
+            binder.bind(MetricsService.class).to(MetricsServiceImpl.class);
+            binder.bind(FreshnessService.class).to(FreshnessServiceImpl.class);
+        });
+        ingestService = injector.getInstance(IngestServiceImpl.class);
+
+        sensor = new Sensor();
+        sensor.setId(1);
+        sensor.setName("sensor");
+        sensor.setConfig(new JSONObject().put("Compacting", true));
+    }
+
+    /**
+     * Test that samples of the same sensor in one batch are compacted one after the
+     * other, each one against the sample stored before it.
+     */
+    @Test
+    public void testSameSensorInBatch() {
+        ingestService.ingest(Collections.singletonList(sample(0, 10)));
+        database.stored.clear();
+
+        ingestService.ingest(Arrays.asList(
+                sample(1, 10), sample(2, 20), sample(3, 10), sample(4, 10), sample(5, 20)));
+
+        assertEquals(Arrays.asList("1=10", "2=20", "3=10", "4=10", "5=20"), stored());
+    }
+
+    /**
+     * Test that unchanged samples in one batch are compacted, and the last unchanged
+     * sample is regenerated before the next change.
+     */
+    @Test
+    public void testUnchangedInBatch() {
+        ingestService.ingest(Collections.singletonList(sample(0, 10)));
+        database.stored.clear();
+
+        ingestService.ingest(Arrays.asList(
+                sample(1, 10), sample(2, 10), sample(3, 20), sample(4, 20), sample(5, 20)));
+        assertEquals(Arrays.asList("2=10", "3=20"), stored());
+
+        database.stored.clear();
+        ingestService.ingest(Collections.singletonList(sample(6, 30)));
+        assertEquals(Arrays.asList("5=20", "6=30"), stored());
+    }
+
+    /**
+     * Test that samples that could not be stored are not used as reference for the
+     * next samples.
+     */
+    @Test
+    public void testStoreFailure() {
+        ingestService.ingest(Collections.singletonList(sample(0, 10)));
+
+        database.failing = true;
+        assertThrows(GeordiException.class,
+                () -> ingestService.ingest(Collections.singletonList(sample(1, 20))));
+
+        database.failing = false;
+        database.stored.clear();
+        ingestService.ingest(Collections.singletonList(sample(2, 20)));
+        assertEquals(Collections.singletonList("2=20"), stored());
+    }
+
+    private Sample sample(int second, int value) {
+        return new Sample(sensor, T0.plusSeconds(second), BigDecimal.valueOf(value));
+    }
+
+    /**
+     * Returns the stored samples as "second=value", ordered by their timestamp.
+     */
+    private List<String> stored() {
+        return database.stored.stream()
+                .sorted((a, b) -> a.getTimestamp().compareTo(b.getTimestamp()))
+                .map(s -> (s.getTimestamp().getEpochSecond() - T0.getEpochSecond()) + "=" + s.getValue())
+                .collect(toList());
+    }
+
+    /**
+     * A {@link DatabaseService} that keeps the stored samples in memory.
+     */
+    private static class SampleDatabase implements DatabaseService {
+        private final List<Sample> stored = new ArrayList<>();
+        private boolean failing;
+
+        @Override
+        public List<Device> fetchDevices() {
+            throw new UnsupportedOperationException();
+        }
+
+        @Override
+        public Device getDevice(int id) {
+            throw new UnsupportedOperationException();
+        }
+
+        @Override
+        public List<Sensor> fetchSensors(Device device) {
+            throw new UnsupportedOperationException();
+        }
+
+        @Override
+        public void storeSamples(Collection<Sample> samples) {
+            if (failing && !samples.isEmpty()) {
+                throw new GeordiException("Database is down");
+            }
+            stored.addAll(samples);
+        }
+
+        @Override
+        public List<Sample> fetchLatestSamples(Collection<Sensor> sensors) {
+            return Collections.emptyList();
+        }
+
+        @Override
+        public ValueType getValueType() {
+            return ValueType.NUMERIC;
+        }
+    }
+
+}
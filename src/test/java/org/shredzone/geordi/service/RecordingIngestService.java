@@ -0,0 +1,178 @@
+/*
+ * geordi
+ *
+ * Copyright (C) 2020 Richard "Shred" Körber
+ *   https://codeberg.org/shred/geordi
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.
+ */
+package org.shredzone.geordi.service;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+
+import org.shredzone.geordi.data.Sample;
+
+/**
+ * An {@link IngestService} for unit tests. It records all ingested {@link Sample}, and
+ * the number of ingest operations. This implementation is threadsafe.
+ */
+public class RecordingIngestService implements IngestService {
+
+    private final List<Sample> samples = new ArrayList<>();
+    private int ingestCount;
+    private int activeCount;
+    private int maxActiveCount;
+    private volatile long delayMs;
+    private volatile boolean failing;
+
+    /**
+     * Sets a delay that is added to each ingest operation, to simulate a slow database.
+     */
+    public void setDelay(long delayMs) {
+        this.delayMs = delayMs;
+    }
+
+    @Override
+    public void ingest(Collection<Sample> batch) {
+        begin();
+        try {
+            if (delayMs > 0) {
+                Thread.sleep(delayMs);
+            }
+            if (failing) {
+                throw new IllegalStateException("Database is not available");
+            }
+            synchronized (this) {
+                samples.addAll(batch);
+            }
+        } catch (InterruptedException ex) {
+            Thread.currentThread().interrupt();
+        } finally {
+            end();
+        }
+    }
+
+    @Override
+    public IngestSink open() {
+        List<Sample> batch = new ArrayList<>();
+        return new IngestSink() {
+            private boolean closed;
+
+            @Override
+            public void accept(Sample sample) {
+                batch.add(sample);
+            }
+
+            @Override
+            public int getSampleCount() {
+                return batch.size();
+            }
+
+            @Override
+            public long getStoreNanos() {
+                return 0L;
+            }
+
+            @Override
+            public void close() {
+                if (!closed) {
+                    closed = true;
+                    ingest(batch);
+                }
+            }
+        };
+    }
+
+    /**
+     * Lets all following ingest operations fail, e.g. to simulate an unavailable
+     * database.
+     */
+    public void setFailing(boolean failing) {
+        this.failing = failing;
+    }
+
+    /**
+     * Returns a copy of all samples that have been ingested so far.
+     */
+    public synchronized List<Sample> getSamples() {
+        return new ArrayList<>(samples);
+    }
+
+    /**
+     * Returns the number of ingest operations.
+     */
+    public synchronized int getIngestCount() {
+        return ingestCount;
+    }
+
+    /**
+     * Returns the maximum number of ingest operations that were running concurrently.
+     */
+    public synchronized int getMaxActiveCount() {
+        return maxActiveCount;
+    }
+
+    /**
+     * Waits until at least the given number of samples have been ingested.
+     *
+     * @param count
+     *         Number of samples to wait for
+     * @param timeoutMs
+     *         Maximum time to wait, in milliseconds
+     * @return {@code true} if the samples arrived in time
+     */
+    public synchronized boolean awaitSamples(int count, long timeoutMs) throws InterruptedException {
+        long deadline = System.currentTimeMillis() + timeoutMs;
+        while (samples.size() < count) {
+            long remaining = deadline - System.currentTimeMillis();
+            if (remaining <= 0) {
+                return false;
+            }
+            wait(remaining);
+        }
+        return true;
+    }
+
+    /**
+     * Waits until at least the given number of ingest operations have been finished,
+     * successfully or not.
+     *
+     * @param count
+     *         Number of ingest operations to wait for
+     * @param timeoutMs
+     *         Maximum time to wait, in milliseconds
+     * @return {@code true} if the ingest operations were finished in time
+     */
+    public synchronized boolean awaitIngestCount(int count, long timeoutMs) throws InterruptedException {
+        long deadline = System.currentTimeMillis() + timeoutMs;
+        while (ingestCount < count || activeCount > 0) {
+            long remaining = deadline - System.currentTimeMillis();
+            if (remaining <= 0) {
+                return false;
+            }
+            wait(remaining);
+        }
+        return true;
+    }
+
+    private synchronized void begin() {
+        ingestCount++;
+        activeCount++;
+        maxActiveCount = Math.max(maxActiveCount, activeCount);
+    }
+
+    private synchronized void end() {
+        activeCount--;
+        notifyAll();
+    }
+
+}
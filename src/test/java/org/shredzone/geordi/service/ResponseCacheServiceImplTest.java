@@ -0,0 +1,250 @@
+/*
+ * geordi
+ *
+ * Copyright (C) 2020 Richard "Shred" Körber
+ *   https://codeberg.org/shred/geordi
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.
+ */
+package org.shredzone.geordi.service;
+
+import static java.nio.charset.StandardCharsets.UTF_8;
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNotEquals;
+import static org.junit.jupiter.api.Assertions.assertSame;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.URL;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpServer;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.shredzone.geordi.data.Response;
+
+/**
+ * Unit tests for {@link ResponseCacheServiceImpl}, against a stand-in HTTP endpoint.
+ */
+public class ResponseCacheServiceImplTest {
+    private static final Duration TTL = Duration.ofMinutes(1L);
+
+    private final ResponseCacheServiceImpl cacheService = new ResponseCacheServiceImpl();
+    private final AtomicInteger requests = new AtomicInteger();
+    private final AtomicInteger parses = new AtomicInteger();
+
+    private HttpServer server;
+    private URL url;
+    private volatile String body = "first";
+    private volatile String etag;
+    private volatile int status = 200;
+    private volatile CountDownLatch gate;
+
+    @BeforeEach
+    public void setup() throws IOException {
+        server = HttpServer.create(new InetSocketAddress(InetAddress.getLoopbackAddress(), 0), 0);
+        server.createContext("/", this::handle);
+        server.setExecutor(Executors.newCachedThreadPool());
+        server.start();
+        url = new URL("http://127.0.0.1:" + server.getAddress().getPort() + "/status");
+    }
+
+    @AfterEach
+    public void tearDown() {
+        server.stop(0);
+    }
+
+    /**
+     * Test that concurrent fetches of the same endpoint share one request, and the body
+     * is only parsed once.
+     */
+    @Test
+    public void testConcurrentFetchesAreShared() throws Exception {
+        gate = new CountDownLatch(1);
+        ExecutorService executor = Executors.newFixedThreadPool(4);
+        try {
+            List<Future<Response<String>>> futures = new ArrayList<>();
+            for (int ix = 0; ix < 4; ix++) {
+                futures.add(executor.submit(() -> cacheService.fetch("key", TTL, url::openConnection, this::parse)));
+            }
+
+            // Wait until the first request arrived, so all fetchers are waiting for it
+            while (requests.get() == 0) {
+                Thread.sleep(10L);
+            }
+            Thread.sleep(100L);
+            gate.countDown();
+
+            Response<String> first = futures.get(0).get(10L, TimeUnit.SECONDS);
+            for (Future<Response<String>> future : futures) {
+                assertSame(first, future.get(10L, TimeUnit.SECONDS));
+            }
+            assertEquals("first", first.getBody());
+        } finally {
+            executor.shutdownNow();
+        }
+
+        assertEquals(1, requests.get());
+        assertEquals(1, parses.get());
+        assertEquals(1L, cacheService.getFetchCount());
+        assertEquals(3L, cacheService.getSharedHitCount());
+    }
+
+    /**
+     * Test that a response is reused within the time to live, and fetched again after
+     * it expired.
+     */
+    @Test
+    public void testTimeToLive() throws Exception {
+        Response<String> first = cacheService.fetch("key", TTL, url::openConnection, this::parse);
+        Response<String> second = cacheService.fetch("key", TTL, url::openConnection, this::parse);
+        assertSame(first, second);
+        assertEquals(1, requests.get());
+
+        body = "second";
+        Response<String> third = cacheService.fetch("key", Duration.ZERO, url::openConnection, this::parse);
+        assertEquals(2, requests.get());
+        assertEquals("second", third.getBody());
+        assertNotEquals(first.getVersion(), third.getVersion());
+    }
+
+    /**
+     * Test that an unchanged body keeps its version.
+     */
+    @Test
+    public void testUnchangedBody() throws Exception {
+        Response<byte[]> first = cacheService.fetch("key", Duration.ZERO, url::openConnection);
+        Response<byte[]> second = cacheService.fetch("key", Duration.ZERO, url::openConnection);
+        assertEquals(2, requests.get());
+        assertArrayEquals("first".getBytes(UTF_8), second.getBody());
+        assertEquals(first.getVersion(), second.getVersion());
+        assertEquals(1L, cacheService.getUnchangedCount());
+
+        body = "second";
+        Response<byte[]> third = cacheService.fetch("key", Duration.ZERO, url::openConnection);
+        assertNotEquals(first.getVersion(), third.getVersion());
+        assertEquals(1L, cacheService.getUnchangedCount());
+    }
+
+    /**
+     * Test that an unchanged parsed response keeps its version, and only the part of
+     * the body that was read by the parser is compared.
+     */
+    @Test
+    public void testUnchangedPrefix() throws Exception {
+        body = "header|first";
+        Response<String> first = cacheService.fetch("key", Duration.ZERO, url::openConnection, this::parseHeader);
+        body = "header|second";
+        Response<String> second = cacheService.fetch("key", Duration.ZERO, url::openConnection, this::parseHeader);
+        assertEquals("header", second.getBody());
+        assertEquals(first.getVersion(), second.getVersion());
+
+        body = "footer|second";
+        Response<String> third = cacheService.fetch("key", Duration.ZERO, url::openConnection, this::parseHeader);
+        assertEquals("footer", third.getBody());
+        assertNotEquals(first.getVersion(), third.getVersion());
+        assertEquals(1L, cacheService.getUnchangedCount());
+    }
+
+    /**
+     * Test that conditional requests are used if the endpoint sends an ETag, and the
+     * body is not parsed again if the endpoint reports it as unchanged.
+     */
+    @Test
+    public void testConditionalRequest() throws Exception {
+        etag = "\"v1\"";
+        Response<String> first = cacheService.fetch("key", Duration.ZERO, url::openConnection, this::parse);
+        Response<String> second = cacheService.fetch("key", Duration.ZERO, url::openConnection, this::parse);
+        assertEquals(2, requests.get());
+        assertEquals(1, parses.get());
+        assertSame(first, second);
+        assertEquals(1L, cacheService.getUnchangedCount());
+    }
+
+    /**
+     * Test that failed fetches are not cached.
+     */
+    @Test
+    public void testErrorIsNotCached() throws Exception {
+        status = 500;
+        Response<String> failed = cacheService.fetch("key", TTL, url::openConnection, this::parse);
+        assertFalse(failed.isOk());
+        assertEquals(500, failed.getStatus());
+        assertEquals(0, parses.get());
+
+        status = 200;
+        Response<String> ok = cacheService.fetch("key", TTL, url::openConnection, this::parse);
+        assertTrue(ok.isOk());
+        assertEquals(2, requests.get());
+    }
+
+    private String parse(InputStream in) throws IOException {
+        parses.incrementAndGet();
+        return new String(ResponseCacheService.BodyParser.readAll(in), UTF_8);
+    }
+
+    private String parseHeader(InputStream in) throws IOException {
+        byte[] header = new byte[6];
+        int len = 0;
+        while (len < header.length) {
+            int n = in.read(header, len, header.length - len);
+            if (n < 0) {
+                break;
+            }
+            len += n;
+        }
+        return new String(header, 0, len, UTF_8);
+    }
+
+    private void handle(HttpExchange exchange) throws IOException {
+        requests.incrementAndGet();
+        CountDownLatch currentGate = gate;
+        if (currentGate != null) {
+            try {
+                currentGate.await(10L, TimeUnit.SECONDS);
+            } catch (InterruptedException ex) {
+                Thread.currentThread().interrupt();
+            }
+        }
+
+        String currentEtag = etag;
+        if (currentEtag != null) {
+            exchange.getResponseHeaders().set("ETag", currentEtag);
+            if (currentEtag.equals(exchange.getRequestHeaders().getFirst("If-None-Match"))) {
+                exchange.sendResponseHeaders(304, -1);
+                exchange.close();
+                return;
+            }
+        }
+
+        byte[] data = body.getBytes(UTF_8);
+        exchange.sendResponseHeaders(status, data.length);
+        try (OutputStream out = exchange.getResponseBody()) {
+            out.write(data);
+        }
+    }
+
+}
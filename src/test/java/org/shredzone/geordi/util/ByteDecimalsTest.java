@@ -0,0 +1,122 @@
+/*
+ * geordi
+ *
+ * Copyright (C) 2020 Richard "Shred" Körber
+ *   https://codeberg.org/shred/geordi
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.
+ */
+package org.shredzone.geordi.util;
+
+import static java.nio.charset.StandardCharsets.UTF_8;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNull;
+
+import java.math.BigDecimal;
+import java.nio.ByteBuffer;
+
+import org.junit.jupiter.api.Test;
+
+/**
+ * Unit tests for {@link ByteDecimals}.
+ */
+public class ByteDecimalsTest {
+
+    /**
+     * Test parsing of decimal numbers.
+     */
+    @Test
+    public void testParseDecimal() {
+        assertEquals(new BigDecimal("0"), decimal("0"));
+        assertEquals(new BigDecimal("42"), decimal("42"));
+        assertEquals(new BigDecimal("-42"), decimal("-42"));
+        assertEquals(new BigDecimal("42"), decimal("+42"));
+        assertEquals(new BigDecimal("21.50"), decimal("21.50"));
+        assertEquals(new BigDecimal("-0.5"), decimal("-.5"));
+        assertEquals(new BigDecimal("1"), decimal("1."));
+        assertEquals(new BigDecimal("1.5E+3"), decimal("1.5e3"));
+        assertEquals(new BigDecimal("1.5E+3"), decimal("1.5E+3"));
+        assertEquals(new BigDecimal("0.015"), decimal("1.5e-2"));
+        assertEquals(new BigDecimal("999999999999999999"), decimal("999999999999999999"));
+    }
+
+    /**
+     * Test that numbers with more than 18 digits are parsed exactly.
+     */
+    @Test
+    public void testParseLongDecimal() {
+        assertEquals(new BigDecimal("12345678901234567890"), decimal("12345678901234567890"));
+        assertEquals(new BigDecimal("-1.2345678901234567890"), decimal("-1.2345678901234567890"));
+        assertEquals(new BigDecimal("1.2345678901234567890E+5"), decimal("1.2345678901234567890e5"));
+    }
+
+    /**
+     * Test that only the given range of the buffer is parsed.
+     */
+    @Test
+    public void testRange() {
+        ByteBuffer buf = ByteBuffer.wrap("temp=21.5,hum=48".getBytes(UTF_8));
+        assertEquals(new BigDecimal("21.5"), ByteDecimals.parseDecimal(buf, 5, 9));
+        assertEquals(48L, ByteDecimals.parseLong(buf, 14, 16));
+    }
+
+    /**
+     * Test that invalid decimal numbers are rejected.
+     */
+    @Test
+    public void testInvalidDecimal() {
+        assertNull(decimal(""));
+        assertNull(decimal("-"));
+        assertNull(decimal("."));
+        assertNull(decimal("1.2.3"));
+        assertNull(decimal("1e"));
+        assertNull(decimal("1e1001"));
+        assertNull(decimal("e5"));
+        assertNull(decimal("12a"));
+        assertNull(decimal("NaN"));
+        assertNull(decimal("1234567890123456789x"));
+    }
+
+    /**
+     * Test parsing of long integers.
+     */
+    @Test
+    public void testParseLong() {
+        assertEquals(0L, parseLong("0"));
+        assertEquals(1600000000123L, parseLong("1600000000123"));
+        assertEquals(-5L, parseLong("-5"));
+        assertEquals(5L, parseLong("+5"));
+        assertEquals(Long.MAX_VALUE, parseLong("9223372036854775807"));
+        assertEquals(-Long.MAX_VALUE, parseLong("-9223372036854775807"));
+    }
+
+    /**
+     * Test that invalid long integers are rejected.
+     */
+    @Test
+    public void testInvalidLong() {
+        assertEquals(Long.MIN_VALUE, parseLong(""));
+        assertEquals(Long.MIN_VALUE, parseLong("-"));
+        assertEquals(Long.MIN_VALUE, parseLong("1.5"));
+        assertEquals(Long.MIN_VALUE, parseLong("12i"));
+        assertEquals(Long.MIN_VALUE, parseLong("9223372036854775808"));
+    }
+
+    private static BigDecimal decimal(String str) {
+        byte[] bytes = str.getBytes(UTF_8);
+        return ByteDecimals.parseDecimal(ByteBuffer.wrap(bytes), 0, bytes.length);
+    }
+
+    private static long parseLong(String str) {
+        byte[] bytes = str.getBytes(UTF_8);
+        return ByteDecimals.parseLong(ByteBuffer.wrap(bytes), 0, bytes.length);
+    }
+
+}
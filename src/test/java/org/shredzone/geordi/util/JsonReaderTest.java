@@ -0,0 +1,191 @@
+/*
+ * geordi
+ *
+ * Copyright (C) 2020 Richard "Shred" Körber
+ *   https://codeberg.org/shred/geordi
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.
+ */
+package org.shredzone.geordi.util;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.io.IOException;
+import java.io.Reader;
+import java.io.StringReader;
+import java.math.BigDecimal;
+
+import org.junit.jupiter.api.Test;
+
+/**
+ * Unit tests for {@link JsonReader}.
+ */
+public class JsonReaderTest {
+
+    /**
+     * Test reading a document with all kinds of values.
+     */
+    @Test
+    public void testRead() throws IOException {
+        String doc = "{\"str\": \"a\\\"b\\\\c\\n\\u00e4\", \"int\": -42, \"dec\": 1.5e3,"
+                + " \"strnum\": \"12.30\", \"yes\": true, \"no\": false, \"nil\": null,"
+                + " \"arr\": [1, \"two\", {\"three\": 3}], \"obj\": {}}";
+
+        try (JsonReader json = new JsonReader(new StringReader(doc))) {
+            json.beginObject();
+
+            assertEquals("str", json.nextName());
+            assertEquals("a\"b\\c\nä", json.nextString());
+
+            assertEquals("int", json.nextName());
+            assertEquals(JsonReader.Token.NUMBER, json.peek());
+            assertEquals(-42L, json.nextLong());
+
+            assertEquals("dec", json.nextName());
+            assertEquals(new BigDecimal("1.5e3"), json.nextDecimal());
+
+            assertEquals("strnum", json.nextName());
+            assertEquals(new BigDecimal("12.30"), json.nextDecimal());
+
+            assertEquals("yes", json.nextName());
+            assertEquals("true", json.nextString());
+
+            assertEquals("no", json.nextName());
+            assertNull(json.nextDecimal());
+
+            assertEquals("nil", json.nextName());
+            assertNull(json.nextString());
+
+            assertEquals("arr", json.nextName());
+            json.beginArray();
+            assertEquals(1L, json.nextLong());
+            assertNull(json.nextDecimal());
+            assertEquals(JsonReader.Token.BEGIN_OBJECT, json.peek());
+            json.skipValue();
+            assertFalse(json.hasNext());
+            json.endArray();
+
+            assertEquals("obj", json.nextName());
+            assertNull(json.nextDecimal());
+
+            assertFalse(json.hasNext());
+            json.endObject();
+            assertEquals(JsonReader.Token.END_DOCUMENT, json.peek());
+        }
+    }
+
+    /**
+     * Test skipping nested values.
+     */
+    @Test
+    public void testSkipValue() throws IOException {
+        String doc = "{\"skip\": {\"a\": [1, [2, {\"b\": \"]}\"}]], \"c\": {}}, \"value\": 7}";
+
+        try (JsonReader json = new JsonReader(new StringReader(doc))) {
+            json.beginObject();
+            assertEquals("skip", json.nextName());
+            json.skipValue();
+            assertEquals("value", json.nextName());
+            assertEquals(7L, json.nextLong());
+            json.endObject();
+        }
+    }
+
+    /**
+     * Test that tokens crossing the input buffer, and values exceeding the value buffer,
+     * are read correctly.
+     */
+    @Test
+    public void testLongValues() throws IOException {
+        StringBuilder digits = new StringBuilder("1.");
+        StringBuilder text = new StringBuilder();
+        for (int ix = 0; ix < 10000; ix++) {
+            digits.append(ix % 10);
+            text.append((char) ('a' + ix % 26));
+        }
+        String doc = "[\"" + text + "\", " + digits + ", " + digits + "]";
+
+        // Read the document in small, odd chunks
+        try (JsonReader json = new JsonReader(new ChunkedReader(doc, 7))) {
+            json.beginArray();
+            assertEquals(text.toString(), json.nextString());
+            assertEquals(new BigDecimal(digits.toString()), json.nextDecimal());
+            assertEquals(new BigDecimal(digits.toString()), json.nextDecimal());
+            assertFalse(json.hasNext());
+            json.endArray();
+        }
+    }
+
+    /**
+     * Test that malformed documents are rejected.
+     */
+    @Test
+    public void testErrors() throws IOException {
+        try (JsonReader json = new JsonReader(new StringReader("{\"unterminated"))) {
+            json.beginObject();
+            assertThrows(IOException.class, json::nextName);
+        }
+
+        try (JsonReader json = new JsonReader(new StringReader("[nope]"))) {
+            json.beginArray();
+            assertThrows(IOException.class, json::peek);
+        }
+
+        try (JsonReader json = new JsonReader(new StringReader("[\"\\u00zz\"]"))) {
+            json.beginArray();
+            assertThrows(IOException.class, json::nextString);
+        }
+
+        try (JsonReader json = new JsonReader(new StringReader("[1]"))) {
+            assertThrows(IOException.class, json::beginObject);
+        }
+
+        try (JsonReader json = new JsonReader(new StringReader("[\"x\", {}]"))) {
+            json.beginArray();
+            assertThrows(IOException.class, json::nextLong);
+            assertTrue(json.hasNext());
+            assertThrows(IOException.class, json::nextString);
+        }
+
+        try (JsonReader json = new JsonReader(new StringReader("{\"a\": [1, 2"))) {
+            json.beginObject();
+            json.nextName();
+            assertThrows(IOException.class, json::skipValue);
+        }
+    }
+
+    /**
+     * A {@link Reader} that returns at most a given number of characters per read.
+     */
+    private static class ChunkedReader extends Reader {
+        private final StringReader in;
+        private final int chunk;
+
+        public ChunkedReader(String str, int chunk) {
+            this.in = new StringReader(str);
+            this.chunk = chunk;
+        }
+
+        @Override
+        public int read(char[] cbuf, int off, int len) throws IOException {
+            return in.read(cbuf, off, Math.min(len, chunk));
+        }
+
+        @Override
+        public void close() {
+            in.close();
+        }
+    }
+
+}
@@ -0,0 +1,179 @@
+/*
+ * geordi
+ *
+ * Copyright (C) 2020 Richard "Shred" Körber
+ *   https://codeberg.org/shred/geordi
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.
+ */
+package org.shredzone.geordi.util;
+
+import static java.nio.charset.StandardCharsets.UTF_8;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.math.BigDecimal;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.URL;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicReference;
+
+import javax.xml.stream.XMLStreamException;
+
+import com.sun.net.httpserver.HttpServer;
+import org.junit.jupiter.api.Test;
+
+/**
+ * Unit tests for {@link XmlRpc}.
+ */
+public class XmlRpcTest {
+
+    /**
+     * Test that all value types of a method call are parsed.
+     */
+    @Test
+    public void testParseCall() throws XMLStreamException {
+        String xml = "<?xml version=\"1.0\" encoding=\"UTF-8\"?>"
+                + "<methodCall><methodName> event </methodName><params>"
+                + "<param><value>geordi-1-BidCos-RF</value></param>"
+                + "<param><value><string>Küche:1</string></value></param>"
+                + "<param><value><i4>42</i4></value></param>"
+                + "<param><value><int>-7</int></value></param>"
+                + "<param><value><i8>8589934592</i8></value></param>"
+                + "<param><value><double>21.50</double></value></param>"
+                + "<param><value><boolean>1</boolean></value></param>"
+                + "<param><value><array><data>"
+                + "<value><i4>1</i4></value><value>two</value>"
+                + "</data></array></value></param>"
+                + "<param><value><struct>"
+                + "<member><name>methodName</name><value>event</value></member>"
+                + "<member><name>params</name><value><array><data></data></array></value></member>"
+                + "</struct></value></param>"
+                + "</params></methodCall>";
+
+        XmlRpc.MethodCall call = XmlRpc.parseCall(new ByteArrayInputStream(xml.getBytes(UTF_8)));
+
+        assertEquals("event", call.getMethodName());
+
+        List<Object> params = call.getParams();
+        assertEquals(9, params.size());
+        assertEquals("geordi-1-BidCos-RF", params.get(0));
+        assertEquals("Küche:1", params.get(1));
+        assertEquals(42, params.get(2));
+        assertEquals(-7, params.get(3));
+        assertEquals(8589934592L, params.get(4));
+        assertEquals(new BigDecimal("21.50"), params.get(5));
+        assertEquals(Boolean.TRUE, params.get(6));
+        assertEquals(Arrays.asList(1, "two"), params.get(7));
+
+        Map<String, Object> struct = new LinkedHashMap<>();
+        struct.put("methodName", "event");
+        struct.put("params", Collections.emptyList());
+        assertEquals(struct, params.get(8));
+    }
+
+    /**
+     * Test that a method call without method name is rejected.
+     */
+    @Test
+    public void testParseCallWithoutMethodName() {
+        String xml = "<?xml version=\"1.0\"?><methodCall><params/></methodCall>";
+        assertThrows(XMLStreamException.class,
+                () -> XmlRpc.parseCall(new ByteArrayInputStream(xml.getBytes(UTF_8))));
+    }
+
+    /**
+     * Test that responses are written in UTF-8, with declared encoding and typed values.
+     */
+    @Test
+    public void testWriteResponse() throws IOException {
+        Map<String, Object> struct = new LinkedHashMap<>();
+        struct.put("a<b", "Küche & Bad");
+        struct.put("long", 8589934592L);
+        struct.put("int", 5);
+        struct.put("double", new BigDecimal("1.5"));
+        struct.put("bool", false);
+
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        XmlRpc.writeResponse(out, Arrays.asList(struct, Collections.emptyList()));
+
+        assertEquals("<?xml version=\"1.0\" encoding=\"UTF-8\"?>"
+                + "<methodResponse><params><param><value><array><data>"
+                + "<value><struct>"
+                + "<member><name>a&lt;b</name><value><string>Küche &amp; Bad</string></value></member>"
+                + "<member><name>long</name><value><i8>8589934592</i8></value></member>"
+                + "<member><name>int</name><value><i4>5</i4></value></member>"
+                + "<member><name>double</name><value><double>1.5</double></value></member>"
+                + "<member><name>bool</name><value><boolean>0</boolean></value></member>"
+                + "</struct></value>"
+                + "<value><array><data></data></array></value>"
+                + "</data></array></value></param></params></methodResponse>",
+                new String(out.toByteArray(), UTF_8));
+    }
+
+    /**
+     * Test that a call is sent as UTF-8, and that a fault is reported.
+     */
+    @Test
+    public void testCall() throws IOException {
+        AtomicReference<String> contentType = new AtomicReference<>();
+        AtomicReference<XmlRpc.MethodCall> received = new AtomicReference<>();
+
+        HttpServer server = HttpServer.create(new InetSocketAddress(InetAddress.getLoopbackAddress(), 0), 0);
+        server.createContext("/", exchange -> {
+            contentType.set(exchange.getRequestHeaders().getFirst("Content-Type"));
+            try (InputStream in = exchange.getRequestBody()) {
+                received.set(XmlRpc.parseCall(in));
+            } catch (XMLStreamException ex) {
+                throw new IOException(ex);
+            }
+
+            String fault = "Unknown".equals(received.get().getMethodName())
+                    ? "<fault><value><struct><member><name>faultString</name>"
+                            + "<value>Unknown method</value></member></struct></value></fault>"
+                    : "<params><param><value></value></param></params>";
+            byte[] body = ("<?xml version=\"1.0\"?><methodResponse>" + fault + "</methodResponse>")
+                    .getBytes(UTF_8);
+            exchange.sendResponseHeaders(200, body.length);
+            try (OutputStream out = exchange.getResponseBody()) {
+                out.write(body);
+            }
+        });
+        server.start();
+
+        try {
+            URL url = new URL("http://127.0.0.1:" + server.getAddress().getPort() + "/");
+
+            XmlRpc.call(url, "init", "http://geordi:9292/", "Küche", 8589934592L);
+
+            assertEquals(XmlRpc.getContentType(), contentType.get());
+            assertEquals("init", received.get().getMethodName());
+            assertEquals(Arrays.asList("http://geordi:9292/", "Küche", 8589934592L),
+                    received.get().getParams());
+
+            IOException ex = assertThrows(IOException.class, () -> XmlRpc.call(url, "Unknown"));
+            assertTrue(ex.getMessage().contains("Unknown method"));
+        } finally {
+            server.stop(0);
+        }
+    }
+
+}